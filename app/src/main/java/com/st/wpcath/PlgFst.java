@@ -27,8 +27,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import com.st.libsec.AppLib;
+import com.st.libsec.AthChk;
 import com.st.libsec.Dbg;
+import com.st.libsec.LogLst;
 import com.st.libsec.SafFkt;
+import com.st.libsec.VerRes;
 import com.st.libsec.WpcAthIni;
 import com.st.libsec.WpcAthRsp;
 import com.st.libsec.WpcCrt;
@@ -96,32 +99,46 @@ public class PlgFst extends ListFragment {
                 WpcLog.begLog("Verify Qi Authentication");                                          // Start logging of this check
                 WpcLog.logCmt("Certificate: " + mChn.toString());                                   // Log success
                 try {
-                    final byte[] req = getMsg(R.id.spn_req, 0x1B);                                  // Read the CHALLENGE Request
+                    final byte[] req = getMsg(R.id.spn_req);                                        // Read the CHALLENGE Request
                     final byte[] rnd = Arrays.copyOfRange(req, WpcAthIni.OFS_RND, WpcAthIni.OFS_RND + WpcAthIni.RND_SIZ);
                     WpcLog.logCmt(Dbg.hexStr("Nonce", rnd));                                        // Show nonce of CHALLENGE Request
-                    final byte[] res = getMsg(R.id.spn_res, 0x13);                                  // Read the CHALLENGE_AUTH Response
-                    if (res[1] != 0x11) {                                                           // Wrong version or message type
-                        WpcLog.logErr("Wrong maximum version or Slots Populated Mask");             // Log error
-                        throw new IOException();                                                    // Generate error
-                    }
-                    WpcLog.logCmt("Correct maximum version and Slots Populated Mask");              // Log correct message type
+                    final byte[] res = getMsg(R.id.spn_res);                                        // Read the CHALLENGE_AUTH Response
                     final byte[] dig = mChn.getDig();                                               // Get Certificate Chain Hash
-                    if (res[2] != dig[WpcKey.DIG_SIZ - 1]) {                                        // Wrong Certificate Chain Hash LSB
-                        WpcLog.logErr("Wrong Certificate Chain Hash LSB");                          // Log error
+                    final @NonNull VerRes hdr = AthChk.chkHdr(req, res, dig);                       // Check the message headers
+                    if (!hdr.isOk()) {                                                              // Wrong message header?
+                        WpcLog.logErr(getErr(hdr));                                                 // Log error
                         throw new IOException();                                                    // Generate error
                     }
+                    WpcLog.logCmt("Correct version and Message Type");                              // Log success
+                    WpcLog.logCmt("Correct maximum version and Slots Populated Mask");              // Log correct Slots Populated Mask
                     WpcLog.logCmt("Correct Certificate Chain Hash LSB");                            // Log correct WPC Device type
                     final byte[] ath = Arrays.copyOfRange(res, 0, WpcAthRsp.LEN_ATH);               // Get the CHALLENGE_AUTH Response header
                     final byte[] sig = Arrays.copyOfRange(res, WpcAthRsp.LEN_ATH, res.length);      // Get the signature from the CHALLENGE_AUTH Response
-                    SafFkt.verSig(WpcAthRsp.getSigDig(dig, req, ath), sig, mChn.getPu().getPublicKey());// Verification of the signature
-                    WpcLog.logCmt("Correct signature");                                             // Log success
+                    final byte[] sd = WpcAthRsp.getSigDig(dig, req, ath);                           // Get the digest of the signed data
+                    if (SafFkt.chkSig(sd, sig, mChn.getPu().getPublicKey()).isOk()) {               // Verification of the signature
+                        WpcLog.logCmt("Correct signature");                                         // Log success
+                    } else {                                                                        // Wrong signature
+                        WpcLog.logErr("Wrong signature");                                           // Log wrong signature
+                    }
                 } catch(IOException err) {                                                          // An error occurred
                     WpcLog.logErr("Wrong Qi Authentication message");                               // Log the unsuccessful Qi Authentication
-                } catch(GeneralSecurityException err) {                                             // An error occurred
-                    WpcLog.logErr("Wrong signature");                                               // Log wrong signature
                 }
             }
-            WpcLog.endLog(PlgFst.this, new File(mDir, mLog));                                       // Log Successful Qi Authentication
+            LogLst.endLog(PlgFst.this, new File(mDir, mLog));                                       // Log Successful Qi Authentication
+        }
+
+        /**
+         * Returns the error description of a wrong CHALLENGE / CHALLENGE_AUTH header
+         *
+         * @param   hdr The result of the header check
+         * @return  The error description
+         */
+        private @NonNull String getErr(@NonNull VerRes hdr) {
+            switch (hdr) {                                                                          // Analyze the result of the header check
+                case ERR_MSG: return "Wrong version or Message Type";                               // Wrong message header
+                case ERR_SLT: return "Wrong maximum version or Slots Populated Mask";               // Wrong Slots Populated Mask
+                default: return "Wrong Certificate Chain Hash LSB";                                 // Wrong Certificate Chain Hash LSB
+            }
         }
 
         /**
@@ -131,7 +148,7 @@ public class PlgFst extends ListFragment {
          * @return  The Qi Authentication message
          * @throws  IOException in case the Qi Authentication message cannot be read from the text file
          */
-        private @NonNull byte[] getMsg(@IdRes int spn, int typ) throws IOException{
+        private @NonNull byte[] getMsg(@IdRes int spn) throws IOException{
             //noinspection ConstantConditions                                                       // The layout of the virtual plugfest fragment will be always available
             Spinner sel = getView().findViewById(spn);                                              // Get the spinner for the message
             String nam = (String)((TextView)sel.getSelectedView()).getText();                       // Get the name of the message file
@@ -146,11 +163,6 @@ public class PlgFst extends ListFragment {
                 throw err;                                                                          // Generate error
             }
             WpcLog.logCmt(nam + " is read.");                                                       // Log time to read file
-            if (msg[0] != typ) {                                                                    // Wrong version or message type
-                WpcLog.logErr("Wrong version or Message Type");                                     // Log error
-                throw new IOException();                                                            // Generate error
-            }
-            WpcLog.logCmt("Correct version and Message Type");                                      // Log success
             return msg;                                                                             // Return the Qi Authentication message
         }
     }
@@ -257,7 +269,7 @@ public class PlgFst extends ListFragment {
                 verCrt(lst);                                                                        // Verify the WPC Certificate chain
                 mLog = dir;                                                                         // Set proposed log file name for manufacturer certificate chain log
             }
-            WpcLog.endLog(PlgFst.this, new File(mDir, mLog));                                       // Stop logging
+            LogLst.endLog(PlgFst.this, new File(mDir, mLog));                                       // Stop logging
             setSpn(R.id.spn_req, req);                                                              // Set the spinner for CHALLENGE Request
             setSpn(R.id.spn_res, res);                                                              // Set the spinner for CHALLENGE_AUTH Response
         }
@@ -10,6 +10,7 @@ import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.Spinner;
 
+import com.st.libsec.CachBtn;
 import com.st.libsec.WpcAthIni;
 import com.st.libsec.WpcPrx;
 
@@ -86,7 +87,7 @@ public class PrxFrg extends ListFragment implements AdapterView.OnItemSelectedLi
     @Override public void onResume() {
         super.onResume();                                                                           // Mandatory call of standard routine
         WpcPrx.sFrg = this;                                                                         // Register this fragment at the Qi Authentication application
-        WpcPrx.sCach.regCachBtn(mBtn);                                                              // Register the Clear cache button
+        CachBtn.regCachBtn(WpcPrx.sCach, mBtn);                                                     // Register the Clear cache button
         Thread.currentThread().setPriority(Thread.MAX_PRIORITY);                                    // Set UI thread set to maximum priority
     }
 
@@ -97,7 +98,7 @@ public class PrxFrg extends ListFragment implements AdapterView.OnItemSelectedLi
         super.onPause();                                                                            // Mandatory call of standard routine
         Thread.currentThread().setPriority(Thread.MIN_PRIORITY);                                    // Set Background set to minimum priority
         WpcPrx.sFrg = null;                                                                         // De-register this fragment at the Qi Authentication application
-        WpcPrx.sCach.regCachBtn(null);                                                              // Deregister the Clear cache button
+        CachBtn.regCachBtn(WpcPrx.sCach, null);                                                     // Deregister the Clear cache button
     }
 
     /**
@@ -117,6 +118,6 @@ public class PrxFrg extends ListFragment implements AdapterView.OnItemSelectedLi
         view.findViewById(R.id.btn_mod).setOnClickListener(this);                                   // Register listener for mode button
         view.findViewById(R.id.btn_test).setOnClickListener(new PtxFrg.TestBtnLst(act));            // Register listener for the plugfest button
         mBtn = view.findViewById(R.id.btn_cach);                                                    // Get the Clear cache button
-        WpcPrx.sCach.setCachBtnLst(mBtn);                                                           // Configure the Clear cache button
+        CachBtn.setCachBtnLst(WpcPrx.sCach, mBtn);                                                  // Configure the Clear cache button
     }
 }
\ No newline at end of file
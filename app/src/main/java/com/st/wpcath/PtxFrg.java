@@ -2,6 +2,8 @@ package com.st.wpcath;
 
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
 import android.support.annotation.NonNull;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentTransaction;
@@ -15,10 +17,10 @@ import android.widget.Button;
 import android.widget.Spinner;
 
 import com.st.libsec.Dbg;
+import com.st.libsec.KeyRng;
+import com.st.libsec.SesExe;
+import com.st.libsec.WpcAthIni;
 import com.st.libsec.WpcCrt;
-import com.st.libsec.WpcCrtChn;
-import com.st.libsec.WpcFil;
-import com.st.libsec.WpcKey;
 import com.st.libsec.WpcPtx;
 
 import java.io.File;
@@ -47,6 +49,87 @@ import java.util.ArrayList;
 public class PtxFrg extends ListFragment implements AdapterView.OnItemSelectedListener, View.OnClickListener  {
 
     static String sName;                                                                            // Actual adjusted device name
+    private static volatile KeyRng sRng;                                                            // Keyring with the preloaded emulated devices
+    private static volatile long sStp;                                                              // Time stamp of the emulation directory of the keyring
+
+    /**
+     * Loader for the keyring of the emulated devices
+     * The keyring is loaded in the background and loaded again when the emulation directory was changed.
+     */
+    private static class RngLod implements Runnable, Handler.Callback {
+
+        private final @NonNull File     mDir;                                                       // Emulation directory
+        private final @NonNull Spinner  mSpn;                                                       // Spinner for the emulated PTx device
+        private final @NonNull Handler  mHnd;                                                       // Handler for the loaded keyring
+
+        /**
+         * Initialise the loader for the keyring
+         *
+         * @param dir   The emulation directory
+         * @param spn   The spinner for the emulated PTx device
+         */
+        private RngLod(final @NonNull File dir, final @NonNull Spinner spn) {
+            mDir = dir;                                                                             // Remember the emulation directory
+            mSpn = spn;                                                                             // Remember the spinner
+            mHnd = new Handler(this);                                                               // Generate the handler for the loaded keyring
+        }
+
+        /**
+         * Loads the keyring if not yet loaded or if the emulation directory was changed
+         */
+        @Override public void run() {
+            final long stp = getStp(mDir);                                                          // Get the time stamp of the emulation directory
+            if ((sRng == null) || (stp != sStp)) {                                                  // Keyring not loaded or directory changed?
+                try {
+                    sRng = KeyRng.load(mDir);                                                       // Load all emulated devices
+                    sStp = stp;                                                                     // Remember the loaded directory state
+                } catch (IOException err) {                                                         // Directory not readable
+                    Dbg.log("Cannot load devices", err);                                            // Log error
+                }
+            }
+            final KeyRng rng = sRng;                                                                // Get the actual keyring
+            final @NonNull ArrayList<String> lst = new ArrayList<>();                               // Create device list
+            if (rng != null) {                                                                      // Keyring available?
+                lst.addAll(rng.getNames());                                                         // Add the devices to the emulated Ptx spinner list
+            }
+            mHnd.sendMessage(mHnd.obtainMessage(0, lst));                                           // Send the device list to the handler
+        }
+
+        /**
+         * Called when the device list is loaded
+         *
+         * @param   msg Handler message with the device list
+         * @return  true to indicate that this event was processed
+         */
+        @Override public boolean handleMessage(Message msg) {
+            @SuppressWarnings("unchecked") final @NonNull ArrayList<String> lst = (ArrayList<String>)msg.obj;// Get the device list
+            final @NonNull ArrayAdapter<String> apt;                                                // Adapter for the devices
+            apt = new ArrayAdapter<>(mSpn.getContext(), android.R.layout.simple_spinner_item, lst); // Create adapter for the devices
+            apt.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);             // Set layout for the PTx device spinner drop down menu
+            mSpn.setAdapter(apt);                                                                   // Register the menu for the PTx device spinner
+            final int pos = lst.indexOf(sName);                                                     // Get the position of the actual device
+            mSpn.setSelection(Math.max(pos, 0));                                                    // Set the spinner to the actual device
+            return true;                                                                            // Inform that this event was processed
+        }
+
+        /**
+         * Returns the time stamp of the emulation directory
+         * The time stamp changes when a file is added, removed or modified.
+         *
+         * @param dir   The emulation directory
+         * @return      The time stamp
+         */
+        private static long getStp(final @NonNull File dir) {
+            long stp = dir.lastModified();                                                          // Start with the time stamp of the directory
+            final File[] lst = dir.listFiles();                                                     // Get all files of the directory
+            if (lst != null) {                                                                      // Directory readable?
+                for (File itm : lst) {                                                              // Repeat for all files
+                    stp = 31 * stp + itm.lastModified() + itm.length();                             // Add the state of the file
+                }
+            }
+            return stp;                                                                             // Return the time stamp
+        }
+    }
 
     /**
      * Listener for the plugfest button
@@ -113,15 +196,17 @@ public class PtxFrg extends ListFragment implements AdapterView.OnItemSelectedLi
      */
     @Override public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
         sName = (String)parent.getAdapter().getItem(position);                                      // Get the emulated PTx device name
-        //noinspection ConstantConditions                                                           // Activity will be at this method always available
-        final @NonNull File dir = new File(getContext().getExternalFilesDir(null), WpcPtx.DIR_EMU); // Get directory for Qi Authentication plugfest
-        try {
-            WpcPtx.sChn = new WpcCrtChn(new WpcFil(dir, sName + WpcCrtChn.EXT_CHN).read());         // Load WPC certificate chain of the device
-            WpcPtx.sPrv = WpcKey.getPrvKey(new WpcFil(dir, sName + WpcCrt.EXT_PRV).read());         // Load the private key of the device
-        } catch(IOException err) {                                                                  // Error occurred
-            Dbg.log("Cannot load device", err);                                                     // Log error
+        final KeyRng rng = sRng;                                                                    // Get the actual keyring
+        final KeyRng.Dev dev = (rng != null) ? rng.get(sName) : null;                               // Get the preloaded device
+        if (dev == null) {                                                                          // Device not available?
+            return;
+        }
+        WpcPtx.sChn = dev.getChn(0);                                                                // Set WPC certificate chain of the device
+        WpcPtx.sPrv = dev.getPrv(0);                                                                // Set the private key of the device
+        for (int slt = 1; slt < WpcAthIni.SLOT_CNT; slt++) {                                        // Repeat for the additional slots
+            WpcPtx.sSltChn[slt] = dev.getChn(slt);                                                  // Set WPC certificate chain of the slot
+            WpcPtx.sSltPrv[slt] = dev.getPrv(slt);                                                  // Set the private key of the slot
         }
-
     }
 
     /**
@@ -143,25 +228,10 @@ public class PtxFrg extends ListFragment implements AdapterView.OnItemSelectedLi
         //noinspection ConstantConditions                                                           // Activity will be at this method always available
         final @NonNull WpcAthAct act = (WpcAthAct)getActivity();                                    // Get the main activity
         act.setTit(R.string.emu_ptx);                                                               // Set title of fragment
-        final @NonNull File dir = new File(act.getExternalFilesDir(null), WpcPtx.DIR_EMU);          // Get directory for Qi Authentication plugfest
-        final @NonNull ArrayList<String> list = new ArrayList<>();                                  // Create device list
-        for (File file : dir.listFiles()) {                                                         // Repeat for all files
-            String name = file.getName();                                                           // Get the file name
-            int ind = name.indexOf(WpcCrtChn.EXT_CHN);                                              // Search for WPC chain files
-            if (ind > 0) {                                                                          // WPC chain file found?
-                String dev = name.substring(0, ind);                                                // Get device name
-                if (new File(dir, dev + WpcCrt.EXT_PRV).exists()) {                                 // Exists the corresponding private key file?
-                    list.add(dev);                                                                  // Add the device to the emulated Ptx spinner list
-                }
-            }
-        }
-        final @NonNull ArrayAdapter<String> apt;                                                    // Adapter for subdirectories
-        apt = new ArrayAdapter<>(act, android.R.layout.simple_spinner_item, list);                  // Create adapter for subdirectories
-        apt.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);                 // Set layout for the PRx device spinner drop down menu
+            final @NonNull File dir = new File(act.getExternalFilesDir(null), WpcCrt.DIR_EMU);      // Get directory for Qi Authentication plugfest
         final @NonNull Spinner spn = view.findViewById(R.id.spn_dev);                               // Get spinner for emulated PTx device
-        spn.setAdapter(apt);                                                                        // Register the menu for the PRx device spinner
         spn.setOnItemSelectedListener(this);                                                        // Register Listener for new selected item
-        spn.setSelection(0);                                                                        // Set the spinner to the actual set PRx
+        SesExe.bkg(new RngLod(dir, spn));                                                           // Load the emulated devices in the background
         final @NonNull Button btn = view.findViewById(R.id.btn_mod);                                // Get the mode button
         if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)) {                                // At least Kitkat phone?
             btn.setOnClickListener(this);                                                           // Register listener for mode button
@@ -19,9 +19,11 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.st.libsec.AndLib;
 import com.st.libsec.AppLib;
 import com.st.libsec.Dbg;
 import com.st.libsec.NfcLib;
+import com.st.libsec.SesExe;
 import com.st.libsec.WpcCrt;
 import com.st.libsec.WpcLog;
 import com.st.libsec.WpcPrx;
@@ -120,7 +122,7 @@ public class WpcAthAct extends AppCompatActivity {
             }
         }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {                                  // Need the WPx emulation been switched??
-            AppLib.enableComponent(this, WpcPrx.class, !mPtx);                                      // Enable/disable WPx emulation
+            AndLib.enableComponent(this, WpcPrx.class, !mPtx);                                      // Enable/disable WPx emulation
         }
         final FragmentTransaction ft = getSupportFragmentManager().beginTransaction();              // Create Fragment transaction
         if (chg) {                                                                                  // Exchange the fragment?
@@ -140,7 +142,7 @@ public class WpcAthAct extends AppCompatActivity {
     private void copyAssets(String name) {
         final @NonNull File dir = new File(getExternalFilesDir(null), name);                        // Get external app directory for asset files
         if (!dir.exists()) {                                                                        // Does the external app directory not exist?
-            AppLib.copyAssets(name, name, getAssets(), dir);                                        // Copy all asset files into the external app directory
+            AndLib.copyAssets(name, name, getAssets(), dir);                                        // Copy all asset files into the external app directory
         }
 
     }
@@ -170,12 +172,12 @@ public class WpcAthAct extends AppCompatActivity {
         } else {                                                                                    // NFC controller is available
             chgFrg(false, Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT);                      // Set default emulation mode
         }
-        final String app = Dbg.getApp(this, BuildConfig.VERSION_NAME, false);                       // Get app description
+        final String app = AndLib.getApp(this, BuildConfig.VERSION_NAME, false);                    // Get app description
         final String bld = Dbg.getBld(BuildConfig.VERSION_CODE, BuildConfig.TIM);                   // Get build information
         WpcLog.init(app, bld);                                                                      // Initialize WPC logger
-        copyAssets(WpcPtx.DIR_EMU);                                                                 // Copy all emulation assets files
+        copyAssets(WpcCrt.DIR_EMU);                                                                 // Copy all emulation assets files
         copyAssets(PlgFst.DIR_PF);                                                                  // Copy all plugfest assets files
-        WpcCrt.init(this, PlgFst.DIR_RT + File.separator);                                          // Initialize WPC Root Certificate
+        AndLib.init(this, PlgFst.DIR_RT + File.separator);                                          // Initialize WPC Root Certificate
     }
 
     /**
@@ -201,7 +203,7 @@ public class WpcAthAct extends AppCompatActivity {
         super.onPause();                                                                            // Mandatory call of the parent method
         NfcLib.disableNFCFgd(this);                                                                 // Disable all NFC events for this Discover NFC activity
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {                                  // Kitkat or newer phone?
-            AppLib.enableComponent(this, WpcPrx.class, true);                                       // Enable WPx emulation
+            AndLib.enableComponent(this, WpcPrx.class, true);                                       // Enable WPx emulation
         }
     }
 
@@ -213,7 +215,7 @@ public class WpcAthAct extends AppCompatActivity {
         super.onResume();                                                                           // Mandatory call of the parent method
         NfcLib.enableNFCFgd(this);                                                                  // Enable all NFC events for this activity
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {                                  // Kitkat or newer phone?
-            AppLib.enableComponent(this, WpcPrx.class, !mPtx);                                      // Enable/disable WPx emulation
+            AndLib.enableComponent(this, WpcPrx.class, !mPtx);                                      // Enable/disable WPx emulation
         }
     }
 
@@ -227,8 +229,8 @@ public class WpcAthAct extends AppCompatActivity {
             Dbg.log("No tag detected!");                                                            // Log error event
         } else {                                                                                    // Tag was detected
             if (NfcLib.hasTech(tag, IsoDep.class)) {                                                // Tag support ISO-DEP?
-                final @NonNull File dir = new File(getExternalFilesDir(null), WpcPtx.DIR_EMU);      // Get the emulation directory
-                new WpcPtx(tag, mFrg, new File(dir, PtxFrg.sName)).start();                         // Start the communication to authenticate PTx device
+                final @NonNull File dir = new File(getExternalFilesDir(null), WpcCrt.DIR_EMU);      // Get the emulation directory
+                SesExe.crt(new WpcPtx(tag, mFrg, new File(dir, PtxFrg.sName)));                     // Start the communication to authenticate PTx device
             } else {                                                                                // Another NFC protocol is used
                 Dbg.log("Wrong NFC protocol detected!");                                            // Log error
             }
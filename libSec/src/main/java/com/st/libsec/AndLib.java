@@ -6,10 +6,13 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
+import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.AttrRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.StringRes;
+import android.util.Log;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -23,10 +26,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.Charset;
 
 /**
- * Generic library class for apps
+ * Android adapter of the Qi Authentication library
+ * Connects the platform independent libsec-core with the Android log and the app resources and provides the generic
+ * Android functions for apps.
  *
  * Copyright 2019 STMicroelectronics Application GmbH
  *
@@ -44,69 +48,72 @@ import java.nio.charset.Charset;
  *
  * @author Jürgen Böhler
  */
-public class AppLib {
+public class AndLib {
 
-    /** Base number for hex integer */
-    public static final int BAS_HEX = 16;
-
-    /** Number of bits per byte */
-    public static final int BIT_BYT = 8;
-
-    /** Size of a byte value in number of bytes */
-    public static final int BYT_SIZ = 1;
-
-    /** Mask to convert a byte into an unsigned integer */
-    public  static final int BYT_UNS = 0xFF;
-
-    /** US-ASCII charset (7-bit: 128 chars: 33 not printable + 95 printable) */
-    public static final Charset CHR_ASC = Charset.forName("US-ASCII");
-
-    /** ISO-8859-1 charset (8-bit: 256 chars: US-ASCII + 96 additional printable chars) */
-    public static final Charset CHR_ISO = Charset.forName("ISO-8859-1");
-
-    /** Empty byte array */
-    public static final byte[] NO_BA = {};
+    private static final int    BUF_SIZ = 1024;                                                     // File buffer size [byte]
 
-    /** Empty String */
-    public static final String NO_STR = "";
+    /**
+     * Output of the debug messages into the Android log
+     */
+    private static class LogOut implements Dbg.Out {
 
-    /** Display option for action bar for standard configuration */
-    public static final int OPT_STD = 0;
+        /**
+         * Logs a debug message
+         *
+         * @param   tag The calling method
+         * @param   msg The debug message
+         */
+        @Override public void log(@NonNull String tag, @NonNull String msg) {
+            Log.d(tag, msg);                                                                        // Log the debug message
+        }
 
-    /** Size of a short value in number of bytes */
-    public static final int SHT_SIZ = 2;
+        /**
+         * Logs an error message
+         *
+         * @param   tag The calling method
+         * @param   msg The error message
+         * @param   err The error which shall be logged
+         */
+        @Override public void log(@NonNull String tag, String msg, Throwable err) {
+            Log.e(tag, msg, err);                                                                   // Log the error message
+        }
+    }
 
-    /** Mask to convert a short into an unsigned integer */
-    public static final int SHT_UNS = 0xFFFF;
+    /**
+     * Texts of the library from the app resources
+     */
+    private static class ResTxt implements LibTxt {
 
-    /** Tabulator character */
-    public static final char TAB = '\t';
+        private final @NonNull Resources mRes;                                                      // The app resources
 
-    private static final byte[] TABLE   = {                                                         // Character conversion table
-            0x2E, 0x51, 0x51, 0x56, 0x7F, 0x26, 0x41, 0x6F, 0x3C, (byte)0xBB, (byte)0xAC, 0x36, (byte)0xA4, (byte)0xB6, 0x7C, 0x2D,
-            0x3E, 0x3C, 0x7C, 0x7C, (byte)0xB6, (byte)0xA7, 0x7F, 0x7C, 0x7C, 0x7C, 0x3E, 0x3C, (byte)0xAC, 0x2D, 0x5E, 0x76,
-            0x20, 0x21, 0x22, 0x23, 0x24, 0x25, 0x26, 0x27, 0x28, 0x29, 0x2A, 0x2B, 0x2C, 0x2D, 0x2E, 0x2F,
-            0x30, 0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3A, 0x3B, 0x3C, 0x3D, 0x3E, 0x3F,
-            0x40, 0x41, 0x42, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49, 0x4A, 0x4B, 0x4C, 0x4D, 0x4E, 0x4F,
-            0x50, 0x51, 0x52, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5A, 0x5B, 0x5C, 0x5D, 0x5E, 0x5F,
-            0x60, 0x61, 0x62, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6A, 0x6B, 0x6C, 0x6D, 0x6E, 0x6F,
-            0x70, 0x71, 0x72, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7A, 0x7B, 0x7C, 0x7D, 0x7E, 0x7F,
-            (byte)0xC7, (byte)0xFC, (byte)0xE9, (byte)0xE2, (byte)0xE4, (byte)0xE0, (byte)0xE5, (byte)0xE7, (byte)0xEA, (byte)0xEB, (byte)0xE8, (byte)0xEF, (byte)0xEE, (byte)0xEC, (byte)0xC4, (byte)0xC5,
-            (byte)0xC9, (byte)0xE6, (byte)0xC6, (byte)0xF4, (byte)0xF6, (byte)0xF2, (byte)0xFB, (byte)0xF9, (byte)0xFF, (byte)0xD6, (byte)0xDC, (byte)0xA2, (byte)0xA3, (byte)0xA5, 0x50, 0x66,
-            (byte)0xA0, (byte)0xA1, (byte)0xA2, (byte)0xA3, (byte)0xA4, (byte)0xA5, (byte)0xA6, (byte)0xA7, (byte)0xA8, (byte)0xA9, (byte)0xAA, (byte)0xAB, (byte)0xAC, (byte)0xAD, (byte)0xAE, (byte)0xAF,
-            (byte)0xB0, (byte)0xB1, (byte)0xB2, (byte)0xB3, (byte)0xB4, (byte)0xB5, (byte)0xB6, (byte)0xB7, (byte)0xB8, (byte)0xB9, (byte)0xBA, (byte)0xBB, (byte)0xBC, (byte)0xBD, (byte)0xBE, (byte)0xBF,
-            (byte)0xC0, (byte)0xC1, (byte)0xC2, (byte)0xC3, (byte)0xC4, (byte)0xC5, (byte)0xC6, (byte)0xC7, (byte)0xC8, (byte)0xC9, (byte)0xCA, (byte)0xCB, (byte)0xCC, (byte)0xCD, (byte)0xCE, (byte)0xCF,
-            (byte)0xD0, (byte)0xD1, (byte)0xD2, (byte)0xD3, (byte)0xD4, (byte)0xD5, (byte)0xD6, (byte)0xD7, (byte)0xD8, (byte)0xD9, (byte)0xDA, (byte)0xDB, (byte)0xDC, (byte)0xDD, (byte)0xDE, (byte)0xDF,
-            (byte)0xE0, (byte)0xE1, (byte)0xE2, (byte)0xE3, (byte)0xE4, (byte)0xE5, (byte)0xE6, (byte)0xE7, (byte)0xE8, (byte)0xE9, (byte)0xEA, (byte)0xEB, (byte)0xEC, (byte)0xED, (byte)0xEE, (byte)0xEF,
-            (byte)0xF0, (byte)0xF1, (byte)0xF2, (byte)0xF3, (byte)0xF4, (byte)0xF5, (byte)0xF6, (byte)0xF7, (byte)0xF8, (byte)0xF9, (byte)0xFA, (byte)0xFB, (byte)0xFC, (byte)0xFD, (byte)0xFE, (byte)0xFF
-    };
+        /**
+         * Creates the texts of the library
+         *
+         * @param   res The app resources
+         */
+        private ResTxt(@NonNull Resources res) {
+            mRes = res;                                                                             // Register the app resources
+        }
 
-    private static final int    BUF_SIZ = 1024;                                                     // File buffer size [byte]
+        /**
+         * Returns a text of the library
+         *
+         * @param   txt The text
+         * @return  The text in the language of the app
+         */
+        @Override public @NonNull String getTxt(@NonNull Txt txt) {
+            switch (txt) {                                                                          // Analyse the text
+                case UKN_MAN: return mRes.getString(R.string.qi_ukn_man);                           // Unknown manufacturer
+                case CHG_QIID: return mRes.getString(R.string.qi_chg_qiid);                         // Qi charger with Qi ID
+                default: return mRes.getString(R.string.lib_from);                                  // Separator of the manufacturer
+            }
+        }
+    }
 
     /**
      * Thread to enable/disable an application component
      */
-    private static class SetCmp extends Thread {
+    private static class SetCmp implements Runnable {
         private final @NonNull Class<?> mCmp;                                                       // The application component
         private final @NonNull Context  mCtx;                                                       // The app context
         private final          boolean  mMod;                                                       // The setting mode (true = enable, false = disable)
@@ -140,6 +147,23 @@ public class AppLib {
         }
     }
 
+    /**
+     * Disable default constructor as this class contains only static methods
+     */
+    private AndLib() {}
+
+    /**
+     * Initializes the Qi Authentication library for the app
+     * The debug messages are written into the Android log and the texts are taken from the app resources.
+     *
+     * @param   ctx The app context
+     * @param   dir The directory of the WPC Root Certificate inside of the app data directory
+     */
+    public static void init(final @NonNull Context ctx, final @NonNull String dir) {
+        Dbg.setOut(new LogOut());                                                                   // Write the debug messages into the Android log
+        WpcCrt.init(ctx.getExternalFilesDir(null), dir, new ResTxt(ctx.getResources()));            // Initialize the WPC Root Certificate
+    }
+
     /**
      * Copy all asset files into external files
      *
@@ -191,30 +215,6 @@ public class AppLib {
         }
     }
 
-    /**
-     * Convert a given BCD byte array into an integer
-     * @param   bcd The BCD byte array
-     * @return  The value of the byte array
-     */
-    public static int bcdToInt(@NonNull byte[] bcd) {
-        int val = 0;                                                                                // Value of the byte array
-        for (byte byt: bcd) {                                                                       // Repeat for all bytes of the byte array
-            val = ((byt & 0xF0) >> 4) + 10 * val;                                                   // Add digit of high nibble
-            val = val * 10 + (byt & 0x0F);                                                          // Add digit of low nibble
-        }
-        return val;                                                                                 // Return the value of the byte array
-    }
-
-    public static @NonNull byte[] intToBcd(int val, int siz) {
-        final byte[] bcd = new byte[siz];
-        for(int ind = siz - 1; ind >= 0; ind--) {
-            int ten = val / 10;
-            bcd[ind] = (byte)((val % 10) | (ten % 10) << 4);
-            val = ten / 10;
-        }
-        return bcd;
-    }
-
     /**
      * Enables or disables an application component.
      * @param ctx   The context of the application
@@ -222,7 +222,7 @@ public class AppLib {
      * @param mod   true: the application component will be enabled, otherwise disabled
      */
     static public void enableComponent(final @NonNull Context ctx, final @NonNull Class<?> cmp, boolean mod) {
-        new SetCmp(ctx, cmp, mod).start();                                                          // Enable/Disable application component
+        SesExe.bkg(new SetCmp(ctx, cmp, mod));                                                      // Enable/Disable application component
     }
 
     /**
@@ -239,16 +239,53 @@ public class AppLib {
     }
 
     /**
-     * Shows a byte array
-     * @param ba    The byte array
-     * @return      The string showing the byte array
+     * Return the app description
+     * @param   ctx The app context
+     * @param   ver The version name
+     * @param   dbg The debug flag
+     * @return  The app description
      */
-    public static String showByt(final @NonNull byte[] ba) {
-        final @NonNull byte[] txt = new byte[ba.length];                                            // String showing the byte array
-        for (int ind = 0; ind < ba.length; ind++) {                                                 // Repeat for all bytes
-            txt[ind] = TABLE[ba[ind] & BYT_UNS];                                                    // Get character of this byte
+    public static String getApp(Context ctx, String ver, boolean dbg) {
+        if (dbg) {                                                                                  // Debug version?
+            ver = ver + "-\u03b2";                                                                  // Add beta version
         }
-        return new String(txt, CHR_ISO);                                                            // Retun string showing the byte array
+        return getNam(ctx) + "  " + ver;                                                            // Return app description
+    }
+
+    /**
+     * Return the app name
+     * @param   ctx The app context
+     * @return  The app name
+     */
+    private static String getNam(Context ctx) {
+        return (String)ctx.getPackageManager().getApplicationLabel(ctx.getApplicationInfo());       // Return app name
+    }
+
+    /**
+     * Returns the error text of an unsuccessful Qi Authentication
+     *
+     * @param   end The result of the Qi Authentication
+     * @return  The resource identifier of the error text
+     */
+    public static @StringRes int getErr(@NonNull AthEnd end) {
+        switch (end) {                                                                              // Analyse the result
+            case ERR_FAK: return R.string.qi_fak_ptx;                                               // Fake device
+            case TIM_TOT: return R.string.lib_tim_tot;                                              // Total budget exceeded
+            case TIM_DIG: return R.string.lib_tim_dig;                                              // GET_DIGESTS budget exceeded
+            case TIM_CRT: return R.string.lib_tim_crt;                                              // GET_CERTIFICATE budget exceeded
+            case TIM_ATH: return R.string.lib_tim_ath;                                              // CHALLENGE budget exceeded
+            default: return R.string.lib_err_com;                                                   // Communication error
+        }
+    }
+
+    /**
+     * Returns the error description of an unsuccessful Qi Authentication
+     *
+     * @param   end The result of the Qi Authentication
+     * @return  The resource identifier of the error description
+     */
+    public static @StringRes int getDes(@NonNull AthEnd end) {
+        return (end == AthEnd.ERR_FAK) ? R.string.qi_buy : R.string.lib_try;                        // Return the error description
     }
 
     /**
@@ -275,7 +312,7 @@ public class AppLib {
      */
     public static Toast showTst(Activity act, int ico, String tit, String des) {
         @SuppressLint("InflateParams")                                                              // The toast loayout must not have a root
-                View vw = act.getLayoutInflater().inflate(R.layout.lib_tst, null);                          // Create the layout for the toast
+                View vw = act.getLayoutInflater().inflate(R.layout.lib_tst, null);                  // Create the layout for the toast
         Drawable icn = act.getResources().getDrawable(ico);                                         // Get icon
         ImageView iv = vw.findViewById(R.id.lib_ico);                                               // Get icon view object
         iv.setImageDrawable(icn);                                                                   // Set icon
@@ -304,7 +341,7 @@ public class AppLib {
         LayoutInflater li = (LayoutInflater)ctx.getSystemService(Context.LAYOUT_INFLATER_SERVICE);  // Get Layoutinflater of device
         //noinspection ConstantConditions                                                           // Layoutinflater will always available
         @SuppressLint("InflateParams")                                                              // The toast loayout must not have a root
-                View vw = li.inflate(lay, null);                                                            // Create the layout for the toast
+                View vw = li.inflate(lay, null);                                                    // Create the layout for the toast
         ((TextView)vw.findViewById(R.id.lib_tit)).setText(tit);                                     // Set the title
         return shwTst(ctx, vw);                                                                     // Return the toast
     }
@@ -331,5 +368,4 @@ public class AppLib {
         tst.show();                                                                                 // Show the toast
         return tst;                                                                                 // Return the toast
     }
-
-}
+}
\ No newline at end of file
@@ -84,7 +84,7 @@ public class BinFil {
             if (msg.what == Dbg.NO_ERR) {                                                        // No error occurred?
                 mRcv.onLoad((byte[]) msg.obj);                                                      // Send the received file data to the file data receiver
             } else {                                                                                // A read error occurred
-                AppLib.showErrTst(mAct, R.string.lib_err_rd, msg.what);                             // Show error message
+                AndLib.showErrTst(mAct, R.string.lib_err_rd, msg.what);                             // Show error message
             }
         }
     }
@@ -256,7 +256,7 @@ public class BinFil {
      * @param rcv   The file data receiver
      */
     public void read(Activity act, FilRcv rcv) {
-        new Thread(new RdFil(act, rcv)).start();                                                         // Read the file data inside of a background thread
+        SesExe.bkg(new RdFil(act, rcv));                                                            // Read the file data inside of a background thread
     }
 
     /**
@@ -264,7 +264,7 @@ public class BinFil {
      * @param hnd   The handler managing the read file data
      */
     public void read(Handler hnd) {
-        new Thread(new RdFil(hnd)).start();                                                         // Read the file data inside of a background thread
+        SesExe.bkg(new RdFil(hnd));                                                                 // Read the file data inside of a background thread
     }
 
     /**
@@ -339,6 +339,6 @@ public class BinFil {
      */
     public void write(byte[] buf, FilSav rcv)
     {
-        new Thread(new WrtFil(buf, rcv)).start();                                                   // Write the data into the file by using a background thread
+        SesExe.bkg(new WrtFil(buf, rcv));                                                           // Write the data into the file by using a background thread
     }
 }
@@ -13,7 +13,7 @@ import android.widget.Button;
 import java.util.ArrayList;
 
 /**
- * Cache buffer class
+ * Clear cache button of the cache buffer
  *
  * Copyright 2019 STMicroelectronics Application GmbH
  *
@@ -31,16 +31,25 @@ import java.util.ArrayList;
  *
  * @author Jürgen Böhler
  */
-public class CachBuf extends ArrayList<WpcCrtChn> {
+public class CachBtn {
 
     private static final int    MSG_ENA = 1;                                                        // Message to enable the Clear cache button
-    private Handler mHnd;                                                                           // Handler to enable Clear cache button
-    private int mSiz;                                                                               // The maximum size of the cache buffer
 
     /**
      * The listener class for a short pressed Clear cache button
      */
-    private class ClrCachLst implements View.OnClickListener {
+    private static class ClrCachLst implements View.OnClickListener {
+
+        private final @NonNull CachBuf mCach;                                                       // The cache buffer
+
+        /**
+         * Initialize the listener for a short pressed Clear cache button
+         *
+         * @param   cach    The cache buffer
+         */
+        private ClrCachLst(@NonNull CachBuf cach) {
+            mCach = cach;                                                                           // Register the cache buffer
+        }
 
         /**
          * Called when the clear cache button is pressed.
@@ -49,7 +58,7 @@ public class CachBuf extends ArrayList<WpcCrtChn> {
          * @param   v   The Clear cache button
          */
         @Override public void onClick(View v) {
-            clear();                                                                                // Clear the WPC Certificate cache
+            mCach.clear();                                                                          // Clear the WPC Certificate cache
             v.setEnabled(false);                                                                    // Disable the Clear cache button
         }
     }
@@ -57,20 +66,36 @@ public class CachBuf extends ArrayList<WpcCrtChn> {
     /**
      * The listener class for a long pressed Clear cache button
      */
-    private class ShwCachLst implements View.OnLongClickListener {
+    private static class ShwCachLst implements View.OnLongClickListener {
+
+        private final @NonNull CachBuf mCach;                                                       // The cache buffer
+
+        /**
+         * Initialize the listener for a long pressed Clear cache button
+         *
+         * @param   cach    The cache buffer
+         */
+        private ShwCachLst(@NonNull CachBuf cach) {
+            mCach = cach;                                                                           // Register the cache buffer
+        }
 
         /**
          * Called when the clear cache button is pressed for a long time.
-         * Shows the WPC Certificate Chain cache
+         * Shows the statistics and the WPC Certificate Chains of the cache
          *
          * @param   v   The Clear cache button
          * @return  true to indicate that this long click event was processed
          */
         @Override public boolean onLongClick(View v) {
             Context ctx = v.getContext();                                                           // Get the app context
+            ArrayList<String> itm = new ArrayList<>();                                              // Create the list of shown items
+            itm.add(ctx.getString(R.string.qi_cach_sta, mCach.getHit(), mCach.getMis(), mCach.getEvc()));// Add the cache statistics
+            for (WpcCrtChn chn: mCach.getLst()) {                                                   // Repeat for all WPC Certificate Chains in the cache
+                itm.add(chn.toString());                                                            // Add the name of the WPC Certificate Chain
+            }
             ListPopupWindow lst = new ListPopupWindow(ctx);                                         // Create list popup window
             lst.setAnchorView(v);                                                                   // Connect list popup window with the Clear cache button
-            lst.setAdapter(new ArrayAdapter<>(ctx, R.layout.cach_itm, CachBuf.this));               // Initialize list adapter for list popup window
+            lst.setAdapter(new ArrayAdapter<>(ctx, R.layout.cach_itm, itm));                        // Initialize list adapter for list popup window
             lst.show();                                                                             // Show the list popup window
             return true;                                                                            // Indicate that this long click event was processed
         }
@@ -79,9 +104,10 @@ public class CachBuf extends ArrayList<WpcCrtChn> {
     /**
      * The listener class to enable the Clear cache button
      */
-    private class ShwCachBtn implements Handler.Callback {
+    private static class ShwCachBtn implements Handler.Callback, CachBuf.AddLst {
 
-        private Button mBtn;                                                                        // The Clear cache button
+        private final @NonNull Button   mBtn;                                                       // The Clear cache button
+        private final @NonNull Handler  mHnd;                                                       // Handler to enable Clear cache button
 
         /**
          * Initialize the listener to show the WPC Certificate Chain
@@ -90,6 +116,14 @@ public class CachBuf extends ArrayList<WpcCrtChn> {
          */
         private ShwCachBtn(@NonNull Button btn) {
             mBtn = btn;                                                                             // Register the Clear cache button
+            mHnd = new Handler(this);                                                               // Create handler to enable the Clear cache button
+        }
+
+        /**
+         * Called when the first WPC Certificate Chain was added to the empty cache buffer
+         */
+        @Override public void onAdd() {
+            mHnd.sendEmptyMessage(MSG_ENA);                                                         // Enable the Clear cache button
         }
 
         /**
@@ -105,51 +139,33 @@ public class CachBuf extends ArrayList<WpcCrtChn> {
     }
 
     /**
-     * Initialize the cache buffer
-     *
-     * @param   siz The maximum size of the cache buffer
+     * Disable default constructor as this class contains only static methods
      */
-    public CachBuf(int siz) {
-        super(siz);                                                                                 // Initialize the cache buffer
-        mSiz = siz;                                                                                 // Set the maximum size of the cache buffer
-    }
-
-    /**
-     * Add a WPC Certificate Chain in the cache buffer
-     *
-     * @param   e   The new WPC Certificate Chain to be added to the cache buffer
-     * @return  true to indicate successful addition of WPC Certificate Chain
-     */
-    @Override public boolean add(WpcCrtChn e) {
-        int siz = size();                                                                           // Get the actual size of the cache buffer
-        if (mSiz == siz) {                                                                          // Cache buffer has reached its maximum size?
-            remove(mSiz - 1);                                                                       // Remove the oldest WPC Certificate chain
-        } else if ((siz == 0) && (mHnd != null)) {                                                  // First WPC Certificate added an Clear cache button is shown?
-            mHnd.sendEmptyMessage(MSG_ENA);                                                         // Enable the Clear cache button
-        }
-        add(0, e);                                                                                  // Add new WPC Certificate Chain
-        return true;                                                                                // Return indication that addition was successful
-    }
+    private CachBtn() {}
 
     /**
      * Register actual shown Clear cache button
      *
-     * @param   btn The actual shown Clear cache button or null
+     * @param   cach    The cache buffer
+     * @param   btn     The actual shown Clear cache button or null
      */
-    public void regCachBtn(@Nullable Button btn) {
+    public static void regCachBtn(@NonNull CachBuf cach, @Nullable Button btn) {
         if (btn == null) {                                                                          // No clear cache button shown?
-            mHnd = null;                                                                            // Register no handler to enable the Clear cache button
+            cach.setLst(null);                                                                      // Register no listener to enable the Clear cache button
         } else {                                                                                    // A Clear cache button is shown
-            mHnd = new Handler(new ShwCachBtn(btn));                                                // Create handler to enable the Clear cache button
-            btn.setEnabled(size() != 0);                                                            // Show the actual button state
+            cach.setLst(new ShwCachBtn(btn));                                                       // Create listener to enable the Clear cache button
+            btn.setEnabled(cach.size() != 0);                                                       // Show the actual button state
         }
     }
 
     /**
      * Sets the listener for the Clear Cache button
+     *
+     * @param   cach    The cache buffer
+     * @param   btn     The Clear cache button
      */
-    public void setCachBtnLst(@NonNull Button btn) {
-        btn.setOnClickListener(new ClrCachLst());                                                   // Set a listener for click on Clear cache button
-        btn.setOnLongClickListener(new ShwCachLst());                                               // Set listener for long click on Clear cache button
+    public static void setCachBtnLst(@NonNull CachBuf cach, @NonNull Button btn) {
+        btn.setOnClickListener(new ClrCachLst(cach));                                               // Set a listener for click on Clear cache button
+        btn.setOnLongClickListener(new ShwCachLst(cach));                                           // Set listener for long click on Clear cache button
     }
 }
\ No newline at end of file
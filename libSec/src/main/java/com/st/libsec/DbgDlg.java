@@ -2,7 +2,6 @@ package com.st.libsec;
 
 import android.app.Activity;
 import android.app.Dialog;
-import android.content.Context;
 import android.content.DialogInterface;
 import android.os.Bundle;
 import android.os.Handler;
@@ -14,12 +13,8 @@ import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.KeyEvent;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-
 /**
- * Class to debug code
+ * Class to show fatal errors of the app
  *
  * Copyright 2019 STMicroelectronics Application GmbH
  *
@@ -37,40 +32,16 @@ import java.util.Locale;
  *
  * @author Jürgen Böhler
  */
-public class Dbg {
-
-    /** No error */
-    static final int NO_ERR = 0;
+public class DbgDlg {
 
     private static final int    CALL_TSK    = 3;                                                    // Index to find the calling method inside the task stack
     private static final String KEY_MSG     = "KEY_MSG";                                            // Parameter key string for dialog message
     private static final String TAG         = "Dbg";                                                // Tag for dialogs
-    private static final String VAL_SEP     = " - ";                                                // Separator string for values
-    private static final char[] HEX         = "0123456789ABCDEF".toCharArray();                     // Char array to convert values into hexadecimal strings
 
     /**
      * Hide the default constructor to prevent instantiation of this class
      */
-    private Dbg() {}
-
-    /**
-     * Convert a given byte array into a string with hexadecimal values
-     * @param   val Byte array which shall be shown as a string with hexadecimal values
-     * @return  String with hexadecimal values
-     */
-    public static @NonNull String seqHex(@NonNull String msg, byte[] val) {
-        int len = val.length;
-        char[] str = new char[len * 2];
-        int pos;
-        int byt;
-        for (int ind = 0; ind < len; ind ++) {                                                      // Repeat for all bytes of the byte array
-            pos = ind * 2;
-            byt = val[ind] & AppLib.BYT_UNS;
-            str[pos] = HEX[(byt & 0xF0) >> 4];
-            str[pos + 1] = HEX[byt & 0x0F];
-        }
-        return msg + new String(str);                                                               // Return string with hexadecimal values
-    }
+    private DbgDlg() {}
 
     /**
      * Fatal error dialog fragment
@@ -136,7 +107,7 @@ public class Dbg {
          */
         @Override
         public void onClick(DialogInterface dialog, int which) {
-            mAct.finish();                                                                           // Close the activity of the dialog box
+            mAct.finish();                                                                          // Close the activity of the dialog box
         }
 
         /**
@@ -156,132 +127,6 @@ public class Dbg {
         }
     }
 
-    /**
-     * Return the app description
-     * @param   ctx The app context
-     * @param   ver The version name
-     * @param   dbg The debug flag
-     * @return  The app description
-     */
-    public static String getApp(Context ctx, String ver, boolean dbg) {
-        if (dbg) {                                                                                  // Debug version?
-            ver = ver + "-\u03b2";                                                                  // Add beta version
-        }
-        return getNam(ctx) + "  " + ver;                                                            // Return app description
-    }
-
-    /**
-     * Return the app build date
-     * @param   cod The version code
-     * @param   tim The build time stamp
-     * @return  The app build date
-     */
-    public static String getBld(int cod,  long tim) {
-        final @NonNull SimpleDateFormat sdf = new SimpleDateFormat("d MMM yyyy", Locale.UK);        // Define date format
-        return "Version code: " + cod + " - " + sdf.format(new Date(tim));                          // Return the build state the application
-    }
-
-    /**
-     * Return the app name
-     * @param   ctx The app context
-     * @return  The app name
-     */
-    private static String getNam(Context ctx) {
-        return (String)ctx.getPackageManager().getApplicationLabel(ctx.getApplicationInfo());       // Return app name
-    }
-
-    /**
-     * Convert a given byte into a string with hexadecimal values
-     * @param   byt Byte which shall be shown as a string with hexadecimal values
-     * @return  String with hexadecimal values
-     */
-    private static String hexStr(byte byt) {
-        char[] str = new char[2];                                                                   // Create char array for hexadecimal values
-        str[0] = HEX[(byt & 0xF0)>> 4];                                                             // Set higher nibble
-        str[1] = HEX[byt & 0x0F];                                                                   // Set lower nibble
-        return new String(str);                                                                     // Return string with hexadecimal values
-    }
-
-    /**
-     * Convert a given byte array into a string with hexadecimal values
-     * @param   val Byte array which shall be shown as a string with hexadecimal values
-     * @return  String with hexadecimal values
-     */
-    public static String hexStr(byte[] val) {
-        return hexStr(val, ':');                                                                    // Return string with hexadecimal values
-    }
-
-    /**
-     * Convert a given byte array into a string with hexadecimal values
-     * @param   val Byte array which shall be shown as a string with hexadecimal values
-     * @return  String with hexadecimal values
-     */
-    private static String hexStr(byte[] val, char sep) {
-        int len = val.length;
-        char[] str = new char[len * 3 - 1];
-        int pos;
-        int byt;
-        for (int ind = 0; ind < len; ind ++) {                                                      // Repeat for all bytes of the byte array
-            pos = ind * 3;
-            byt = val[ind] & AppLib.BYT_UNS;
-            str[pos] = HEX[(byt & 0xF0) >> 4];
-            str[pos + 1] = HEX[byt & 0x0F];
-            if (ind < len - 1) {
-                str[pos + 2] = sep;
-            }
-        }
-        return new String(str);                                                                     // Return string with hexadecimal values
-    }
-
-    /**
-     * Convert a given byte array into a string with hexadecimal values
-     * @param   nam The name of the byte array
-     * @param   val Byte array which shall be shown as a string with hexadecimal values
-     * @return  String with hexadecimal values
-     */
-    public static String hexStr(String nam, byte[] val) {
-        return nam + ": " + hexStr(val, ' ');                                                         // Return string with hexadecimal values
-    }
-
-    /**
-     * Log a debug message
-     *
-     * @param msg   Debug message
-     */
-    public static void log(@NonNull String msg) {
-        Log.d(Thread.currentThread().getStackTrace()[CALL_TSK].toString(), msg + '!');              // Log the debug message
-    }
-
-    /**
-     * Log an error message
-     *
-     * @param msg   Error message
-     * @param err   The error which shall be logged
-     */
-    public static void log(String msg, Throwable err) {
-        Log.e(Thread.currentThread().getStackTrace()[CALL_TSK].toString(), msg, err);               // Log the error message
-    }
-
-    /**
-     * Returns a log string for a given value
-     *
-     * @param val   Logged value
-     * @param msg   Log message
-     */
-    static @NonNull String logStr(byte val, @NonNull String msg) {
-        return hexStr(val) + VAL_SEP + msg;                                                         // Return the log string
-    }
-
-    /**
-     * Returns a log string for a given byte array
-     *
-     * @param val   Logged value
-     * @param msg   Log message
-     */
-    static @NonNull String logStr(byte[] val, @NonNull String msg) {
-        return hexStr(val) + VAL_SEP + msg;                                                         // Return the log string
-    }
-
     /**
      * Shows the dialog box
      * @param act   The activity where the dialog shall be shown
@@ -310,4 +155,4 @@ public class Dbg {
         hm.obj = act;
         new FinHnd().sendMessageDelayed(hm, ClsHnd.TIM_DEL);                                        // Send a message delayed to close the dialog box
     }
-}
+}
\ No newline at end of file
@@ -30,7 +30,7 @@ import java.io.IOException;
  *
  * @author Jürgen Böhler
  */
-public class LogFile extends Thread implements Handler.Callback {
+public class LogFile implements Runnable, Handler.Callback {
 
     private final @NonNull File         mFile;                                                      // Log file header
     private final @NonNull ListFragment mFrg;                                                       // List fragment which sahll be logged
@@ -90,9 +90,9 @@ public class LogFile extends Thread implements Handler.Callback {
         final @NonNull Activity act = mFrg.getActivity();                                           // Get the main activity
         if (msg.what == 0) {                                                                        // No error occurred?
             String txt = String.format(act.getString(R.string.lib_sav), (String)msg.obj);           // Get Toast message
-            AppLib.showTst(act, R.drawable.lib_sav, txt, null);                                     // Inform that the log file was saved
+            AndLib.showTst(act, R.drawable.lib_sav, txt, null);                                     // Inform that the log file was saved
         } else {                                                                                    // Error occurred
-            AppLib.showErrTst(act, R.string.lib_err_log, 0);                                        // Inform that the log file was not saved
+            AndLib.showErrTst(act, R.string.lib_err_log, 0);                                        // Inform that the log file was not saved
         }
         return true;                                                                                // Indicate that this event was processed
     }
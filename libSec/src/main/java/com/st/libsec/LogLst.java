@@ -0,0 +1,161 @@
+package com.st.libsec;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Message;
+import android.support.annotation.NonNull;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.ListFragment;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * List fragment view of the WPC Qi Authentication Protocol log
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class LogLst {
+
+    private static final String         EXT_LOG = "-Log" + WpcFil.EXT_TXT;                          // Extensions for log files
+
+    /**
+     * Listener for long click events
+     */
+    private static class LngLst implements NameDlg.NameDlgLst, ListView.OnItemLongClickListener {
+
+        private final @NonNull ListFragment mFrg;                                                   // Hosting list fragment
+        private final @NonNull File         mDir;                                                   // Proposed file
+        private final @NonNull String       mName;                                                  // Log file name
+
+        /**
+         * Create the listener for long clicked log list
+         *
+         * @param frg   The hosting list fragment
+         * @param log   The proposed log file
+         */
+        private LngLst(final @NonNull ListFragment frg, final @NonNull File log) {
+            mFrg = frg;                                                                             // Remember the hosting fragment
+            mDir = log.getParentFile();                                                             // Remember the proposed log file
+            mName = log.getName();                                                                  // Remember the log file name
+        }
+
+        /**
+         * Called when the name dialog is closed
+         *
+         * @param name  The entered name
+         */
+        @Override public void onCls(final @NonNull String name) {
+            SesExe.bkg(new LogFile(new File(mDir, name), mFrg));                                    // Save the log file
+        }
+
+        /**
+         * Called when a new log file name was entered
+         *
+         * @param name  The entered log file name
+         * @return      true if the log file name name exists already otherwise false
+         */
+        @Override public boolean hasName(final @NonNull String name) {
+            return new File(mDir, name).exists();                                                   // Inform if log file name exists
+        }
+
+        /** Called when the log list was clicked for a long time
+         * Store the log file
+         *
+         * @param parent    Log list view of the log list
+         * @param view      Selected item view (not used here)
+         * @param position  Position of selected item (not used here)
+         * @param id        Identifier of selected item (not used here)
+         * @return          True to indicate that this event was processed
+         */
+        @Override public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+            //noinspection ConstantConditions                                                       // Fragmentmanager will be here always available
+            final @NonNull FragmentManager fm = mFrg.getFragmentManager();                          // Get the Fragment manager
+            final @NonNull String nam = mName + EXT_LOG;                                            // Set full log file name
+            final int pos = mName.length();                                                         // Get the cursor position
+            NameDlg.showDlg(R.string.lib_sav_log, R.string.lib_log_nam, nam, pos, R.string.lib_ovr_log, fm, this);
+            return true;
+        }
+    }
+
+    /**
+     * Thread to generate the WPC log list
+     */
+    private static class LogGen implements Runnable, Handler.Callback {
+
+        private final @NonNull  ListFragment    mFrg;                                               // The list fragment hosting the log list
+        private final @NonNull  Handler         mHnd;                                               // Handler for finished log list
+        private final @NonNull  File            mLog;                                               // Proposed file name
+
+        /**
+         * Initialise thread to generate WPC log list
+         *
+         * @param frg   The list fragment hosting the WPC log list
+         * @param log   The proposed log file
+         */
+        private LogGen(final @NonNull ListFragment frg, final @NonNull File log) {
+            mFrg = frg;                                                                             // Set the list fragment
+            mHnd = new Handler(this);                                                               // Generate the handler for finished log list
+            mLog = log;                                                                             // Set the proposed log file
+        }
+
+        /**
+         * Called when the communication log is received
+         *
+         * @param   msg Handler message with the communication log
+         * @return  true to indicate that this event was processed
+         */
+        @Override public boolean handleMessage(Message msg) {
+            mFrg.setListAdapter((ListAdapter)msg.obj);                                              // Show the communication log
+            mFrg.getListView().setOnItemLongClickListener(new LngLst(mFrg, mLog));
+            return true;                                                                            // Inform that this event was processed
+        }
+
+        /**
+         * Generates the WPC log list
+         */
+        public @Override void run() {
+            final @NonNull String dev = "Device: " + Build.MANUFACTURER + " " + Build.MODEL;        // Log device name
+            final @NonNull String ver = "Android " + Build.VERSION.RELEASE;                         // Log Android version
+            final @NonNull ArrayList<String> log = WpcLog.endLog(dev, ver);                         // Stop the communication log
+            @SuppressWarnings("ConstantConditions") final @NonNull Context ctx = mFrg.getContext(); // Get fragment context
+            final ArrayAdapter apt = new ArrayAdapter<>(ctx, R.layout.lib_lst_itm, log);            // Set list
+            mHnd.sendMessage(mHnd.obtainMessage(0, apt));                                           // Send adapter to the handler
+        }
+    }
+
+    /**
+     * Disable default constructor as this class contains only static methods
+     */
+    private LogLst() {}
+
+    /**
+     * Stops the communication log and shows the log at a list fragment
+     *
+     * @param   frg The List Fragment
+     * @param   log The proposed log file name
+     */
+    public static void endLog(final @NonNull ListFragment frg, final @NonNull File log) {
+        SesExe.bkg(new LogGen(frg, log));                                                           // Shows the WPC communication log
+    }
+}
\ No newline at end of file
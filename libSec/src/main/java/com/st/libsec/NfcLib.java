@@ -116,7 +116,7 @@ public class NfcLib {
                     IntentFilter fil = new IntentFilter(ACTION_ADAPTER_STATE_CHANGED);              // Configure intent filter to listen for changed NFC Adapter state
                     act.registerReceiver(new NfcChRcv(act, tst), fil);                              // Register Broadcast receiver to listen for changed NFC Adapter state
                 } catch (ActivityNotFoundException err){                                            // System menu to enable NFC was not found
-                    Dbg.showFat(act, R.string.nfc_not_enabled, err);                                // Finish app with error message
+                    DbgDlg.showFat(act, R.string.nfc_not_enabled, err);                             // Finish app with error message
                 }
             }
             mRcv = false;                                                                           // Remember that NFCC need to be enabled
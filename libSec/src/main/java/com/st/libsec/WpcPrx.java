@@ -10,17 +10,17 @@ import android.os.Handler;
 import android.os.Message;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.annotation.StringRes;
 import android.support.v4.app.ListFragment;
 import android.view.Display;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InterruptedIOException;
 import java.util.Arrays;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static com.st.libsec.WpcAthIni.FlwTyp.CACH;
+import static com.st.libsec.WpcAthIni.FlwTyp.AUTO;
 
 /**
  * Service to emulate a WPC PRx
@@ -42,19 +42,13 @@ import static com.st.libsec.WpcAthIni.FlwTyp.CACH;
  * @author Jürgen Böhler
  */
 @SuppressLint("NewApi")                                                                             // To allow also compilation for devices prior Android Kitkat
-public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom {
-
-    /** Status word indicating available data */
-    public static final int SW_DAT = 0x6200;
-
-    /** Status word for normal ending */
-    public static final int SW_OK = 0x9000;
+public class WpcPrx extends HostApduService implements Handler.Callback, WpcComAsy {
 
     /** WPC PTx cach buffer */
     public static final CachBuf sCach = new CachBuf(4);
 
     /** Actual Qi Authentication protocol flow */
-    public static WpcAthIni.FlwTyp sFlw = CACH;
+    public static WpcAthIni.FlwTyp sFlw = AUTO;
 
     /** Handler to show the communication log */
     public static @Nullable ListFragment sFrg;
@@ -71,9 +65,18 @@ public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom
     private static final int    SW_INS  = 0x6D00;                                                   // Status word indicating wrong instruction code
     private static final int    SW_CLA  = 0x6E00;                                                   // Status word indicating wrong class byte
     private static final int    SW_ERR  = 0x6F00;                                                   // Status word indicating generic error
+    private static final int    EXT_LEN = MIN_LEN + AppLib.SHT_SIZ;                                 // Length of the header and the extended length field of a Command APDU
+    private static final int    STO_MAX = 64;                                                       // Number of WPC Certificate Chains kept by the persistent store
+    private static final byte[] CAP     = {WpcPtx.CAP_EXT | WpcPtx.CAP_ONE};                        // Capabilities of the PRx sent in the SELECT response
+    private static final ApdCod COD     = new ApdCod();                                             // Codec for the APDUs of the PRx sessions
+    private static final FrgPln PLN     = new FrgPln();                                             // Planner for the GET_CERTIFICATE fragments learning the timing of the NFC link
     private         Handler     mHnd;                                                               // Handler to show errors
-    private         Semaphore   mLck;                                                               // Lock flag to wait for the next PUT DATA command
+    private final AtomicReference<ResLst> mLst = new AtomicReference<>();                           // Listener of the Qi Authentication Initiator waiting for the next PUT DATA command
+    private volatile Future<?>  mTmr;                                                               // Timeout for the next PUT DATA command
     private         byte[]      mMsg;                                                               // Response message for the next GET DATA command
+    private volatile int        mMax = ApdCod.MAX_SHT;                                              // Maximum data length of a PUT DATA command of the PTx
+    private         boolean     mSel;                                                               // Flag for a pending SELECT response
+    private volatile boolean    mOne;                                                               // Flag for one APDU per Qi Authentication message
     public static   String      sName;                                                              // Identified PTx name
     private         WpcCrtChn   mPtx;                                                               // The Certification chain received from remote PTx
 
@@ -136,6 +139,17 @@ public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom
         }
     }
 
+    /**
+     * Called when the PRx emulation service is created
+     * Connects the WPC PTx cache buffer with its persistent store
+     */
+    @Override public void onCreate() {
+        super.onCreate();                                                                           // Initialize the service
+        if (!sCach.hasSto()) {                                                                      // Cache buffer not yet connected with the persistent store?
+            sCach.setSto(new ChnSto(getFilesDir(), STO_MAX));                                       // Connect the cache buffer with the persistent store
+        }
+    }
+
     /**
      * Called when a new message shall be shown.
      * Shows the given message
@@ -144,22 +158,22 @@ public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom
      * @return  true to indicate that this event was processed
      */
     @Override public boolean handleMessage(Message msg) {
-        if (msg.what == WpcAthIni.NO_ERR) {                                                         // No error detected?
+        if (((AthEnd)msg.obj).isOk()) {                                                             // No error detected?
             swScrOn();                                                                              // Switches the screen on
             if (mPtx != null) {                                                                     // Certification chain received from remote PTx?
                 final @NonNull String dev =  mPtx.toString() + getString(R.string.qi_chg_ptx);      // Get PTx device name
-                AppLib.shwTst(this, R.layout.tst_ok, dev);                                          // Shows the successful Qi authentication
+                AndLib.shwTst(this, R.layout.tst_ok, dev);                                          // Shows the successful Qi authentication
                 sName = WpcQiId.getName(mPtx.getPu().getQiId());                                    // Set log file name
             } else {
-                AppLib.shwTst(this, R.layout.tst_ok, getString(R.string.qi_chg_dev));               // Shows the successful Qi authentication
+                AndLib.shwTst(this, R.layout.tst_ok, getString(R.string.qi_chg_dev));               // Shows the successful Qi authentication
                 sName = getString(R.string.lib_suc);                                                // Set log file name
             }
         } else {                                                                                    // Error was detected
-            shwErr(msg.what, msg.arg1);                                                             // Show erroneous product error
+            shwErr((AthEnd)msg.obj);                                                                // Show erroneous product error
         }
         if (sFrg != null) {                                                                         // Prx emulation fragment shown?
-            final @NonNull File dir = new File(getExternalFilesDir(null), WpcPtx.DIR_EMU);          // Get emulation directory
-            WpcLog.endLog(sFrg, new File(dir, "R_" + sName));                                       // Stops communication log
+            final @NonNull File dir = new File(getExternalFilesDir(null), WpcCrt.DIR_EMU);          // Get emulation directory
+            LogLst.endLog(sFrg, new File(dir, "R_" + sName));                                       // Stops communication log
         }
         return true;
     }
@@ -171,7 +185,24 @@ public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom
      */
     @Override public void onDeactivated(int reason) {
         mMsg = null;                                                                                // Clear the message buffer for the GET DATA command
-        mLck.release();                                                                             // Unlock the Qi Authentication Initiator on PRx
+        drop();                                                                                     // Inform the Qi Authentication Initiator on PRx
+    }
+
+    /**
+     * Informs a waiting Qi Authentication Initiator that no Qi Authentication Response message will be received
+     */
+    private void drop() {
+        final ResLst lst = mLst.getAndSet(null);                                                    // Take the waiting listener
+        if (lst == null) {                                                                          // No Qi Authentication Initiator waiting?
+            return;
+        }
+        mTmr.cancel(false);                                                                         // Stop the timeout
+        SesExe.crt(new Runnable() {
+            @Override public void run() {
+                WpcLog.logErr("No Qi Authentication Response message received!");                   // Log error reason
+                lst.onErr(new IOException());                                                       // Report that no Qi Authentication Response message was received
+            }
+        });
     }
 
     /**
@@ -182,45 +213,72 @@ public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom
      * @return          The Response APDU
      */
     @Override public byte[] processCommandApdu(byte[] apdu, Bundle extras) {
-        ByteBuffer rsp;                                                                             // Response APDU
+        byte[] rsp;                                                                                 // Response APDU
         byte ins = apdu[OFS_INS];                                                                   // Get instruction byte
         try {
-            if (ins == WpcPtx.SEL_HD[OFS_INS]) {                                                    // SELECT command received?
+            if (ins == ApdCod.SEL_HD[OFS_INS]) {                                                    // SELECT command received?
                 WpcLog.begLog("PRx starts Qi Authentication");                                      // Log start of Qi Authentication
-                chkSel(WpcPtx.SEL_HD, apdu);                                                        // Check command header
+                chkSel(ApdCod.SEL_HD, apdu);                                                        // Check command header
+                drop();                                                                             // Stop a previous Qi Authentication Initiator still waiting
                 mHnd = new Handler(this);                                                           // Start handler to show result message
-                new WpcAthIni(this, sFlw, sCach).start();                                           // Start Qi Authentication Initiator on PRx
-                mLck = new Semaphore(0);                                                            // Initialize lock flag
+                COD.rst();                                                                          // Reuse the APDU buffers of the previous session
+                mMax = ApdCod.MAX_SHT;                                                              // Use short APDUs until the PTx announces extended length APDUs
+                mSel = true;                                                                        // Add the capabilities to the SELECT response
+                mOne = false;                                                                       // Use GET DATA commands until the PTx expects the next message in the PUT DATA response
+                final @NonNull WpcAthIni ini = new WpcAthIni(this, sFlw, sCach);                    // Create Qi Authentication Initiator on PRx
+                ini.setPln(PLN);                                                                    // Plan the fragments with the timing of the NFC link
+                SesExe.crt(ini);                                                                    // Start Qi Authentication Initiator on PRx
                 return null;                                                                        // Wait for the first Authentication Request message from the Qi Authentication Initiator
-            } else if (ins == WpcPtx.GET_HD[OFS_INS]) {                                             // GET DATA command received?
-                chkCmd(WpcPtx.GET_HD, apdu);                                                        // Check command header
-                if ((mMsg == null) || (apdu.length != MIN_LEN)) {                                   // No message available or illegal command length?
+            } else if (ins == ApdCod.GET_HD[OFS_INS]) {                                             // GET DATA command received?
+                chkCmd(ApdCod.GET_HD, apdu);                                                        // Check command header
+                int le = apdu[OFS_P3] & AppLib.BYT_UNS;                                             // Get length of expected response data
+                if ((apdu.length == EXT_LEN) && (le == 0)) {                                        // Extended length GET DATA command?
+                    le = getExt(apdu);                                                              // Get the extended length of expected response data
+                    mMax = (le == 0) ? ApdCod.MAX_EXT : le;                                         // Register the maximum PUT DATA length announced by the PTx
+                } else if (apdu.length != MIN_LEN) {                                                // Illegal command length?
+                    throw new SwExp(SW_ERR);                                                        // Return error status word
+                }
+                if (mMsg == null) {                                                                 // No message available?
                     throw new SwExp(SW_ERR);                                                        // Return error status word
                 }
-                int le = apdu[OFS_P3] & AppLib.BYT_UNS;                                             // Get length of expected response data
                 if ((le < mMsg.length) && (le != 0)) {                                              // Requested response data are too low?
                     throw new SwExp(SW_LE | mMsg.length);                                           // Return error status word informing about the available message bytes
                 }
-                rsp = ByteBuffer.wrap(new byte[mMsg.length + WpcPtx.LEN_SW]);                       // Create Response APDU
-                rsp.put(mMsg);                                                                      // Add response data
-                rsp.putShort((short) SW_OK);                                                        // Add status word for normal ending
+                rsp = COD.rsp(mMsg, 0, mMsg.length, ApdCod.SW_OK);                                  // Create Response APDU with the status word for normal ending
                 mMsg = null;
-            } else if (ins == WpcPtx.PUT_HD[OFS_INS]) {                                             // PUT DATA command received?
-                chkCmd(WpcPtx.GET_HD, apdu);                                                        // Check command header
+            } else if (ins == ApdCod.PUT_HD[OFS_INS]) {                                             // PUT DATA command received?
+                chkCmd(ApdCod.GET_HD, apdu);                                                        // Check command header
                 if (mMsg != null) {                                                                 // An old message is still pending?
                     throw new SwExp(SW_LE | mMsg.length);                                           // Return error status word informing about the available message bytes
                 }
                 int lc = apdu[OFS_P3] & AppLib.BYT_UNS;                                             // Get length of command data
+                int ofs = MIN_LEN;                                                                  // Offset of the command data
+                int le = AppLib.BYT_SIZ;                                                            // Length of a short Le
+                if ((lc == 0) && (apdu.length > EXT_LEN)) {                                         // Extended length PUT DATA command?
+                    lc = getExt(apdu);                                                              // Get the extended length of command data
+                    ofs = EXT_LEN;                                                                  // Command data follow the extended length
+                    le = AppLib.SHT_SIZ;                                                            // Length of an extended Le
+                }
                 if (lc == 0) {                                                                      // Communication aborted by PTx?
                     WpcLog.logErr("Qi Authentication aborted by PTx");                              // Stops communication log
-                    shwErr(R.string.qi_fak_ptx, R.string.qi_buy);                                   // Show erroneous product error
-                    throw new SwExp(SW_OK);                                                         // Respond with normal ending status word
+                    shwErr(AthEnd.ERR_FAK);                                                         // Show erroneous product error
+                    throw new SwExp(ApdCod.SW_OK);                                                  // Respond with normal ending status word
                 }
-                if (lc != apdu.length - MIN_LEN) {                                                  // Illegal length of command data?
+                mOne = (lc + le == apdu.length - ofs);                                              // PTx expects the next message in the response (Le present)?
+                if (!mOne && (lc != apdu.length - ofs)) {                                           // Illegal length of command data?
                     throw new SwExp(SW_LC);                                                         // Generate error status word
                 }
-                mMsg = Arrays.copyOfRange(apdu, MIN_LEN, apdu.length);                              // Get authentication message
-                mLck.release();                                                                     // Unlock the command execution at the Qi Authentication Initiator on PRx
+                final @NonNull byte[] msg = Arrays.copyOfRange(apdu, ofs, ofs + lc);                // Get authentication message
+                mMsg = msg;                                                                         // Mark the message as pending
+                final ResLst lst = mLst.getAndSet(null);                                            // Take the listener of the Qi Authentication Initiator on PRx
+                if (lst != null) {                                                                  // Qi Authentication Initiator waiting?
+                    mTmr.cancel(false);                                                             // Stop the timeout
+                    SesExe.crt(new Runnable() {
+                        @Override public void run() {
+                            lst.onRes(msg);                                                         // Continue the Qi Authentication Initiator on PRx
+                        }
+                    });
+                }
                 return null;                                                                        // Wait for the next Authentication Request message from the Qi Authentication Initiator
             } else {                                                                                // Unknown command received
                 rsp = statword(SW_INS);                                                             // Return the error status word
@@ -228,7 +286,17 @@ public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom
         } catch (SwExp err) {                                                                       // Command error identified
             rsp = statword(err.getSw());                                                            // Return the error status word
         }
-        return rsp.array();                                                                         // Return the Response APDU
+        return rsp;                                                                                 // Return the Response APDU
+    }
+
+    /**
+     * Returns the extended length field of a Command APDU
+     *
+     * @param   apdu    The Command APDU
+     * @return  The extended length
+     */
+    private int getExt(@NonNull byte[] apdu) {
+        return ((apdu[OFS_P3 + 1] & AppLib.BYT_UNS) << 8) | (apdu[OFS_P3 + 2] & AppLib.BYT_UNS);    // Return the extended length
     }
 
     /**
@@ -237,10 +305,8 @@ public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom
      * @param sw    The status word to be returned
      * @return      The Response APDU with the status word
      */
-    private ByteBuffer statword(int sw) {
-        ByteBuffer res = ByteBuffer.wrap(new byte[AppLib.SHT_SIZ]);                                 // Create Response APDU for status word
-        res.putShort((short)sw);                                                                    // Add status word
-        return res;                                                                                 // Return Response APDU
+    private byte[] statword(int sw) {
+        return COD.rsp(sw);                                                                         // Return Response APDU
     }
 
     /**
@@ -266,52 +332,66 @@ public class WpcPrx extends HostApduService implements Handler.Callback, WpcCom
     /**
      * Shows an error
      *
-     * @param   tit Error title
-     * @param   des Error description
+     * @param   end The result of the Qi Authentication
      */
-    private void shwErr(int tit, int des) {
+    private void shwErr(@NonNull AthEnd end) {
         swScrOn();                                                                                  // Switches the screen on
-        if (tit == R.string.qi_fak_ptx) {                                                           // Fake device identified?
+        if (end == AthEnd.ERR_FAK) {                                                                // Fake device identified?
             sName = "Fake";                                                                         // Set device name
         } else {                                                                                    // Other error identified
             sName = "Error";                                                                        // Set device name
         }
-        AppLib.shwTst(getBaseContext(), R.layout.tst_err, tit, des);                                // Shows the error
+        AndLib.shwTst(getBaseContext(), R.layout.tst_err, AndLib.getErr(end), AndLib.getDes(end));  // Shows the error
     }
 
     /**
      * Sends the Qi Authentication message request to the remote TRx
+     * The listener is called when the next PUT DATA command is received, when the PTx is deactivated or when the
+     * timeout expired, no thread waits for the PTx.
      *
      * @param   req The Qi Authentication Request message
-     * @return  The Qi Authentication Response message
-     * @throws  IOException when no Qi Authentication Response message
+     * @param   tim The timeout for the Qi Authentication Response message in milliseconds
+     * @param   lst The listener receiving the Qi Authentication Response message
      */
-    @Override public @NonNull byte[] sndMsg(@NonNull byte[] req) throws IOException {
-        byte[] sw = statword(SW_DAT | req.length).array();                                          // Set the status word
-        sendResponseApdu(sw);                                                                       // Send status word back indicating the length of available message
-        mMsg = req;                                                                                 // Set the message buffer
-        try {
-            mLck.acquire();                                                                         // Wait for PUT DATA command
-        } catch (InterruptedException err) {                                                        // Qi Authentication Initiator of PRx was interrupted
-            WpcLog.logErr("Authentication Initiator at PRx was interrupted!");                      // Log error reason
-            mMsg = null;                                                                            // Clear the message buffer
-        }
-        if (mMsg == null) {                                                                         // No Qi Authentication message received?
-            WpcLog.logErr("No Qi Authentication Response message received!");                       // Log error reason
-            throw new IOException();                                                                // Throw error to indicate that no Qi Authentication Response message was received
+    @Override public void sndMsg(@NonNull byte[] req, long tim, final @NonNull ResLst lst) {
+        mLst.set(lst);                                                                              // Register the listener before the PTx can answer
+        mTmr = SesExe.dly(new Runnable() {
+            @Override public void run() {
+                if (mLst.compareAndSet(lst, null)) {                                                // Still no PUT DATA command?
+                    WpcLog.logErr("No Qi Authentication Response message in time!");                // Log error reason
+                    lst.onErr(new InterruptedIOException());                                        // Report the expired timeout
+                }
+            }
+        }, tim);
+        if (mOne) {                                                                                 // One APDU per Qi Authentication message?
+            mMsg = null;                                                                            // No message for a GET DATA command
+            sendResponseApdu(COD.rsp(req, 0, req.length, ApdCod.SW_OK));                            // Return the message in the PUT DATA response
+        } else {                                                                                    // Message is requested with a GET DATA command
+            mMsg = req;                                                                             // Set the message buffer
+            sendResponseApdu(COD.rsp(CAP, 0, mSel ? CAP.length : 0, ApdCod.SW_DAT | req.length));   // Send status word back indicating the length of available message, the SELECT response adds the capabilities
+            mSel = false;                                                                           // Capabilities are sent
         }
-        return mMsg;                                                                                // Return the Qi Authentication Response message
+    }
+
+    /**
+     * Returns the maximum length of a Qi Authentication Response
+     *
+     * @return  The maximum length of a Qi Authentication Response
+     */
+    @Override public int getMax() {
+        return mMax;                                                                                // Return the maximum command data length of a PUT DATA command
     }
 
     /**
      * Terminates the Qi Authentication
      *
-     * @param   err The error text
-     * @param   des The error description
+     * @param   end The result of the Qi Authentication
      */
-    @Override public void endAuth(final @StringRes int err, final @StringRes int des) {
-        sendResponseApdu(statword(SW_OK).array());                                                  // Send status word back
+    @Override public void endAuth(final @NonNull AthEnd end) {
+        sendResponseApdu(statword(ApdCod.SW_OK));                                                   // Send status word back
+        WpcLog.logCmt(COD.getSta());                                                                // Log the buffer pool statistics of the APDU codec
+        WpcLog.logCmt(SesExe.getSta());                                                             // Log the metrics of the session executor
         mMsg = AppLib.NO_BA;                                                                        // Set message for the following GET_DATA command
-        mHnd.sendMessage(mHnd.obtainMessage(err, des, 0));                                          // Terminate the Qi Authentication
+        mHnd.sendMessage(mHnd.obtainMessage(0, end));                                               // Terminate the Qi Authentication
     }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.st.libsec;
 import android.content.Context;
 import android.nfc.Tag;
 import android.nfc.tech.IsoDep;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
 import android.support.annotation.NonNull;
@@ -10,7 +11,6 @@ import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 import android.support.v4.app.ListFragment;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.security.PrivateKey;
@@ -35,34 +35,20 @@ import java.util.Arrays;
  *
  * @author Jürgen Böhler
  */
-public class WpcPtx extends Thread implements Handler.Callback {
+public class WpcPtx implements Runnable, Handler.Callback {
 
-    /** Directory to emulate Ptx */
-    public static final String DIR_EMU = "emu";
+    /** Capability of the PRx to accept extended length APDUs (first byte of the SELECT response data) */
+    static final byte CAP_EXT = 0x01;
 
-    /** Path name for the Directory to emulate Ptx */
-    static final String PATH_EMU = DIR_EMU + File.separator;
+    /** Capability of the PRx to return the next Qi Authentication message in the PUT DATA response */
+    static final byte CAP_ONE = 0x02;
 
-    private static final byte   CLA     = 0x00;                                                     // Class byte for Qi Authentication APDUs
-
-    /** Command APDU header for GET_DATA */
-    static final byte[] GET_HD = {CLA, (byte)0xCA, 0x00, 0x00};
-
-    /** Command APDU header for PUT_DATA */
-    static final byte[] PUT_HD = {CLA, (byte)0xDA, 0x00, 0x00};
-
-    /** Command APDU header for SELECT AID */
-    static final byte[] SEL_HD = {0x00, (byte)0xA4, 0x04, 0x00};
-
-    /** Length of status word */
-    static final int LEN_SW = AppLib.SHT_SIZ;
-
-    private static final byte[] AID     = {(byte)0xA0, 0x00, 0x00, 0x00, (byte)0x96, (byte)0xF0, (byte)0xFF, 0x7F, 0x01};
     private static final int    MSG_ERR = 1;                                                        // Error message identifier
     private static final int    MSG_OK  = 0;                                                        // Message identifier
+    private static final ApdCod COD     = new ApdCod();                                             // Codec for the APDUs of the PTx sessions
     private static final int    MSK_SW1 = 0xFF00;                                                   // Mask for SW1
     private static final int    MSK_SW2 = AppLib.BYT_UNS;                                           // Mask for SW2
-    private static final int    NO_SW   = 0;                                                        // Value for no status word
+    private static final int    HDR_EXT = ApdCod.GET_HD.length + AppLib.BYT_SIZ + AppLib.SHT_SIZ;   // Length of the header and the extended length field of a Command APDU
 
     /** Certificate Chain of actual emulated PTx device */
     public static WpcCrtChn sChn;
@@ -70,11 +56,22 @@ public class WpcPtx extends Thread implements Handler.Callback {
     /** Private key of actual emulated PTx device */
     public static PrivateKey sPrv;
 
+    /** Certificate Chains of the additional slots 1 to 3 of actual emulated PTx device */
+    public static final WpcCrtChn[] sSltChn = new WpcCrtChn[WpcAthIni.SLOT_CNT];
+
+    /** Private keys of the additional slots 1 to 3 of actual emulated PTx device */
+    public static final PrivateKey[] sSltPrv = new PrivateKey[WpcAthIni.SLOT_CNT];
+
     private final @NonNull IsoDep       mCom;                                                       // ISO-DEP communication interface
     private final @NonNull ListFragment mFrg;                                                       // App context
     private final @NonNull Handler      mHnd;                                                       // Listener to show the communication log
     private final @NonNull File         mLog;                                                       // Proposed log file name
     private final @NonNull ShwHnd       mShw;                                                       // Listener to show the results
+    private int                         mMax = ApdCod.MAX_SHT;                                      // Maximum data length of a PUT DATA command
+    private boolean                     mOne;                                                       // Flag for one APDU per Qi Authentication message
+    private int                         mCnt;                                                       // Number of exchanged APDUs
+    private long                        mTim;                                                       // Duration of the APDU exchanges in nanoseconds
+    private AthDln                      mDln;                                                       // Deadline of the Qi Authentication
 
     /**
      * Generates the thread to perform the Qi Authentication via NFC
@@ -163,9 +160,9 @@ public class WpcPtx extends Thread implements Handler.Callback {
                 } else {                                                                            // No WPC Certificate Chain
                     txt = mCtx.getString(R.string.qi_chg_dev);                                      // Set standard text message
                 }
-                AppLib.shwTst(mCtx, R.layout.tst_ok, txt);                                          // Show text message
+                AndLib.shwTst(mCtx, R.layout.tst_ok, txt);                                          // Show text message
             } else {                                                                                // An error occurred
-                AppLib.shwTst(mCtx, R.layout.tst_err, msg.arg1, msg.arg2);                          // Show error message
+                AndLib.shwTst(mCtx, R.layout.tst_err, msg.arg1, msg.arg2);                          // Show error message
             }
             return true;                                                                            // Return information that this event was processed
         }
@@ -184,22 +181,6 @@ public class WpcPtx extends Thread implements Handler.Callback {
         }
     }
 
-    /**
-     * Create a case 3 Command APDU
-     *
-     * @param head  The Command APDU header
-     * @param dat   The command data
-     * @return      The Command APDU
-     * @throws IOException when an error occurred during Command APDU creation (should never occur)
-     */
-    private @NonNull ByteArrayOutputStream getCmd(@NonNull byte[] head, @NonNull byte[] dat) throws IOException{
-        ByteArrayOutputStream cmd=new ByteArrayOutputStream(head.length+AppLib.BYT_SIZ+dat.length); // Create the Command APDU
-        cmd.write(head);                                                                            // Set Command header
-        cmd.write(dat.length);                                                                      // Set Lc
-        cmd.write(dat);                                                                             // Set command data
-        return cmd;                                                                                 // Return the Command APDU
-    }
-
     /**
      * Send the GET DATA command to receive a Qi Authentication message
      *
@@ -208,29 +189,59 @@ public class WpcPtx extends Thread implements Handler.Callback {
      * @throws  IOException when an NFC communication error occurred
      */
     private @NonNull byte[] getDat(int le) throws IOException {
-        ByteArrayOutputStream cmd = new ByteArrayOutputStream(GET_HD.length + AppLib.BYT_SIZ);      // Create the Command APDU
-        cmd.write(GET_HD);                                                                          // Set Command header
-        cmd.write(le);                                                                              // Set Le
-        final @NonNull byte[] apdu = mCom.transceive(cmd.toByteArray());                            // Send the GET DATA command to the PRx
-         final int len = apdu.length - LEN_SW;                                                      // Get the length of the Qi Authentication message
-        if ((len <= 0) || (len > le) || (getSw(apdu) != WpcPrx.SW_OK)) {                            // Incorrect length of Response APDU or unexpected status word?
+        final boolean ext = mMax > ApdCod.MAX_SHT;                                                  // Extended length APDUs negotiated?
+        final @NonNull byte[] cmd = COD.cmd(ApdCod.GET_HD, AppLib.NO_BA, 0, 0, ext ? mMax : le, ext);// Create the Command APDU, an extended Le announces the maximum PUT DATA length
+        final @NonNull byte[] apdu = trc(cmd);                                                      // Send the GET DATA command to the PRx
+         final int len = apdu.length - ApdCod.LEN_SW;                                               // Get the length of the Qi Authentication message
+        if ((len <= 0) || (len > le) || (ApdCod.getSw(apdu) != ApdCod.SW_OK)) {                     // Incorrect length of Response APDU or unexpected status word?
             throw new SwExp();                                                                      // Generate communication error
         }
-        return Arrays.copyOf(apdu, apdu.length - LEN_SW);                                           // Return the Qi Authentication message
+        return Arrays.copyOf(apdu, apdu.length - ApdCod.LEN_SW);                                    // Return the Qi Authentication message
     }
 
     /**
-     * Returns the status word of the Response APDU
+     * Exchanges an APDU with the PRx and counts the exchanges and their duration
+     * The exchange is limited by the remaining budget of the actual step.
      *
-     * @param   res The Response APDU
-     * @return  The status word of the Response APDU
+     * @param   cmd The Command APDU
+     * @return  The Response APDU
+     * @throws  IOException when an NFC communication error occurred, an AthDln.DlnExp when the budget is exceeded
      */
-    private int getSw(@NonNull byte[] res) {
-        final int len = res.length;                                                                 // Get the length of the Response APDU
-        if (len < LEN_SW) {                                                                         // Response APDU too small?
-            return NO_SW;                                                                           // Return no status word
-        }                                                                                           // Response APDU is large enough
-        return ((res[len-LEN_SW]&AppLib.BYT_UNS)<< 8) | (res[len-AppLib.BYT_SIZ] & AppLib.BYT_UNS); // Return the status word of the Response APDU
+    private @NonNull byte[] trc(@NonNull byte[] cmd) throws IOException {
+        final long tmo = mDln.rem();                                                                // Get the remaining budget of the step
+        mCom.setTimeout((int)tmo);                                                                  // Limit the exchange to the remaining budget
+        final long beg = System.nanoTime();                                                         // Get start time of the exchange
+        try {
+            return mCom.transceive(cmd);                                                            // Exchange the APDU
+        } catch (IOException err) {                                                                 // Exchange failed
+            if (System.nanoTime() - beg >= tmo * 1000000) {                                         // Timeout expired?
+                throw mDln.exp();                                                                   // Report the step which exceeded its budget
+            }
+            throw err;                                                                              // Report the communication error
+        } finally {
+            mTim = mTim + System.nanoTime() - beg;                                                  // Count the duration of the exchange
+            mCnt++;                                                                                 // Count the exchange
+        }
+    }
+
+    /**
+     * Negotiates the extended length APDU mode after the SELECT command
+     * Extended length APDUs are used if the PRx accepts them and the NFC controller supports them.
+     *
+     * @param   res The SELECT Response APDU
+     */
+    private void setMode(@NonNull byte[] res) {
+        mOne = (res.length > ApdCod.LEN_SW) && ((res[0] & CAP_ONE) != 0);                           // Check if the PRx returns the next message in the PUT DATA response
+        if ((res.length > ApdCod.LEN_SW) && ((res[0] & CAP_EXT) != 0)                               // PRx accepts extended length APDUs?
+                && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)                        // And the capability of the NFC controller can be checked?
+                && mCom.isExtendedLengthApduSupported()) {                                          // And the NFC controller supports extended length APDUs?
+            final int hdr = mOne ? HDR_EXT + AppLib.SHT_SIZ : HDR_EXT;                              // PUT DATA carries an extended Le with one APDU per message
+            mMax = Math.min(mCom.getMaxTransceiveLength() - hdr, ApdCod.MAX_EXT);                   // Set the maximum data length of a PUT DATA command
+        }
+        if (mOne) {                                                                                 // One APDU per Qi Authentication message?
+            WpcLog.logCmt("One APDU per Qi Authentication message");                                // Log the exchange mode
+        }
+        WpcLog.logCmt(mMax > ApdCod.MAX_SHT ? "Extended length APDUs with up to " + mMax + " bytes" : "Short APDUs");// Log the APDU mode
     }
 
     /**
@@ -240,53 +251,66 @@ public class WpcPtx extends Thread implements Handler.Callback {
      * @return  true to indicate that this event was processed
      */
     @Override public boolean handleMessage(Message msg) {
-        WpcLog.endLog(mFrg, mLog);                                                                  // Log abortion of Qi Authentication
+        LogLst.endLog(mFrg, mLog);                                                                  // Log abortion of Qi Authentication
         return true;                                                                                // Inform that this event was processed
     }
 
     /**
-     * Sends a PUT DATA command with a Qi Authentication message
+     * Sends a PUT DATA command with a Qi Authentication message and receives the next Qi Authentication message
+     * With one APDU per message the PUT DATA command contains an Le and the PRx returns the next message directly,
+     * otherwise the next message is requested with a GET DATA command.
      *
      * @param   res The Qi authentication message
-     * @return  The length of the responded Qi authentication message
+     * @return  The next Qi authentication message or null when the Qi Authentication is finished
      * @throws  IOException when an NFC communication error occurs
      */
-    private int putDat(@Nullable byte[] res) throws IOException {
+    private @Nullable byte[] putDat(@Nullable byte[] res) throws IOException {
         if (res == null) {                                                                          // No Authentication message received?
-            return 0;                                                                               // Return no Qi authentication message
+            return null;                                                                            // Return no Qi authentication message
         }
-        ByteArrayOutputStream cmd = getCmd(PUT_HD, res);                                            // Create PUT DATA command
-        byte[] apdu = cmd.toByteArray();                                                            // Convert Command APDU
-        apdu = mCom.transceive(apdu);                                                               // Send the PUT DATA command
-        int sw = getSw(apdu);                                                                       // Get returned status word
-        if (sw == WpcPrx.SW_OK) {                                                                   // Normal ending status word?
-            return 0;                                                                               // Terminate NFC communication
+        final int le = mOne ? 0 : ApdCod.NO_LE;                                                     // Set Le to receive the next message with one APDU per Qi Authentication message
+        byte[] apdu = COD.cmd(ApdCod.PUT_HD, res, 0, res.length, le, false);                        // Create PUT DATA command
+        apdu = trc(apdu);                                                                           // Send the PUT DATA command
+        int sw = ApdCod.getSw(apdu);                                                                // Get returned status word
+        if (sw == ApdCod.SW_OK) {                                                                   // Normal ending status word?
+            if (apdu.length > ApdCod.LEN_SW) {                                                      // Next message returned?
+                return Arrays.copyOf(apdu, apdu.length - ApdCod.LEN_SW);                            // Return the next Qi Authentication message
+            }
+            return null;                                                                            // Terminate NFC communication
         }
-        if ((sw & MSK_SW1) != WpcPrx.SW_DAT) {                                                      // Unexpected status word?
+        if ((sw & MSK_SW1) != ApdCod.SW_DAT) {                                                      // Unexpected status word?
             throw new IOException();                                                                // Generate NFC communication error
         }                                                                                           // Expected status word
-        return sw & MSK_SW2;                                                                        // Returns the length of the responded Qi Authentication message
+        return getDat(sw & MSK_SW2);                                                                // Request the next Qi Authentication message
     }
 
     /**
      * Thread to manage the NFC communication with the remote PRx
      */
     public void run() {
-        setPriority(Thread.MAX_PRIORITY);                                                           // Set this thread to maximum priority
         try {
             WpcLog.begLog(sChn.toString() + " starts Qi Authentication");                           // Start the WPC communication log
+            mDln = new AthDln(AthDln.TIM_TOT);                                                      // Start the total budget
             mCom.connect();                                                                         // Connect NFC communication
-            ByteArrayOutputStream cmd = getCmd(SEL_HD, AID);                                        // Create the SELECT AID Command APDU
-            cmd.write((byte)0);                                                                     // Set Le
-            byte[] apdu = cmd.toByteArray();                                                        // Convert Command APDU
-            apdu = mCom.transceive(apdu);                                                           // Send the SELECT AID command
-            int sw = getSw(apdu);                                                                   // Get the status word
-            if ((sw & MSK_SW1) == WpcPrx.SW_DAT) {                                                  // WPC PRx wants to start a WPC authentication?
-                WpcAthRsp rsp = new WpcAthRsp(sChn, sPrv, true);                                    // Initialize WPC Authentication Responder
-                int len = sw & AppLib.BYT_UNS;                                                      // Get length of first WPC Authentication request message
-                while (len > 0) {                                                                   // Repeat until no more WPC Authentication request messages are available
-                    len = putDat(rsp.athReq(getDat(len)));                                          // Execute the WPC Authentication request message
+            COD.rst();                                                                              // Reuse the APDU buffers of the previous session
+            byte[] apdu = COD.cmd(ApdCod.SEL_HD, ApdCod.AID, 0, ApdCod.AID.length, 0, false);       // Create the SELECT AID Command APDU
+            apdu = trc(apdu);                                                                       // Send the SELECT AID command
+            int sw = ApdCod.getSw(apdu);                                                            // Get the status word
+            if ((sw & MSK_SW1) == ApdCod.SW_DAT) {                                                  // WPC PRx wants to start a WPC authentication?
+                setMode(apdu);                                                                      // Negotiate the APDU mode
+                final WpcCrtChn[] chn = sSltChn.clone();                                            // Get the WPC Certificate Chains of all slots
+                final PrivateKey[] prv = sSltPrv.clone();                                           // Get the private keys of all slots
+                chn[0] = sChn;                                                                      // Slot 0 contains the device WPC Certificate Chain
+                prv[0] = sPrv;
+                WpcAthRsp rsp = new WpcAthRsp(chn, prv, true);                                      // Initialize WPC Authentication Responder
+                byte[] req = getDat(sw & AppLib.BYT_UNS);                                           // Get the first WPC Authentication request message
+                while (req != null) {                                                               // Repeat until no more WPC Authentication request messages are available
+                    mDln.beg(AthDln.getStp(req));                                                   // Start the budget of the step
+                    req = putDat(rsp.athReq(req));                                                  // Execute the WPC Authentication request message
                 }
+                WpcLog.logCmt(mCnt + " APDUs exchanged in " + mTim / 1000000 + " ms");              // Log the number and the duration of the APDU exchanges
+                WpcLog.logCmt(COD.getSta());                                                        // Log the buffer pool statistics of the APDU codec
+                WpcLog.logCmt(SesExe.getSta());                                                     // Log the metrics of the session executor
             } else {                                                                                // Another status word received
                 throw new SwExp();                                                                  // Throw exception
             }
@@ -294,6 +318,9 @@ public class WpcPtx extends Thread implements Handler.Callback {
             mShw.shwRes(null);                                                                      // Show end of NFC operation
         } catch (SwExp err) {                                                                       // An error occurred during the authentication of PRx
             mShw.shwErr(R.string.qi_fak_prx, R.string.qi_buy);                                      // Inform about fake device
+        } catch (AthDln.DlnExp err) {                                                               // A step exceeded its budget
+            WpcLog.logErr(err.getMessage());                                                        // Log the step which exceeded its budget
+            mShw.shwErr(AndLib.getErr(err.getStp().getEnd()), R.string.lib_try);                    // Inform about the exceeded budget
         } catch (IOException err) {                                                                 // A communication error occurred during the authentication of PRx
             WpcLog.logErr("Communication error");                                                   // Log abortion of Qi Authentication
             mShw.shwErr(R.string.lib_err_com, R.string.lib_try);                                    // Inform about communication loss
@@ -0,0 +1,254 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Codec for the Command and Response APDUs of the Qi Authentication application
+ * The APDUs are built in buffers of a per-session pool because the NFC interfaces require byte arrays of exact length.
+ * The pool is reset when a new session starts and hands out the same buffers again instead of allocating new ones.
+ * Only the APDU framing uses the pool, the Qi Authentication messages are copied as they are kept by the log.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+class ApdCod {
+
+    private static final byte   CLA     = 0x00;                                                     // Class byte for Qi Authentication APDUs
+
+    /** Command APDU header for GET_DATA */
+    static final byte[] GET_HD = {CLA, (byte)0xCA, 0x00, 0x00};
+
+    /** Command APDU header for PUT_DATA */
+    static final byte[] PUT_HD = {CLA, (byte)0xDA, 0x00, 0x00};
+
+    /** Command APDU header for SELECT AID */
+    static final byte[] SEL_HD = {0x00, (byte)0xA4, 0x04, 0x00};
+
+    /** Application identifier of the Qi Authentication application */
+    static final byte[] AID = {(byte)0xA0, 0x00, 0x00, 0x00, (byte)0x96, (byte)0xF0, (byte)0xFF, 0x7F, 0x01};
+
+    /** Length of status word */
+    static final int LEN_SW = AppLib.SHT_SIZ;
+
+    /** Status word indicating available data */
+    static final int SW_DAT = 0x6200;
+
+    /** Status word for normal ending */
+    static final int SW_OK = 0x9000;
+
+    /** Maximum data length of a short APDU */
+    static final int MAX_SHT = AppLib.BYT_UNS;
+
+    /** Maximum data length of an extended length APDU */
+    static final int MAX_EXT = AppLib.SHT_UNS;
+
+    /** Le value for a Command APDU without Le */
+    static final int NO_LE = -1;
+
+    /** Index of the offset of the command data in the body returned by getBdy() */
+    static final int BDY_OFS = 0;
+
+    /** Index of the length of the command data in the body returned by getBdy() */
+    static final int BDY_LEN = 1;
+
+    /** Index of Le in the body returned by getBdy() */
+    static final int BDY_LE = 2;
+
+    private static final int    MAX_LE  = MAX_SHT + 1;                                              // Maximum Le of a short APDU (coded as 0)
+    private static final int    MIN_POL = 16;                                                       // Initial number of pooled buffers
+    private static final int    HDR_LEN = 4;                                                        // Length of the Command APDU header (CLA, INS, P1, P2)
+
+    private byte[][]    mBuf = new byte[MIN_POL][];                                                 // Pooled buffers in the order of their first use
+    private boolean[]   mUse = new boolean[MIN_POL];                                                // Flags for buffers used in the actual session
+    private int         mCnt;                                                                       // Number of pooled buffers
+    private int         mHnd;                                                                       // Number of buffers handed out in the actual session
+    private int         mNew;                                                                       // Number of buffers allocated in the actual session
+    private long        mByt;                                                                       // Number of bytes allocated in the actual session
+
+    /**
+     * Starts a new session and releases all buffers of the previous session
+     */
+    synchronized void rst() {
+        Arrays.fill(mUse, 0, mCnt, false);                                                          // Release all buffers
+        mHnd = 0;                                                                                   // Reset the session statistics
+        mNew = 0;
+        mByt = 0;
+    }
+
+    /**
+     * Creates a Command APDU
+     * An extended length APDU is created when the command data or Le do not fit into a short APDU
+     *
+     * @param   hdr The Command APDU header (CLA, INS, P1, P2)
+     * @param   dat The buffer with the command data
+     * @param   ofs The offset of the command data in the buffer
+     * @param   len The length of the command data
+     * @param   le  The expected length of the response data (0 for the maximum length, NO_LE for no Le)
+     * @param   ext true to force an extended length APDU
+     * @return  The Command APDU
+     */
+    @NonNull byte[] cmd(@NonNull byte[] hdr, @NonNull byte[] dat, int ofs, int len, int le, boolean ext) {
+        ext = (ext && ((len > 0) || (le != NO_LE))) || (len > MAX_SHT) || (le > MAX_LE);            // Extended length APDU required?
+        final int fld = ext ? AppLib.SHT_SIZ : AppLib.BYT_SIZ;                                      // Get the size of the length fields
+        final int siz = (ext ? 1 : 0) + ((len > 0) ? fld + len : 0) + ((le != NO_LE) ? fld : 0);    // Get the length of the body
+        final @NonNull byte[] apdu = buf(hdr.length + siz);                                         // Get the Command APDU buffer
+        System.arraycopy(hdr, 0, apdu, 0, hdr.length);                                              // Set the Command header
+        int pos = hdr.length;                                                                       // Position behind the Command header
+        if (ext) {                                                                                  // Extended length APDU?
+            apdu[pos++] = 0;                                                                        // Indicate extended length
+        }
+        if (len > 0) {                                                                              // Command data available?
+            pos = put(apdu, pos, len, ext);                                                         // Set Lc
+            System.arraycopy(dat, ofs, apdu, pos, len);                                             // Set the command data
+            pos = pos + len;                                                                        // Goto Le
+        }
+        if (le != NO_LE) {                                                                          // Le available?
+            put(apdu, pos, le & AppLib.SHT_UNS, ext);                                               // Set Le
+        }
+        return apdu;                                                                                // Return the Command APDU
+    }
+
+    /**
+     * Creates a Response APDU
+     *
+     * @param   dat The buffer with the response data
+     * @param   ofs The offset of the response data in the buffer
+     * @param   len The length of the response data
+     * @param   sw  The status word
+     * @return  The Response APDU
+     */
+    @NonNull byte[] rsp(@NonNull byte[] dat, int ofs, int len, int sw) {
+        final @NonNull byte[] apdu = buf(len + AppLib.SHT_SIZ);                                     // Get the Response APDU buffer
+        System.arraycopy(dat, ofs, apdu, 0, len);                                                   // Set the response data
+        apdu[len] = (byte)(sw >> 8);                                                                // Set SW1
+        apdu[len + 1] = (byte)sw;                                                                   // Set SW2
+        return apdu;                                                                                // Return the Response APDU
+    }
+
+    /**
+     * Creates a Response APDU with only a status word
+     *
+     * @param   sw  The status word
+     * @return  The Response APDU
+     */
+    @NonNull byte[] rsp(int sw) {
+        return rsp(AppLib.NO_BA, 0, 0, sw);                                                         // Return the Response APDU
+    }
+
+    /**
+     * Returns the status word of a Response APDU
+     *
+     * @param   apdu    The Response APDU
+     * @return  The status word or 0 if the Response APDU is too small
+     */
+    static int getSw(@NonNull byte[] apdu) {
+        final int len = apdu.length;                                                                // Get the length of the Response APDU
+        if (len < AppLib.SHT_SIZ) {                                                                 // Response APDU too small?
+            return 0;                                                                               // Return no status word
+        }
+        return ((apdu[len - 2] & AppLib.BYT_UNS) << 8) | (apdu[len - 1] & AppLib.BYT_UNS);          // Return the status word
+    }
+
+    /**
+     * Returns the body of a Command APDU
+     * The short and extended length cases of ISO/IEC 7816-4 are decoded.
+     *
+     * @param   apdu    The Command APDU
+     * @return  The offset and length of the command data and Le (NO_LE for no Le, 0 for the maximum length)
+     * @throws  IOException in case of an invalid Command APDU
+     */
+    static @NonNull int[] getBdy(@NonNull byte[] apdu) throws IOException {
+        final int siz = apdu.length - HDR_LEN;                                                      // Get the length of the body
+        if (siz <= 1) {                                                                             // No body or only a short Le?
+            if (siz < 0) {                                                                          // Command APDU too small?
+                throw new IOException("Invalid Command APDU");                                      // Report the invalid Command APDU
+            }
+            return new int[] {HDR_LEN, 0, (siz == 0) ? NO_LE : apdu[HDR_LEN] & AppLib.BYT_UNS};     // Return the body without command data
+        }
+        final int lc = apdu[HDR_LEN] & AppLib.BYT_UNS;                                              // Get the short Lc
+        if (lc != 0) {                                                                              // Short length APDU?
+            if ((siz != 1 + lc) && (siz != 2 + lc)) {                                               // Length does not match Lc?
+                throw new IOException("Invalid Command APDU");                                      // Report the invalid Command APDU
+            }
+            return new int[] {HDR_LEN + 1, lc, (siz == 1 + lc) ? NO_LE : apdu[apdu.length - 1] & AppLib.BYT_UNS};
+        }
+        final int ext = ((apdu[HDR_LEN + 1] & AppLib.BYT_UNS) << 8) | (apdu[HDR_LEN + 2] & AppLib.BYT_UNS);// Get the extended length field
+        if (siz == 3) {                                                                             // Only an extended Le?
+            return new int[] {HDR_LEN + 3, 0, ext};                                                 // Return the body without command data
+        }
+        if ((siz != 3 + ext) && (siz != 5 + ext)) {                                                 // Length does not match the extended Lc?
+            throw new IOException("Invalid Command APDU");                                          // Report the invalid Command APDU
+        }
+        final int le = ((apdu[apdu.length - 2] & AppLib.BYT_UNS) << 8) | (apdu[apdu.length - 1] & AppLib.BYT_UNS);
+        return new int[] {HDR_LEN + 3, ext, (siz == 3 + ext) ? NO_LE : le};                         // Return the body with the command data
+    }
+
+    /**
+     * Returns the statistics of the actual session
+     * Only the buffers of the pool are counted, the heap allocation of complete sessions is measured by LodGen.
+     *
+     * @return  The description of the used and newly pooled buffers
+     */
+    synchronized @NonNull String getSta() {
+        return "APDU codec: " + mHnd + " buffers used, " + mNew + " added to the pool (" + mByt + " bytes)";// Return the statistics
+    }
+
+    /**
+     * Returns an unused buffer of a given length from the pool
+     * A new buffer is only allocated when all pooled buffers of this length are used in the actual session.
+     *
+     * @param   len The length of the buffer
+     * @return  The buffer
+     */
+    private synchronized @NonNull byte[] buf(int len) {
+        mHnd++;                                                                                     // Count the handed out buffer
+        for (int ind = 0; ind < mCnt; ind++) {                                                      // Repeat for all pooled buffers
+            if (!mUse[ind] && (mBuf[ind].length == len)) {                                          // Unused buffer of the requested length?
+                mUse[ind] = true;                                                                   // Mark the buffer as used
+                return mBuf[ind];                                                                   // Return the pooled buffer
+            }
+        }
+        if (mCnt == mBuf.length) {                                                                  // Pool full?
+            mBuf = Arrays.copyOf(mBuf, 2 * mCnt);                                                   // Enlarge the pool
+            mUse = Arrays.copyOf(mUse, 2 * mCnt);
+        }
+        mBuf[mCnt] = new byte[len];                                                                 // Allocate a new buffer
+        mUse[mCnt] = true;                                                                          // Mark the buffer as used
+        mNew++;                                                                                     // Count the allocated buffer
+        mByt = mByt + len;                                                                          // Count the allocated bytes
+        return mBuf[mCnt++];                                                                        // Return the new buffer
+    }
+
+    /**
+     * Writes a length field of an APDU
+     *
+     * @param   apdu    The APDU
+     * @param   pos     The position of the length field
+     * @param   len     The length
+     * @param   ext     true for an extended length field
+     * @return  The position behind the length field
+     */
+    private static int put(@NonNull byte[] apdu, int pos, int len, boolean ext) {
+        if (ext) {                                                                                  // Extended length field?
+            apdu[pos++] = (byte)(len >> 8);                                                         // Set the upper byte
+        }
+        apdu[pos++] = (byte)len;                                                                    // Set the lower byte
+        return pos;                                                                                 // Return the position behind the length field
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * In-memory loopback Qi Authentication interface through the APDU codec
+ * Each Qi Authentication message is framed into the Command and Response APDUs of the NFC link and decoded again, so
+ * a load measures the allocation and the run time of the codec path like the PRx and PTx emulations use it.
+ * The messages are requested with GET DATA commands or, in the one APDU mode, returned in the PUT DATA responses.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+class ApdLop extends WpcLop {
+
+    private final @NonNull ApdCod   mPrx;                                                           // APDU codec of the PRx
+    private final @NonNull ApdCod   mPtx;                                                           // APDU codec of the PTx
+    private final boolean           mOne;                                                           // Flag for one APDU per Qi Authentication message
+    private final boolean           mExt;                                                           // Flag for extended length APDUs
+
+    /**
+     * Creates the loopback Qi Authentication interface through the APDU codec
+     * The codecs are reset as a new session starts.
+     *
+     * @param   rsp The Qi Authentication Responder of the emulated device
+     * @param   max The maximum length of a Qi Authentication Response
+     * @param   lst The listener called once the Qi Authentication is finished
+     * @param   prx The APDU codec of the PRx
+     * @param   ptx The APDU codec of the PTx
+     * @param   one true for one APDU per Qi Authentication message
+     */
+    ApdLop(@NonNull WpcAthRsp rsp, int max, @Nullable Runnable lst, @NonNull ApdCod prx, @NonNull ApdCod ptx, boolean one) {
+        super(rsp, max, lst);                                                                       // Create the loopback interface
+        mPrx = prx;                                                                                 // Register the APDU codec of the PRx
+        mPtx = ptx;                                                                                 // Register the APDU codec of the PTx
+        mOne = one;                                                                                 // Register the APDU mode
+        mExt = max > ApdCod.MAX_SHT;                                                                // Use extended length APDUs for long Responses
+        mPrx.rst();                                                                                 // Reuse the APDU buffers of the previous session
+        mPtx.rst();
+    }
+
+    /**
+     * Exchanges a Qi Authentication Request framed into APDUs with the Responder
+     *
+     * @param   req The Qi Authentication Request
+     * @return  The Qi Authentication Response or null if the Responder does not answer
+     * @throws  IOException in case an APDU is wrong
+     */
+    @Override @Nullable byte[] xfr(@NonNull byte[] req) throws IOException {
+        final @NonNull byte[] msg;                                                                  // Qi Authentication Request received by the PTx
+        if (mOne) {                                                                                 // One APDU per Qi Authentication message?
+            msg = getDat(mPrx.rsp(req, 0, req.length, ApdCod.SW_OK));                               // Return the Request in the PUT DATA response
+        } else {                                                                                    // Request is read with a GET DATA command
+            final int sw = ApdCod.getSw(mPrx.rsp(ApdCod.SW_DAT | req.length));                      // Announce the length of the Request
+            final @NonNull byte[] get = mPtx.cmd(ApdCod.GET_HD, AppLib.NO_BA, 0, 0, sw & AppLib.BYT_UNS, mExt);// Create the GET DATA command
+            final @NonNull int[] bdy = ApdCod.getBdy(get);                                          // Decode the GET DATA command
+            if (bdy[ApdCod.BDY_LE] < req.length) {                                                  // Requested length too small?
+                throw new IOException("Wrong GET DATA command");                                    // Report the wrong command
+            }
+            msg = getDat(mPrx.rsp(req, 0, req.length, ApdCod.SW_OK));                               // Return the Request in the GET DATA response
+        }
+        final byte[] res = super.xfr(msg);                                                          // Execute the Qi Authentication Request
+        if (res == null) {                                                                          // No Response?
+            return null;                                                                            // Report the missing Response
+        }
+        final @NonNull byte[] put = mPtx.cmd(ApdCod.PUT_HD, res, 0, res.length, mOne ? 0 : ApdCod.NO_LE, mExt);// Create the PUT DATA command
+        final @NonNull int[] bdy = ApdCod.getBdy(put);                                              // Decode the PUT DATA command
+        return Arrays.copyOfRange(put, bdy[ApdCod.BDY_OFS], bdy[ApdCod.BDY_OFS] + bdy[ApdCod.BDY_LEN]);// Copy the Response as the APDU buffer is reused
+    }
+
+    /**
+     * Returns the data of a Response APDU with the normal ending status word
+     *
+     * @param   apdu    The Response APDU
+     * @return  The response data
+     * @throws  IOException in case of an unexpected status word
+     */
+    private static @NonNull byte[] getDat(@NonNull byte[] apdu) throws IOException {
+        if (ApdCod.getSw(apdu) != ApdCod.SW_OK) {                                                   // Unexpected status word?
+            throw new IOException("Wrong Response APDU");                                           // Report the wrong Response APDU
+        }
+        return Arrays.copyOf(apdu, apdu.length - ApdCod.LEN_SW);                                    // Return the response data
+    }
+}
\ No newline at end of file
@@ -0,0 +1,178 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class to check WPC Certificate Chains and CHALLENGE / CHALLENGE_AUTH pairs without a remote device
+ * Successfully verified WPC Certificate Chains are kept in a cache buffer, so the pairs of a known device only
+ * require the verification of the signature. The checks can be executed concurrently.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class AthChk {
+
+    /** Length of the CHALLENGE Request */
+    public static final int LEN_REQ = WpcAthIni.OFS_RND + WpcAthIni.RND_SIZ;
+
+    /** Length of the CHALLENGE_AUTH Response */
+    public static final int LEN_RES = WpcAthRsp.LEN_ATH + WpcCrt.LEN_SIG;
+
+    private static final int    OFS_HDR = 0;                                                        // Offset of the version and message type
+    private static final int    OFS_SLT = 1;                                                        // Offset of the slot or the maximum version and Slots Populated Mask
+    private static final int    OFS_LSB = 2;                                                        // Offset of the Certificate Chain Hash LSB
+    private static final int    MSK_VER = 0xF0;                                                     // Mask of the version
+    private static final int    HDR_VER = WpcAthIni.ATH_VER << 4;                                   // Supported version
+    private static final byte   HDR_REQ = (byte)(HDR_VER | WpcAthIni.REQ_ATH);                      // Header of a CHALLENGE Request
+    private static final byte   HDR_RES = (byte)(HDR_VER | WpcAthRsp.RES_ATH);                      // Header of a CHALLENGE_AUTH Response
+
+    private final @NonNull CachBuf  mCach;                                                          // Verified WPC Certificate Chains
+    private final AtomicLong        mChk = new AtomicLong();                                        // Number of verified WPC Certificate Chains
+
+    /**
+     * Creates the checker
+     *
+     * @param   siz The number of cached WPC Certificate Chains
+     */
+    public AthChk(int siz) {
+        mCach = new CachBuf(siz);                                                                   // Create the cache of verified chains
+    }
+
+    /**
+     * Checks a WPC Certificate Chain unless it is already cached as verified
+     *
+     * @param   chn The WPC Certificate Chain
+     * @return  The verification result
+     */
+    public @NonNull VerRes chkChn(@NonNull WpcCrtChn chn) {
+        final WpcCrtChn hit = mCach.get(chn.getDig());                                              // Search the verified chain
+        if ((hit != null) && Arrays.equals(hit.getChn(), chn.getChn())) {                           // Chain already verified?
+            return VerRes.OK;                                                                       // Return the cached result
+        }
+        final @NonNull VerRes res = chn.check();                                                    // Verify the chain
+        mChk.incrementAndGet();                                                                     // Count the verified chain
+        if (res.isOk()) {                                                                           // Correct chain?
+            mCach.add(chn);                                                                         // Cache the verified chain
+        }
+        return res;                                                                                 // Return the verification result
+    }
+
+    /**
+     * Checks a CHALLENGE / CHALLENGE_AUTH pair with the WPC Certificate Chain of the remote device
+     *
+     * @param   chn The WPC Certificate Chain
+     * @param   req The CHALLENGE Request
+     * @param   res The CHALLENGE_AUTH Response
+     * @return  The verification result
+     * @throws  IllegalArgumentException in case a message has the wrong length
+     */
+    public @NonNull VerRes chkAth(@NonNull WpcCrtChn chn, @NonNull byte[] req, @NonNull byte[] res) {
+        return chkAth(chn, chkChn(chn), req, res);                                                  // Check the pair with the result of the chain
+    }
+
+    /**
+     * Checks a CHALLENGE / CHALLENGE_AUTH pair with an already checked WPC Certificate Chain
+     *
+     * @param   chn The WPC Certificate Chain
+     * @param   ver The verification result of the WPC Certificate Chain
+     * @param   req The CHALLENGE Request
+     * @param   res The CHALLENGE_AUTH Response
+     * @return  The verification result, ERR_MSG in case a message has the wrong length
+     */
+    public @NonNull VerRes chkAth(@NonNull WpcCrtChn chn, @NonNull VerRes ver, @NonNull byte[] req, @NonNull byte[] res) {
+        if (!chkLen(req, res)) {                                                                    // Wrong message lengths?
+            return VerRes.ERR_MSG;                                                                  // Report the wrong messages
+        }
+        if (!ver.isOk()) {                                                                          // Wrong WPC Certificate Chain?
+            return ver;                                                                             // Return the result of the chain
+        }
+        return chkAth(chn.getDig(), chn.getPu().getPublicKey(), req, res);                          // Return the result of the pair
+    }
+
+    /**
+     * Checks a CHALLENGE / CHALLENGE_AUTH pair with the Digest and the decoded public key of a verified WPC
+     * Certificate Chain
+     *
+     * @param   dig The Digest of the WPC Certificate Chain
+     * @param   key The public key of the Product Unit Certificate
+     * @param   req The CHALLENGE Request
+     * @param   res The CHALLENGE_AUTH Response
+     * @return  The verification result, ERR_MSG in case a message has the wrong length
+     */
+    public static @NonNull VerRes chkAth(@NonNull byte[] dig, @NonNull PublicKey key, @NonNull byte[] req, @NonNull byte[] res) {
+        if (!chkLen(req, res)) {                                                                    // Wrong message lengths?
+            return VerRes.ERR_MSG;                                                                  // Report the wrong messages
+        }
+        final @NonNull VerRes hdr = chkHdr(req, res, dig);                                          // Check the message headers
+        if (!hdr.isOk()) {                                                                          // Wrong message header?
+            return hdr;                                                                             // Return the result of the headers
+        }
+        final @NonNull byte[] sig = Arrays.copyOfRange(res, WpcAthRsp.LEN_ATH, res.length);         // Get the signature from the CHALLENGE_AUTH Response
+        return SafFkt.chkSig(WpcAthRsp.getSigDig(dig, req, res), sig, key);                         // Return the result of the signature
+    }
+
+    /**
+     * Checks the headers of a CHALLENGE / CHALLENGE_AUTH pair
+     * Both messages must have the supported version and the right message type. The CHALLENGE_AUTH Response must
+     * announce the supported maximum version, the requested slot must be populated and the Certificate Chain Hash LSB
+     * must match the WPC Certificate Chain.
+     *
+     * @param   req The CHALLENGE Request
+     * @param   res The CHALLENGE_AUTH Response
+     * @param   dig The Digest of the WPC Certificate Chain
+     * @return  The verification result
+     */
+    public static @NonNull VerRes chkHdr(@NonNull byte[] req, @NonNull byte[] res, @NonNull byte[] dig) {
+        if ((req.length < LEN_REQ) || (res.length < WpcAthRsp.LEN_ATH)) {                           // Messages too short?
+            return VerRes.ERR_MSG;                                                                  // Report the wrong messages
+        }
+        if ((req[OFS_HDR] != HDR_REQ) || (res[OFS_HDR] != HDR_RES)) {                               // Wrong version or message type?
+            return VerRes.ERR_MSG;                                                                  // Report the wrong message header
+        }
+        final int slt = req[OFS_SLT] & (WpcAthIni.SLOT_CNT - 1);                                    // Get the requested slot
+        if (((res[OFS_SLT] & MSK_VER) != HDR_VER) || ((res[OFS_SLT] & (WpcAthIni.SLOT_MSK << slt)) == 0)) {// Wrong maximum version or slot not populated?
+            return VerRes.ERR_SLT;                                                                  // Report the wrong Slots Populated Mask
+        }
+        if (res[OFS_LSB] != dig[WpcKey.DIG_SIZ - 1]) {                                              // Wrong Certificate Chain Hash LSB?
+            return VerRes.ERR_LSB;                                                                  // Report the wrong LSB
+        }
+        return VerRes.OK;                                                                           // Report the correct headers
+    }
+
+    /**
+     * Checks the lengths of a CHALLENGE / CHALLENGE_AUTH pair
+     *
+     * @param   req The CHALLENGE Request
+     * @param   res The CHALLENGE_AUTH Response
+     * @return  true if both messages have the right length
+     */
+    private static boolean chkLen(@NonNull byte[] req, @NonNull byte[] res) {
+        return (req.length == LEN_REQ) && (res.length == LEN_RES);                                  // Return the result of the lengths
+    }
+
+    /**
+     * Returns the number of WPC Certificate Chains which were actually verified
+     *
+     * @return  The number of verified WPC Certificate Chains
+     */
+    public long getChk() {
+        return mChk.get();                                                                          // Return the number of verified chains
+    }
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.io.InterruptedIOException;
+import java.util.Locale;
+
+/**
+ * Deadline of a Qi Authentication session
+ * The session has a total budget and each exchange has the budget of its step (GET_DIGESTS, each GET_CERTIFICATE
+ * fragment, CHALLENGE). The timeout of an exchange is the budget of its step limited by the remaining total budget.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+class AthDln {
+
+    /** Total budget of a Qi Authentication session [ms] */
+    static final long TIM_TOT = 5000;
+
+    /** Steps of the Qi Authentication with their budget */
+    enum Stp {
+        TOT("Qi Authentication", TIM_TOT, AthEnd.TIM_TOT),                                          // Whole Qi Authentication session
+        DIG("GET_DIGESTS", 500, AthEnd.TIM_DIG),                                                    // GET_DIGESTS exchange
+        CRT("GET_CERTIFICATE", 500, AthEnd.TIM_CRT),                                                // Exchange of one GET_CERTIFICATE fragment
+        ATH("CHALLENGE", 1500, AthEnd.TIM_ATH);                                                     // CHALLENGE exchange including the signature calculation
+
+        private final @NonNull String   mName;                                                      // Name of the step
+        private final long              mBud;                                                       // Budget of the step [ms]
+        private final @NonNull AthEnd   mEnd;                                                       // Result when the budget is exceeded
+
+        /**
+         * Creates a step
+         *
+         * @param   name    The name of the step
+         * @param   bud     The budget of the step in milliseconds
+         * @param   end     The result when the budget is exceeded
+         */
+        Stp(@NonNull String name, long bud, @NonNull AthEnd end) {
+            mName = name;                                                                           // Register the name
+            mBud = bud;                                                                             // Register the budget
+            mEnd = end;                                                                             // Register the result
+        }
+
+        /**
+         * Returns the result when the budget is exceeded
+         *
+         * @return  The result of the Qi Authentication
+         */
+        @NonNull AthEnd getEnd() {
+            return mEnd;                                                                            // Return the result
+        }
+    }
+
+    /**
+     * Exception for an exceeded budget
+     */
+    static class DlnExp extends InterruptedIOException {
+
+        private static final long serialVersionUID = 1L;                                            // Version of the serialized exception
+        private final @NonNull Stp  mStp;                                                           // Step which exceeded its budget
+
+        /**
+         * Creates the exception for an exceeded budget
+         *
+         * @param   stp The step which exceeded its budget
+         * @param   txt The description of the step
+         */
+        private DlnExp(@NonNull Stp stp, @NonNull String txt) {
+            super(txt);                                                                             // Register the description
+            mStp = stp;                                                                             // Register the step
+        }
+
+        /**
+         * Returns the step which exceeded its budget
+         *
+         * @return  The step
+         */
+        @NonNull Stp getStp() {
+            return mStp;                                                                            // Return the step
+        }
+    }
+
+    private final long      mBeg = System.nanoTime();                                               // Start time of the session [ns]
+    private final long      mEnd;                                                                   // End of the total budget [ns]
+    private @NonNull Stp    mStp = Stp.TOT;                                                         // Actual step
+    private long            mStpEnd;                                                                // End of the budget of the actual step [ns]
+    private int             mCnt;                                                                   // Number of the actual step
+
+    /**
+     * Creates the deadline of a session starting now
+     *
+     * @param   tot The total budget in milliseconds
+     */
+    AthDln(long tot) {
+        mEnd = mBeg + tot * 1000000;                                                                // Calculate the end of the total budget
+        mStpEnd = mEnd;                                                                             // No step started
+    }
+
+    /**
+     * Returns the step of a Qi Authentication Request
+     *
+     * @param   req The Qi Authentication Request
+     * @return  The step
+     */
+    static @NonNull Stp getStp(@NonNull byte[] req) {
+        switch ((req.length > 0) ? req[0] & 0x0F : 0) {                                             // Select the Request type
+            case WpcAthIni.REQ_DIG: return Stp.DIG;                                                 // GET_DIGESTS
+            case WpcAthIni.REQ_CRT: return Stp.CRT;                                                 // GET_CERTIFICATE
+            case WpcAthIni.REQ_ATH: return Stp.ATH;                                                 // CHALLENGE
+            default:                return Stp.TOT;                                                 // No own budget
+        }
+    }
+
+    /**
+     * Starts a step
+     *
+     * @param   stp The step
+     * @return  The timeout of the step in milliseconds
+     * @throws  DlnExp in case the total budget is already exceeded
+     */
+    synchronized long beg(@NonNull Stp stp) throws DlnExp {
+        final long now = System.nanoTime();                                                         // Get the actual time
+        if (now >= mEnd) {                                                                          // Total budget exceeded?
+            throw exp(Stp.TOT, now);                                                                // Report the exceeded total budget
+        }
+        mCnt = (stp == mStp) ? mCnt + 1 : 1;                                                        // Count the repeated step
+        mStp = stp;                                                                                 // Register the step
+        mStpEnd = Math.min(mEnd, now + stp.mBud * 1000000);                                         // Calculate the end of the step
+        return Math.max(1, (mStpEnd - now) / 1000000);                                              // Return the timeout
+    }
+
+    /**
+     * Returns the remaining budget of the actual step
+     * The step may need several exchanges which share the budget of the step.
+     *
+     * @return  The remaining budget in milliseconds
+     * @throws  DlnExp in case the budget of the step is exceeded
+     */
+    synchronized long rem() throws DlnExp {
+        final long now = System.nanoTime();                                                         // Get the actual time
+        if (now >= mStpEnd) {                                                                       // Budget of the step exceeded?
+            throw exp();                                                                            // Report the exceeded budget
+        }
+        return Math.max(1, (mStpEnd - now) / 1000000);                                              // Return the remaining budget
+    }
+
+    /**
+     * Creates the exception for the actual step whose timeout expired
+     * The total budget is reported if it ended before the budget of the step.
+     *
+     * @return  The exception
+     */
+    synchronized @NonNull DlnExp exp() {
+        return exp((mStpEnd < mEnd) ? mStp : Stp.TOT, System.nanoTime());                           // Return the exception for the step which limited the timeout
+    }
+
+    /**
+     * Creates the exception for an exceeded budget
+     *
+     * @param   stp The step which exceeded its budget
+     * @param   now The actual time in nanoseconds
+     * @return  The exception
+     */
+    private @NonNull DlnExp exp(@NonNull Stp stp, long now) {
+        final @NonNull String txt;                                                                  // Description of the exceeded budget
+        if (stp == Stp.TOT) {                                                                       // Total budget exceeded?
+            txt = String.format(Locale.US, "%s exceeded its budget of %d ms during %s", stp.mName, (mEnd - mBeg) / 1000000, mStp.mName);
+        } else {                                                                                    // Budget of a step exceeded
+            txt = String.format(Locale.US, "%s %d exceeded its budget of %d ms", stp.mName, mCnt, stp.mBud);
+        }
+        return new DlnExp(stp, txt + " (" + (now - mBeg) / 1000000 + " ms elapsed)");               // Return the exception
+    }
+}
\ No newline at end of file
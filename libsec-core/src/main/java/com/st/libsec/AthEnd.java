@@ -0,0 +1,40 @@
+package com.st.libsec;
+
+/**
+ * Result of a Qi Authentication
+ * The platform adapter shows the result to the user.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public enum AthEnd {
+    OK,                                                                                             // Successful Qi Authentication
+    ERR_FAK,                                                                                        // Remote device cannot be authenticated
+    ERR_COM,                                                                                        // Communication error
+    TIM_TOT,                                                                                        // Total budget of the Qi Authentication exceeded
+    TIM_DIG,                                                                                        // Budget of the GET_DIGESTS exchange exceeded
+    TIM_CRT,                                                                                        // Budget of a GET_CERTIFICATE exchange exceeded
+    TIM_ATH;                                                                                        // Budget of the CHALLENGE exchange exceeded
+
+    /**
+     * Informs if the Qi Authentication was successful
+     *
+     * @return  true if the Qi Authentication was successful, otherwise false
+     */
+    public boolean isOk() {
+        return this == OK;                                                                          // Return the authentication state
+    }
+}
\ No newline at end of file
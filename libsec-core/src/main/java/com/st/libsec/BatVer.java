@@ -0,0 +1,588 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batch verifier which shards a verification corpus across several worker processes
+ * The coordinator splits the corpus (see CrpRec) by the Digest of the WPC Certificate Chain into shard files, so all
+ * records of a chain are verified by the same worker and its verification is reused. The worker processes verify one
+ * shard after the other and write the verdicts of a shard into a result file. A shard of a crashed worker is assigned
+ * again to a new worker process, a shard which fails repeatedly is reported as failed. Finally the result files are
+ * merged in the order of the corpus lines and the throughput is reported.
+ * The shard and result files are kept in a work directory beside the result file. Workers on other machines can be
+ * used with a launcher command like ssh when the work directory and the class path are on a shared filesystem.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class BatVer {
+
+    /** Verdict of a malformed record */
+    public static final String RES_INV = "INVALID";
+
+    /** Verdict of a record in a shard which could not be verified */
+    public static final String RES_FLD = "FAILED";
+
+    private static final String OPT_WRK = "-w";                                                     // Option to start a worker process
+    private static final String OPT_ROT = "-r";                                                     // Option for the directory of the WPC Root Certificate
+    private static final String EXT_SHD = ".txt";                                                   // Extension of a shard file
+    private static final String EXT_RES = ".res";                                                   // Extension of a result file
+    private static final String EXT_TMP = ".tmp";                                                   // Extension of an incomplete result file
+    private static final String PFX_SHD = "shard-";                                                 // Prefix of the shard and result files
+    private static final String EXT_DIR = ".shards";                                                // Extension of the work directory
+    private static final int    SHD_PRC = 4;                                                        // Default number of shards per worker process
+    private static final int    MAX_TRY = 3;                                                        // Maximum number of attempts per shard
+    private static final long   TIM_SHD = 600000;                                                   // Default timeout for the verification of one shard [ms]
+    private static final int    CACH_SIZ = 256;                                                     // Number of cached verified WPC Certificate Chains per worker
+
+    private final @NonNull File         mCrp;                                                       // Corpus
+    private final @NonNull File         mRes;                                                       // Result file
+    private final @NonNull File         mDir;                                                       // Work directory
+    private final int                   mPrc;                                                       // Number of worker processes
+    private final int                   mShd;                                                       // Number of shards
+    private final @NonNull List<String> mLch = new ArrayList<>();                                   // Launcher command of the worker processes
+    private final AtomicLong            mRec = new AtomicLong();                                    // Number of verified records
+    private final AtomicLong            mTim = new AtomicLong();                                    // Verification time of the workers [ns]
+    private final AtomicInteger         mCrs = new AtomicInteger();                                 // Number of crashed worker processes
+    private final AtomicInteger         mHng = new AtomicInteger();                                 // Number of hanging worker processes killed by the watchdog
+    private final Map<String, Long>     mCnt = new TreeMap<>();                                     // Number of records per verdict
+    private final List<Integer>         mFld = new ArrayList<>();                                   // Failed shards
+    private long                        mTmo = TIM_SHD;                                             // Timeout for the verification of one shard [ms]
+    private File                        mRot;                                                       // Directory of the WPC Root Certificate or null for the plugfest
+
+    /**
+     * Creates the batch verifier
+     *
+     * @param   crp The corpus
+     * @param   res The result file
+     * @param   prc The number of worker processes
+     * @param   shd The number of shards
+     */
+    public BatVer(@NonNull File crp, @NonNull File res, int prc, int shd) {
+        mCrp = crp;                                                                                 // Register the corpus
+        mRes = res;                                                                                 // Register the result file
+        mDir = new File(res.getPath() + EXT_DIR);                                                   // Register the work directory
+        mPrc = Math.max(1, prc);                                                                    // Register the number of worker processes
+        mShd = Math.max(mPrc, shd);                                                                 // Register the number of shards
+    }
+
+    /**
+     * Sets the launcher command which precedes the Java command of the worker processes
+     *
+     * @param   lch The launcher command, e.g. ssh and the host name
+     */
+    public void setLch(@NonNull List<String> lch) {
+        mLch.clear();                                                                               // Remove the previous launcher
+        mLch.addAll(lch);                                                                           // Register the launcher
+    }
+
+    /**
+     * Sets the timeout for the verification of one shard
+     * A worker process which does not acknowledge its shard in time is killed and the shard is assigned again.
+     *
+     * @param   tmo The timeout in milliseconds
+     */
+    public void setTmo(long tmo) {
+        mTmo = Math.max(1, tmo);                                                                    // Register the timeout
+    }
+
+    /**
+     * Sets the directory of the WPC Root Certificate used by the worker processes
+     * The worker processes load the WPC Root Certificate file of this directory like the app, without a directory
+     * they use the WPC Root Certificate of the plugfest.
+     *
+     * @param   rot The directory of the WPC Root Certificate file
+     */
+    public void setRot(@NonNull File rot) {
+        mRot = rot;                                                                                 // Register the directory
+    }
+
+    /**
+     * Verifies the corpus and writes the merged result file
+     * Each line of the result file contains the line number of a record and its verdict.
+     *
+     * @return  The report of the verification
+     * @throws  IOException in case the corpus cannot be read or a file cannot be written
+     */
+    public @NonNull String run() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {                                                // Work directory cannot be created?
+            throw new IOException("Cannot create " + mDir);                                         // Report the error
+        }
+        final long beg = System.nanoTime();                                                         // Get the start time
+        final long cnt = split();                                                                   // Split the corpus into shards
+        final long spl = System.nanoTime();                                                         // Get the end time of the splitting
+        verify();                                                                                   // Verify the shards
+        final long ver = System.nanoTime();                                                         // Get the end time of the verification
+        merge();                                                                                    // Merge the result files
+        final long end = System.nanoTime();                                                         // Get the end time
+        if (mFld.isEmpty()) {                                                                       // All shards verified?
+            clean();                                                                                // Delete the work directory
+        }
+        return String.format(Locale.US, "Batch verifier: %d records, %d processes, %d shards, %d crashes, %d hangs, "
+                + "failed shards %s\nVerdicts %s\nSplit %.2f s, verify %.2f s (%.0f records/s, %.0f records/s per "
+                + "process), merge %.2f s, total %.2f s", cnt, mPrc, mShd, mCrs.get(), mHng.get(), mFld, mCnt,
+                (spl - beg) / 1e9, (ver - spl) / 1e9, cnt * 1e9 / Math.max(1, ver - spl),
+                mRec.get() * 1e9 / Math.max(1, mTim.get()), (end - ver) / 1e9, (end - beg) / 1e9);
+    }
+
+    /**
+     * Splits the corpus by the Digest of the WPC Certificate Chain into the shard files
+     * Each line of a shard file contains the line number and the record. A malformed record is put into the first
+     * shard where it is reported as invalid.
+     *
+     * @return  The number of records
+     * @throws  IOException in case the corpus cannot be read or a shard file cannot be written
+     */
+    private long split() throws IOException {
+        final @NonNull Writer[] out = new Writer[mShd];                                             // Shard files
+        final @NonNull BufferedReader in = reader(mCrp);                                            // Open the corpus
+        long cnt = 0;                                                                               // Number of records
+        //noinspection TryFinallyCanBeTryWithResources                                              // Not usable below Android 19
+        try {
+            for (int ind = 0; ind < mShd; ind++) {                                                  // Repeat for all shards
+                out[ind] = writer(getFil(ind, EXT_SHD));                                            // Create the shard file
+            }
+            String txt;                                                                             // Line of the corpus
+            for (long lin = 1; (txt = in.readLine()) != null; lin++) {                              // Repeat for all lines
+                final String fld = CrpRec.getFld(txt);                                              // Get the WPC Certificate Chain
+                if (fld == null) {                                                                  // Empty or comment line?
+                    continue;
+                }
+                int shd;                                                                            // Shard of the record
+                try {
+                    shd = CrpRec.getShd(CrpRec.hex(fld), mShd);                                     // Get the shard by the Digest of the chain
+                } catch (IllegalArgumentException err) {                                            // Malformed WPC Certificate Chain
+                    shd = 0;                                                                        // Report the record in the first shard
+                }
+                out[shd].write(lin + " " + txt + "\n");                                             // Add the record to the shard
+                cnt++;                                                                              // Count the record
+            }
+        } finally {
+            in.close();                                                                             // Close the corpus
+            for (Writer wrt : out) {                                                                // Repeat for all shard files
+                if (wrt != null) {                                                                  // Shard file created?
+                    wrt.close();                                                                    // Close the shard file
+                }
+            }
+        }
+        return cnt;                                                                                 // Return the number of records
+    }
+
+    /**
+     * Verifies the shards with the worker processes
+     * Each worker process is fed by its own thread which assigns the shards until all are verified or failed. A watchdog
+     * kills a worker process which does not acknowledge its shard within the timeout.
+     *
+     * @throws  IOException in case the verification was interrupted
+     */
+    private void verify() throws IOException {
+        final @NonNull ConcurrentLinkedQueue<Integer> que = new ConcurrentLinkedQueue<>();          // Unassigned shards
+        for (int ind = 0; ind < mShd; ind++) {                                                      // Repeat for all shards
+            que.add(ind);                                                                           // Queue the shard
+        }
+        final @NonNull AtomicInteger[] tri = new AtomicInteger[mShd];                               // Number of attempts per shard
+        for (int ind = 0; ind < mShd; ind++) {                                                      // Repeat for all shards
+            tri[ind] = new AtomicInteger();                                                         // No attempt yet
+        }
+        final @NonNull ScheduledExecutorService dog = Executors.newSingleThreadScheduledExecutor(); // Watchdog for hanging worker processes
+        final @NonNull List<Thread> thr = new ArrayList<>();                                        // Feeder threads of the worker processes
+        for (int ind = 0; ind < mPrc; ind++) {                                                      // Repeat for all worker processes
+            final @NonNull Thread fed = new Thread(new Runnable() {
+                @Override public void run() {
+                    feed(que, tri, dog);                                                            // Assign shards to a worker process
+                }
+            }, "BatVer-" + ind);
+            fed.start();                                                                            // Start the feeder
+            thr.add(fed);                                                                           // Register the feeder
+        }
+        try {
+            for (Thread fed : thr) {                                                                // Repeat for all feeders
+                fed.join();                                                                         // Wait until all shards are assigned
+            }
+        } catch (InterruptedException err) {                                                        // Waiting was interrupted
+            Thread.currentThread().interrupt();                                                     // Keep the interrupt state
+            throw new IOException("Verification interrupted", err);                                 // Report the interruption
+        } finally {
+            dog.shutdownNow();                                                                      // Stop the watchdog
+        }
+    }
+
+    /**
+     * Assigns shards to a worker process and restarts the worker process after a crash
+     * A worker process which hangs is killed by the watchdog, so the pending acknowledge ends like after a crash.
+     *
+     * @param   que The unassigned shards
+     * @param   tri The number of attempts per shard
+     * @param   dog The watchdog
+     */
+    private void feed(@NonNull ConcurrentLinkedQueue<Integer> que, @NonNull AtomicInteger[] tri, @NonNull ScheduledExecutorService dog) {
+        Process prc = null;                                                                         // Worker process
+        BufferedReader in = null;                                                                   // Acknowledges of the worker process
+        Writer out = null;                                                                          // Assignments to the worker process
+        Integer shd;                                                                                // Assigned shard
+        while ((shd = que.poll()) != null) {                                                        // Repeat for all unassigned shards
+            String ack = null;                                                                      // Acknowledge of the shard
+            try {
+                if (prc == null) {                                                                  // No worker process running?
+                    prc = start();                                                                  // Start a worker process
+                    in = new BufferedReader(new InputStreamReader(prc.getInputStream(), AppLib.CHR_ASC));// Get the acknowledges of the worker process
+                    out = new OutputStreamWriter(prc.getOutputStream(), AppLib.CHR_ASC);            // Get the assignments to the worker process
+                }
+                //noinspection ConstantConditions                                                   // Created with the worker process
+                out.write(shd + "\n");                                                              // Assign the shard
+                out.flush();                                                                        // Send the assignment
+                final @NonNull Process wrk = prc;                                                   // Worker process of the shard
+                final @NonNull Integer num = shd;                                                   // Shard of the worker process
+                final @NonNull ScheduledFuture<?> tmo = dog.schedule(new Runnable() {
+                    @Override public void run() {
+                        Dbg.log("Worker process hangs at shard " + num);                            // Log the hanging worker process
+                        mHng.incrementAndGet();                                                     // Count the hanging worker process
+                        kill(wrk);                                                                  // Kill the worker process
+                    }
+                }, mTmo, TimeUnit.MILLISECONDS);
+                try {
+                    //noinspection ConstantConditions                                               // Created with the worker process
+                    ack = in.readLine();                                                            // Wait for the acknowledge
+                } finally {
+                    tmo.cancel(false);                                                              // Stop the watchdog of the shard
+                }
+            } catch (IOException err) {                                                             // Worker process crashed or cannot be started
+                Dbg.log("Worker process failed", err);                                              // Log the error
+            }
+            final @NonNull String[] fld = (ack != null) ? ack.split(" ") : new String[0];           // Get shard, records and time
+            if ((fld.length == 3) && fld[0].equals(shd.toString())) {                               // Shard verified?
+                mRec.addAndGet(Long.parseLong(fld[1]));                                             // Count the records
+                mTim.addAndGet(Long.parseLong(fld[2]));                                             // Add the verification time
+                continue;
+            }
+            mCrs.incrementAndGet();                                                                 // Count the crash
+            if (prc != null) {                                                                      // Worker process started?
+                prc.destroy();                                                                      // Stop the worker process
+                prc = null;                                                                         // Start a new worker process
+            }
+            if (tri[shd].incrementAndGet() < MAX_TRY) {                                             // Further attempt allowed?
+                que.add(shd);                                                                       // Assign the shard again
+            } else {                                                                                // Shard fails repeatedly
+                synchronized (mFld) {
+                    mFld.add(shd);                                                                  // Register the failed shard
+                }
+            }
+        }
+        if (prc != null) {                                                                          // Worker process running?
+            try {
+                //noinspection ConstantConditions                                                   // Created with the worker process
+                out.close();                                                                        // Stop the worker process
+                prc.waitFor();                                                                      // Wait for the end of the worker process
+            } catch (IOException | InterruptedException err) {                                      // Worker process cannot be stopped
+                prc.destroy();                                                                      // Kill the worker process
+            }
+        }
+    }
+
+    /**
+     * Kills a worker process
+     * The process is destroyed forcibly where the runtime supports it, as a hanging process may ignore a termination request.
+     *
+     * @param   prc The worker process
+     */
+    private static void kill(@NonNull Process prc) {
+        try {
+            Process.class.getMethod("destroyForcibly").invoke(prc);                                 // Kill the worker process
+        } catch (ReflectiveOperationException err) {                                                // Forcible destruction not supported
+            prc.destroy();                                                                          // Terminate the worker process
+        }
+    }
+
+    /**
+     * Starts a worker process with the same Java runtime and class path
+     *
+     * @return  The worker process
+     * @throws  IOException in case the worker process cannot be started
+     */
+    private @NonNull Process start() throws IOException {
+        final @NonNull List<String> cmd = new ArrayList<>(mLch);                                    // Start with the launcher
+        cmd.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());      // Add the Java runtime
+        cmd.add("-cp");                                                                             // Add the class path
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(BatVer.class.getName());                                                            // Add the worker
+        cmd.add(OPT_WRK);
+        cmd.add(mDir.getAbsolutePath());                                                            // Add the work directory
+        if (mRot != null) {                                                                         // WPC Root Certificate given?
+            cmd.add(OPT_ROT);
+            cmd.add(mRot.getAbsolutePath());                                                        // Add the directory of the WPC Root Certificate
+        }
+        return new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();      // Start the worker process
+    }
+
+    /**
+     * Merges the result files in the order of the corpus lines
+     * The records of a failed shard are taken from its shard file and reported as failed.
+     *
+     * @throws  IOException in case a file cannot be read or the result file cannot be written
+     */
+    private void merge() throws IOException {
+        final @NonNull PriorityQueue<Mrg> que = new PriorityQueue<>();                              // Result files ordered by their next line number
+        final @NonNull Writer out = writer(mRes);                                                   // Create the result file
+        //noinspection TryFinallyCanBeTryWithResources                                              // Not usable below Android 19
+        try {
+            for (int ind = 0; ind < mShd; ind++) {                                                  // Repeat for all shards
+                final boolean fld = mFld.contains(ind);                                             // Shard failed?
+                final @NonNull Mrg mrg = new Mrg(reader(getFil(ind, fld ? EXT_SHD : EXT_RES)), fld);// Open the result or shard file
+                if (mrg.next()) {                                                                   // Result available?
+                    que.add(mrg);                                                                   // Merge the file
+                } else {                                                                            // Empty shard
+                    mrg.mIn.close();                                                                // Close the file
+                }
+            }
+            Mrg mrg;                                                                                // Result file with the next line number
+            while ((mrg = que.poll()) != null) {                                                    // Repeat for all results
+                out.write(mrg.mLin + " " + mrg.mRes + "\n");                                        // Add the result
+                final Long cnt = mCnt.get(mrg.mRes);                                                // Get the number of records with this verdict
+                mCnt.put(mrg.mRes, (cnt == null) ? 1 : cnt + 1);                                    // Count the verdict
+                if (mrg.next()) {                                                                   // Further result available?
+                    que.add(mrg);                                                                   // Merge the file further
+                } else {                                                                            // File completely merged
+                    mrg.mIn.close();                                                                // Close the file
+                }
+            }
+        } finally {
+            out.close();                                                                            // Close the result file
+            for (Mrg rem : que) {                                                                   // Repeat for all open files
+                rem.mIn.close();                                                                    // Close the file
+            }
+        }
+    }
+
+    /**
+     * Result or shard file which is merged
+     */
+    private static class Mrg implements Comparable<Mrg> {
+        private final @NonNull BufferedReader   mIn;                                                // Reader of the file
+        private final boolean                   mFld;                                               // Flag for a shard file of a failed shard
+        private long                            mLin;                                               // Line number of the actual result
+        private String                          mRes;                                               // Verdict of the actual result
+
+        /**
+         * Creates a merged file
+         *
+         * @param   in  The reader of the file
+         * @param   fld The flag for a shard file of a failed shard
+         */
+        private Mrg(@NonNull BufferedReader in, boolean fld) {
+            mIn = in;                                                                               // Register the reader
+            mFld = fld;                                                                             // Register the file type
+        }
+
+        /**
+         * Reads the next result
+         *
+         * @return  true if a result was read, false at the end of the file
+         * @throws  IOException in case the file cannot be read
+         */
+        private boolean next() throws IOException {
+            final String txt = mIn.readLine();                                                      // Read the next line
+            if (txt == null) {                                                                      // End of file?
+                return false;
+            }
+            final int sep = txt.indexOf(' ');                                                       // Get the end of the line number
+            mLin = Long.parseLong(txt.substring(0, sep));                                           // Get the line number
+            mRes = mFld ? RES_FLD : txt.substring(sep + 1);                                         // Get the verdict
+            return true;
+        }
+
+        @Override public int compareTo(@NonNull Mrg mrg) {
+            return (mLin < mrg.mLin) ? -1 : ((mLin == mrg.mLin) ? 0 : 1);                           // Order by the line number
+        }
+    }
+
+    /**
+     * Deletes the work directory
+     */
+    private void clean() {
+        final File[] lst = mDir.listFiles();                                                        // Get the shard and result files
+        if (lst != null) {                                                                          // Work directory available?
+            for (File fil : lst) {                                                                  // Repeat for all files
+                if (!fil.delete()) {                                                                // File cannot be deleted?
+                    Dbg.log("Cannot delete " + fil);                                                // Log the error
+                }
+            }
+        }
+        if (!mDir.delete()) {                                                                       // Work directory cannot be deleted?
+            Dbg.log("Cannot delete " + mDir);                                                       // Log the error
+        }
+    }
+
+    /**
+     * Returns a shard or result file of the work directory
+     *
+     * @param   dir The work directory
+     * @param   shd The shard
+     * @param   ext The extension of the file
+     * @return  The file
+     */
+    private static @NonNull File getFil(@NonNull File dir, int shd, @NonNull String ext) {
+        return new File(dir, PFX_SHD + shd + ext);                                                  // Return the file
+    }
+
+    /**
+     * Returns a shard or result file of the work directory
+     *
+     * @param   shd The shard
+     * @param   ext The extension of the file
+     * @return  The file
+     */
+    private @NonNull File getFil(int shd, @NonNull String ext) {
+        return getFil(mDir, shd, ext);                                                              // Return the file
+    }
+
+    /**
+     * Opens a text file for reading
+     *
+     * @param   fil The file
+     * @return  The reader
+     * @throws  IOException in case the file cannot be opened
+     */
+    private static @NonNull BufferedReader reader(@NonNull File fil) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(fil), AppLib.CHR_ASC)); // Return the reader
+    }
+
+    /**
+     * Creates a text file for writing
+     *
+     * @param   fil The file
+     * @return  The writer
+     * @throws  IOException in case the file cannot be created
+     */
+    private static @NonNull Writer writer(@NonNull File fil) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fil), AppLib.CHR_ASC));// Return the writer
+    }
+
+    /**
+     * Executes a worker process which verifies the shards assigned by the coordinator
+     * The worker reads the shard numbers from the standard input and acknowledges each verified shard with its
+     * number, the number of records and the verification time in nanoseconds on the standard output. The result file
+     * of a shard is written completely before it is renamed, so a crash never leaves a partial result.
+     *
+     * @param   dir The work directory
+     * @throws  IOException in case a shard file cannot be read or a result file cannot be written
+     */
+    private static void work(@NonNull File dir) throws IOException {
+        final @NonNull AthChk chk = new AthChk(CACH_SIZ);                                           // Checker shared by the shards
+        final @NonNull BufferedReader in = new BufferedReader(new InputStreamReader(System.in, AppLib.CHR_ASC));// Get the assigned shards
+        String txt;                                                                                 // Assigned shard
+        while ((txt = in.readLine()) != null) {                                                     // Repeat until the coordinator closes the input
+            final int shd = Integer.parseInt(txt.trim());                                           // Get the assigned shard
+            final long beg = System.nanoTime();                                                     // Get the start time
+            final @NonNull File tmp = getFil(dir, shd, EXT_TMP);                                    // Incomplete result file
+            final @NonNull BufferedReader rdr = reader(getFil(dir, shd, EXT_SHD));                  // Open the shard file
+            final @NonNull Writer out = writer(tmp);                                                // Create the result file
+            long cnt = 0;                                                                           // Number of records
+            //noinspection TryFinallyCanBeTryWithResources                                          // Not usable below Android 19
+            try {
+                String rec;                                                                         // Record of the shard
+                while ((rec = rdr.readLine()) != null) {                                            // Repeat for all records
+                    final int sep = rec.indexOf(' ');                                               // Get the end of the line number
+                    final @NonNull String lin = rec.substring(0, sep);                              // Get the line number
+                    out.write(lin + " " + verify(chk, Long.parseLong(lin), rec.substring(sep + 1)) + "\n");// Add the verdict
+                    cnt++;                                                                          // Count the record
+                }
+            } finally {
+                rdr.close();                                                                        // Close the shard file
+                out.close();                                                                        // Close the result file
+            }
+            final @NonNull File res = getFil(dir, shd, EXT_RES);                                    // Result file
+            if ((res.exists() && !res.delete()) || !tmp.renameTo(res)) {                            // Result file cannot be replaced?
+                throw new IOException("Cannot write " + res);                                       // Report the error
+            }
+            System.out.println(shd + " " + cnt + " " + (System.nanoTime() - beg));                  // Acknowledge the shard
+        }
+    }
+
+    /**
+     * Verifies a record of the corpus
+     *
+     * @param   chk The checker
+     * @param   lin The line number of the record
+     * @param   txt The record
+     * @return  The verdict
+     */
+    private static @NonNull String verify(@NonNull AthChk chk, long lin, @NonNull String txt) {
+        try {
+            final CrpRec rec = CrpRec.parse(lin, txt);                                              // Parse the record
+            if (rec == null) {                                                                      // No record?
+                return RES_INV;
+            }
+            final @NonNull WpcCrtChn chn = new WpcCrtChn(rec.getChn());                             // Get the WPC Certificate Chain
+            final byte[] req = rec.getReq();                                                        // Get the CHALLENGE Request
+            final byte[] res = rec.getRes();                                                        // Get the CHALLENGE_AUTH Response
+            final @NonNull VerRes ver = ((req != null) && (res != null)) ? chk.chkAth(chn, req, res) : chk.chkChn(chn);// Verify the pair or the chain
+            return ver.name();                                                                      // Return the verification result
+        } catch (RuntimeException err) {                                                            // Malformed record
+            return RES_INV;                                                                         // Report the malformed record
+        }
+    }
+
+    /**
+     * Verifies a corpus with several worker processes
+     * Usage: BatVer corpus result [processes [shards [launcher...]]]
+     *
+     * @param   arg The corpus, the result file, the number of worker processes, the number of shards and the launcher
+     *              command of the worker processes
+     * @throws  IOException in case the corpus cannot be read or a file cannot be written
+     */
+    public static void main(@NonNull String[] arg) throws IOException {
+        WpcCrt.init();                                                                              // Use the WPC Root Certificate of the plugfest
+        WpcLog.setQui(true);                                                                        // Switch off the communication log
+        if (arg[0].equals(OPT_WRK)) {                                                               // Worker process?
+            if ((arg.length > 3) && arg[2].equals(OPT_ROT)) {                                       // WPC Root Certificate given?
+                WpcCrt.init(new File(arg[3]), "", LibTxt.DEF);                                      // Use the WPC Root Certificate of the directory
+            }
+            work(new File(arg[1]));                                                                 // Verify the assigned shards
+            return;
+        }
+        final int prc = (arg.length > 2) ? Integer.parseInt(arg[2]) : Runtime.getRuntime().availableProcessors();// Get the number of worker processes
+        final int shd = (arg.length > 3) ? Integer.parseInt(arg[3]) : SHD_PRC * prc;                // Get the number of shards
+        final @NonNull BatVer ver = new BatVer(new File(arg[0]), new File(arg[1]), prc, shd);       // Create the batch verifier
+        if (arg.length > 4) {                                                                       // Launcher given?
+            ver.setLch(Arrays.asList(arg).subList(4, arg.length));                                  // Register the launcher
+        }
+        System.out.println(ver.run());                                                              // Verify the corpus
+    }
+}
\ No newline at end of file
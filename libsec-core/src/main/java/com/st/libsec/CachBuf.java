@@ -0,0 +1,385 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache buffer class
+ * WPC Certificate Chains are indexed by their Digest and by the last byte of their Digest.
+ * Lookups are lock free, changes and the use of a cached chain are synchronized.
+ * The least recently used chain is evicted in constant time by an access ordered map.
+ * An optional persistent store keeps the WPC Certificate Chains across restarts of the app.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class CachBuf {
+
+    private static final int    LSB_CNT = 256;                                                      // Number of buckets of the Digest LSB index
+    private static final Ent[]  NO_ENT  = {};                                                       // Empty bucket
+    private final ConcurrentHashMap<ByteBuffer, Ent> mMap;                                          // Digest index of the cache buffer
+    private final AtomicReferenceArray<Ent[]> mLsb = new AtomicReferenceArray<>(LSB_CNT);           // Digest LSB index of the cache buffer
+    private final LinkedHashMap<ByteBuffer, Ent> mLru;                                              // Cache entries from the least to the most recently used
+    private final AtomicLong    mClk = new AtomicLong();                                            // Access clock for the LRU eviction
+    private final AtomicLong    mEvc = new AtomicLong();                                            // Number of evictions
+    private final AtomicLong    mHit = new AtomicLong();                                            // Number of cache hits
+    private final AtomicLong    mMis = new AtomicLong();                                            // Number of cache misses
+    private final int           mByt;                                                               // The maximum number of bytes of the cache buffer
+    private final int           mSiz;                                                               // The maximum number of WPC Certificate Chains of the cache buffer
+    private volatile AddLst     mLst;                                                               // Listener for the first added WPC Certificate Chain
+    private volatile ChnSto     mSto;                                                               // Persistent store of the WPC Certificate Chains
+    private int                 mLen;                                                               // The actual number of bytes of the cache buffer
+
+    /**
+     * Entry of the cache buffer
+     */
+    static class Ent {
+
+        final WpcCrtChn     mChn;                                                                   // The cached WPC Certificate Chain
+        final ByteBuffer    mDig;                                                                   // The Digest of the WPC Certificate Chain
+        volatile long       mUse;                                                                   // Time stamp of the last access
+
+        /**
+         * Creates a new entry of the cache buffer
+         *
+         * @param   chn The WPC Certificate Chain
+         * @param   use The access time stamp
+         */
+        private Ent(@NonNull WpcCrtChn chn, long use) {
+            mChn = chn;                                                                             // Register the WPC Certificate Chain
+            mDig = ByteBuffer.wrap(chn.getDig());                                                   // Register the Digest of the WPC Certificate Chain
+            mUse = use;                                                                             // Register the access time stamp
+        }
+
+        /**
+         * Returns the index of the Digest LSB bucket
+         *
+         * @return  The index of the Digest LSB bucket
+         */
+        private int getLsb() {
+            return mDig.get(WpcKey.DIG_SIZ - 1) & AppLib.BYT_UNS;                                   // Return the last byte of the Digest
+        }
+    }
+
+    /**
+     * Listener for the first WPC Certificate Chain added to the empty cache buffer
+     */
+    public interface AddLst {
+
+        /**
+         * Called when the first WPC Certificate Chain was added to the empty cache buffer
+         */
+        void onAdd();
+    }
+
+    /**
+     * Initialize the cache buffer
+     *
+     * @param   siz The maximum number of WPC Certificate Chains of the cache buffer
+     */
+    public CachBuf(int siz) {
+        this(siz, Integer.MAX_VALUE);                                                               // Initialize a cache buffer without byte limit
+    }
+
+    /**
+     * Initialize the cache buffer
+     *
+     * @param   siz The maximum number of WPC Certificate Chains of the cache buffer
+     * @param   byt The maximum number of bytes of the cache buffer
+     */
+    public CachBuf(int siz, int byt) {
+        mMap = new ConcurrentHashMap<>(siz);                                                        // Create the Digest index
+        mLru = new LinkedHashMap<ByteBuffer, Ent>(siz, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Ent> eldest) {
+                if (size() > mSiz) {                                                                // Capacity exceeded?
+                    evict(eldest.getValue());                                                       // Remove the least recently used cache entry from the indexes
+                    return true;                                                                    // Remove the least recently used cache entry
+                }
+                return false;                                                                       // Keep all cache entries
+            }
+        };
+        mSiz = siz;                                                                                 // Set the maximum number of WPC Certificate Chains
+        mByt = byt;                                                                                 // Set the maximum number of bytes
+        for (int ind = 0; ind < LSB_CNT; ind++) {                                                   // Repeat for all Digest LSB buckets
+            mLsb.set(ind, NO_ENT);                                                                  // Initialize empty bucket
+        }
+    }
+
+    /**
+     * Add a WPC Certificate Chain in the cache buffer
+     * The least recently used WPC Certificate Chains are evicted when the capacity is exceeded
+     *
+     * @param   chn The new WPC Certificate Chain to be added to the cache buffer
+     */
+    public void add(@NonNull WpcCrtChn chn) {
+        ins(chn);                                                                                   // Add the WPC Certificate Chain to the cache buffer
+        final ChnSto sto = mSto;                                                                    // Get the persistent store
+        if (sto != null) {                                                                          // Persistent store available?
+            sto.put(chn);                                                                           // Store the WPC Certificate Chain
+        }
+    }
+
+    /**
+     * Inserts a WPC Certificate Chain in the cache buffer without storing it
+     * The least recently used WPC Certificate Chains are evicted when the capacity is exceeded
+     *
+     * @param   chn The new WPC Certificate Chain to be inserted into the cache buffer
+     */
+    private synchronized void ins(@NonNull WpcCrtChn chn) {
+        final @NonNull Ent ent = new Ent(chn, mClk.incrementAndGet());                              // Create the new cache entry
+        final Ent old = mMap.put(ent.mDig, ent);                                                    // Add the new cache entry to the Digest index
+        mLru.remove(ent.mDig);                                                                      // Remove the old cache entry from the use order
+        if (old != null) {                                                                          // WPC Certificate Chain was already cached?
+            remLsb(old);                                                                            // Remove the old cache entry from the Digest LSB index
+            mLen = mLen - old.mChn.getChn().length;                                                 // Remove the bytes of the old cache entry
+        } else if (mMap.size() == 1) {                                                              // First WPC Certificate Chain added?
+            final AddLst lst = mLst;                                                                // Get the registered listener
+            if (lst != null) {                                                                      // Listener registered?
+                lst.onAdd();                                                                        // Inform about the first WPC Certificate Chain
+            }
+        }
+        final int lsb = ent.getLsb();                                                               // Get the Digest LSB bucket
+        final @NonNull Ent[] bkt = mLsb.get(lsb);                                                   // Get the actual bucket
+        final @NonNull Ent[] add = new Ent[bkt.length + 1];                                         // Create the new bucket
+        System.arraycopy(bkt, 0, add, 0, bkt.length);                                               // Copy the actual bucket
+        add[bkt.length] = ent;                                                                      // Add the new cache entry
+        mLsb.set(lsb, add);                                                                         // Publish the new bucket
+        mLen = mLen + chn.getChn().length;                                                          // Count the bytes of the new cache entry
+        mLru.put(ent.mDig, ent);                                                                    // Add the new cache entry as most recently used, evicts when full
+        final @NonNull Iterator<Ent> itr = mLru.values().iterator();                                // Cache entries from the least recently used
+        while ((mLen > mByt) && (mLru.size() > 1)) {                                                // Byte limit exceeded?
+            evict(itr.next());                                                                      // Remove the least recently used cache entry from the indexes
+            itr.remove();                                                                           // Remove the least recently used cache entry
+        }
+    }
+
+    /**
+     * Removes an evicted cache entry from the Digest indexes
+     * The caller removes the cache entry from the use order.
+     *
+     * @param   ent The least recently used cache entry
+     */
+    private void evict(@NonNull Ent ent) {
+        mMap.remove(ent.mDig);                                                                      // Remove the cache entry from the Digest index
+        remLsb(ent);                                                                                // Remove the cache entry from the Digest LSB index
+        mLen = mLen - ent.mChn.getChn().length;                                                     // Remove the bytes of the cache entry
+        mEvc.incrementAndGet();                                                                     // Count the eviction
+    }
+
+    /**
+     * Removes all WPC Certificate Chains from the cache buffer
+     */
+    public synchronized void clear() {
+        if (mSto != null) {                                                                         // Persistent store available?
+            mSto.clear();                                                                           // Remove also the stored WPC Certificate Chains
+        }
+        mMap.clear();                                                                               // Clear the Digest index
+        mLru.clear();                                                                               // Clear the use order
+        for (int ind = 0; ind < LSB_CNT; ind++) {                                                   // Repeat for all Digest LSB buckets
+            mLsb.set(ind, NO_ENT);                                                                  // Clear the bucket
+        }
+        mLen = 0;                                                                                   // No bytes are cached
+    }
+
+    /**
+     * Returns the cached WPC Certificate Chain for a given Digest and counts the cache hit or miss
+     * A WPC Certificate Chain missing in the cache buffer is searched in the persistent store
+     *
+     * @param   dig The Digest of the WPC Certificate Chain
+     * @return  The cached WPC Certificate Chain or null in case of a cache miss
+     */
+    public @Nullable WpcCrtChn get(@NonNull byte[] dig) {
+        final WpcCrtChn chn = find(dig);                                                            // Search the WPC Certificate Chain
+        use(chn);                                                                                   // Count the cache hit or miss
+        return chn;                                                                                 // Return the cached WPC Certificate Chain
+    }
+
+    /**
+     * Searches the WPC Certificate Chain for a given Digest without counting the cache hit or miss
+     * A WPC Certificate Chain missing in the cache buffer is searched in the persistent store
+     *
+     * @param   dig The Digest of the WPC Certificate Chain
+     * @return  The cached WPC Certificate Chain or null in case of a cache miss
+     */
+    @Nullable WpcCrtChn find(@NonNull byte[] dig) {
+        final Ent ent = mMap.get(ByteBuffer.wrap(dig));                                             // Search the Digest in the Digest index
+        if (ent != null) {                                                                          // Found in the cache buffer?
+            return ent.mChn;                                                                        // Return the cached WPC Certificate Chain
+        }
+        final ChnSto sto = mSto;                                                                    // Get the persistent store
+        final WpcCrtChn chn = (sto == null) ? null : sto.get(dig);                                  // Search the Digest in the persistent store
+        if (chn != null) {                                                                          // Stored WPC Certificate Chain found?
+            ins(chn);                                                                               // Take over the stored WPC Certificate Chain
+        }
+        return chn;                                                                                 // Return the stored WPC Certificate Chain
+    }
+
+    /**
+     * Returns the cached WPC Certificate Chains whose Digest ends with a given byte
+     * The most recently used WPC Certificate Chain is returned first
+     *
+     * @param   lsb The last byte of the Digest
+     * @return  The WPC Certificate Chains of the Digest LSB bucket
+     */
+    public @NonNull WpcCrtChn[] getLsb(byte lsb) {
+        final @NonNull Ent[] bkt = mLsb.get(lsb & AppLib.BYT_UNS);                                  // Get the Digest LSB bucket
+        final @NonNull WpcCrtChn[] lst = new WpcCrtChn[bkt.length];                                 // Create the list of WPC Certificate Chains
+        final @NonNull long[] use = new long[bkt.length];                                           // Access time stamps of the WPC Certificate Chains
+        for (int ind = 0; ind < bkt.length; ind++) {                                                // Repeat for all cache entries of the bucket
+            final @NonNull WpcCrtChn chn = bkt[ind].mChn;                                           // Get the WPC Certificate Chain
+            final long tim = bkt[ind].mUse;                                                         // Get the access time stamp
+            int pos = ind;                                                                          // Position of the WPC Certificate Chain
+            while ((pos > 0) && (use[pos - 1] < tim)) {                                             // Less recently used WPC Certificate Chain before?
+                lst[pos] = lst[pos - 1];                                                            // Move the less recently used WPC Certificate Chain
+                use[pos] = use[pos - 1];                                                            // Move its access time stamp
+                pos--;                                                                              // Goto previous position
+            }
+            lst[pos] = chn;                                                                         // Insert the WPC Certificate Chain
+            use[pos] = tim;                                                                         // Insert its access time stamp
+        }
+        return lst;                                                                                 // Return the WPC Certificate Chains of the bucket
+    }
+
+    /**
+     * Returns all cached WPC Certificate Chains
+     *
+     * @return  The list of the cached WPC Certificate Chains
+     */
+    public @NonNull ArrayList<WpcCrtChn> getLst() {
+        final @NonNull ArrayList<WpcCrtChn> lst = new ArrayList<>(mMap.size());                     // Create the list of WPC Certificate Chains
+        for (Ent ent: mMap.values()) {                                                              // Repeat for all cache entries
+            lst.add(ent.mChn);                                                                      // Add the WPC Certificate Chain
+        }
+        return lst;                                                                                 // Return the list of WPC Certificate Chains
+    }
+
+    /**
+     * Counts the result of a cache lookup which was not done by Digest
+     *
+     * @param   chn The used WPC Certificate Chain of the cache or null in case of a cache miss
+     */
+    public void use(@Nullable WpcCrtChn chn) {
+        if (chn == null) {                                                                          // Cache miss?
+            mMis.incrementAndGet();                                                                 // Count the cache miss
+            return;                                                                                 // No cache entry to be updated
+        }
+        final Ent ent = mMap.get(ByteBuffer.wrap(chn.getDig()));                                    // Search the cache entry
+        if (ent != null) {                                                                          // WPC Certificate Chain still cached?
+            ent.mUse = mClk.incrementAndGet();                                                      // Mark the cache entry as recently used
+            synchronized (this) {
+                mLru.get(ent.mDig);                                                                 // Move the cache entry to the end of the use order
+            }
+        }
+        mHit.incrementAndGet();                                                                     // Count the cache hit
+    }
+
+    /**
+     * Connects the cache buffer with a persistent store
+     * The most recently stored WPC Certificate Chains are loaded in the background.
+     *
+     * @param   sto The persistent store of the WPC Certificate Chains
+     */
+    public void setSto(final @NonNull ChnSto sto) {
+        mSto = sto;                                                                                 // Register the persistent store
+        sto.post(new Runnable() {
+            @Override public void run() {
+                for (WpcCrtChn chn: sto.getRct(mSiz)) {                                             // Repeat for the most recently stored WPC Certificate Chains
+                    ins(chn);                                                                       // Take over the stored WPC Certificate Chain
+                }
+            }
+        });
+    }
+
+    /**
+     * Informs if the cache buffer is connected with a persistent store
+     *
+     * @return  true if a persistent store is connected
+     */
+    public boolean hasSto() {
+        return mSto != null;                                                                        // Return the connection state
+    }
+
+    /**
+     * Returns the number of cached WPC Certificate Chains
+     *
+     * @return  The number of cached WPC Certificate Chains
+     */
+    public int size() {
+        return mMap.size();                                                                         // Return the number of cache entries
+    }
+
+    /**
+     * Removes a cache entry from the Digest LSB index
+     *
+     * @param   ent The cache entry to be removed
+     */
+    private void remLsb(@NonNull Ent ent) {
+        final int lsb = ent.getLsb();                                                               // Get the Digest LSB bucket
+        final @NonNull Ent[] bkt = mLsb.get(lsb);                                                   // Get the actual bucket
+        final @NonNull ArrayList<Ent> lst = new ArrayList<>(bkt.length);                            // Create list for the new bucket
+        for (Ent tst: bkt) {                                                                        // Repeat for all cache entries of the bucket
+            if (tst != ent) {                                                                       // Other cache entry?
+                lst.add(tst);                                                                       // Keep the cache entry
+            }
+        }
+        mLsb.set(lsb, lst.toArray(NO_ENT));                                                         // Publish the new bucket
+    }
+
+    /**
+     * Returns the number of cache hits
+     *
+     * @return  The number of cache hits
+     */
+    public long getHit() {
+        return mHit.get();                                                                          // Return the number of cache hits
+    }
+
+    /**
+     * Returns the number of cache misses
+     *
+     * @return  The number of cache misses
+     */
+    public long getMis() {
+        return mMis.get();                                                                          // Return the number of cache misses
+    }
+
+    /**
+     * Returns the number of evictions
+     *
+     * @return  The number of evictions
+     */
+    public long getEvc() {
+        return mEvc.get();                                                                          // Return the number of evictions
+    }
+
+    /**
+     * Registers the listener for the first WPC Certificate Chain added to the empty cache buffer
+     *
+     * @param   lst The listener or null to deregister the actual listener
+     */
+    public void setLst(@Nullable AddLst lst) {
+        mLst = lst;                                                                                 // Register the listener
+    }
+}
\ No newline at end of file
@@ -0,0 +1,198 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * Streaming assembler for a WPC Certificate Chain received with GET_CERTIFICATE fragments
+ * The fragments are written into a buffer of the announced Certificate Chain length and hashed incrementally.
+ * Each WPC Certificate is verified on the critical lane as soon as its bytes are received. A verification task is only
+ * started when bytes are available and ends when it runs out of them, so no thread of the lane waits for the network.
+ * The result is polled or passed to a listener, so no thread waits for the verification either.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+class ChnAsm implements Runnable {
+
+    private final WpcCrtChn.ChnChk  mChk = new WpcCrtChn.ChnChk();                                  // Checker for the WPC Certificate Chain
+    private final MessageDigest     mDig = WpcKey.newDig();                                         // Incremental Digest of the WPC Certificate Chain
+    private final Object            mLck = new Object();                                            // Lock for the received bytes and the verification state
+    private boolean                 mAbt;                                                           // Flag for aborted reception
+    private boolean                 mRun;                                                           // Flag for a started verification task
+    private boolean                 mHdr;                                                           // Flag for the checked header
+    private byte[]                  mChn;                                                           // WPC Certificate Chain
+    private int                     mLen;                                                           // Number of received bytes
+    private int                     mOfs = WpcCrtChn.OFS_CRT;                                       // Offset of the next WPC Certificate to be verified
+    private @Nullable Runnable      mLst;                                                           // Listener for the finished verification
+    private volatile VerRes         mRes;                                                           // Verification result or null while verifying
+
+    /**
+     * Adds the next fragment of the WPC Certificate Chain
+     * The first fragment announces the length of the WPC Certificate Chain
+     *
+     * @param   buf The buffer containing the fragment
+     * @param   ofs The offset of the fragment in the buffer
+     * @param   siz The size of the fragment
+     * @throws  IOException in case the fragment does not fit into the announced WPC Certificate Chain
+     */
+    void add(@NonNull byte[] buf, int ofs, int siz) throws IOException {
+        if (mChn == null) {                                                                         // First fragment?
+            if (siz < AppLib.SHT_SIZ) {                                                             // Length of the WPC Certificate Chain not included?
+                throw new IOException();                                                            // Abort reception
+            }
+            mChn = new byte[((buf[ofs] & AppLib.BYT_UNS) << 8) | (buf[ofs + 1] & AppLib.BYT_UNS)];  // Create buffer for the whole WPC Certificate Chain
+        }
+        if (mLen + siz > mChn.length) {                                                             // Fragment exceeds the WPC Certificate Chain?
+            throw new IOException();                                                                // Abort reception
+        }
+        System.arraycopy(buf, ofs, mChn, mLen, siz);                                                // Copy the fragment into the WPC Certificate Chain
+        mDig.update(buf, ofs, siz);                                                                 // Hash the fragment
+        synchronized (mLck) {
+            mLen = mLen + siz;                                                                      // Count the received bytes
+            if (!mRun && (mRes == null) && (nxt() > 0) && (mLen >= nxt())) {                        // Next verification step ready and no task running?
+                mRun = true;                                                                        // Mark the verification task as started
+                SesExe.crt(this);                                                                   // Verify the received bytes
+            }
+        }
+    }
+
+    /**
+     * Aborts the verification in case the reception failed
+     */
+    void abort() {
+        synchronized (mLck) {
+            mAbt = true;                                                                            // Mark reception as aborted
+            if (!mRun) {                                                                            // No verification task running?
+                end(VerRes.ERR_LEN);                                                                // Report incomplete WPC Certificate Chain
+            }
+        }
+    }
+
+    /**
+     * Returns the completely received WPC Certificate Chain
+     *
+     * @return  The WPC Certificate Chain
+     */
+    @NonNull WpcCrtChn getChn() {
+        return new WpcCrtChn(mChn, mDig.digest());                                                  // Return the WPC Certificate Chain with its Digest
+    }
+
+    /**
+     * Returns the result of the verification without waiting
+     * A verification waiting for bytes which will not be received anymore is finished as incomplete.
+     *
+     * @return  The verification result or null while the verification is running
+     */
+    @Nullable VerRes poll() {
+        if (mChn == null) {                                                                         // Verification not started?
+            return VerRes.ERR_LEN;                                                                  // Report incomplete WPC Certificate Chain
+        }
+        synchronized (mLck) {
+            if (!mRun && (mLen < nxt())) {                                                          // Verification waits for bytes which will not be received?
+                end(VerRes.ERR_LEN);                                                                // Report incomplete WPC Certificate Chain
+            }
+            return mRes;                                                                            // Return the verification result
+        }
+    }
+
+    /**
+     * Registers the listener for the finished verification
+     * The listener is executed on the critical lane, immediately if the verification is already finished.
+     *
+     * @param   lst The listener
+     */
+    void onEnd(@NonNull Runnable lst) {
+        synchronized (mLck) {
+            if (mRes == null) {                                                                     // Verification still running?
+                mLst = lst;                                                                         // Call the listener when finished
+                return;
+            }
+        }
+        SesExe.crt(lst);                                                                            // Call the listener now
+    }
+
+    /**
+     * Returns the number of bytes required for the next verification step
+     * Must be called with the lock for the received bytes.
+     *
+     * @return  The required number of bytes or 0 if the verification is finished
+     */
+    private int nxt() {
+        if (!mHdr) {                                                                                // Header not yet checked?
+            return Math.min(WpcCrtChn.OFS_CRT, mChn.length);                                        // Header is required
+        }
+        return (mChk.getCnt() > 0) ? mOfs + WpcCrt.LEN_CRT : 0;                                     // Next WPC Certificate is required
+    }
+
+    /**
+     * Finishes the verification
+     * Must be called with the lock for the received bytes.
+     *
+     * @param   res The verification result
+     */
+    private void end(@NonNull VerRes res) {
+        if (mRes == null) {                                                                         // Verification not yet finished?
+            mRes = res;                                                                             // Register the verification result
+            if (mLst != null) {                                                                     // Listener registered?
+                SesExe.crt(mLst);                                                                   // Call the listener
+                mLst = null;                                                                        // Listener is called once
+            }
+        }
+    }
+
+    /**
+     * Verifies the received parts of the WPC Certificate Chain
+     * The task ends when the next WPC Certificate is not yet received, the next fragment starts a new task.
+     */
+    @Override public void run() {
+        try {
+            while (true) {
+                synchronized (mLck) {
+                    if (mAbt) {                                                                     // Reception aborted?
+                        end(VerRes.ERR_LEN);                                                        // Report incomplete WPC Certificate Chain
+                    }
+                    if ((mRes != null) || (mLen < nxt())) {                                         // Verification finished or next bytes not yet received?
+                        mRun = false;                                                               // Task ends
+                        return;
+                    }
+                }
+                final VerRes res;                                                                   // Result of the verification step
+                if (!mHdr) {                                                                        // Header not yet checked?
+                    res = mChk.hdr(mChn, mChn.length);                                              // Check the header of the WPC Certificate Chain
+                    mHdr = true;                                                                    // Header is checked
+                } else {                                                                            // WPC Certificate received
+                    res = mChk.crt(mChn, mOfs);                                                     // Check the WPC Certificate
+                    mOfs = mOfs + WpcCrt.LEN_CRT;                                                   // Goto next WPC Certificate
+                }
+                if (!res.isOk() || (mChk.getCnt() == 0)) {                                          // Verification failed or all WPC Certificates verified?
+                    synchronized (mLck) {
+                        end(res);                                                                   // Register the verification result
+                    }
+                }
+            }
+        } catch (RuntimeException err) {                                                            // Verification failed
+            synchronized (mLck) {
+                mRun = false;                                                                       // Task ends
+                end(VerRes.ERR_LEN);                                                                // Report incomplete WPC Certificate Chain
+            }
+            throw err;
+        }
+    }
+}
\ No newline at end of file
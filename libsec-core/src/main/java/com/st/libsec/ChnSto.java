@@ -0,0 +1,678 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent store of verified WPC Certificate Chains
+ * The chains are appended to a memory mapped data file and found with an on-disk Digest index.
+ * Certificates shared by several chains (e.g. Manufacturer Certificates) are stored only once.
+ * Appends are serialized by a file lock, readers only map the committed part of the data file.
+ * The object monitor guards only the in-memory index, the files are written and forced outside of it, so readers do
+ * not wait for an append. The chains read from the files are verified again as the files may have been changed.
+ * A compaction keeps only the most recently stored chains and replaces the files with a new generation.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class ChnSto {
+
+    /** Name of the data file of the store */
+    public static final String FIL_DAT = "chn_sto.dat";
+
+    /** Name of the index file of the store */
+    public static final String FIL_IDX = "chn_sto.idx";
+
+    private static final String EXT_TMP = ".tmp";                                                   // Extension of the files written by a compaction
+    private static final int    INT_SIZ = 4;                                                        // Size of an integer
+    private static final int    MAG_STO = 0x57504353;                                               // Magic number of the store files ("WPCS")
+    private static final int    VER_STO = 1;                                                        // Version of the store format
+    private static final int    GEN_OLD = -1;                                                       // Generation of a data file replaced by a compaction
+    private static final int    OFS_MAG = 0;                                                        // Offset of the magic number in the file header
+    private static final int    OFS_VER = OFS_MAG + INT_SIZ;                                        // Offset of the format version in the data file header
+    private static final int    OFS_GEN = OFS_VER + INT_SIZ;                                        // Offset of the generation in the file header
+    private static final int    OFS_LEN = OFS_GEN + INT_SIZ;                                        // Offset of the committed data length in the data file header
+    private static final int    OFS_IDX = OFS_LEN + INT_SIZ;                                        // Offset of the committed index length in the data file header
+    private static final int    HDR_DAT = OFS_IDX + INT_SIZ;                                        // Size of the data file header
+    private static final int    HDR_IDX = OFS_GEN + INT_SIZ;                                        // Size of the index file header (magic number and generation)
+    private static final int    ENT_IDX = WpcKey.DIG_SIZ + INT_SIZ;                                 // Size of an index entry (Digest and offset of the chain record)
+    private static final byte   TAG_CRT = 1;                                                        // Tag of a WPC Certificate record
+    private static final byte   TAG_CHN = 2;                                                        // Tag of a WPC Certificate Chain record
+    private static final int    LEN_CRT = AppLib.BYT_SIZ + WpcCrt.LEN_CRT;                          // Length of a WPC Certificate record
+    private static final int    HDR_CHN = AppLib.BYT_SIZ + 2 * WpcKey.DIG_SIZ + AppLib.BYT_SIZ;     // Length of a WPC Certificate Chain record without the Certificate offsets
+    private final ArrayDeque<Runnable> mQue = new ArrayDeque<>();                                   // Background tasks of the store in posting order
+    private boolean             mPst;                                                               // Flag for the tasks being executed on the background lane
+    private final File          mDat;                                                               // Data file
+    private final File          mIdx;                                                               // Index file
+    private final int           mMax;                                                               // Number of WPC Certificate Chains kept by a compaction
+    private final LinkedHashMap<ByteBuffer, Integer> mChn = new LinkedHashMap<>();                  // Offsets of the chain records in storage order
+    private HashMap<ByteBuffer, Integer> mCrt;                                                      // Offsets of the Certificate records (only needed for appends)
+    private RandomAccessFile    mFil;                                                               // Opened data file
+    private MappedByteBuffer    mMap;                                                               // Mapped committed part of the data file
+    private int                 mGen;                                                               // Generation of the opened data file
+    private int                 mLen;                                                               // Committed data length known by this store
+    private int                 mEnd;                                                               // Committed index length known by this store
+    private int                 mScn;                                                               // Data length scanned for Certificate records
+
+    /**
+     * Creates a store of WPC Certificate Chains
+     * The files are opened with the first access
+     *
+     * @param   dir The directory of the store files
+     * @param   max The number of WPC Certificate Chains kept by a compaction
+     */
+    public ChnSto(@NonNull File dir, int max) {
+        mDat = new File(dir, FIL_DAT);                                                              // Register the data file
+        mIdx = new File(dir, FIL_IDX);                                                              // Register the index file
+        mMax = max;                                                                                 // Register the number of kept WPC Certificate Chains
+    }
+
+    /**
+     * Returns a stored WPC Certificate Chain
+     *
+     * @param   dig The Digest of the WPC Certificate Chain
+     * @return  The verified WPC Certificate Chain or null if it is not stored
+     */
+    public @Nullable WpcCrtChn get(@NonNull byte[] dig) {
+        try {
+            final WpcCrtChn chn;                                                                    // Stored WPC Certificate Chain
+            synchronized (this) {
+                refresh();                                                                          // Take over the chains stored by other processes
+                final Integer ofs = mChn.get(ByteBuffer.wrap(dig));                                 // Search the Digest in the index
+                chn = (ofs == null) ? null : read(dig, ofs);                                        // Read the WPC Certificate Chain
+            }
+            return ((chn != null) && check(chn)) ? chn : null;                                      // Return the verified WPC Certificate Chain
+        } catch (IOException err) {                                                                 // Store cannot be read
+            Dbg.log("Chain store cannot be read", err);                                             // Log the error
+        } catch (RuntimeException err) {                                                            // Damaged record not detected by the checks
+            Dbg.log("Chain store damaged", err);                                                    // Log the error
+        }
+        return null;                                                                                // Report missing WPC Certificate Chain
+    }
+
+    /**
+     * Returns the most recently stored WPC Certificate Chains
+     *
+     * @param   cnt The maximum number of WPC Certificate Chains
+     * @return  The verified WPC Certificate Chains, the most recently stored chain is returned last
+     */
+    public @NonNull ArrayList<WpcCrtChn> getRct(int cnt) {
+        final @NonNull ArrayList<WpcCrtChn> chk = new ArrayList<>(cnt);                             // Create the list of verified WPC Certificate Chains
+        try {
+            final @NonNull ArrayList<WpcCrtChn> lst;                                                // Read WPC Certificate Chains
+            synchronized (this) {
+                refresh();                                                                          // Take over the chains stored by other processes
+                lst = read(cnt);                                                                    // Read the recent WPC Certificate Chains
+            }
+            for (WpcCrtChn chn: lst) {                                                              // Repeat for all read WPC Certificate Chains
+                if (check(chn)) {                                                                   // WPC Certificate Chain verified?
+                    chk.add(chn);                                                                   // Add the WPC Certificate Chain
+                }
+            }
+        } catch (IOException err) {                                                                 // Store cannot be read
+            Dbg.log("Chain store cannot be read", err);                                             // Log the error
+        } catch (RuntimeException err) {                                                            // Damaged record not detected by the checks
+            Dbg.log("Chain store damaged", err);                                                    // Log the error
+            chk.clear();                                                                            // Report no WPC Certificate Chains
+        }
+        return chk;                                                                                 // Return the WPC Certificate Chains
+    }
+
+    /**
+     * Appends a verified WPC Certificate Chain in the background
+     *
+     * @param   chn The verified WPC Certificate Chain
+     */
+    public void put(final @NonNull WpcCrtChn chn) {
+        post(new Runnable() {
+            @Override public void run() {
+                try {
+                    if (append(chn) && (size() > 2 * mMax)) {                                       // Too many WPC Certificate Chains stored?
+                        compact(mMax);                                                              // Keep only the most recent WPC Certificate Chains
+                    }
+                } catch (IOException err) {                                                         // Store cannot be written
+                    Dbg.log("Chain store cannot be written", err);                                  // Log the error
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all WPC Certificate Chains in the background
+     */
+    public void clear() {
+        post(new Runnable() {
+            @Override public void run() {
+                try {
+                    compact(0);                                                                     // Replace the files by empty files
+                } catch (IOException err) {                                                         // Store cannot be written
+                    Dbg.log("Chain store cannot be cleared", err);                                  // Log the error
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes a task on the background lane of the session executor
+     * The tasks are executed one after the other in the order of their posting, as only one task may lock the files.
+     *
+     * @param   run The task
+     */
+    void post(@NonNull Runnable run) {
+        synchronized (mQue) {
+            mQue.add(run);                                                                          // Queue the task
+            if (mPst) {                                                                             // Tasks already executed?
+                return;                                                                             // The task is executed after the previous tasks
+            }
+            mPst = true;                                                                            // Execute the tasks
+        }
+        SesExe.bkg(new Runnable() {
+            @Override public void run() {
+                while (true) {                                                                      // Repeat until all posted tasks are executed
+                    final Runnable tsk;                                                             // Next task
+                    synchronized (mQue) {
+                        tsk = mQue.poll();                                                          // Get the next task
+                        if (tsk == null) {                                                          // All tasks executed?
+                            mPst = false;                                                           // Execute the next posted task on a new background task
+                            return;
+                        }
+                    }
+                    try {
+                        tsk.run();                                                                  // Execute the task
+                    } catch (RuntimeException err) {                                                // Task failed
+                        Dbg.log("Chain store task failed", err);                                    // Log the error and continue with the next task
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends a WPC Certificate Chain to the data file
+     * Only the background task of the store appends, the records are written outside of the object monitor.
+     *
+     * @param   chn The WPC Certificate Chain
+     * @return  true if the WPC Certificate Chain was appended, false if it was already stored
+     * @throws  IOException in case the files cannot be written
+     */
+    private boolean append(@NonNull WpcCrtChn chn) throws IOException {
+        final @NonNull FileLock lck = lock();                                                       // Lock the store for all processes
+        try {
+            final @NonNull byte[] dig = chn.getDig();                                               // Get the Digest of the WPC Certificate Chain
+            synchronized (this) {
+                if (mChn.containsKey(ByteBuffer.wrap(dig))) {                                       // WPC Certificate Chain already stored?
+                    return false;                                                                   // Nothing to append
+                }
+                scan();                                                                             // Take over the Certificate records of other processes
+            }
+            final @NonNull byte[] dat = chn.getChn();                                               // Get the WPC Certificate Chain
+            final int cnt = (dat.length - WpcCrtChn.OFS_CRT) / WpcCrt.LEN_CRT;                      // Get the number of WPC Certificates
+            final @NonNull ByteBuffer rec = ByteBuffer.allocate(cnt * LEN_CRT + HDR_CHN + cnt * INT_SIZ);// Create the new records
+            final @NonNull int[] crt = new int[cnt];                                                // Offsets of the Certificate records
+            for (int ind = 0; ind < cnt; ind++) {                                                   // Repeat for all WPC Certificates
+                final int beg = WpcCrtChn.OFS_CRT + ind * WpcCrt.LEN_CRT;                           // Get the offset of the WPC Certificate
+                final @NonNull ByteBuffer key = ByteBuffer.wrap(Arrays.copyOfRange(dat, beg, beg + WpcCrt.LEN_CRT));// Get the WPC Certificate
+                final Integer ofs = mCrt.get(key);                                                  // Search the WPC Certificate
+                if (ofs != null) {                                                                  // WPC Certificate already stored?
+                    crt[ind] = ofs;                                                                 // Reuse the Certificate record
+                } else {                                                                            // New WPC Certificate
+                    crt[ind] = mLen + rec.position();                                               // Register the offset of the new Certificate record
+                    rec.put(TAG_CRT).put(key.array());                                              // Add the Certificate record
+                    mCrt.put(key, crt[ind]);                                                        // Register the Certificate record
+                }
+            }
+            final int pos = mLen + rec.position();                                                  // Get the offset of the chain record
+            rec.put(TAG_CHN).put(dig).put(dat, AppLib.SHT_SIZ, WpcKey.DIG_SIZ).put((byte) cnt);     // Add the header of the chain record
+            for (int ofs: crt) {                                                                    // Repeat for all WPC Certificates
+                rec.putInt(ofs);                                                                    // Add the offset of the Certificate record
+            }
+            rec.flip();                                                                             // Prepare the writing of the records
+            final @NonNull ByteBuffer ent = ByteBuffer.allocate(ENT_IDX).put(dig).putInt(pos);      // Create the index entry
+            ent.flip();                                                                             // Prepare the writing of the index entry
+            final @NonNull RandomAccessFile idx = new RandomAccessFile(mIdx, "rw");                 // Open the index file
+            try {
+                write(idx.getChannel(), ent, mEnd);                                                 // Append the index entry
+                idx.getChannel().force(false);                                                      // Make the index entry durable
+            } finally {
+                idx.close();                                                                        // Close the index file
+            }
+            final @NonNull FileChannel fch = lck.channel();                                         // Get the data file channel
+            write(fch, rec, mLen);                                                                  // Append the records
+            fch.force(false);                                                                       // Make the records durable
+            final int len = pos + HDR_CHN + cnt * INT_SIZ;                                          // Count the appended records
+            final int end = mEnd + ENT_IDX;                                                         // Count the appended index entry
+            commit(fch, len, end);                                                                  // Publish the records for all processes
+            final @NonNull MappedByteBuffer map = fch.map(FileChannel.MapMode.READ_ONLY, 0, len);   // Map the committed part of the data file
+            synchronized (this) {
+                mLen = len;                                                                         // Register the committed data length
+                mEnd = end;                                                                         // Register the committed index length
+                mScn = len;                                                                         // All Certificate records are known
+                mMap = map;                                                                         // Publish the records for the readers of this process
+                mChn.put(ByteBuffer.wrap(dig), pos);                                                // Register the chain record
+            }
+            return true;                                                                            // Report the appended WPC Certificate Chain
+        } finally {
+            lck.release();                                                                          // Unlock the store
+        }
+    }
+
+    /**
+     * Replaces the store files by files containing only the most recently stored WPC Certificate Chains
+     * Only the background task of the store compacts, the new files are written outside of the object monitor.
+     *
+     * @param   cnt The number of kept WPC Certificate Chains
+     * @throws  IOException in case the files cannot be written
+     */
+    private void compact(int cnt) throws IOException {
+        final @NonNull FileLock lck = lock();                                                       // Lock the store for all processes
+        try {
+            final @NonNull ArrayList<WpcCrtChn> lst;                                                // Kept WPC Certificate Chains
+            final int old;                                                                          // Number of stored WPC Certificate Chains
+            synchronized (this) {
+                old = mChn.size();                                                                  // Get the number of stored WPC Certificate Chains
+                lst = read(cnt);                                                                    // Read the recent WPC Certificate Chains
+            }
+            final @NonNull File dat = new File(mDat.getPath() + EXT_TMP);                           // New data file
+            final @NonNull File idx = new File(mIdx.getPath() + EXT_TMP);                           // New index file
+            final @NonNull ChnSto sto = new ChnSto(dat, idx, mGen + 1);                             // Create the store with the new files
+            try {
+                for (WpcCrtChn chn: lst) {                                                          // Repeat for all kept WPC Certificate Chains
+                    sto.append(chn);                                                                // Append the WPC Certificate Chain
+                }
+            } finally {
+                sto.close();                                                                        // Close the new files
+            }
+            synchronized (this) {
+                if (!idx.renameTo(mIdx) || !dat.renameTo(mDat)) {                                   // New files cannot replace the old files?
+                    throw new IOException("Compacted chain store cannot be renamed");               // Abort the compaction
+                }
+                final @NonNull ByteBuffer gen = ByteBuffer.allocate(INT_SIZ).putInt(GEN_OLD);       // Mark the old data file as replaced
+                gen.flip();                                                                         // Prepare the writing of the mark
+                write(lck.channel(), gen, OFS_GEN);                                                 // Inform the readers of other processes
+            }
+            Dbg.log("Chain store compacted from " + old + " to " + lst.size() + " chains");         // Log the compaction
+        } finally {
+            synchronized (this) {
+                if (lck.isValid()) {                                                                // Old data file not yet closed by a reader?
+                    lck.release();                                                                  // Unlock the old data file
+                }
+                close();                                                                            // Reopen the files with the next access
+            }
+        }
+    }
+
+    /**
+     * Returns the number of stored WPC Certificate Chains
+     *
+     * @return  The number of stored WPC Certificate Chains
+     */
+    private synchronized int size() {
+        return mChn.size();                                                                         // Return the number of chain records
+    }
+
+    /**
+     * Creates a store for the files written by a compaction
+     *
+     * @param   dat The new data file
+     * @param   idx The new index file
+     * @param   gen The generation of the new files
+     * @throws  IOException in case the files cannot be written
+     */
+    private ChnSto(@NonNull File dat, @NonNull File idx, int gen) throws IOException {
+        mDat = dat;                                                                                 // Register the data file
+        mIdx = idx;                                                                                 // Register the index file
+        mMax = Integer.MAX_VALUE;                                                                   // Never compact the new files
+        if ((dat.exists() && !dat.delete()) || (idx.exists() && !idx.delete())) {                   // Left over files of an aborted compaction cannot be deleted?
+            throw new IOException("Chain store files cannot be replaced");                          // Abort the compaction
+        }
+        create(gen);                                                                                // Create the new files
+    }
+
+    /**
+     * Opens the store files or takes over the records which were committed by other processes
+     *
+     * @throws  IOException in case the files cannot be read
+     */
+    private void refresh() throws IOException {
+        if (mFil == null) {                                                                         // Files not yet opened?
+            open();                                                                                 // Open the files
+        }
+        final @NonNull ByteBuffer hdr = ByteBuffer.allocate(HDR_DAT);                               // Create buffer for the data file header
+        mFil.getChannel().read(hdr, OFS_MAG);                                                       // Read the data file header
+        if (hdr.getInt(OFS_GEN) != mGen) {                                                          // Data file replaced by a compaction?
+            close();                                                                                // Close the old files
+            open();                                                                                 // Open the new files
+            return;                                                                                 // New files completely loaded
+        }
+        final int len = hdr.getInt(OFS_LEN);                                                        // Get the committed data length
+        final int end = hdr.getInt(OFS_IDX);                                                        // Get the committed index length
+        if (end > mEnd) {                                                                           // New index entries committed?
+            if ((len < mLen) || (len > mFil.length()) || (end > mIdx.length())) {                   // Committed lengths beyond the files?
+                throw new IOException("Damaged chain store header");                                // Report the damaged files
+            }
+            mMap = mFil.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, len);                    // Map the committed part of the data file
+            final @NonNull ByteBuffer gen = ByteBuffer.allocate(HDR_IDX);                           // Create buffer for the index file header
+            final @NonNull ByteBuffer ent = ByteBuffer.allocate(end - mEnd);                        // Create buffer for the new index entries
+            final @NonNull RandomAccessFile idx = new RandomAccessFile(mIdx, "r");                  // Open the index file
+            try {
+                idx.getChannel().read(gen, OFS_MAG);                                                // Read the index file header
+                idx.getChannel().read(ent, mEnd);                                                   // Read the new index entries
+            } finally {
+                idx.close();                                                                        // Close the index file
+            }
+            if (gen.getInt(OFS_GEN) != mGen) {                                                      // Index file already replaced by a compaction?
+                return;                                                                             // Reopen the files with the next access
+            }
+            ent.flip();                                                                             // Prepare the parsing of the index entries
+            while (ent.remaining() >= ENT_IDX) {                                                    // Repeat for all new index entries
+                final @NonNull byte[] dig = new byte[WpcKey.DIG_SIZ];                               // Create the Digest
+                ent.get(dig);                                                                       // Get the Digest
+                mChn.put(ByteBuffer.wrap(dig), ent.getInt());                                       // Register the chain record
+            }
+            mLen = len;                                                                             // Register the committed data length
+            mEnd = end;                                                                             // Register the committed index length
+        }
+    }
+
+    /**
+     * Opens the store files and loads the index
+     * The index is rebuilt from the data file if it belongs to another generation
+     *
+     * @throws  IOException in case the files cannot be read
+     */
+    private void open() throws IOException {
+        mChn.clear();                                                                               // Forget the chains of older generations
+        if (mDat.length() < HDR_DAT) {                                                              // No store available?
+            create(0);                                                                              // Create the first generation of the store files
+            return;                                                                                 // Empty store opened
+        }
+        mFil = new RandomAccessFile(mDat, "rw");                                                    // Open the data file
+        final @NonNull ByteBuffer hdr = ByteBuffer.allocate(HDR_DAT);                               // Create buffer for the data file header
+        mFil.getChannel().read(hdr, OFS_MAG);                                                       // Read the data file header
+        if ((hdr.getInt(OFS_MAG) != MAG_STO) || (hdr.getInt(OFS_VER) != VER_STO)) {                 // Unknown file format?
+            close();                                                                                // Close the data file
+            throw new IOException("Unknown chain store format");                                    // Report the unknown file format
+        }
+        mGen = hdr.getInt(OFS_GEN);                                                                 // Register the generation
+        mLen = hdr.getInt(OFS_LEN);                                                                 // Register the committed data length
+        if ((mLen < HDR_DAT) || (mLen > mFil.length())) {                                           // Committed data length beyond the data file?
+            close();                                                                                // Close the data file
+            throw new IOException("Damaged chain store header");                                    // Report the damaged file
+        }
+        mMap = mFil.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mLen);                       // Map the committed part of the data file
+        mCrt = null;                                                                                // Forget the Certificate records of older generations
+        mScn = HDR_DAT;                                                                             // No Certificate records scanned
+        final @NonNull ByteBuffer idx = ByteBuffer.allocate(HDR_IDX);                               // Create buffer for the index file header
+        if (mIdx.exists()) {                                                                        // Index file available?
+            final @NonNull RandomAccessFile fil = new RandomAccessFile(mIdx, "r");                  // Open the index file
+            try {
+                fil.getChannel().read(idx, OFS_MAG);                                                // Read the index file header
+            } finally {
+                fil.close();                                                                        // Close the index file
+            }
+        }
+        if ((idx.getInt(OFS_MAG) == MAG_STO) && (idx.getInt(OFS_GEN) == mGen)) {                    // Index belongs to the data file?
+            mEnd = HDR_IDX;                                                                         // No index entries loaded
+            refresh();                                                                              // Load the index entries
+        } else {                                                                                    // Index is missing or outdated
+            mEnd = hdr.getInt(OFS_IDX);                                                             // The index entries are replaced by the data file
+            mCrt = new HashMap<>();                                                                 // Collect the Certificate records
+            scan();                                                                                 // Rebuild the index from the chain records
+        }
+    }
+
+    /**
+     * Creates empty store files
+     *
+     * @param   gen The generation of the store files
+     * @throws  IOException in case the files cannot be written
+     */
+    private void create(int gen) throws IOException {
+        final @NonNull File dir = mDat.getParentFile();                                             // Get the directory of the store
+        if (!dir.isDirectory() && !dir.mkdirs()) {                                                  // Directory cannot be created?
+            throw new IOException("Chain store directory cannot be created");                       // Abort the creation
+        }
+        final @NonNull ByteBuffer idx = ByteBuffer.allocate(HDR_IDX).putInt(MAG_STO).putInt(VER_STO).putInt(gen);// Create the index file header
+        final @NonNull ByteBuffer hdr = ByteBuffer.allocate(HDR_DAT).putInt(MAG_STO).putInt(VER_STO).putInt(gen).putInt(HDR_DAT).putInt(HDR_IDX);// Create the data file header
+        idx.flip();                                                                                 // Prepare the writing of the index file header
+        hdr.flip();                                                                                 // Prepare the writing of the data file header
+        final @NonNull RandomAccessFile fil = new RandomAccessFile(mIdx, "rw");                     // Create the index file
+        try {
+            write(fil.getChannel(), idx, OFS_MAG);                                                  // Write the index file header
+        } finally {
+            fil.close();                                                                            // Close the index file
+        }
+        mFil = new RandomAccessFile(mDat, "rw");                                                    // Create the data file
+        write(mFil.getChannel(), hdr, OFS_MAG);                                                     // Write the data file header
+        mFil.getChannel().force(true);                                                              // Make the store files durable
+        mGen = gen;                                                                                 // Register the generation
+        mLen = HDR_DAT;                                                                             // No records stored
+        mEnd = HDR_IDX;                                                                             // No index entries stored
+        mScn = HDR_DAT;                                                                             // No records scanned
+        mMap = mFil.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mLen);                       // Map the committed part of the data file
+        mCrt = new HashMap<>();                                                                     // No Certificate records stored
+    }
+
+    /**
+     * Closes the store files
+     * The files are reopened with the next access
+     */
+    private void close() {
+        try {
+            if (mFil != null) {                                                                     // Data file opened?
+                mFil.close();                                                                       // Close the data file
+            }
+        } catch (IOException err) {                                                                 // Data file cannot be closed
+            Dbg.log("Chain store cannot be closed", err);                                           // Log the error
+        }
+        mFil = null;                                                                                // Reopen the data file with the next access
+        mMap = null;                                                                                // Release the mapping
+        mChn.clear();                                                                               // Reload the index with the next access
+        mCrt = null;                                                                                // Rescan the Certificate records with the next access
+    }
+
+    /**
+     * Locks the data file for all processes and takes over the records of other processes
+     * The object monitor is not held while waiting for the file lock.
+     *
+     * @return  The file lock
+     * @throws  IOException in case the files cannot be read
+     */
+    private @NonNull FileLock lock() throws IOException {
+        while (true) {                                                                              // Repeat until the actual data file is locked
+            final @NonNull FileChannel fch;                                                         // Channel of the actual data file
+            synchronized (this) {
+                refresh();                                                                          // Open the actual files
+                fch = mFil.getChannel();                                                            // Get the data file channel
+            }
+            final @NonNull FileLock lck;                                                            // File lock
+            final @NonNull ByteBuffer gen = ByteBuffer.allocate(INT_SIZ);                           // Create buffer for the generation
+            try {
+                lck = fch.lock();                                                                   // Lock the data file
+                fch.read(gen, OFS_GEN);                                                             // Read the generation
+            } catch (ClosedChannelException err) {                                                  // Data file reopened by a reader in the meantime
+                continue;                                                                           // Lock the actual data file
+            }
+            synchronized (this) {
+                if ((gen.getInt(0) == mGen) && (mFil != null) && (mFil.getChannel() == fch)) {      // Data file not replaced in the meantime?
+                    refresh();                                                                      // Take over the last records of other processes
+                    return lck;                                                                     // Return the file lock
+                }
+            }
+            lck.release();                                                                          // Unlock the replaced data file
+        }
+    }
+
+    /**
+     * Parses the not yet scanned records of the data file
+     * Registers the Certificate records and, while the index is rebuilt, the chain records
+     *
+     * @throws  IOException in case a record exceeds the committed data or has an unknown tag
+     */
+    private void scan() throws IOException {
+        if (mCrt == null) {                                                                         // Certificate records not yet collected?
+            mCrt = new HashMap<>();                                                                 // Collect the Certificate records
+            mScn = HDR_DAT;                                                                         // Scan the whole data file
+        }
+        final @NonNull ByteBuffer map = mMap.duplicate();                                           // Create an independent view of the data file
+        map.position(mScn);                                                                         // Goto the first not yet scanned record
+        while (map.position() < mLen) {                                                             // Repeat for all committed records
+            final int pos = map.position();                                                         // Get the offset of the record
+            final byte tag = map.get();                                                             // Get the tag of the record
+            if ((tag == TAG_CRT) && (pos + LEN_CRT <= mLen)) {                                      // Complete Certificate record?
+                final @NonNull byte[] crt = new byte[WpcCrt.LEN_CRT];                               // Create the WPC Certificate
+                map.get(crt);                                                                       // Get the WPC Certificate
+                mCrt.put(ByteBuffer.wrap(crt), pos);                                                // Register the Certificate record
+            } else if ((tag == TAG_CHN) && (pos + HDR_CHN <= mLen)) {                               // Chain record with complete header?
+                final @NonNull byte[] dig = new byte[WpcKey.DIG_SIZ];                               // Create the Digest
+                map.get(dig);                                                                       // Get the Digest
+                map.position(map.position() + WpcKey.DIG_SIZ);                                      // Skip the root Certificate Digest
+                final int cnt = map.get() & AppLib.BYT_UNS;                                         // Get the number of WPC Certificates
+                if (pos + HDR_CHN + cnt * INT_SIZ > mLen) {                                         // Certificate offsets beyond the committed data?
+                    throw new IOException("Damaged chain record at " + pos);                        // Report the damaged record
+                }
+                map.position(map.position() + cnt * INT_SIZ);                                       // Skip the Certificate offsets
+                mChn.put(ByteBuffer.wrap(dig), pos);                                                // Register the chain record
+            } else {                                                                                // Unknown or truncated record
+                throw new IOException("Damaged record at " + pos);                                  // Report the damaged record
+            }
+        }
+        mScn = mLen;                                                                                // All committed records are scanned
+    }
+
+    /**
+     * Reads the most recently stored WPC Certificate Chains from the mapped data file
+     *
+     * @param   cnt The maximum number of WPC Certificate Chains
+     * @return  The WPC Certificate Chains matching their Digest, the most recently stored chain is returned last
+     */
+    private @NonNull ArrayList<WpcCrtChn> read(int cnt) {
+        final @NonNull ArrayList<WpcCrtChn> lst = new ArrayList<>(cnt);                             // Create the list of WPC Certificate Chains
+        int skp = mChn.size() - cnt;                                                                // Number of older WPC Certificate Chains to be skipped
+        for (Map.Entry<ByteBuffer, Integer> ent: mChn.entrySet()) {                                 // Repeat for all stored WPC Certificate Chains
+            if (skp-- <= 0) {                                                                       // Recent WPC Certificate Chain?
+                final WpcCrtChn chn = read(ent.getKey().array(), ent.getValue());                   // Read the WPC Certificate Chain
+                if (chn != null) {                                                                  // WPC Certificate Chain is valid?
+                    lst.add(chn);                                                                   // Add the WPC Certificate Chain
+                }
+            }
+        }
+        return lst;                                                                                 // Return the WPC Certificate Chains
+    }
+
+    /**
+     * Verifies a WPC Certificate Chain read from the data file
+     * The Digest only detects damaged records, a chain written into the files by others must be verified again.
+     *
+     * @param   chn The WPC Certificate Chain
+     * @return  true if the WPC Certificate Chain is correct
+     */
+    private static boolean check(@NonNull WpcCrtChn chn) {
+        final @NonNull VerRes res = chn.check();                                                    // Verify the chain
+        if (!res.isOk()) {                                                                          // Incorrect chain?
+            Dbg.log("Stored chain rejected: " + res);                                               // Log the rejected chain
+        }
+        return res.isOk();                                                                          // Return the verification result
+    }
+
+    /**
+     * Reads a WPC Certificate Chain from the mapped data file
+     *
+     * The offsets of the index and the chain record are checked against the committed data, a damaged record is
+     * reported as missing chain.
+     *
+     * @param   dig The Digest of the WPC Certificate Chain
+     * @param   ofs The offset of the chain record
+     * @return  The WPC Certificate Chain or null in case the record is damaged or does not match its Digest
+     */
+    private @Nullable WpcCrtChn read(@NonNull byte[] dig, int ofs) {
+        final int lim = mMap.limit();                                                               // Get the length of the mapped data
+        if ((ofs < HDR_DAT) || (ofs > lim - HDR_CHN) || (mMap.get(ofs) != TAG_CHN)) {               // No chain record at the offset?
+            Dbg.log("Damaged chain record at " + ofs);                                              // Log the damaged record
+            return null;                                                                            // Report the missing chain
+        }
+        final @NonNull ByteBuffer map = mMap.duplicate();                                           // Create an independent view of the data file
+        map.position(ofs + AppLib.BYT_SIZ + WpcKey.DIG_SIZ);                                        // Goto the root Certificate Digest
+        final @NonNull byte[] root = new byte[WpcKey.DIG_SIZ];                                      // Create the root Certificate Digest
+        map.get(root);                                                                              // Get the root Certificate Digest
+        final int cnt = map.get() & AppLib.BYT_UNS;                                                 // Get the number of WPC Certificates
+        if ((cnt == 0) || (cnt * INT_SIZ > lim - map.position())) {                                 // No WPC Certificates or offsets beyond the mapped data?
+            Dbg.log("Damaged chain record at " + ofs);                                              // Log the damaged record
+            return null;                                                                            // Report the missing chain
+        }
+        final int len = WpcCrtChn.OFS_CRT + cnt * WpcCrt.LEN_CRT;                                   // Calculate the length of the WPC Certificate Chain
+        final @NonNull ByteBuffer chn = ByteBuffer.allocate(len);                                   // Create the WPC Certificate Chain
+        chn.putShort((short) len).put(root);                                                        // Add the length and the root Certificate Digest
+        for (int ind = 0; ind < cnt; ind++) {                                                       // Repeat for all WPC Certificates
+            final int pos = map.getInt();                                                           // Get the offset of the Certificate record
+            if ((pos < HDR_DAT) || (pos > lim - LEN_CRT) || (mMap.get(pos) != TAG_CRT)) {           // No Certificate record at the offset?
+                Dbg.log("Damaged chain record at " + ofs);                                          // Log the damaged record
+                return null;                                                                        // Report the missing chain
+            }
+            final @NonNull ByteBuffer crt = mMap.duplicate();                                       // Create an independent view of the data file
+            crt.position(pos + AppLib.BYT_SIZ);                                                     // Goto the WPC Certificate
+            crt.limit(crt.position() + WpcCrt.LEN_CRT);                                             // Limit the view to the WPC Certificate
+            chn.put(crt);                                                                           // Add the WPC Certificate
+        }
+        final @NonNull byte[] dat = chn.array();                                                    // Get the WPC Certificate Chain
+        final @NonNull byte[] chk = WpcKey.getDig(dat);                                             // Calculate the Digest of the stored chain
+        return Arrays.equals(chk, dig) ? new WpcCrtChn(dat, chk) : null;                            // Return the WPC Certificate Chain if it is unchanged
+    }
+
+    /**
+     * Publishes the committed data and index lengths in the data file header
+     *
+     * @param   fch The data file channel
+     * @param   len The committed data length
+     * @param   end The committed index length
+     * @throws  IOException in case the data file cannot be written
+     */
+    private static void commit(@NonNull FileChannel fch, int len, int end) throws IOException {
+        final @NonNull ByteBuffer hdr = ByteBuffer.allocate(2 * INT_SIZ).putInt(len).putInt(end);   // Create the committed lengths
+        hdr.flip();                                                                                 // Prepare the writing of the committed lengths
+        write(fch, hdr, OFS_LEN);                                                                   // Write the committed lengths
+        fch.force(false);                                                                           // Make the committed lengths durable
+    }
+
+    /**
+     * Writes a buffer completely at a given file position
+     *
+     * @param   fch The file channel
+     * @param   buf The buffer
+     * @param   pos The file position
+     * @throws  IOException in case the file cannot be written
+     */
+    private static void write(@NonNull FileChannel fch, @NonNull ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {                                                                // Repeat until all bytes are written
+            pos = pos + fch.write(buf, pos);                                                        // Write the next bytes
+        }
+    }
+}
\ No newline at end of file
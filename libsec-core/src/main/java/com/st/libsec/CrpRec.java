@@ -0,0 +1,211 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Record of a verification corpus
+ * A corpus is a text file with one record per line: the WPC Certificate Chain optionally followed by a CHALLENGE
+ * Request and its CHALLENGE_AUTH Response. The fields are separated by white space and contain hexadecimal values
+ * with or without colons as written by Dbg.hexStr. Empty lines and lines starting with # are ignored.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class CrpRec {
+
+    /** Prefix of a comment line */
+    public static final String PFX_CMT = "#";
+
+    private static final String SEP_FLD = "\\s+";                                                   // Separator of the fields
+
+    private final long              mLin;                                                           // Line number in the corpus
+    private final @NonNull byte[]   mChn;                                                           // WPC Certificate Chain
+    private final @Nullable byte[]  mReq;                                                           // CHALLENGE Request
+    private final @Nullable byte[]  mRes;                                                           // CHALLENGE_AUTH Response
+
+    /**
+     * Creates a record
+     *
+     * @param   lin The line number in the corpus
+     * @param   chn The WPC Certificate Chain
+     * @param   req The CHALLENGE Request or null
+     * @param   res The CHALLENGE_AUTH Response or null
+     */
+    public CrpRec(long lin, @NonNull byte[] chn, @Nullable byte[] req, @Nullable byte[] res) {
+        mLin = lin;                                                                                 // Register the line number
+        mChn = chn;                                                                                 // Register the WPC Certificate Chain
+        mReq = req;                                                                                 // Register the CHALLENGE Request
+        mRes = res;                                                                                 // Register the CHALLENGE_AUTH Response
+    }
+
+    /**
+     * Parses a line of the corpus
+     *
+     * @param   lin The line number
+     * @param   txt The text of the line
+     * @return  The record or null for an empty or comment line
+     * @throws  IllegalArgumentException in case the line is malformed
+     */
+    public static @Nullable CrpRec parse(long lin, @NonNull String txt) {
+        final String[] fld = split(txt);                                                            // Get the fields
+        if (fld == null) {                                                                          // Empty or comment line?
+            return null;
+        }
+        switch (fld.length) {                                                                       // Analyse the number of fields
+            case 1: return new CrpRec(lin, hex(fld[0]), null, null);                                // WPC Certificate Chain
+            case 3: return new CrpRec(lin, hex(fld[0]), hex(fld[1]), hex(fld[2]));                  // CHALLENGE / CHALLENGE_AUTH pair
+            default: throw new IllegalArgumentException("Wrong number of fields in line " + lin);   // Malformed line
+        }
+    }
+
+    /**
+     * Splits a line of the corpus into its fields
+     *
+     * @param   txt The text of the line
+     * @return  The fields or null for an empty or comment line
+     */
+    public static @Nullable String[] split(@NonNull String txt) {
+        final @NonNull String trm = txt.trim();                                                     // Remove the surrounding white space
+        if (trm.isEmpty() || trm.startsWith(PFX_CMT)) {                                             // Empty or comment line?
+            return null;
+        }
+        return trm.split(SEP_FLD);                                                                  // Return the fields
+    }
+
+    /**
+     * Returns the first field of a line which contains the WPC Certificate Chain
+     *
+     * @param   txt The text of the line
+     * @return  The first field or null for an empty or comment line
+     */
+    public static @Nullable String getFld(@NonNull String txt) {
+        final @NonNull String trm = txt.trim();                                                     // Remove the surrounding white space
+        if (trm.isEmpty() || trm.startsWith(PFX_CMT)) {                                             // Empty or comment line?
+            return null;
+        }
+        int end = 0;                                                                                // End of the first field
+        while ((end < trm.length()) && !Character.isWhitespace(trm.charAt(end))) {                  // Repeat until the end of the first field
+            end++;                                                                                  // Next character
+        }
+        return trm.substring(0, end);                                                               // Return the first field
+    }
+
+    /**
+     * Returns the shard of a WPC Certificate Chain
+     * All records of a WPC Certificate Chain belong to the same shard, so its verification can be reused.
+     *
+     * @param   chn The WPC Certificate Chain
+     * @param   cnt The number of shards
+     * @return  The shard from 0 to cnt - 1
+     */
+    public static int getShd(@NonNull byte[] chn, int cnt) {
+        final int hsh = ByteBuffer.wrap(WpcKey.getDig(chn)).getInt();                               // Get the first bytes of the Digest
+        return (hsh & Integer.MAX_VALUE) % cnt;                                                     // Return the shard
+    }
+
+    /**
+     * Converts hexadecimal values with or without colons into a byte array
+     * In contrast to WpcFil.StrToByt malformed values are rejected instead of skipped.
+     *
+     * @param   str The hexadecimal values
+     * @return  The byte array
+     * @throws  IllegalArgumentException in case the string contains other characters or an odd number of digits
+     */
+    public static @NonNull byte[] hex(@NonNull String str) {
+        final @NonNull byte[] buf = new byte[str.length() / 2];                                     // Buffer for the bytes
+        int len = 0;                                                                                // Number of converted bytes
+        int hig = -1;                                                                               // Pending higher nibble
+        for (int ind = 0; ind < str.length(); ind++) {                                              // Repeat for all characters
+            final char chr = str.charAt(ind);                                                       // Get the character
+            if (chr == ':') {                                                                       // Separator?
+                if (hig >= 0) {                                                                     // Single digit before the separator?
+                    throw new IllegalArgumentException("Wrong hexadecimal value");                  // Reject the string
+                }
+                continue;
+            }
+            final int nib = Character.digit(chr, AppLib.BAS_HEX);                                   // Get the nibble
+            if (nib < 0) {                                                                          // No hexadecimal digit?
+                throw new IllegalArgumentException("Wrong hexadecimal digit " + chr);               // Reject the string
+            }
+            if (hig < 0) {                                                                          // Higher nibble?
+                hig = nib;                                                                          // Keep the higher nibble
+            } else {                                                                                // Lower nibble
+                buf[len++] = (byte)((hig << 4) | nib);                                              // Add the byte
+                hig = -1;                                                                           // Wait for the next higher nibble
+            }
+        }
+        if (hig >= 0) {                                                                             // Odd number of digits?
+            throw new IllegalArgumentException("Wrong hexadecimal value");                          // Reject the string
+        }
+        return (len == buf.length) ? buf : Arrays.copyOf(buf, len);                                 // Return the bytes
+    }
+
+    /**
+     * Returns the line number of the record
+     *
+     * @return  The line number in the corpus
+     */
+    public long getLin() {
+        return mLin;                                                                                // Return the line number
+    }
+
+    /**
+     * Returns the WPC Certificate Chain of the record
+     *
+     * @return  The WPC Certificate Chain
+     */
+    public @NonNull byte[] getChn() {
+        return mChn;                                                                                // Return the WPC Certificate Chain
+    }
+
+    /**
+     * Returns the CHALLENGE Request of the record
+     *
+     * @return  The CHALLENGE Request or null if the record contains only the WPC Certificate Chain
+     */
+    public @Nullable byte[] getReq() {
+        return mReq;                                                                                // Return the CHALLENGE Request
+    }
+
+    /**
+     * Returns the CHALLENGE_AUTH Response of the record
+     *
+     * @return  The CHALLENGE_AUTH Response or null if the record contains only the WPC Certificate Chain
+     */
+    public @Nullable byte[] getRes() {
+        return mRes;                                                                                // Return the CHALLENGE_AUTH Response
+    }
+
+    /**
+     * Formats a record as line of a corpus
+     *
+     * @param   chn The WPC Certificate Chain
+     * @param   req The CHALLENGE Request or null
+     * @param   res The CHALLENGE_AUTH Response or null
+     * @return  The line without line feed
+     */
+    public static @NonNull String format(@NonNull byte[] chn, @Nullable byte[] req, @Nullable byte[] res) {
+        final @NonNull StringBuilder str = new StringBuilder(Dbg.hexStr(chn));                      // Add the WPC Certificate Chain
+        if ((req != null) && (res != null)) {                                                       // CHALLENGE / CHALLENGE_AUTH pair available?
+            str.append(' ').append(Dbg.hexStr(req)).append(' ').append(Dbg.hexStr(res));            // Add the pair
+        }
+        return str.toString();                                                                      // Return the line
+    }
+}
\ No newline at end of file
@@ -0,0 +1,247 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Class to debug code
+ * The debug messages are written into the standard error stream unless the platform registers its own output.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class Dbg {
+
+    /** No error */
+    static final int NO_ERR = 0;
+
+    private static final String TAG         = "Dbg";                                                // Tag for unknown calling methods
+    private static final String VAL_SEP     = " - ";                                                // Separator string for values
+    private static final char[] HEX         = "0123456789ABCDEF".toCharArray();                     // Char array to convert values into hexadecimal strings
+
+    private static volatile Out sOut = new ErrOut();                                                // Output of the debug messages
+
+    /**
+     * Output of the debug messages
+     */
+    public interface Out {
+
+        /**
+         * Logs a debug message
+         *
+         * @param   tag The calling method
+         * @param   msg The debug message
+         */
+        void log(@NonNull String tag, @NonNull String msg);
+
+        /**
+         * Logs an error message
+         *
+         * @param   tag The calling method
+         * @param   msg The error message
+         * @param   err The error which shall be logged
+         */
+        void log(@NonNull String tag, String msg, Throwable err);
+    }
+
+    /**
+     * Output of the debug messages into the standard error stream
+     */
+    private static class ErrOut implements Out {
+
+        /**
+         * Writes a debug message
+         *
+         * @param   tag The calling method
+         * @param   msg The debug message
+         */
+        @Override public void log(@NonNull String tag, @NonNull String msg) {
+            System.err.println(tag + ": " + msg);                                                   // Write the debug message
+        }
+
+        /**
+         * Writes an error message
+         *
+         * @param   tag The calling method
+         * @param   msg The error message
+         * @param   err The error which shall be logged
+         */
+        @Override public void log(@NonNull String tag, String msg, Throwable err) {
+            synchronized (System.err) {                                                             // Keep the lines of the error together
+                System.err.println(tag + ": " + msg);                                               // Write the error message
+                if (err != null) {                                                                  // Error available?
+                    err.printStackTrace();                                                          // Write the stack trace of the error
+                }
+            }
+        }
+    }
+
+    /**
+     * Hide the default constructor to prevent instantiation of this class
+     */
+    private Dbg() {}
+
+    /**
+     * Convert a given byte array into a string with hexadecimal values
+     * @param   val Byte array which shall be shown as a string with hexadecimal values
+     * @return  String with hexadecimal values
+     */
+    public static @NonNull String seqHex(@NonNull String msg, byte[] val) {
+        int len = val.length;
+        char[] str = new char[len * 2];
+        int pos;
+        int byt;
+        for (int ind = 0; ind < len; ind ++) {                                                      // Repeat for all bytes of the byte array
+            pos = ind * 2;
+            byt = val[ind] & AppLib.BYT_UNS;
+            str[pos] = HEX[(byt & 0xF0) >> 4];
+            str[pos + 1] = HEX[byt & 0x0F];
+        }
+        return msg + new String(str);                                                               // Return string with hexadecimal values
+    }
+
+    /**
+     * Return the app build date
+     * @param   cod The version code
+     * @param   tim The build time stamp
+     * @return  The app build date
+     */
+    public static String getBld(int cod,  long tim) {
+        final @NonNull SimpleDateFormat sdf = new SimpleDateFormat("d MMM yyyy", Locale.UK);        // Define date format
+        return "Version code: " + cod + " - " + sdf.format(new Date(tim));                          // Return the build state the application
+    }
+
+    /**
+     * Convert a given byte into a string with hexadecimal values
+     * @param   byt Byte which shall be shown as a string with hexadecimal values
+     * @return  String with hexadecimal values
+     */
+    private static String hexStr(byte byt) {
+        char[] str = new char[2];                                                                   // Create char array for hexadecimal values
+        str[0] = HEX[(byt & 0xF0)>> 4];                                                             // Set higher nibble
+        str[1] = HEX[byt & 0x0F];                                                                   // Set lower nibble
+        return new String(str);                                                                     // Return string with hexadecimal values
+    }
+
+    /**
+     * Convert a given byte array into a string with hexadecimal values
+     * @param   val Byte array which shall be shown as a string with hexadecimal values
+     * @return  String with hexadecimal values
+     */
+    public static String hexStr(byte[] val) {
+        return hexStr(val, ':');                                                                    // Return string with hexadecimal values
+    }
+
+    /**
+     * Convert a given byte array into a string with hexadecimal values
+     * @param   val Byte array which shall be shown as a string with hexadecimal values
+     * @return  String with hexadecimal values
+     */
+    private static String hexStr(byte[] val, char sep) {
+        int len = val.length;
+        char[] str = new char[len * 3 - 1];
+        int pos;
+        int byt;
+        for (int ind = 0; ind < len; ind ++) {                                                      // Repeat for all bytes of the byte array
+            pos = ind * 3;
+            byt = val[ind] & AppLib.BYT_UNS;
+            str[pos] = HEX[(byt & 0xF0) >> 4];
+            str[pos + 1] = HEX[byt & 0x0F];
+            if (ind < len - 1) {
+                str[pos + 2] = sep;
+            }
+        }
+        return new String(str);                                                                     // Return string with hexadecimal values
+    }
+
+    /**
+     * Convert a given byte array into a string with hexadecimal values
+     * @param   nam The name of the byte array
+     * @param   val Byte array which shall be shown as a string with hexadecimal values
+     * @return  String with hexadecimal values
+     */
+    public static String hexStr(String nam, byte[] val) {
+        return nam + ": " + hexStr(val, ' ');                                                       // Return string with hexadecimal values
+    }
+
+    /**
+     * Registers the output of the debug messages
+     *
+     * @param   out The output of the debug messages
+     */
+    public static void setOut(@NonNull Out out) {
+        sOut = out;                                                                                 // Register the output
+    }
+
+    /**
+     * Log a debug message
+     *
+     * @param msg   Debug message
+     */
+    public static void log(@NonNull String msg) {
+        sOut.log(getTag(), msg + '!');                                                              // Log the debug message
+    }
+
+    /**
+     * Log an error message
+     *
+     * @param msg   Error message
+     * @param err   The error which shall be logged
+     */
+    public static void log(String msg, Throwable err) {
+        sOut.log(getTag(), msg, err);                                                               // Log the error message
+    }
+
+    /**
+     * Returns the calling method of the debug message
+     *
+     * @return  The first method outside of this class inside the task stack
+     */
+    private static @NonNull String getTag() {
+        boolean dbg = false;                                                                        // Methods of this class found
+        for (StackTraceElement elm : Thread.currentThread().getStackTrace()) {                      // Repeat for the task stack
+            if (elm.getClassName().equals(Dbg.class.getName())) {                                   // Method of this class?
+                dbg = true;                                                                         // Calling method follows
+            } else if (dbg) {                                                                       // Calling method?
+                return elm.toString();                                                              // Return the calling method
+            }
+        }
+        return TAG;                                                                                 // Calling method unknown
+    }
+
+    /**
+     * Returns a log string for a given value
+     *
+     * @param val   Logged value
+     * @param msg   Log message
+     */
+    static @NonNull String logStr(byte val, @NonNull String msg) {
+        return hexStr(val) + VAL_SEP + msg;                                                         // Return the log string
+    }
+
+    /**
+     * Returns a log string for a given byte array
+     *
+     * @param val   Logged value
+     * @param msg   Log message
+     */
+    static @NonNull String logStr(byte[] val, @NonNull String msg) {
+        return hexStr(val) + VAL_SEP + msg;                                                         // Return the log string
+    }
+}
\ No newline at end of file
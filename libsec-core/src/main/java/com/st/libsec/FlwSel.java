@@ -0,0 +1,190 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Adaptive selector of the Qi Authentication Initiator flow
+ * The history of the authenticated devices is kept with their Digest, Qi-ID and the latencies observed per flow.
+ * The flow with the lowest expected latency is chosen for the probability that the next device is already known.
+ * Latencies not yet observed are estimated by the number of exchanged messages and the learned latency per message.
+ * A summary with count, mean and 95th percentile of the observed latencies is kept per flow and cache state.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+class FlwSel {
+
+    private static final WpcAthIni.FlwTyp[] FLW_SEL = {WpcAthIni.FlwTyp.SMPL, WpcAthIni.FlwTyp.CACH, WpcAthIni.FlwTyp.ATH1};// Selectable flows
+    private static final double[][] LAT_PRI = {{3, 3}, {4, 2}, {6, 1}};                             // Prior latencies per flow for a cache miss and a cache hit [messages]
+    private static final double     MSG_LAT = 20;                                                   // Initial latency of one message [ms]
+    private static final double     DEC_LAT = 0.25;                                                 // Weight of a new latency observation
+    private static final double     DEC_HIT = 0.3;                                                  // Weight of a new known device observation
+    private static final int        MAX_DEV = 64;                                                   // Maximum number of devices in the history
+    private static final int        MAX_LAT = 100;                                                  // Number of recent latencies per flow and cache state for the percentile
+    private static final int        PCT_LAT = 95;                                                   // Percentile of the latency summary
+    private static final int        MIS     = 0;                                                    // Index of the cache miss latency
+    private static final int        HIT     = 1;                                                    // Index of the cache hit latency
+
+    /** History entry of an authenticated device */
+    private static class Dev {
+        final int       mQi;                                                                        // Qi-ID of the device
+        final double[][] mLat = new double[FLW_SEL.length][2];                                      // Latencies observed per flow and cache state [ms], 0 if not observed
+        int             mCnt;                                                                       // Number of authentications
+
+        Dev(int qi) {
+            mQi = qi;                                                                               // Register the Qi-ID
+        }
+    }
+
+    private final Map<ByteBuffer, Dev> mDev = new LinkedHashMap<ByteBuffer, Dev>(MAX_DEV, 0.75f, true) {// Device history ordered by recency
+        @Override protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Dev> eldest) {
+            return size() > MAX_DEV;                                                                // Forget the least recently authenticated device
+        }
+    };
+    private final double[][] mLat = new double[FLW_SEL.length][2];                                  // Latencies observed per flow and cache state over all devices [ms]
+    private final long[][][] mRct = new long[FLW_SEL.length][2][MAX_LAT];                           // Recent latencies per flow and cache state [ms]
+    private final long[][]  mCnt = new long[FLW_SEL.length][2];                                     // Number of latencies per flow and cache state
+    private final long[][]  mSum = new long[FLW_SEL.length][2];                                     // Sum of the latencies per flow and cache state [ms]
+    private double          mMsg = MSG_LAT;                                                         // Learned latency of one message [ms]
+    private double          mHit;                                                                   // Probability that the next device is already known
+    private @Nullable Dev   mLst;                                                                   // Last authenticated device
+
+    /**
+     * Selects the flow with the lowest expected latency and logs the decision
+     *
+     * @return  The selected flow
+     */
+    synchronized @NonNull WpcAthIni.FlwTyp select() {
+        int sel = 0;                                                                                // Index of the selected flow
+        final @NonNull StringBuilder txt = new StringBuilder();                                     // Estimated latencies of all flows
+        for (int ind = 0; ind < FLW_SEL.length; ind++) {                                            // Repeat for all flows
+            final double est = est(ind);                                                            // Estimate the latency of the flow
+            txt.append(String.format(Locale.US, ", %s %.0f ms", FLW_SEL[ind].name(), est));         // Add the estimated latency
+            if (est < est(sel)) {                                                                   // Faster flow?
+                sel = ind;                                                                          // Select the faster flow
+            }
+        }
+        final @NonNull String lst = (mLst == null) ? "" : String.format(Locale.US, ", last Qi-ID %d seen %dx", mLst.mQi, mLst.mCnt);
+        WpcLog.logCmt(String.format(Locale.US, "Adaptive flow %s selected (known device %.0f %%%s%s)", FLW_SEL[sel].name(), mHit * 100, lst, txt));
+        return FLW_SEL[sel];                                                                        // Return the selected flow
+    }
+
+    /**
+     * Estimates the latency of a flow
+     *
+     * @param   flw The flow
+     * @return  The estimated latency in milliseconds
+     */
+    synchronized double est(@NonNull WpcAthIni.FlwTyp flw) {
+        for (int ind = 0; ind < FLW_SEL.length; ind++) {                                            // Repeat for all flows
+            if (FLW_SEL[ind] == flw) {                                                              // Flow found?
+                return est(ind);                                                                    // Return its estimated latency
+            }
+        }
+        return 0;                                                                                   // No estimation available
+    }
+
+    /**
+     * Registers the result of a successful Qi Authentication
+     *
+     * @param   flw The used flow
+     * @param   hit true if the WPC Certificate Chain was found in the cache
+     * @param   chn The authenticated WPC Certificate Chain
+     * @param   tim The latency of the flow in milliseconds
+     */
+    synchronized void add(@NonNull WpcAthIni.FlwTyp flw, boolean hit, @NonNull WpcCrtChn chn, long tim) {
+        final int ind = flw.ordinal();                                                              // Get the index of the flow
+        final int sta = (hit && (flw != WpcAthIni.FlwTyp.SMPL)) ? HIT : MIS;                        // Get the index of the cache state, the simple flow does not use the cache
+        final @NonNull ByteBuffer key = ByteBuffer.wrap(chn.getDig());                              // Get the Digest as history key
+        Dev dev = mDev.get(key);                                                                    // Search the device in the history
+        mHit = (1 - DEC_HIT) * mHit + ((dev != null) ? DEC_HIT : 0);                                // Learn if devices are authenticated again
+        if (dev == null) {                                                                          // New device?
+            dev = new Dev(chn.getPu().getQiId());                                                   // Create the history entry
+            mDev.put(key, dev);                                                                     // Add the device to the history
+        }
+        dev.mCnt++;                                                                                 // Count the authentication
+        dev.mLat[ind][sta] = ewma(dev.mLat[ind][sta], tim);                                         // Learn the latency of the device
+        mLat[ind][sta] = ewma(mLat[ind][sta], tim);                                                 // Learn the latency over all devices
+        mMsg = ewma(mMsg, tim / LAT_PRI[ind][sta]);                                                 // Learn the latency of one message
+        mLst = dev;                                                                                 // Register the last authenticated device
+        mRct[ind][sta][(int)(mCnt[ind][sta] % MAX_LAT)] = tim;                                      // Replace the oldest recent latency
+        mCnt[ind][sta]++;                                                                           // Count the latency
+        mSum[ind][sta] = mSum[ind][sta] + tim;                                                      // Add the latency to the sum
+    }
+
+    /**
+     * Returns the summary of the observed latencies
+     * The percentile is taken from the recent latencies of each flow and cache state.
+     *
+     * @return  The count, mean and 95th percentile of the latencies per flow and cache state
+     */
+    synchronized @NonNull String getSta() {
+        final @NonNull StringBuilder txt = new StringBuilder("Latency summary");                    // Summary of the latencies
+        @NonNull String sep = ": ";                                                                 // Separator of the next flow and cache state
+        for (int ind = 0; ind < FLW_SEL.length; ind++) {                                            // Repeat for all flows
+            for (int sta = MIS; sta <= HIT; sta++) {                                                // Repeat for both cache states
+                final long cnt = mCnt[ind][sta];                                                    // Get the number of latencies
+                if (cnt > 0) {                                                                      // Latencies observed?
+                    final long[] val = Arrays.copyOf(mRct[ind][sta], (int)Math.min(cnt, MAX_LAT));  // Copy the recent latencies
+                    Arrays.sort(val);                                                               // Sort the recent latencies
+                    final int pct = Math.max(0, (int)Math.ceil(PCT_LAT / 100.0 * val.length) - 1);  // Get the index of the nearest rank
+                    final @NonNull String nam = FLW_SEL[ind].name() + ((FLW_SEL[ind] == WpcAthIni.FlwTyp.SMPL) ? "" : (sta == HIT) ? " hit" : " miss");
+                    txt.append(String.format(Locale.US, "%s%s %dx, mean %.0f ms, p%d %d ms", sep, nam, cnt, (double)mSum[ind][sta] / cnt, PCT_LAT, val[pct]));
+                    sep = "; ";                                                                     // Separate the following flows
+                }
+            }
+        }
+        return txt.toString();                                                                      // Return the summary
+    }
+
+    /**
+     * Estimates the latency of a flow for the probability of a known device
+     * The cache hit latency of the last authenticated device is preferred as it is most likely authenticated again.
+     *
+     * @param   ind The index of the flow
+     * @return  The estimated latency in milliseconds
+     */
+    private double est(int ind) {
+        double hit = mLat[ind][HIT];                                                                // Get the cache hit latency over all devices
+        if ((mLst != null) && (mLst.mLat[ind][HIT] > 0)) {                                          // Cache hit latency of the last device observed?
+            hit = mLst.mLat[ind][HIT];                                                              // Use the latency of the last device
+        }
+        hit = (hit > 0) ? hit : LAT_PRI[ind][HIT] * mMsg;                                           // Estimate the latency if not observed
+        final double mis = (mLat[ind][MIS] > 0) ? mLat[ind][MIS] : LAT_PRI[ind][MIS] * mMsg;        // Get the cache miss latency
+        if (FLW_SEL[ind] == WpcAthIni.FlwTyp.SMPL) {                                                // Simple flow does not use the cache?
+            return mis;                                                                             // Return the latency independent of the cache
+        }
+        return mHit * hit + (1 - mHit) * mis;                                                       // Return the expected latency
+    }
+
+    /**
+     * Updates an exponentially weighted moving average
+     *
+     * @param   avg The actual average, 0 if no value was observed
+     * @param   val The new value
+     * @return  The updated average
+     */
+    private static double ewma(double avg, double val) {
+        return (avg > 0) ? (1 - DEC_LAT) * avg + DEC_LAT * val : val;                               // Return the updated average
+    }
+}
\ No newline at end of file
@@ -0,0 +1,212 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Planner for the fragments of the GET_CERTIFICATE Requests
+ * The duration of an exchange is modeled as overhead + cost per byte + penalty per RF frame.
+ * The model is fitted with the observed exchange durations by a least squares fit which forgets old observations.
+ * Without a fitted model the fragments are limited to one RF frame.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+class FrgPln {
+
+    /** Maximum offset and length of a GET_CERTIFICATE Request (10 bits) */
+    static final int MAX_LEN = 0x3FF;
+
+    /** Minimum length of a WPC Certificate Chain (Manufacturer and Product Unit Certificate) */
+    static final int MIN_CHN = WpcCrtChn.OFS_CRT + 2 * WpcCrt.LEN_CRT;
+
+    private static final int    FRM_SIZ = 243;                                                      // Message bytes transferred without segmentation of RF frames
+    private static final int    REQ_LEN = 4;                                                        // Length of a GET_CERTIFICATE Request
+    private static final int    RES_HDR = 1;                                                        // Header length of a CERTIFICATE Response
+    private static final int    MAX_FRG = 16;                                                       // Maximum number of additional fragments tested by the planner
+    private static final double DEC_OBS = 0.98;                                                     // Weight decay of older observations
+    private static final double MIN_DET = 1e-9;                                                     // Relative determinant below which a fit is rejected
+    private double  mN, mX, mF, mXX, mXF, mFF, mY, mXY, mFY;                                        // Weighted sums of the observations
+    private double  mOvh;                                                                           // Overhead of an exchange [us]
+    private double  mByt;                                                                           // Cost per transferred byte [us]
+    private double  mFrm;                                                                           // Penalty per RF frame of the response [us]
+    private boolean mFit;                                                                           // Flag for a fitted model
+
+    /**
+     * Adds the observed duration of an exchange
+     *
+     * @param   req The length of the request
+     * @param   res The length of the response
+     * @param   tim The duration of the exchange in nanoseconds
+     */
+    synchronized void add(int req, int res, long tim) {
+        final double x = req + res;                                                                 // Get the transferred bytes
+        final double f = frm(res);                                                                  // Get the RF frames of the response
+        final double y = tim / 1000.0;                                                              // Get the duration in microseconds
+        mN  = DEC_OBS * mN  + 1;                                                                    // Add the observation to the weighted sums
+        mX  = DEC_OBS * mX  + x;
+        mF  = DEC_OBS * mF  + f;
+        mXX = DEC_OBS * mXX + x * x;
+        mXF = DEC_OBS * mXF + x * f;
+        mFF = DEC_OBS * mFF + f * f;
+        mY  = DEC_OBS * mY  + y;
+        mXY = DEC_OBS * mXY + x * y;
+        mFY = DEC_OBS * mFY + f * y;
+        fit();                                                                                      // Update the model
+    }
+
+    /**
+     * Plans the first fragment before the length of the WPC Certificate Chain is known
+     * The fragment must fit into the minimum WPC Certificate Chain, the length with the lowest duration per byte is chosen.
+     *
+     * @param   max The maximum length of a Qi Authentication Response
+     * @return  The length of the first fragment
+     */
+    synchronized int first(int max) {
+        final int lim = Math.min(Math.min(max - RES_HDR, MAX_LEN), MIN_CHN);                        // Get the maximum length of the first fragment
+        final int one = Math.min(lim, FRM_SIZ - RES_HDR);                                           // Get the maximum length fitting into one RF frame
+        if (!mFit || (est(one) / one <= est(lim) / lim)) {                                          // No model available or one RF frame is cheaper per byte?
+            return one;                                                                             // Request one RF frame
+        }
+        return lim;                                                                                 // Request the maximum length
+    }
+
+    /**
+     * Plans the fragments for a given number of bytes
+     * The number of fragments with the lowest estimated duration is chosen.
+     *
+     * @param   rem The number of bytes to be requested
+     * @param   max The maximum length of a Qi Authentication Response
+     * @return  The lengths of the fragments
+     */
+    synchronized @NonNull int[] plan(int rem, int max) {
+        final int lim = Math.min(max - RES_HDR, MAX_LEN);                                           // Get the maximum fragment length
+        if (!mFit) {                                                                                // No model available?
+            return split(rem, (rem + Math.min(lim, FRM_SIZ - RES_HDR) - 1) / Math.min(lim, FRM_SIZ - RES_HDR));// Request fragments fitting into one RF frame
+        }
+        final int min = (rem + lim - 1) / lim;                                                      // Get the minimum number of fragments
+        int[] frg = split(rem, min);                                                                // Best plan
+        double tim = est(frg);                                                                      // Estimated duration of the best plan
+        for (int cnt = min + 1; (cnt <= min + MAX_FRG) && (cnt <= rem); cnt++) {                    // Repeat for more fragments
+            final @NonNull int[] tst = split(rem, cnt);                                             // Get the tested plan
+            final double est = est(tst);                                                            // Estimate the duration of the tested plan
+            if (est < tim) {                                                                        // Faster plan?
+                frg = tst;                                                                          // Register the faster plan
+                tim = est;                                                                          // Register its duration
+            }
+        }
+        return frg;                                                                                 // Return the best plan
+    }
+
+    /**
+     * Estimates the duration of the GET_CERTIFICATE Requests for given fragments
+     *
+     * @param   frg The lengths of the fragments
+     * @return  The estimated duration in microseconds
+     */
+    synchronized double est(@NonNull int[] frg) {
+        double tim = 0;                                                                             // Estimated duration
+        for (int siz: frg) {                                                                        // Repeat for all fragments
+            tim = tim + est(siz);                                                                   // Add the duration of the fragment
+        }
+        return tim;                                                                                 // Return the estimated duration
+    }
+
+    /**
+     * Estimates the duration of one GET_CERTIFICATE Request
+     *
+     * @param   siz The length of the fragment
+     * @return  The estimated duration in microseconds
+     */
+    private double est(int siz) {
+        return mOvh + mByt * (REQ_LEN + RES_HDR + siz) + mFrm * frm(RES_HDR + siz);                 // Return the duration of the fragment
+    }
+
+    /**
+     * Returns a description of the planned fragments and the model
+     *
+     * @param   frg The lengths of the fragments
+     * @return  The description of the plan
+     */
+    synchronized @NonNull String toString(@NonNull int[] frg) {
+        if (!mFit) {                                                                                // No model available?
+            return "Fragment plan " + Arrays.toString(frg) + " (no link model)";                    // Return the default plan
+        }
+        return String.format(Locale.US, "Fragment plan %s, estimated %.1f ms (overhead %.0f us, %.2f us/byte, frame penalty %.0f us)",
+                Arrays.toString(frg), est(frg) / 1000, mOvh, mByt, mFrm);                           // Return the plan with its estimated duration
+    }
+
+    /**
+     * Splits a number of bytes into fragments of nearly equal length
+     *
+     * @param   rem The number of bytes
+     * @param   cnt The number of fragments
+     * @return  The lengths of the fragments
+     */
+    private static @NonNull int[] split(int rem, int cnt) {
+        final @NonNull int[] frg = new int[cnt];                                                    // Create the lengths of the fragments
+        for (int ind = 0; ind < cnt; ind++) {                                                       // Repeat for all fragments
+            frg[ind] = rem / cnt + ((ind < rem % cnt) ? 1 : 0);                                     // Distribute the bytes
+        }
+        return frg;                                                                                 // Return the lengths of the fragments
+    }
+
+    /**
+     * Returns the number of RF frames of a response
+     *
+     * @param   len The length of the response
+     * @return  The number of RF frames
+     */
+    private static int frm(int len) {
+        return (len + FRM_SIZ - 1) / FRM_SIZ;                                                       // Return the number of RF frames
+    }
+
+    /**
+     * Fits the model to the weighted observations
+     * The frame penalty is only fitted when responses with different numbers of RF frames were observed.
+     */
+    private void fit() {
+        final double det = det(mN, mX, mF, mX, mXX, mXF, mF, mXF, mFF);                             // Get the determinant of the normal equations
+        if (Math.abs(det) > MIN_DET * mN * mXX * mFF) {                                             // Overhead, byte cost and frame penalty can be fitted?
+            mOvh = det(mY, mX, mF, mXY, mXX, mXF, mFY, mXF, mFF) / det;                             // Fit the overhead
+            mByt = det(mN, mY, mF, mX, mXY, mXF, mF, mFY, mFF) / det;                               // Fit the cost per byte
+            mFrm = det(mN, mX, mY, mX, mXX, mXY, mF, mXF, mFY) / det;                               // Fit the frame penalty
+        } else {                                                                                    // Only overhead and byte cost can be fitted
+            final double dt2 = mN * mXX - mX * mX;                                                  // Get the determinant of the reduced normal equations
+            if (dt2 <= MIN_DET * mN * mXX) {                                                        // Only one message length observed?
+                return;                                                                             // Keep the actual model
+            }
+            mOvh = (mY * mXX - mX * mXY) / dt2;                                                     // Fit the overhead
+            mByt = (mN * mXY - mX * mY) / dt2;                                                      // Fit the cost per byte
+            mFrm = 0;                                                                               // No frame penalty observed
+        }
+        mOvh = Math.max(mOvh, 0);                                                                   // Suppress negative durations caused by jitter
+        mByt = Math.max(mByt, 0);
+        mFrm = Math.max(mFrm, 0);
+        mFit = true;                                                                                // Model is available
+    }
+
+    /**
+     * Returns the determinant of a 3x3 matrix
+     *
+     * @return  The determinant
+     */
+    private static double det(double a, double b, double c, double d, double e, double f, double g, double h, double i) {
+        return a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);                     // Return the determinant
+    }
+}
\ No newline at end of file
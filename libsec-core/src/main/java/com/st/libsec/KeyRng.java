@@ -0,0 +1,280 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Keyring of emulated Qi Authentication devices
+ * All WPC Certificate Chain and private key pairs of the emulation directory or of a zip archive are preloaded once.
+ * Each device is kept with its Qi Authentication Responder whose DIGESTS Responses and CHALLENGE_AUTH headers are
+ * precomputed, so selecting a device or serving many sessions does not read or parse files again.
+ * A device consists of the files name_chn.txt and name_prv.txt, the files name_s1 to name_s3 populate the additional slots.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class KeyRng {
+
+    /** Extension of a zip archive with emulated devices */
+    public static final String EXT_ZIP = ".zip";
+
+    /** File name suffix of the additional slots of an emulated PTx device */
+    public static final String SLT_PFX = "_s";
+
+    private static final int    BUF_SIZ = 1024;                                                     // Buffer size for the zip entries [byte]
+
+    /**
+     * Emulated device of the keyring
+     */
+    public static class Dev {
+        private final @NonNull String       mName;                                                  // Name of the device
+        private final @NonNull WpcCrtChn[]  mChn;                                                   // WPC Certificate Chains of the slots
+        private final @NonNull PrivateKey[] mPrv;                                                   // Private keys of the slots
+        private final @NonNull WpcAthRsp    mRsp;                                                   // Qi Authentication Responder of the device
+
+        /**
+         * Creates an emulated device with one WPC Certificate Chain in slot 0
+         *
+         * @param   name    The name of the device
+         * @param   chn     The WPC Certificate Chain of the device
+         * @param   prv     The private key of the device
+         */
+        public Dev(@NonNull String name, @NonNull WpcCrtChn chn, @NonNull PrivateKey prv) {
+            this(name, new WpcCrtChn[] {chn}, new PrivateKey[] {prv});                              // Create the device with slot 0
+        }
+
+        /**
+         * Creates an emulated device with several slots
+         *
+         * @param   name    The name of the device
+         * @param   chn     The WPC Certificate Chains of the slots (null for unpopulated slots), slot 0 must be populated
+         * @param   prv     The private keys of the slots
+         */
+        public Dev(@NonNull String name, @NonNull WpcCrtChn[] chn, @NonNull PrivateKey[] prv) {
+            mName = name;                                                                           // Register the name
+            mChn = Arrays.copyOf(chn, WpcAthIni.SLOT_CNT);                                          // Register the WPC Certificate Chains
+            mPrv = Arrays.copyOf(prv, WpcAthIni.SLOT_CNT);                                          // Register the private keys
+            mRsp = new WpcAthRsp(mChn, mPrv, true);                                                 // Create the Qi Authentication Responder
+        }
+
+        /**
+         * Returns the name of the device
+         *
+         * @return  The name of the device
+         */
+        public @NonNull String getName() {
+            return mName;                                                                           // Return the name
+        }
+
+        /**
+         * Returns the WPC Certificate Chain of a slot
+         *
+         * @param   slt The slot
+         * @return  The WPC Certificate Chain or null if the slot is not populated
+         */
+        public @Nullable WpcCrtChn getChn(int slt) {
+            return mChn[slt];                                                                       // Return the WPC Certificate Chain
+        }
+
+        /**
+         * Returns the private key of a slot
+         *
+         * @param   slt The slot
+         * @return  The private key or null if the slot is not populated
+         */
+        public @Nullable PrivateKey getPrv(int slt) {
+            return mPrv[slt];                                                                       // Return the private key
+        }
+
+        /**
+         * Returns the length of the WPC Certificate Chain of the device
+         *
+         * @return  The length of the WPC Certificate Chain in slot 0 in bytes
+         */
+        public int getLen() {
+            return mChn[0].getChn().length;                                                         // Return the length
+        }
+
+        /**
+         * Returns the Qi Authentication Responder of the device
+         *
+         * @return  The Qi Authentication Responder
+         */
+        @NonNull WpcAthRsp getRsp() {
+            return mRsp;                                                                            // Return the Qi Authentication Responder
+        }
+    }
+
+    private final @NonNull Map<String, Dev> mDev = new TreeMap<>();                                 // Devices sorted by name
+
+    /**
+     * Loads the keyring from the emulation directory or a zip archive
+     * This methods is blocking and should not be called from the UI thread. A file which cannot be read or a device which
+     * cannot be loaded is skipped, the other devices are still available.
+     *
+     * @param   fil The emulation directory or the zip archive
+     * @return  The keyring
+     * @throws  IOException in case the directory or the zip archive cannot be read
+     */
+    public static @NonNull KeyRng load(@NonNull File fil) throws IOException {
+        final @NonNull Map<String, byte[]> map = new TreeMap<>();                                   // Contents of the files by name
+        if (fil.isDirectory()) {                                                                    // Emulation directory?
+            final File[] lst = fil.listFiles();                                                     // Get all files of the directory
+            if (lst == null) {                                                                      // Directory not readable?
+                throw new IOException("Cannot read " + fil);                                        // Report error
+            }
+            for (File itm : lst) {                                                                  // Repeat for all files
+                if (!itm.getName().endsWith(WpcFil.EXT_TXT)) {                                      // No text file?
+                    continue;                                                                       // Skip the file
+                }
+                try {
+                    map.put(itm.getName(), new WpcFil(itm).read());                                 // Read the file
+                } catch (IOException | RuntimeException err) {                                      // File not readable or no hex text
+                    Dbg.log("Cannot read " + itm.getName(), err);                                   // Skip the file
+                }
+            }
+        } else {                                                                                    // Zip archive
+            final @NonNull InputStream ins = new FileInputStream(fil);                              // Open the zip archive
+            //noinspection TryFinallyCanBeTryWithResources                                          // Not usable below Android 19
+            try {
+                read(ins, map);                                                                     // Read the files of the archive
+            } finally {
+                ins.close();                                                                        // Close the zip archive
+            }
+        }
+        return new KeyRng(map);                                                                     // Return the keyring
+    }
+
+    /**
+     * Loads the keyring from a zip archive stream
+     *
+     * @param   ins The zip archive stream
+     * @return  The keyring
+     * @throws  IOException in case the archive cannot be read
+     */
+    public static @NonNull KeyRng load(@NonNull InputStream ins) throws IOException {
+        final @NonNull Map<String, byte[]> map = new TreeMap<>();                                   // Contents of the files by name
+        read(ins, map);                                                                             // Read the files of the archive
+        return new KeyRng(map);                                                                     // Return the keyring
+    }
+
+    /**
+     * Creates the keyring from the contents of the device files
+     * A device whose files cannot be loaded is skipped.
+     *
+     * @param   map The binary contents of the files by name
+     */
+    private KeyRng(@NonNull Map<String, byte[]> map) {
+        for (String nam : map.keySet()) {                                                           // Repeat for all files
+            final int ind = nam.indexOf(WpcCrtChn.EXT_CHN);                                         // Search for WPC chain files
+            if (ind <= 0) {                                                                         // No WPC chain file?
+                continue;                                                                           // Skip the file
+            }
+            final @NonNull String name = nam.substring(0, ind);                                     // Get device name
+            if (name.matches(".*" + SLT_PFX + "[1-3]") || !map.containsKey(name + WpcCrt.EXT_PRV)) {// Additional slot or no private key?
+                continue;                                                                           // Skip the file
+            }
+            final @NonNull WpcCrtChn[] chn = new WpcCrtChn[WpcAthIni.SLOT_CNT];                     // WPC Certificate Chains of the slots
+            final @NonNull PrivateKey[] prv = new PrivateKey[WpcAthIni.SLOT_CNT];                   // Private keys of the slots
+            try {
+                for (int slt = 0; slt < WpcAthIni.SLOT_CNT; slt++) {                                // Repeat for all slots
+                    final @NonNull String sln = (slt == 0) ? name : name + SLT_PFX + slt;           // Get the file name of the slot
+                    final byte[] bch = map.get(sln + WpcCrtChn.EXT_CHN);                            // Get the WPC Certificate Chain of the slot
+                    final byte[] bpr = map.get(sln + WpcCrt.EXT_PRV);                               // Get the private key of the slot
+                    if ((bch != null) && (bpr != null)) {                                           // Slot files available?
+                        chn[slt] = new WpcCrtChn(bch);                                              // Load WPC certificate chain of the slot
+                        prv[slt] = WpcKey.getPrvKey(bpr);                                           // Load the private key of the slot
+                    }
+                }
+                mDev.put(name, new Dev(name, chn, prv));                                            // Add the device
+            } catch (RuntimeException err) {                                                        // Damaged device file
+                Dbg.log("Cannot load device " + name, err);                                         // Skip the device
+            }
+        }
+    }
+
+    /**
+     * Reads the device files of a zip archive
+     *
+     * @param   ins The zip archive stream
+     * @param   map The binary contents of the files by name
+     * @throws  IOException in case the archive cannot be read
+     */
+    private static void read(@NonNull InputStream ins, @NonNull Map<String, byte[]> map) throws IOException {
+        final @NonNull ZipInputStream zip = new ZipInputStream(ins);                                // Open the zip archive
+        final @NonNull byte[] buf = new byte[BUF_SIZ];                                              // Buffer for the entries
+        ZipEntry ent;                                                                               // Actual entry
+        while ((ent = zip.getNextEntry()) != null) {                                                // Repeat for all entries
+            final @NonNull String nam = new File(ent.getName()).getName();                          // Get the file name without directory
+            if (ent.isDirectory() || !nam.endsWith(WpcFil.EXT_TXT)) {                               // No device file?
+                continue;                                                                           // Skip the entry
+            }
+            final @NonNull ByteArrayOutputStream bas = new ByteArrayOutputStream();                 // Content of the entry
+            int len;                                                                                // Number of read bytes
+            while ((len = zip.read(buf)) > 0) {                                                     // Repeat until the entry is read
+                bas.write(buf, 0, len);                                                             // Add the read bytes
+            }
+            try {
+                map.put(nam, WpcFil.StrToByt(new String(bas.toByteArray(), AppLib.CHR_ASC)));       // Convert the hex text of the entry
+            } catch (RuntimeException err) {                                                        // No hex text
+                Dbg.log("Cannot read " + nam, err);                                                 // Skip the entry
+            }
+        }
+    }
+
+    /**
+     * Returns a device of the keyring
+     *
+     * @param   name    The name of the device
+     * @return  The device or null if not available
+     */
+    public @Nullable Dev get(@NonNull String name) {
+        return mDev.get(name);                                                                      // Return the device
+    }
+
+    /**
+     * Returns all devices of the keyring
+     *
+     * @return  The devices sorted by name
+     */
+    public @NonNull List<Dev> getAll() {
+        return Collections.unmodifiableList(new ArrayList<>(mDev.values()));                        // Return the devices
+    }
+
+    /**
+     * Returns the names of all devices of the keyring
+     *
+     * @return  The names sorted alphabetically
+     */
+    public @NonNull List<String> getNames() {
+        return new ArrayList<>(mDev.keySet());                                                      // Return the names
+    }
+}
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Provider of the texts which are shown to the user
+ * The platform adapter provides the texts in the language of the app, otherwise the English default texts are used.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public interface LibTxt {
+
+    /** Texts of the library */
+    enum Txt {
+        UKN_MAN("Unknown manufacturer"),                                                            // Name of an unknown manufacturer
+        CHG_QIID("Qi charger with Qi ID: "),                                                        // Name of a Qi charger without name
+        FROM(" from ");                                                                             // Separator between the product and its manufacturer
+
+        private final @NonNull String mDef;                                                         // English default text
+
+        /**
+         * Creates a text
+         *
+         * @param   def The English default text
+         */
+        Txt(@NonNull String def) {
+            mDef = def;                                                                             // Register the default text
+        }
+    }
+
+    /** English default texts */
+    LibTxt DEF = new LibTxt() {
+        @Override public @NonNull String getTxt(@NonNull Txt txt) {
+            return txt.mDef;                                                                        // Return the default text
+        }
+    };
+
+    /**
+     * Returns a text
+     *
+     * @param   txt The text
+     * @return  The text in the language of the app
+     */
+    @NonNull String getTxt(@NonNull Txt txt);
+}
\ No newline at end of file
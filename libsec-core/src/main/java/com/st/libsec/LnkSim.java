@@ -0,0 +1,393 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Discrete-event simulator of the link below the Qi Authentication interface
+ * The Qi Authentication Initiator exchanges its messages with an emulated device while every message overhead, frame
+ * transmission, lost frame and retransmission advances a virtual clock. A link is modelled by its bit rates, the frame
+ * size limit with the frame and message overheads, the gap per frame and the probability of a lost frame.
+ * Thousands of simulated Qi Authentications take seconds and the projected duration is reported per flow and
+ * WPC Certificate Chain length. The presets are approximations of typical links, the CPU time of the Initiator is not
+ * part of the projection.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class LnkSim implements WpcCom {
+
+    /**
+     * Model of a link
+     */
+    public static class Lnk {
+
+        /** ISO-DEP at 106 kbps with short APDUs over Android HCE */
+        public static final Lnk ISO_106 = new Lnk("ISO-DEP 106 kbps", 106000, 106000, 9, 253, 3, 6, 2, 300, 4000, 5000);
+
+        /** ISO-DEP at 212 kbps with short APDUs over Android HCE */
+        public static final Lnk ISO_212 = new Lnk("ISO-DEP 212 kbps", 212000, 212000, 9, 253, 3, 6, 2, 250, 4000, 5000);
+
+        /** ISO-DEP at 424 kbps with short APDUs over Android HCE */
+        public static final Lnk ISO_424 = new Lnk("ISO-DEP 424 kbps", 424000, 424000, 9, 253, 3, 6, 2, 200, 4000, 5000);
+
+        /** Qi in-band communication with ASK from the PRx and FSK from the PTx in data transport packets */
+        public static final Lnk QI_INB  = new Lnk("Qi in-band ASK/FSK", 2000, 512, 11, 7, 3, 0, 0, 25000, 10000, 100000);
+
+        private final @NonNull String   mName;                                                      // Name of the link
+        private final int               mReq;                                                       // Bit rate from the Initiator to the Responder [bit/s]
+        private final int               mRes;                                                       // Bit rate from the Responder to the Initiator [bit/s]
+        private final int               mBit;                                                       // Transmitted bits per byte
+        private final int               mFrm;                                                       // Maximum payload of a frame [bytes]
+        private final int               mHdr;                                                       // Overhead of a frame [bytes]
+        private final int               mReqHdr;                                                    // Overhead of a Request message [bytes]
+        private final int               mResHdr;                                                    // Overhead of a Response message [bytes]
+        private final long              mGap;                                                       // Gap per frame including its acknowledgement [us]
+        private final long              mOvh;                                                       // Overhead per exchange [us]
+        private final long              mRty;                                                       // Time until a lost frame is retransmitted [us]
+
+        /**
+         * Creates the model of a link
+         *
+         * @param   name    The name of the link
+         * @param   req     The bit rate from the Initiator to the Responder in bit/s
+         * @param   res     The bit rate from the Responder to the Initiator in bit/s
+         * @param   bit     The transmitted bits per byte
+         * @param   frm     The maximum payload of a frame in bytes
+         * @param   hdr     The overhead of a frame in bytes
+         * @param   reqHdr  The overhead of a Request message in bytes
+         * @param   resHdr  The overhead of a Response message in bytes
+         * @param   gap     The gap per frame including its acknowledgement in microseconds
+         * @param   ovh     The overhead per exchange in microseconds
+         * @param   rty     The time until a lost frame is retransmitted in microseconds
+         */
+        public Lnk(@NonNull String name, int req, int res, int bit, int frm, int hdr, int reqHdr, int resHdr, long gap,
+                   long ovh, long rty) {
+            mName = name;                                                                           // Register the name
+            mReq = req;                                                                             // Register the bit rates
+            mRes = res;
+            mBit = bit;                                                                             // Register the bits per byte
+            mFrm = frm;                                                                             // Register the frame size limit
+            mHdr = hdr;                                                                             // Register the overheads
+            mReqHdr = reqHdr;
+            mResHdr = resHdr;
+            mGap = gap;                                                                             // Register the timing
+            mOvh = ovh;
+            mRty = rty;
+        }
+
+        /**
+         * Returns the name of the link
+         *
+         * @return  The name of the link
+         */
+        public @NonNull String getName() {
+            return mName;                                                                           // Return the name
+        }
+    }
+
+    /** Maximum number of retransmissions of a lost frame */
+    public static final int MAX_RTY = 3;
+
+    private static final long   SIG_TIM = 60000;                                                    // Default time of the signature calculation of the Responder [us]
+
+    private final @NonNull Lnk      mLnk;                                                           // Model of the simulated link
+    private final @NonNull Random   mRnd;                                                           // Random generator for lost frames
+    private final @NonNull FrgPln   mPln = new FrgPln();                                            // Planner for the GET_CERTIFICATE fragments on the simulated link
+    private int                     mMax = ApdCod.MAX_SHT;                                          // Maximum length of a Qi Authentication Response
+    private double                  mLos;                                                           // Probability of a lost frame
+    private long                    mSig = SIG_TIM;                                                 // Time of the signature calculation of the Responder [us]
+    private volatile long           mNow;                                                           // Virtual clock [ns]
+    private WpcAthRsp               mRsp;                                                           // Qi Authentication Responder of the simulated device
+    private AthEnd                  mErr;                                                           // Result of the simulated Qi Authentication
+    private int                     mMsg;                                                           // Number of exchanged messages of the simulated Qi Authentication
+    private int                     mLst;                                                           // Number of lost frames of the simulated Qi Authentication
+
+    /**
+     * Result of the simulated Qi Authentications of one flow and WPC Certificate Chain length
+     */
+    private static class Grp {
+        private final @NonNull List<Long>   mTim = new ArrayList<>();                               // Projected durations [ns]
+        private int                         mSuc;                                                   // Number of successful Qi Authentications
+        private int                         mFak;                                                   // Number of rejected devices
+        private int                         mOvr;                                                   // Number of Qi Authentications exceeding the total budget
+        private long                        mMsg;                                                   // Number of exchanged messages
+        private long                        mLst;                                                   // Number of lost frames
+    }
+
+    /**
+     * Creates the link simulator
+     *
+     * @param   lnk The model of the simulated link
+     * @param   sed The seed of the lost frames
+     */
+    public LnkSim(@NonNull Lnk lnk, long sed) {
+        mLnk = lnk;                                                                                 // Register the link model
+        mRnd = new Random(sed);                                                                     // Create the reproducible random generator
+    }
+
+    /**
+     * Sets the maximum length of a Qi Authentication Response
+     *
+     * @param   max The maximum length of a Qi Authentication Response
+     */
+    public void setMax(int max) {
+        mMax = max;                                                                                 // Register the maximum Response length
+    }
+
+    /**
+     * Sets the probability of a lost frame
+     *
+     * @param   los The probability of a lost frame between 0 and 1
+     */
+    public void setLos(double los) {
+        mLos = Math.min(Math.max(los, 0), 1);                                                       // Register the probability
+    }
+
+    /**
+     * Sets the time of the signature calculation of the Responder
+     *
+     * @param   sig The time of the signature calculation in microseconds
+     */
+    public void setSig(long sig) {
+        mSig = sig;                                                                                 // Register the signature time
+    }
+
+    /**
+     * Returns the virtual clock
+     *
+     * @return  The virtual time in nanoseconds
+     */
+    long now() {
+        return mNow;                                                                                // Return the virtual time
+    }
+
+    /**
+     * Returns the planner for the GET_CERTIFICATE fragments on the simulated link
+     *
+     * @return  The planner
+     */
+    @NonNull FrgPln getPln() {
+        return mPln;                                                                                // Return the planner
+    }
+
+    /**
+     * Provides the received WPC Certification chain of the remote device
+     *
+     * @param   chn The WPC Certification Chain
+     */
+    @Override public void setChn(@NonNull WpcCrtChn chn) {}
+
+    /**
+     * Exchanges a Qi Authentication message over the simulated link
+     *
+     * @param   req The Qi Authentication Request
+     * @param   tim The timeout (not used as the step budgets apply to the real time)
+     * @return  The Qi Authentication Response
+     * @throws  IOException in case a frame was lost too often
+     */
+    @Override public @NonNull byte[] sndMsg(@NonNull byte[] req, long tim) throws IOException {
+        mMsg++;                                                                                     // Count the exchanged message
+        mNow = mNow + mLnk.mOvh * 1000;                                                             // Add the overhead of the exchange
+        xfr(req.length + mLnk.mReqHdr, mLnk.mReq);                                                  // Transfer the Request
+        final byte[] res = mRsp.athReq(req);                                                        // Execute the Qi Authentication Request
+        if (res == null) {                                                                          // No Response?
+            throw new IOException();                                                                // Report the missing Response
+        }
+        if ((res.length > 0) && ((res[0] & 0x0F) == WpcAthRsp.RES_ATH)) {                           // CHALLENGE_AUTH Response?
+            mNow = mNow + mSig * 1000;                                                              // Add the signature calculation
+        }
+        xfr(res.length + mLnk.mResHdr, mLnk.mRes);                                                  // Transfer the Response
+        return res;                                                                                 // Return the Qi Authentication Response
+    }
+
+    /**
+     * Returns the maximum length of a Qi Authentication Response
+     *
+     * @return  The maximum length of a Qi Authentication Response
+     */
+    @Override public int getMax() {
+        return mMax;                                                                                // Return the maximum Response length
+    }
+
+    /**
+     * Registers the result of the simulated Qi Authentication
+     *
+     * @param   end The result of the Qi Authentication
+     */
+    @Override public void endAuth(@NonNull AthEnd end) {
+        mErr = end;                                                                                 // Register the result
+    }
+
+    /**
+     * Transfers a message in frames over the simulated link
+     * Each frame is an event advancing the virtual clock, a lost frame is retransmitted after the retransmission time.
+     *
+     * @param   len The length of the message including its overhead
+     * @param   bps The bit rate in bit/s
+     * @throws  IOException in case a frame was lost more than MAX_RTY times
+     */
+    private void xfr(int len, int bps) throws IOException {
+        int rem = len;                                                                              // Remaining bytes of the message
+        do {
+            final int siz = Math.min(rem, mLnk.mFrm);                                               // Get the payload of the frame
+            final long frm = mLnk.mGap * 1000 + (siz + mLnk.mHdr) * mLnk.mBit * 1000000000L / bps;  // Get the duration of the frame
+            for (int rty = 0; mRnd.nextDouble() < mLos; rty++) {                                    // Repeat while the frame is lost
+                mLst++;                                                                             // Count the lost frame
+                mNow = mNow + frm + mLnk.mRty * 1000;                                               // Wait for the retransmission
+                if (rty == MAX_RTY) {                                                               // Frame lost too often?
+                    throw new IOException("Frame lost " + (MAX_RTY + 1) + " times");                // Report the broken link
+                }
+            }
+            mNow = mNow + frm;                                                                      // Add the transferred frame
+            rem = rem - siz;                                                                        // Calculate the remaining bytes
+        } while (rem > 0);
+    }
+
+    /**
+     * Simulates Qi Authentications of emulated devices
+     * Each device is authenticated cnt times per flow, the first Qi Authentication of a device starts with an empty cache.
+     * The communication log is switched off during the simulation, afterwards the previous logging state is restored.
+     *
+     * @param   dev The emulated devices
+     * @param   cnt The number of Qi Authentications per device and flow
+     * @param   flw The simulated flows
+     * @return  The report with the projected durations per flow and WPC Certificate Chain length
+     */
+    public @NonNull String run(@NonNull List<KeyRng.Dev> dev, int cnt, @NonNull WpcAthIni.FlwTyp... flw) {
+        final @NonNull Map<String, Grp> map = new LinkedHashMap<>();                                // Results per flow and Certificate Chain length
+        final long beg = System.nanoTime();                                                         // Get the start of the simulation
+        int tot = 0;                                                                                // Number of simulated Qi Authentications
+        final boolean qui = WpcLog.isQui();                                                         // Get the logging state
+        WpcLog.setQui(true);                                                                        // Switch off the communication log
+        try {
+            for (WpcAthIni.FlwTyp typ : flw) {                                                      // Repeat for all flows
+                for (KeyRng.Dev itm : dev) {                                                        // Repeat for all devices
+                    final @NonNull CachBuf cach = new CachBuf(1);                                   // Empty cache for the device
+                    mRsp = itm.getRsp();                                                            // Connect the emulated device
+                    for (int ind = 0; ind < cnt; ind++) {                                           // Repeat for all Qi Authentications
+                        final String key = String.format(Locale.US, "%s chain %d bytes%s", typ.name(), itm.getLen(),
+                                (typ == WpcAthIni.FlwTyp.SMPL) ? "" : (ind == 0) ? " cold" : " warm");
+                        Grp grp = map.get(key);                                                     // Get the results of the group
+                        if (grp == null) {                                                          // First Qi Authentication of the group?
+                            grp = new Grp();                                                        // Create the results
+                            map.put(key, grp);                                                      // Add the group
+                        }
+                        sim(typ, cach, grp);                                                        // Simulate the Qi Authentication
+                        tot++;                                                                      // Count the simulated Qi Authentication
+                    }
+                }
+            }
+        } finally {
+            WpcLog.setQui(qui);                                                                     // Restore the logging state
+        }
+        final @NonNull StringBuilder rep = new StringBuilder();                                     // Report
+        rep.append(String.format(Locale.US, "Link %s, Response limit %d bytes, frame loss %.1f %%, signature %.0f ms\n",
+                mLnk.mName, mMax, mLos * 100, mSig / 1000.0));
+        rep.append(String.format(Locale.US, "Simulated %d Qi Authentications in %.2f s", tot, (System.nanoTime() - beg) / 1e9));
+        for (Map.Entry<String, Grp> itm : map.entrySet()) {                                         // Repeat for all groups
+            final @NonNull Grp grp = itm.getValue();                                                // Get the results of the group
+            final long[] tim = new long[grp.mTim.size()];                                           // Projected durations of the group
+            for (int ind = 0; ind < tim.length; ind++) {                                            // Repeat for all Qi Authentications
+                tim[ind] = grp.mTim.get(ind);                                                       // Copy the projected duration
+            }
+            rep.append('\n').append(itm.getKey()).append(' ').append(LodGen.getPct(tim));           // Add the projected durations
+            rep.append(String.format(Locale.US, ", %.1f messages, %d lost frames, %d successful, %d rejected, %d errors, %d over budget",
+                    (double) grp.mMsg / tim.length, grp.mLst, grp.mSuc, grp.mFak, tim.length - grp.mSuc - grp.mFak, grp.mOvr));
+        }
+        return rep.toString();                                                                      // Return the report
+    }
+
+    /**
+     * Simulates one Qi Authentication
+     *
+     * @param   flw     The protocol flow
+     * @param   cach    The cache buffer of the device
+     * @param   grp     The results of the group
+     */
+    private void sim(@NonNull WpcAthIni.FlwTyp flw, @NonNull CachBuf cach, @NonNull Grp grp) {
+        mErr = null;                                                                                // Qi Authentication not yet finished
+        mMsg = 0;                                                                                   // No message exchanged
+        mLst = 0;                                                                                   // No frame lost
+        final long beg = mNow;                                                                      // Get the virtual start time
+        final @NonNull WpcAthIni ini = new WpcAthIni(this, flw, cach);                              // Create the Initiator
+        ini.setSim(this);                                                                           // Time the Initiator with the virtual clock
+        ini.run();                                                                                  // Execute the Qi Authentication
+        final long tim = mNow - beg;                                                                // Get the projected duration
+        grp.mTim.add(tim);                                                                          // Register the projected duration
+        grp.mSuc = grp.mSuc + ((mErr == AthEnd.OK) ? 1 : 0);                                        // Count the successful Qi Authentication
+        grp.mFak = grp.mFak + ((mErr == AthEnd.ERR_FAK) ? 1 : 0);                                   // Count the rejected device
+        grp.mOvr = grp.mOvr + ((tim > AthDln.TIM_TOT * 1000000) ? 1 : 0);                           // Count the exceeded total budget
+        grp.mMsg = grp.mMsg + mMsg;                                                                 // Add the exchanged messages
+        grp.mLst = grp.mLst + mLst;                                                                 // Add the lost frames
+    }
+
+    /**
+     * Returns the preset of a link
+     *
+     * @param   name    The name of the preset: ISO_106, ISO_212, ISO_424 or QI_INB
+     * @return  The model of the link
+     */
+    private static @NonNull Lnk getLnk(@NonNull String name) {
+        switch (name) {                                                                             // Select the preset
+            case "ISO_106": return Lnk.ISO_106;                                                     // ISO-DEP at 106 kbps
+            case "ISO_212": return Lnk.ISO_212;                                                     // ISO-DEP at 212 kbps
+            case "ISO_424": return Lnk.ISO_424;                                                     // ISO-DEP at 424 kbps
+            case "QI_INB":  return Lnk.QI_INB;                                                      // Qi in-band communication
+            default:        throw new IllegalArgumentException("Unknown link " + name);             // Reject the unknown preset
+        }
+    }
+
+    /**
+     * Simulates Qi Authentications with the emulated devices of a directory
+     * Usage: LnkSim directory [link [count [loss [limit [flows]]]]]
+     * The link is one of the presets ISO_106, ISO_212, ISO_424 or QI_INB, the flows are given as comma separated list,
+     * e.g. SMPL,CACH,ATH1.
+     *
+     * @param   arg The emulation directory, the link preset, the number of Qi Authentications per device and flow, the
+     *              probability of a lost frame, the maximum Response length and the simulated flows
+     * @throws  IOException in case the emulation directory cannot be read
+     */
+    public static void main(@NonNull String[] arg) throws IOException {
+        WpcCrt.init();                                                                              // Use the WPC Root Certificate of the plugfest
+        final @NonNull List<KeyRng.Dev> dev = KeyRng.load(new File(arg[0])).getAll();               // Load the emulated devices
+        final @NonNull LnkSim sim = new LnkSim(getLnk((arg.length > 1) ? arg[1] : "ISO_106"), 1);   // Create the simulator with a reproducible frame loss
+        final int cnt = (arg.length > 2) ? Integer.parseInt(arg[2]) : 10;                           // Get the number of Qi Authentications
+        if (arg.length > 3) {                                                                       // Probability of a lost frame given?
+            sim.setLos(Double.parseDouble(arg[3]));                                                 // Register the probability
+        }
+        if (arg.length > 4) {                                                                       // Maximum Response length given?
+            sim.setMax(Integer.parseInt(arg[4]));                                                   // Register the maximum Response length
+        }
+        WpcAthIni.FlwTyp[] flw = {WpcAthIni.FlwTyp.SMPL, WpcAthIni.FlwTyp.CACH, WpcAthIni.FlwTyp.ATH1};// Simulated flows
+        if (arg.length > 5) {                                                                       // Simulated flows given?
+            final @NonNull String[] nam = arg[5].split(",");                                        // Get the names of the flows
+            flw = new WpcAthIni.FlwTyp[nam.length];                                                 // Create the flows
+            for (int ind = 0; ind < nam.length; ind++) {                                            // Repeat for all flows
+                flw[ind] = WpcAthIni.FlwTyp.valueOf(nam[ind].trim());                               // Get the flow
+            }
+        }
+        System.out.println(sim.run(dev, cnt, flw));                                                 // Simulate the Qi Authentications
+    }
+}
\ No newline at end of file
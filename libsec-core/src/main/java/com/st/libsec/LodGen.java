@@ -0,0 +1,350 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for end-to-end Qi Authentications over the loopback Qi Authentication interface
+ * A number of concurrent sessions authenticate a mix of emulated devices with a mix of protocol flows, optionally
+ * started with a target rate. The throughput and the latency percentiles are reported overall and per flow.
+ * The latency of a rate limited load is measured from the scheduled start, so waiting for a free session is included.
+ * The sessions learn the link timing and the device history with own learners, so a load does not affect the real link.
+ * The heap allocation per Qi Authentication is measured with the allocation counters of the threads where the runtime
+ * supports them. The messages are passed directly or framed into APDUs by the codec of the NFC link, the APDU codecs are
+ * reused by the following sessions like in the PRx and PTx emulations.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class LodGen {
+
+    /** Link of the loopback sessions */
+    public enum Lnk {
+        LOP,                                                                                        // Messages are passed directly
+        APD,                                                                                        // Messages are framed into APDUs and requested with GET DATA commands
+        ONE                                                                                         // Messages are framed into APDUs with one APDU per message
+    }
+
+    private static final int    CACH_SIZ = 16;                                                      // Size of the WPC Certificate Chain cache shared by the sessions
+
+    private final @NonNull List<KeyRng.Dev> mDev;                                                   // Emulated devices
+    private final @NonNull CachBuf          mCach = new CachBuf(CACH_SIZ);                          // WPC Certificate Chain cache shared by the sessions
+    private final @NonNull FrgPln           mPln = new FrgPln();                                    // Planner for the GET_CERTIFICATE fragments learning the timing of the loopback link
+    private final @NonNull FlwSel           mSel = new FlwSel();                                    // Selector for the adaptive flow learning the emulated devices
+    private int                             mSes = 4;                                               // Number of concurrent sessions
+    private WpcAthIni.FlwTyp[]              mFlw = {WpcAthIni.FlwTyp.SMPL, WpcAthIni.FlwTyp.CACH, WpcAthIni.FlwTyp.ATH1};// Mix of protocol flows
+    private double                          mRat;                                                   // Target rate [1/s], 0 for no limit
+    private int                             mMax = ApdCod.MAX_SHT;                                  // Maximum length of a Qi Authentication Response
+    private @NonNull Lnk                    mLnk = Lnk.LOP;                                         // Link of the sessions
+    private final ArrayDeque<ApdCod[]>      mCod = new ArrayDeque<>();                              // APDU codecs of the PRx and PTx not used by a session
+
+    /**
+     * Creates the load generator
+     *
+     * @param   dev The emulated devices
+     */
+    public LodGen(@NonNull List<KeyRng.Dev> dev) {
+        if (dev.isEmpty()) {                                                                        // No device?
+            throw new IllegalArgumentException("No emulated device");                               // Reject the load
+        }
+        mDev = dev;                                                                                 // Register the emulated devices
+    }
+
+    /**
+     * Sets the number of concurrent sessions
+     *
+     * @param   ses The number of concurrent sessions
+     */
+    public void setSes(int ses) {
+        mSes = Math.max(1, ses);                                                                    // Register the number of sessions
+    }
+
+    /**
+     * Sets the mix of protocol flows, the flows are used in turn
+     *
+     * @param   flw The protocol flows
+     */
+    public void setFlw(@NonNull WpcAthIni.FlwTyp... flw) {
+        if (flw.length > 0) {                                                                       // Flows given?
+            mFlw = flw.clone();                                                                     // Register the flows
+        }
+    }
+
+    /**
+     * Sets the target rate of started Qi Authentications
+     *
+     * @param   rat The target rate per second, 0 for no limit
+     */
+    public void setRat(double rat) {
+        mRat = Math.max(0, rat);                                                                    // Register the target rate
+    }
+
+    /**
+     * Sets the maximum length of a Qi Authentication Response
+     *
+     * @param   max The maximum length of a Qi Authentication Response
+     */
+    public void setMax(int max) {
+        mMax = max;                                                                                 // Register the maximum Response length
+    }
+
+    /**
+     * Sets the link of the sessions
+     *
+     * @param   lnk The link passing the messages directly or through the APDU codec
+     */
+    public void setLnk(@NonNull Lnk lnk) {
+        mLnk = lnk;                                                                                 // Register the link
+    }
+
+    /**
+     * Executes a number of Qi Authentications
+     * The communication log is switched off during the load as it records only one session, afterwards the previous
+     * logging state is restored.
+     *
+     * @param   cnt The number of Qi Authentications
+     * @return  The report with throughput, latency percentiles and allocation
+     * @throws  InterruptedException in case the load was interrupted
+     */
+    public @NonNull String run(int cnt) throws InterruptedException {
+        final long[] lat = new long[cnt];                                                           // Latencies of the Qi Authentications [ns]
+        final AthEnd[] res = new AthEnd[cnt];                                                       // Results of the Qi Authentications
+        final WpcAthIni.FlwTyp[] flw = new WpcAthIni.FlwTyp[cnt];                                   // Flows of the Qi Authentications
+        final Semaphore ses = new Semaphore(mSes);                                                  // Free sessions
+        final CountDownLatch end = new CountDownLatch(cnt);                                         // Signal for finished Qi Authentications
+        final boolean qui = WpcLog.isQui();                                                         // Get the logging state
+        WpcLog.setQui(true);                                                                        // Switch off the communication log
+        final @NonNull Map<Long, Long> alc = getAlc();                                              // Get the allocation counters before the load
+        final long beg = System.nanoTime();                                                         // Get start time of the load
+        long tim;                                                                                   // Duration of the load [ns]
+        long byt;                                                                                   // Bytes allocated by the load
+        try {
+            for (int ind = 0; ind < cnt; ind++) {                                                   // Repeat for all Qi Authentications
+                final long due = (mRat > 0) ? beg + (long)(ind * 1e9 / mRat) : System.nanoTime();   // Get the scheduled start
+                final long dly = due - System.nanoTime();                                           // Get the time until the scheduled start
+                if (dly > 0) {                                                                      // Start not yet due?
+                    TimeUnit.NANOSECONDS.sleep(dly);                                                // Wait for the scheduled start
+                }
+                ses.acquire();                                                                      // Wait for a free session
+                final int num = ind;                                                                // Number of the Qi Authentication
+                final @NonNull KeyRng.Dev dev = mDev.get(ind % mDev.size());                        // Select the device
+                flw[ind] = mFlw[(ind / mDev.size()) % mFlw.length];                                 // Select the flow, all devices are used with each flow
+                final @NonNull WpcLop[] lop = new WpcLop[1];                                        // Loopback interface of the session
+                final ApdCod[] cod = (mLnk == Lnk.LOP) ? null : getCod();                           // APDU codecs of the session
+                final @NonNull Runnable lst = new Runnable() {
+                    @Override public void run() {
+                        lat[num] = System.nanoTime() - due;                                         // Register the latency
+                        res[num] = lop[0].getErr();                                                 // Register the result
+                        if (cod != null) {                                                          // APDU codecs used?
+                            putCod(cod);                                                            // Reuse the APDU codecs by the next session
+                        }
+                        ses.release();                                                              // Free the session
+                        end.countDown();                                                            // Signal the finished Qi Authentication
+                    }
+                };
+                lop[0] = (cod == null) ? new WpcLop(dev.getRsp(), mMax, lst)                        // Connect the Initiator directly with the device
+                        : new ApdLop(dev.getRsp(), mMax, lst, cod[0], cod[1], mLnk == Lnk.ONE);     // Connect the Initiator through the APDU codec
+                final @NonNull WpcAthIni ini = new WpcAthIni(lop[0], flw[num], mCach);              // Connect the Initiator with the device
+                ini.setPln(mPln);                                                                   // Plan the fragments with the timing of the loopback link
+                ini.setSel(mSel);                                                                   // Select the adaptive flow with the emulated devices
+                SesExe.crt(ini);                                                                    // Start the Qi Authentication, the Responses drive it on the critical lane
+            }
+            end.await();                                                                            // Wait for all Qi Authentications
+            tim = System.nanoTime() - beg;                                                          // Get the duration of the load
+            byt = getAlc(alc);                                                                      // Get the allocation of the load while the lane threads are alive
+        } finally {
+            WpcLog.setQui(qui);                                                                     // Restore the logging state
+        }
+        return getRep(tim, byt, lat, res, flw);                                                     // Return the report
+    }
+
+    /**
+     * Returns the APDU codecs of the PRx and PTx for a session
+     *
+     * @return  The APDU codecs of a finished session or new codecs
+     */
+    private synchronized @NonNull ApdCod[] getCod() {
+        final ApdCod[] cod = mCod.poll();                                                           // Get the codecs of a finished session
+        return (cod != null) ? cod : new ApdCod[] {new ApdCod(), new ApdCod()};                     // Return the codecs
+    }
+
+    /**
+     * Returns the APDU codecs of a finished session
+     *
+     * @param   cod The APDU codecs of the PRx and PTx
+     */
+    private synchronized void putCod(@NonNull ApdCod[] cod) {
+        mCod.push(cod);                                                                             // Keep the codecs for the next session
+    }
+
+    /**
+     * Executes a load with the emulated devices of a directory
+     * Usage: LodGen directory [count [sessions [rate [flows [link]]]]]
+     * The flows are given as comma separated list, e.g. SMPL,CACH,ATH1, the link as LOP, APD or ONE.
+     *
+     * @param   arg The emulation directory, the number of Qi Authentications, the number of sessions, the target rate
+     *              per second, the mix of protocol flows and the link
+     * @throws  IOException in case the emulation directory cannot be read
+     * @throws  InterruptedException in case the load was interrupted
+     */
+    public static void main(@NonNull String[] arg) throws IOException, InterruptedException {
+        WpcCrt.init();                                                                              // Use the WPC Root Certificate of the plugfest
+        final @NonNull LodGen gen = new LodGen(KeyRng.load(new File(arg[0])).getAll());             // Create the load generator for the emulated devices
+        final int cnt = (arg.length > 1) ? Integer.parseInt(arg[1]) : 100;                          // Get the number of Qi Authentications
+        if (arg.length > 2) {                                                                       // Number of sessions given?
+            gen.setSes(Integer.parseInt(arg[2]));                                                   // Register the number of sessions
+        }
+        if (arg.length > 3) {                                                                       // Target rate given?
+            gen.setRat(Double.parseDouble(arg[3]));                                                 // Register the target rate
+        }
+        if (arg.length > 4) {                                                                       // Mix of protocol flows given?
+            final @NonNull String[] nam = arg[4].split(",");                                        // Get the names of the flows
+            final WpcAthIni.FlwTyp[] flw = new WpcAthIni.FlwTyp[nam.length];                        // Protocol flows
+            for (int ind = 0; ind < nam.length; ind++) {                                            // Repeat for all flows
+                flw[ind] = WpcAthIni.FlwTyp.valueOf(nam[ind].trim());                               // Get the flow
+            }
+            gen.setFlw(flw);                                                                        // Register the mix of protocol flows
+        }
+        if (arg.length > 5) {                                                                       // Link given?
+            gen.setLnk(Lnk.valueOf(arg[5].trim()));                                                 // Register the link
+        }
+        System.out.println(gen.run(cnt));                                                           // Execute the load
+        System.out.println(SesExe.getSta());                                                        // Print the statistics of the session executor
+    }
+
+    /**
+     * Creates the report of the load
+     *
+     * @param   tim The duration of the load in nanoseconds
+     * @param   byt The bytes allocated by the load or -1 if not measured
+     * @param   lat The latencies of the Qi Authentications in nanoseconds
+     * @param   res The results of the Qi Authentications
+     * @param   flw The flows of the Qi Authentications
+     * @return  The report
+     */
+    private @NonNull String getRep(long tim, long byt, @NonNull long[] lat, @NonNull AthEnd[] res, @NonNull WpcAthIni.FlwTyp[] flw) {
+        int suc = 0;                                                                                // Number of successful Qi Authentications
+        int fak = 0;                                                                                // Number of rejected devices
+        for (AthEnd val : res) {                                                                    // Repeat for all results
+            suc = suc + ((val == AthEnd.OK) ? 1 : 0);                                               // Count the successful Qi Authentication
+            fak = fak + ((val == AthEnd.ERR_FAK) ? 1 : 0);                                          // Count the rejected device
+        }
+        final @NonNull StringBuilder rep = new StringBuilder();                                     // Report
+        rep.append(String.format(Locale.US, "Load: %d Qi Authentications, %d devices, %d sessions, target rate %s, link %s\n",
+                lat.length, mDev.size(), mSes, (mRat > 0) ? String.format(Locale.US, "%.1f/s", mRat) : "unlimited", mLnk));
+        rep.append(String.format(Locale.US, "Throughput: %.1f/s in %.2f s\n", lat.length * 1e9 / tim, tim / 1e9));
+        rep.append(String.format(Locale.US, "Results: %d successful, %d rejected, %d errors\n", suc, fak, lat.length - suc - fak));
+        if (byt >= 0) {                                                                             // Allocation measured?
+            rep.append(String.format(Locale.US, "Allocation: %d bytes per Qi Authentication\n", byt / Math.max(1, lat.length)));
+        }
+        rep.append("All ").append(getPct(lat));                                                     // Add the latency percentiles of all flows
+        for (WpcAthIni.FlwTyp typ : WpcAthIni.FlwTyp.values()) {                                    // Repeat for all flows
+            int cnt = 0;                                                                            // Number of Qi Authentications of the flow
+            final long[] val = new long[lat.length];                                                // Latencies of the flow
+            for (int ind = 0; ind < lat.length; ind++) {                                            // Repeat for all Qi Authentications
+                if (flw[ind] == typ) {                                                              // Qi Authentication of the flow?
+                    val[cnt++] = lat[ind];                                                          // Add the latency
+                }
+            }
+            if (cnt > 0) {                                                                          // Flow used?
+                rep.append('\n').append(typ.name()).append(' ').append(getPct(Arrays.copyOf(val, cnt)));// Add the latency percentiles of the flow
+            }
+        }
+        return rep.toString();                                                                      // Return the report
+    }
+
+    /**
+     * Returns the latency percentiles
+     *
+     * @param   lat The latencies in nanoseconds
+     * @return  The description of the latency percentiles
+     */
+    static @NonNull String getPct(@NonNull long[] lat) {
+        final long[] val = lat.clone();                                                             // Copy the latencies
+        Arrays.sort(val);                                                                           // Sort the latencies
+        return String.format(Locale.US, "(%d): p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms", val.length,
+                getPct(val, 50), getPct(val, 90), getPct(val, 99), val[val.length - 1] / 1e6);
+    }
+
+    /**
+     * Returns a percentile of sorted latencies
+     *
+     * @param   val The sorted latencies in nanoseconds
+     * @param   pct The percentile
+     * @return  The latency of the percentile in milliseconds
+     */
+    private static double getPct(@NonNull long[] val, int pct) {
+        final int ind = (int)Math.ceil(pct / 100.0 * val.length) - 1;                               // Get the index of the nearest rank
+        return val[Math.max(0, ind)] / 1e6;                                                         // Return the latency
+    }
+
+    /**
+     * Returns the bytes allocated by the live threads
+     * The counters are read by reflection as they are only available on Java runtimes supporting them.
+     *
+     * @return  The allocated bytes per thread identifier, empty if not supported
+     */
+    private static @NonNull Map<Long, Long> getAlc() {
+        final @NonNull Map<Long, Long> alc = new HashMap<>();                                       // Allocated bytes per thread
+        try {
+            final Object mxb = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            final Class<?> cls = Class.forName("com.sun.management.ThreadMXBean");                  // Get the interface with the allocation counters
+            if (cls.isInstance(mxb)) {                                                              // Allocation counters supported?
+                final long[] ids = (long[])cls.getMethod("getAllThreadIds").invoke(mxb);            // Get the live threads
+                final long[] byt = (long[])cls.getMethod("getThreadAllocatedBytes", long[].class).invoke(mxb, (Object)ids);
+                for (int ind = 0; ind < ids.length; ind++) {                                        // Repeat for all live threads
+                    if (byt[ind] >= 0) {                                                            // Allocation counter enabled?
+                        alc.put(ids[ind], byt[ind]);                                                // Register the allocated bytes
+                    }
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException err) {                             // Allocation counters not supported
+            alc.clear();                                                                            // Inform that no allocation was measured
+        }
+        return alc;                                                                                 // Return the allocated bytes
+    }
+
+    /**
+     * Returns the bytes allocated by the live threads since a previous measurement
+     * Threads started since the previous measurement are counted completely, threads ended before are not counted.
+     *
+     * @param   bas The allocated bytes per thread of the previous measurement
+     * @return  The allocated bytes or -1 if not supported
+     */
+    private static long getAlc(@NonNull Map<Long, Long> bas) {
+        final @NonNull Map<Long, Long> alc = getAlc();                                              // Get the actual allocation counters
+        if (bas.isEmpty() || alc.isEmpty()) {                                                       // Allocation counters not supported?
+            return -1;                                                                              // Inform that no allocation was measured
+        }
+        long sum = 0;                                                                               // Allocated bytes
+        for (Map.Entry<Long, Long> ent : alc.entrySet()) {                                          // Repeat for all live threads
+            final Long old = bas.get(ent.getKey());                                                 // Get the previous counter of the thread
+            sum = sum + ent.getValue() - ((old == null) ? 0 : old);                                 // Add the allocation since the previous measurement
+        }
+        return sum;                                                                                 // Return the allocated bytes
+    }
+}
\ No newline at end of file
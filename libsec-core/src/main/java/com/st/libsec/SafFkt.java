@@ -45,12 +45,21 @@ import java.util.Arrays;
  */
 public class SafFkt {
 
-    private static final Signature ALG_DSA;                                                         // Digital signature algorithm
     private static final KeyPairGenerator KEY_GEN;                                                  // Key pait generator
 
+    /** Digital signature algorithm, one instance per thread as Signature objects are not thread safe */
+    private static final ThreadLocal<Signature> ALG_DSA = new ThreadLocal<Signature>() {
+        @Override protected Signature initialValue() {
+            try {
+                return Signature.getInstance("NONEwithECDSA", WpcKey.ALG_PRV);                      // Use ECDSA algorithm without using a Digest as digital signature
+            } catch (GeneralSecurityException err) {                                                // Error occurred (should never happen)
+                throw new ProviderException(err);                                                   // Raise error
+            }
+        }
+    };
+
     static {
         try {
-            ALG_DSA = Signature.getInstance("NONEwithECDSA", WpcKey.ALG_PRV);                       // Use ECDSA algorithm without using a Digest as digital signature
             KEY_GEN = KeyPairGenerator.getInstance(WpcKey.EC_DSA, WpcKey.ALG_PRV);                  // Use ECDSA key pair generator
             KEY_GEN.initialize(ECNamedCurveTable.getParameterSpec(WpcKey.EC_CRV));                  // Initialize the ECDSA key pait generator
         } catch (GeneralSecurityException err) {                                                    // Error occurred (should never happen)
@@ -126,9 +135,36 @@ public class SafFkt {
      * @throws  GeneralSecurityException When an error occurred during signature calculation
      */
     public static byte[] genSig(byte[] dig, PrivateKey key) throws GeneralSecurityException {
-        ALG_DSA.initSign(key);                                                                      // Set the private key for the signature
-        ALG_DSA.update(dig);                                                                        // Set the data to be signed
-        return getRaw(ALG_DSA.sign());                                                              // Return the signature
+        final @NonNull Signature dsa = ALG_DSA.get();                                               // Get the signature algorithm of this thread
+        dsa.initSign(key);                                                                          // Set the private key for the signature
+        dsa.update(dig);                                                                            // Set the data to be signed
+        return getRaw(dsa.sign());                                                                  // Return the signature
+    }
+
+    /**
+     * Checks a P-256 signature for a given message digest without raising exceptions
+     *
+     * @param   dig The message digest
+     * @param   sig The signature
+     * @param   key The public key to verify the signature
+     * @return  The verification result
+     */
+    public static @NonNull VerRes chkSig(@NonNull byte[] dig, @NonNull byte[] sig, @NonNull PublicKey key) {
+        final @NonNull Signature dsa = ALG_DSA.get();                                               // Get the signature algorithm of this thread
+        try {
+            dsa.initVerify(key);                                                                    // Set the public key for the signature verification
+        } catch (InvalidKeyException err) {                                                         // Public key is not valid
+            return VerRes.ERR_KEY;                                                                  // Report invalid public key
+        }
+        try {
+            dsa.update(dig);                                                                        // Set the data for the signature verification
+            if (!dsa.verify(getDer(sig))) {                                                         // Wrong signature?
+                return VerRes.ERR_SIG;                                                              // Report wrong signature
+            }
+        } catch (SignatureException err) {                                                          // Signature cannot be processed
+            return VerRes.ERR_SIG;                                                                  // Report wrong signature
+        }
+        return VerRes.OK;                                                                           // Report correct signature
     }
 
     /**
@@ -141,9 +177,11 @@ public class SafFkt {
      * @throws  SignatureException when an error during signature verification occurred
      */
     public static void verSig(byte[] dig, byte[] sig, PublicKey key) throws InvalidKeyException, SignatureException {
-        ALG_DSA.initVerify(key);                                                                    // Set the public key for the signature verification
-        ALG_DSA.update(dig);                                                                        // Set the data for the signature verification
-        if (!ALG_DSA.verify(getDer(sig))) {                                                         // Wrong signature?
+        final @NonNull VerRes res = chkSig(dig, sig, key);                                          // Check the signature
+        if (res == VerRes.ERR_KEY) {                                                                // Invalid public key?
+            throw new InvalidKeyException();                                                        // Throw invalid key exception
+        }
+        if (!res.isOk()) {                                                                          // Wrong signature?
             throw new SignatureException();                                                         // Throw signature exception
         }
     }
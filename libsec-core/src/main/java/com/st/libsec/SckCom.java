@@ -0,0 +1,444 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Qi Authentication interface over a non-blocking socket to a Qi Authentication Responder in another process
+ * The messages are framed like the APDU bridge of the NFC emulators: the Responder selects the Qi Authentication
+ * application with a SELECT command whose Le announces the maximum Response length, the Requests are sent in Response
+ * APDUs and the Responses in PUT DATA commands. The status word without data terminates the session. Each APDU is
+ * preceded by its length (2 bytes) on the socket.
+ * Addresses are given as "tcp:port" for the loopback interface or "unix:path" for a Unix-domain socket where the
+ * runtime supports them.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class SckCom implements WpcCom, Closeable {
+
+    /** Address prefix for a TCP port on the loopback interface */
+    public static final String PFX_TCP = "tcp:";
+
+    /** Address prefix for a Unix-domain socket */
+    public static final String PFX_UNX = "unix:";
+
+    /** Length of the length field preceding each APDU */
+    static final int HDR_LEN = AppLib.SHT_SIZ;
+
+    private static final long   TIM_SEL = 5000;                                                     // Timeout for the SELECT command of a new session [ms]
+
+    /**
+     * Reader for the length prefixed APDUs of a non-blocking socket
+     */
+    static class Rdr {
+        private final @NonNull ByteBuffer   mHdr = ByteBuffer.allocate(HDR_LEN);                    // Length field of the actual APDU
+        private @Nullable ByteBuffer        mBdy;                                                   // Actual APDU or null while the length field is read
+
+        /**
+         * Reads the available bytes of the socket
+         *
+         * @param   chn The socket
+         * @return  The complete APDU or null if more bytes are needed
+         * @throws  IOException in case the socket was closed
+         */
+        @Nullable byte[] read(@NonNull ReadableByteChannel chn) throws IOException {
+            if (mBdy == null) {                                                                     // Length field not yet complete?
+                if (chn.read(mHdr) < 0) {                                                           // Socket closed?
+                    throw new EOFException();                                                       // Report the closed socket
+                }
+                if (mHdr.hasRemaining()) {                                                          // Length field incomplete?
+                    return null;                                                                    // Wait for more bytes
+                }
+                mHdr.flip();                                                                        // Read the length field
+                mBdy = ByteBuffer.allocate(mHdr.getShort() & AppLib.SHT_UNS);                       // Create the buffer for the APDU
+                mHdr.clear();                                                                       // Prepare the next length field
+            }
+            if (mBdy.hasRemaining() && (chn.read(mBdy) < 0)) {                                      // Socket closed?
+                throw new EOFException();                                                           // Report the closed socket
+            }
+            if (mBdy.hasRemaining()) {                                                              // APDU incomplete?
+                return null;                                                                        // Wait for more bytes
+            }
+            final @NonNull byte[] apdu = mBdy.array();                                              // Get the complete APDU
+            mBdy = null;                                                                            // Read the next length field
+            return apdu;                                                                            // Return the APDU
+        }
+    }
+
+    private final @NonNull SocketChannel    mChn;                                                   // Socket to the Qi Authentication Responder
+    private final @NonNull Selector         mSel;                                                   // Selector to wait for the socket
+    private final @NonNull SelectionKey     mKey;                                                   // Registration of the socket
+    private final @NonNull Rdr              mRdr = new Rdr();                                       // Reader for the received APDUs
+    private final @NonNull ApdCod           mCod = new ApdCod();                                    // Codec for the APDUs of the session
+    private final @NonNull FrgPln           mPln = new FrgPln();                                    // Planner for the GET_CERTIFICATE fragments learning the timing of the socket link
+    private final @NonNull FlwSel           mFlw = new FlwSel();                                    // Selector for the adaptive flow learning the devices of the socket link
+    private boolean                         mSes;                                                   // Flag for a session selected by the Responder
+    private int                             mMax = ApdCod.MAX_SHT;                                  // Maximum length of a Qi Authentication Response
+    private int                             mStl;                                                   // Number of late Command APDUs of timed out exchanges to be dropped
+    private @Nullable AthEnd                mErr;                                                   // Result of the last Qi Authentication
+    private long                            mCnt;                                                   // Number of exchanged messages
+    private long                            mTim;                                                   // Sum of the round trip times [ns]
+
+    /**
+     * Connects to a Qi Authentication Responder
+     *
+     * @param   adr The address of the Qi Authentication Responder
+     * @throws  IOException in case the connection failed
+     */
+    public SckCom(@NonNull String adr) throws IOException {
+        mChn = opnChn(getAdr(adr));                                                                 // Connect to the Responder
+        mChn.configureBlocking(false);                                                              // Use the non-blocking mode
+        mSel = Selector.open();                                                                     // Create the selector
+        mKey = mChn.register(mSel, SelectionKey.OP_READ);                                           // Wait for received APDUs
+    }
+
+    /**
+     * Returns the planner for the GET_CERTIFICATE fragments on the socket link
+     *
+     * @return  The planner
+     */
+    @NonNull FrgPln getPln() {
+        return mPln;                                                                                // Return the planner
+    }
+
+    /**
+     * Returns the selector for the adaptive flow on the socket link
+     *
+     * @return  The selector
+     */
+    @NonNull FlwSel getFlw() {
+        return mFlw;                                                                                // Return the selector
+    }
+
+    /**
+     * Returns the socket address of an address
+     *
+     * @param   adr The address as "tcp:port" or "unix:path"
+     * @return  The socket address
+     * @throws  IOException in case of an unsupported address
+     */
+    static @NonNull SocketAddress getAdr(@NonNull String adr) throws IOException {
+        if (adr.startsWith(PFX_TCP)) {                                                              // TCP port?
+            try {
+                return new InetSocketAddress(InetAddress.getByName(null), Integer.parseInt(adr.substring(PFX_TCP.length())));
+            } catch (NumberFormatException err) {                                                   // No port number
+                throw new IOException("Invalid port " + adr);                                       // Report the invalid address
+            }
+        }
+        if (adr.startsWith(PFX_UNX)) {                                                              // Unix-domain socket?
+            try {                                                                                   // Create the address by reflection as it is only available on newer runtimes
+                return (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class)
+                        .invoke(null, adr.substring(PFX_UNX.length()));
+            } catch (ReflectiveOperationException err) {                                            // Unix-domain sockets not supported
+                throw new IOException("Unix-domain sockets not supported", err);                    // Report the unsupported address
+            }
+        }
+        throw new IOException("Invalid address " + adr);                                            // Report the invalid address
+    }
+
+    /**
+     * Returns the file of a Unix-domain socket address
+     *
+     * @param   adr The address
+     * @return  The file of the Unix-domain socket or null for a TCP port
+     */
+    static @Nullable File getFil(@NonNull String adr) {
+        return adr.startsWith(PFX_UNX) ? new File(adr.substring(PFX_UNX.length())) : null;          // Return the file of the socket
+    }
+
+    /**
+     * Opens a socket connected to an address
+     *
+     * @param   adr The socket address
+     * @return  The connected socket
+     * @throws  IOException in case the connection failed
+     */
+    private static @NonNull SocketChannel opnChn(@NonNull SocketAddress adr) throws IOException {
+        if (adr instanceof InetSocketAddress) {                                                     // TCP address?
+            return SocketChannel.open(adr);                                                         // Return the connected TCP socket
+        }
+        final @NonNull SocketChannel chn = (SocketChannel)opn(SocketChannel.class);                 // Open the Unix-domain socket
+        chn.connect(adr);                                                                           // Connect the socket
+        return chn;                                                                                 // Return the connected socket
+    }
+
+    /**
+     * Opens a server socket bound to an address
+     *
+     * @param   adr The socket address
+     * @return  The bound server socket
+     * @throws  IOException in case the address cannot be bound
+     */
+    static @NonNull ServerSocketChannel opnSrv(@NonNull SocketAddress adr) throws IOException {
+        final @NonNull ServerSocketChannel srv;                                                     // Server socket
+        if (adr instanceof InetSocketAddress) {                                                     // TCP address?
+            srv = ServerSocketChannel.open();                                                       // Open the TCP server socket
+        } else {                                                                                    // Unix-domain address
+            srv = (ServerSocketChannel)opn(ServerSocketChannel.class);                              // Open the Unix-domain server socket
+        }
+        srv.bind(adr);                                                                              // Bind the server socket
+        return srv;                                                                                 // Return the server socket
+    }
+
+    /**
+     * Opens a Unix-domain channel
+     * The channel is opened by reflection as Unix-domain sockets are only available on newer runtimes.
+     *
+     * @param   cls The channel class
+     * @return  The channel
+     * @throws  IOException in case Unix-domain sockets are not supported
+     */
+    private static @NonNull Object opn(@NonNull Class<?> cls) throws IOException {
+        try {
+            return cls.getMethod("open", ProtocolFamily.class).invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        } catch (ReflectiveOperationException | IllegalArgumentException err) {                     // Unix-domain sockets not supported
+            throw new IOException("Unix-domain sockets not supported", err);                        // Report the unsupported channel
+        }
+    }
+
+    /**
+     * Returns an APDU preceded by its length
+     *
+     * @param   apdu    The APDU
+     * @return  The buffer to be written to the socket
+     */
+    static @NonNull ByteBuffer frm(@NonNull byte[] apdu) {
+        final @NonNull ByteBuffer buf = ByteBuffer.allocate(HDR_LEN + apdu.length);                 // Create the buffer
+        buf.putShort((short)apdu.length);                                                           // Add the length
+        buf.put(apdu);                                                                              // Add the APDU
+        buf.flip();                                                                                 // Prepare the buffer for writing
+        return buf;                                                                                 // Return the buffer
+    }
+
+    /**
+     * Provides the received WPC Certification chain of the remote device
+     *
+     * @param   chn The WPC Certification Chain
+     */
+    @Override public void setChn(@NonNull WpcCrtChn chn) {}
+
+    /**
+     * Sends the Qi Authentication Request to the Responder
+     * The PUT DATA command of a timed out exchange arrives later and is dropped before the next SELECT command.
+     *
+     * @param   req The Qi Authentication Request
+     * @param   tim The timeout for the Qi Authentication Response in milliseconds
+     * @return  The Qi Authentication Response
+     * @throws  IOException in case of a communication error, an InterruptedIOException when the timeout expired
+     */
+    @Override public @NonNull byte[] sndMsg(@NonNull byte[] req, long tim) throws IOException {
+        final long beg = System.nanoTime();                                                         // Get the start time of the exchange
+        final long end = beg + tim * 1000000;                                                       // Get the end of the timeout
+        if (!mSes) {                                                                                // Session not yet selected?
+            sel(end);                                                                               // Wait for the SELECT command
+        }
+        wrt(mCod.rsp(req, 0, req.length, ApdCod.SW_OK));                                            // Send the Request in a Response APDU
+        final @NonNull byte[] cmd;                                                                  // PUT DATA command
+        try {
+            cmd = rcv(end);                                                                         // Receive the PUT DATA command
+        } catch (InterruptedIOException err) {                                                      // Timeout expired
+            mStl++;                                                                                 // Drop the late PUT DATA command
+            throw err;                                                                              // Report the expired timeout
+        }
+        if (!Arrays.equals(Arrays.copyOf(cmd, ApdCod.PUT_HD.length), ApdCod.PUT_HD)) {              // No PUT DATA command?
+            throw new IOException("Unexpected Command APDU");                                       // Report the unexpected command
+        }
+        final @NonNull int[] bdy = ApdCod.getBdy(cmd);                                              // Get the command data
+        if (bdy[ApdCod.BDY_LEN] == 0) {                                                             // Qi Authentication aborted by the Responder?
+            throw new IOException("Qi Authentication aborted by the Responder");                    // Report the abort
+        }
+        mCnt++;                                                                                     // Count the exchanged message
+        mTim = mTim + System.nanoTime() - beg;                                                      // Add the round trip time
+        return Arrays.copyOfRange(cmd, bdy[ApdCod.BDY_OFS], bdy[ApdCod.BDY_OFS] + bdy[ApdCod.BDY_LEN]);// Return the Qi Authentication Response
+    }
+
+    /**
+     * Returns the maximum length of a Qi Authentication Response announced by the Responder
+     * The SELECT command of the session is awaited if not yet received.
+     *
+     * @return  The maximum length of a Qi Authentication Response
+     */
+    @Override public int getMax() {
+        if (!mSes) {                                                                                // Session not yet selected?
+            try {
+                sel(System.nanoTime() + TIM_SEL * 1000000);                                         // Wait for the SELECT command
+            } catch (IOException err) {                                                             // No SELECT command received
+                Dbg.log("No SELECT command", err);                                                  // The error is reported by the next exchange
+            }
+        }
+        return mMax;                                                                                // Return the maximum Response length
+    }
+
+    /**
+     * Terminates the session with the status word
+     *
+     * @param   end The result of the Qi Authentication
+     */
+    @Override public void endAuth(final @NonNull AthEnd end) {
+        mErr = end;                                                                                 // Register the result
+        mSes = false;                                                                               // Next session starts with a SELECT command
+        try {
+            wrt(mCod.rsp(ApdCod.SW_OK));                                                            // Send the status word
+        } catch (IOException exp) {                                                                 // Socket closed
+            Dbg.log("Cannot terminate the session", exp);                                           // Log the error
+        }
+        mCod.rst();                                                                                 // Reuse the APDU buffers in the next session
+    }
+
+    /**
+     * Returns the result of the last Qi Authentication
+     *
+     * @return  The result of the last Qi Authentication or null if not finished
+     */
+    public @Nullable AthEnd getErr() {
+        return mErr;                                                                                // Return the result
+    }
+
+    /**
+     * Returns the metrics of the socket transport
+     *
+     * @return  The description of the exchanged messages and their round trip time
+     */
+    public @NonNull String getSta() {
+        return String.format(Locale.US, "Socket transport: %d messages, round trip avg %.1f us", mCnt, mTim / Math.max(1.0, mCnt) / 1000);
+    }
+
+    /**
+     * Closes the socket
+     *
+     * @throws  IOException in case the socket cannot be closed
+     */
+    @Override public void close() throws IOException {
+        mSel.close();                                                                               // Close the selector
+        mChn.close();                                                                               // Close the socket
+    }
+
+    /**
+     * Waits for the SELECT command starting a session
+     * The late Command APDUs of timed out exchanges of the previous session are dropped.
+     *
+     * @param   end The end of the timeout in nanoseconds
+     * @throws  IOException in case of a communication error or an unexpected command
+     */
+    private void sel(long end) throws IOException {
+        byte[] cmd = rcv(end);                                                                      // Receive the SELECT command
+        while ((mStl > 0) && !Arrays.equals(Arrays.copyOf(cmd, ApdCod.SEL_HD.length), ApdCod.SEL_HD)) {// Late Command APDU of the previous session?
+            mStl--;                                                                                 // Late Command APDU dropped
+            Dbg.log("Late Command APDU dropped");                                                   // Log the dropped Command APDU
+            cmd = rcv(end);                                                                         // Receive the next Command APDU
+        }
+        mStl = 0;                                                                                   // No late Command APDU follows a SELECT command
+        if (!Arrays.equals(Arrays.copyOf(cmd, ApdCod.SEL_HD.length), ApdCod.SEL_HD)) {              // No SELECT command?
+            throw new IOException("Unexpected Command APDU");                                       // Report the unexpected command
+        }
+        final int le = ApdCod.getBdy(cmd)[ApdCod.BDY_LE];                                           // Get the announced maximum Response length
+        mMax = (le == 0) ? ApdCod.MAX_EXT : (le == ApdCod.NO_LE) ? ApdCod.MAX_SHT : le;             // Register the maximum Response length
+        mSes = true;                                                                                // Session selected
+    }
+
+    /**
+     * Writes an APDU to the socket
+     *
+     * @param   apdu    The APDU
+     * @throws  IOException in case the socket is closed
+     */
+    private void wrt(@NonNull byte[] apdu) throws IOException {
+        final @NonNull ByteBuffer buf = frm(apdu);                                                  // Get the APDU with its length
+        mChn.write(buf);                                                                            // Write the APDU
+        if (buf.hasRemaining()) {                                                                   // Socket buffer full?
+            mKey.interestOps(SelectionKey.OP_WRITE);                                                // Wait until the socket accepts more bytes
+            while (buf.hasRemaining()) {                                                            // Repeat until the APDU is written
+                mSel.select();                                                                      // Wait for the socket
+                mSel.selectedKeys().clear();                                                        // Consume the event
+                mChn.write(buf);                                                                    // Write the remaining bytes
+            }
+            mKey.interestOps(SelectionKey.OP_READ);                                                 // Wait for received APDUs again
+        }
+    }
+
+    /**
+     * Receives an APDU from the socket
+     *
+     * @param   end The end of the timeout in nanoseconds
+     * @return  The received APDU
+     * @throws  IOException in case the socket was closed, an InterruptedIOException when the timeout expired
+     */
+    private @NonNull byte[] rcv(long end) throws IOException {
+        while (true) {                                                                              // Repeat until the APDU is complete
+            final byte[] apdu = mRdr.read(mChn);                                                    // Read the available bytes
+            if (apdu != null) {                                                                     // APDU complete?
+                return apdu;                                                                        // Return the APDU
+            }
+            final long rem = (end - System.nanoTime()) / 1000000;                                   // Get the remaining time
+            if (rem <= 0) {                                                                         // Timeout expired?
+                throw new InterruptedIOException("No Qi Authentication Response in time");          // Report the expired timeout
+            }
+            mSel.select(rem);                                                                       // Wait for the socket
+            mSel.selectedKeys().clear();                                                            // Consume the event
+        }
+    }
+
+    /**
+     * Executes Qi Authentications with a Qi Authentication Responder in another process
+     * Usage: SckCom address [count [flow]]
+     *
+     * @param   arg The address, the number of Qi Authentications and the protocol flow
+     * @throws  IOException in case the connection failed
+     */
+    public static void main(@NonNull String[] arg) throws IOException {
+        WpcCrt.init();                                                                              // Use the WPC Root Certificate of the plugfest
+        WpcLog.setQui(true);                                                                        // Switch off the communication log
+        final int cnt = (arg.length > 1) ? Integer.parseInt(arg[1]) : 1;                            // Get the number of Qi Authentications
+        final WpcAthIni.FlwTyp flw = (arg.length > 2) ? WpcAthIni.FlwTyp.valueOf(arg[2]) : WpcAthIni.FlwTyp.SMPL;// Get the protocol flow
+        final @NonNull CachBuf cach = new CachBuf(4);                                               // Cache of the session
+        final @NonNull SckCom com = new SckCom(arg[0]);                                             // Connect to the Responder
+        int suc = 0;                                                                                // Number of successful Qi Authentications
+        final long beg = System.nanoTime();                                                         // Get the start time
+        for (int ind = 0; ind < cnt; ind++) {                                                       // Repeat for all Qi Authentications
+            final @NonNull WpcAthIni ini = new WpcAthIni(com, flw, cach);                           // Create the Initiator
+            ini.setPln(com.getPln());                                                               // Plan the fragments with the timing of the socket link
+            ini.setSel(com.getFlw());                                                               // Select the adaptive flow with the devices of the socket link
+            ini.run();                                                                              // Execute the Qi Authentication
+            suc = suc + ((com.getErr() == AthEnd.OK) ? 1 : 0);                                      // Count the successful Qi Authentication
+        }
+        final long tim = System.nanoTime() - beg;                                                   // Get the duration
+        com.close();                                                                                // Close the connection
+        System.out.println(String.format(Locale.US, "%d of %d %s Qi Authentications successful, %.2f ms per Qi Authentication",
+                suc, cnt, flw.name(), tim / 1e6 / Math.max(1, cnt)));
+        System.out.println(com.getSta());                                                           // Print the transport metrics
+        System.out.println(com.getFlw().getSta());                                                  // Print the latency summary
+    }
+}
\ No newline at end of file
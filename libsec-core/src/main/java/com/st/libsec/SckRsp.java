@@ -0,0 +1,329 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Qi Authentication Responder serving Initiators in other processes over non-blocking sockets
+ * One selector thread accepts the connections and transfers the APDUs framed as described in SckCom, the Qi
+ * Authentication Requests are processed by a signing pool with one thread per core, so the signature calculations of
+ * concurrent sessions run in parallel. Each connection executes its sessions one after the other, a new session is
+ * started with a SELECT command when the Initiator terminated the previous one.
+ * Each session is bound to one device of the served devices which are used in turn, so many concurrent sessions
+ * authenticate a realistic mix of devices.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class SckRsp implements Runnable, Closeable {
+
+    private static final ExecutorService SIG_EXE = Executors.newFixedThreadPool(                    // Signing pool processing the Qi Authentication Requests on all cores
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override public Thread newThread(@NonNull Runnable run) {
+            final Thread thr = new Thread(run);                                                     // Create the signing thread
+            thr.setDaemon(true);                                                                    // Do not block the termination of the process
+            return thr;                                                                             // Return the signing thread
+        }
+    });
+
+    /**
+     * Connection to an Initiator
+     */
+    private static class Con {
+        private final @NonNull SocketChannel    mChn;                                               // Socket to the Initiator
+        private final @NonNull SckCom.Rdr       mRdr = new SckCom.Rdr();                            // Reader for the received APDUs
+        private final @NonNull ApdCod           mCod = new ApdCod();                                // Codec for the APDUs of the session
+        private final Queue<ByteBuffer>         mOut = new ConcurrentLinkedQueue<>();               // APDUs to be written
+        private SelectionKey                    mKey;                                               // Registration of the socket
+        private volatile KeyRng.Dev             mDev;                                               // Device of the actual session
+
+        /**
+         * Creates a connection
+         *
+         * @param   chn The socket to the Initiator
+         */
+        private Con(@NonNull SocketChannel chn) {
+            mChn = chn;                                                                             // Register the socket
+        }
+    }
+
+    private final @NonNull List<KeyRng.Dev>     mDev;                                               // Served devices
+    private final AtomicInteger                 mNxt = new AtomicInteger();                         // Number of started sessions selecting the next device
+    private final int                           mMax;                                               // Maximum length of a Qi Authentication Response
+    private final @Nullable File                mFil;                                               // File of the Unix-domain socket or null for a TCP port
+    private final @NonNull ServerSocketChannel  mSrv;                                               // Server socket
+    private final @NonNull Selector             mSel;                                               // Selector of the sockets
+    private final Queue<Con>                    mWrt = new ConcurrentLinkedQueue<>();               // Connections with APDUs to be written
+    private final AtomicLong                    mSes = new AtomicLong();                            // Number of finished sessions
+    private final AtomicLong                    mMsg = new AtomicLong();                            // Number of processed Requests
+    private final AtomicLong                    mPrc = new AtomicLong();                            // Sum of the processing times [ns]
+    private volatile boolean                    mEnd;                                               // Flag to stop the Responder
+
+    /**
+     * Creates the Responder for emulated devices and binds its address
+     *
+     * @param   adr The address as "tcp:port" or "unix:path"
+     * @param   dev The emulated devices
+     * @param   max The maximum length of a Qi Authentication Response
+     * @throws  IOException in case the address cannot be bound
+     */
+    public SckRsp(@NonNull String adr, @NonNull List<KeyRng.Dev> dev, int max) throws IOException {
+        if (dev.isEmpty()) {                                                                        // No device?
+            throw new IllegalArgumentException("No emulated device");                               // Reject the Responder
+        }
+        mDev = dev;                                                                                 // Register the devices
+        mMax = max;                                                                                 // Register the maximum Response length
+        mFil = SckCom.getFil(adr);                                                                  // Get the file of a Unix-domain socket
+        if ((mFil != null) && mFil.exists() && !mFil.delete()) {                                    // Stale socket file cannot be deleted?
+            throw new IOException("Cannot delete " + mFil);                                         // Report the stale socket file
+        }
+        mSrv = SckCom.opnSrv(SckCom.getAdr(adr));                                                   // Bind the address
+        mSrv.configureBlocking(false);                                                              // Use the non-blocking mode
+        mSel = Selector.open();                                                                     // Create the selector
+        mSrv.register(mSel, SelectionKey.OP_ACCEPT);                                                // Wait for connections
+    }
+
+    /**
+     * Executes the selector loop until the Responder is closed
+     */
+    @Override public void run() {
+        try {
+            while (!mEnd) {                                                                         // Repeat until the Responder is closed
+                mSel.select();                                                                      // Wait for socket events
+                Con con;                                                                            // Connection with APDUs to be written
+                while ((con = mWrt.poll()) != null) {                                               // Repeat for all connections with APDUs to be written
+                    if (con.mKey.isValid()) {                                                       // Connection still open?
+                        con.mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);         // Wait until the socket accepts the APDUs
+                    }
+                }
+                final Iterator<SelectionKey> itr = mSel.selectedKeys().iterator();                  // Get the socket events
+                while (itr.hasNext()) {                                                             // Repeat for all socket events
+                    final @NonNull SelectionKey key = itr.next();                                   // Get the socket event
+                    itr.remove();                                                                   // Consume the socket event
+                    try {
+                        if (key.isAcceptable()) {                                                   // Connection requested?
+                            acc();                                                                  // Accept the connection
+                            continue;
+                        }
+                        if (key.isReadable()) {                                                     // Bytes received?
+                            red((Con)key.attachment());                                             // Read the APDUs
+                        }
+                        if (key.isValid() && key.isWritable()) {                                    // Socket accepts bytes?
+                            wrt((Con)key.attachment());                                             // Write the APDUs
+                        }
+                    } catch (IOException err) {                                                     // Connection closed or broken
+                        cls((Con)key.attachment());                                                 // Close the connection
+                    }
+                }
+            }
+        } catch (IOException err) {                                                                 // Selector failed
+            Dbg.log("Socket Responder failed", err);                                                // Log the error
+        } finally {
+            for (SelectionKey key : mSel.keys()) {                                                  // Repeat for all sockets
+                try {
+                    key.channel().close();                                                          // Close the socket
+                } catch (IOException err) {                                                         // Socket cannot be closed
+                    Dbg.log("Cannot close socket", err);                                            // Log the error
+                }
+            }
+            try {
+                mSel.close();                                                                       // Close the selector
+            } catch (IOException err) {                                                             // Selector cannot be closed
+                Dbg.log("Cannot close selector", err);                                              // Log the error
+            }
+            if ((mFil != null) && !mFil.delete()) {                                                 // Socket file cannot be deleted?
+                Dbg.log("Cannot delete " + mFil);                                                   // Log the error
+            }
+        }
+    }
+
+    /**
+     * Stops the Responder, the selector loop closes all sockets
+     */
+    @Override public void close() {
+        mEnd = true;                                                                                // Stop the selector loop
+        mSel.wakeup();                                                                              // Wake up the selector loop
+    }
+
+    /**
+     * Returns the metrics of the Responder
+     *
+     * @return  The description of the sessions, Requests and processing time
+     */
+    public @NonNull String getSta() {
+        return String.format(Locale.US, "Socket Responder: %d devices, %d sessions, %d Requests, processing avg %.2f ms",
+                mDev.size(), mSes.get(), mMsg.get(), mPrc.get() / Math.max(1.0, mMsg.get()) / 1e6);
+    }
+
+    /**
+     * Accepts a connection and starts its first session
+     *
+     * @throws  IOException in case the connection cannot be registered
+     */
+    private void acc() throws IOException {
+        final SocketChannel chn = mSrv.accept();                                                    // Accept the connection
+        if (chn == null) {                                                                          // No connection pending?
+            return;
+        }
+        chn.configureBlocking(false);                                                               // Use the non-blocking mode
+        final @NonNull Con con = new Con(chn);                                                      // Create the connection
+        con.mKey = chn.register(mSel, SelectionKey.OP_READ, con);                                   // Wait for received APDUs
+        sel(con);                                                                                   // Start the first session
+    }
+
+    /**
+     * Starts a session bound to the next device with the SELECT command announcing the maximum Response length
+     *
+     * @param   con The connection
+     */
+    private void sel(@NonNull Con con) {
+        con.mDev = mDev.get((mNxt.getAndIncrement() & Integer.MAX_VALUE) % mDev.size());            // Bind the session to the next device
+        con.mCod.rst();                                                                             // Reuse the APDU buffers of the previous session
+        snd(con, con.mCod.cmd(ApdCod.SEL_HD, ApdCod.AID, 0, ApdCod.AID.length, mMax, true));        // Send the SELECT command
+    }
+
+    /**
+     * Reads the received APDUs of a connection
+     *
+     * @param   con The connection
+     * @throws  IOException in case the connection was closed
+     */
+    private void red(final @NonNull Con con) throws IOException {
+        byte[] apdu;                                                                                // Received Response APDU
+        while ((apdu = con.mRdr.read(con.mChn)) != null) {                                          // Repeat for all complete APDUs
+            final int len = apdu.length - ApdCod.LEN_SW;                                            // Get the length of the Request
+            if ((len <= 0) || (ApdCod.getSw(apdu) != ApdCod.SW_OK)) {                               // Session terminated by the Initiator?
+                mSes.incrementAndGet();                                                             // Count the finished session
+                sel(con);                                                                           // Start the next session
+                continue;
+            }
+            final @NonNull byte[] req = Arrays.copyOf(apdu, len);                                   // Get the Qi Authentication Request
+            SIG_EXE.execute(new Runnable() {
+                @Override public void run() {
+                    final long beg = System.nanoTime();                                             // Get the start of the processing
+                    final byte[] res = con.mDev.getRsp().athReq(req);                               // Execute the Qi Authentication Request
+                    mPrc.addAndGet(System.nanoTime() - beg);                                        // Add the processing time
+                    mMsg.incrementAndGet();                                                         // Count the processed Request
+                    if (res == null) {                                                              // No Response?
+                        snd(con, con.mCod.cmd(ApdCod.PUT_HD, AppLib.NO_BA, 0, 0, ApdCod.NO_LE, false));// Abort the Qi Authentication with an empty PUT DATA command
+                    } else {                                                                        // Response available
+                        snd(con, con.mCod.cmd(ApdCod.PUT_HD, res, 0, res.length, mMax, false));     // Send the Response in the PUT DATA command
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues an APDU to be written by the selector loop
+     *
+     * @param   con     The connection
+     * @param   apdu    The APDU
+     */
+    private void snd(@NonNull Con con, @NonNull byte[] apdu) {
+        con.mOut.add(SckCom.frm(apdu));                                                             // Queue the APDU with its length
+        mWrt.add(con);                                                                              // Register the connection for writing
+        mSel.wakeup();                                                                              // Wake up the selector loop
+    }
+
+    /**
+     * Writes the queued APDUs of a connection
+     *
+     * @param   con The connection
+     * @throws  IOException in case the connection was closed
+     */
+    private void wrt(@NonNull Con con) throws IOException {
+        ByteBuffer buf;                                                                             // Queued APDU
+        while ((buf = con.mOut.peek()) != null) {                                                   // Repeat for all queued APDUs
+            con.mChn.write(buf);                                                                    // Write the APDU
+            if (buf.hasRemaining()) {                                                               // Socket buffer full?
+                return;                                                                             // Wait until the socket accepts more bytes
+            }
+            con.mOut.poll();                                                                        // Remove the written APDU
+        }
+        con.mKey.interestOps(SelectionKey.OP_READ);                                                 // Wait for received APDUs
+    }
+
+    /**
+     * Closes a connection
+     *
+     * @param   con The connection
+     */
+    private void cls(@Nullable Con con) {
+        if (con == null) {                                                                          // Server socket failed?
+            return;
+        }
+        con.mKey.cancel();                                                                          // Stop the registration
+        try {
+            con.mChn.close();                                                                       // Close the socket
+        } catch (IOException err) {                                                                 // Socket cannot be closed
+            Dbg.log("Cannot close socket", err);                                                    // Log the error
+        }
+    }
+
+    /**
+     * Serves the emulated devices of a keyring to Initiators in other processes until the process is stopped
+     * Usage: SckRsp address emu-directory|zip [device|* [max]]
+     *
+     * @param   arg The address, the directory or zip archive of the emulated devices, the device name or * for all
+     *              devices and the maximum Response length
+     * @throws  IOException in case the devices cannot be loaded or the address cannot be bound
+     */
+    public static void main(@NonNull String[] arg) throws IOException {
+        final @NonNull KeyRng rng = KeyRng.load(new File(arg[1]));                                  // Preload the emulated devices
+        final @NonNull List<KeyRng.Dev> lst = new ArrayList<>(rng.getAll());                        // Serve all devices by default
+        if ((arg.length > 2) && !arg[2].equals("*")) {                                              // Single device requested?
+            final KeyRng.Dev dev = rng.get(arg[2]);                                                 // Get the requested device
+            lst.clear();                                                                            // Serve only the requested device
+            if (dev != null) {                                                                      // Device available?
+                lst.add(dev);                                                                       // Add the device
+            }
+        }
+        if (lst.isEmpty()) {                                                                        // No device found?
+            throw new IOException("No emulated device in " + arg[1]);                               // Report the missing device
+        }
+        final int max = (arg.length > 3) ? Integer.parseInt(arg[3]) : ApdCod.MAX_EXT;               // Get the maximum Response length
+        final @NonNull SckRsp rsp = new SckRsp(arg[0], lst, max);                                   // Bind the address
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override public void run() {
+                System.out.println(rsp.getSta());                                                   // Print the metrics when the process is stopped
+            }
+        });
+        System.out.println("Serving " + lst.size() + " devices at " + arg[0]);                      // Inform about the served devices
+        rsp.run();                                                                                  // Execute the selector loop
+    }
+}
\ No newline at end of file
@@ -0,0 +1,233 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Session executor of the library
+ * The tasks of the Qi Authentication critical path (initiator, PTx emulation, Certificate Chain verification) are executed
+ * on virtual threads where the runtime supports them, otherwise on a bounded pool of maximum priority threads.
+ * Background tasks (logs, files, settings) are executed on a small pool of minimum priority threads.
+ * Delayed critical tasks, like the budget of a session waiting for a callback, are handed over to the critical lane by
+ * one timer thread, so no thread waits for the delay.
+ * Both lanes count their tasks, queue depth, waiting and run time.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class SesExe {
+
+    private static final int    CRT_MAX = 16;                                                       // Maximum number of platform threads for critical tasks
+    private static final int    BKG_MAX = 2;                                                        // Maximum number of threads for background tasks
+    private static final long   IDL_TIM = 30;                                                       // Idle time until a pool thread is stopped [s]
+
+    private static final Lan    CRT = newCrt();                                                     // Lane for the Qi Authentication critical path
+    private static final Lan    BKG = new Lan("background", newPol("bkg", BKG_MAX, Thread.MIN_PRIORITY));// Lane for background tasks
+    private static final ScheduledThreadPoolExecutor TMR = newTmr();                                // Timer for delayed critical tasks
+
+    /**
+     * Lane of the session executor with its metrics
+     */
+    private static class Lan {
+        private final @NonNull String           mName;                                              // Name of the lane
+        private final @NonNull ExecutorService  mExe;                                               // Executor of the lane
+        private final AtomicInteger             mQue = new AtomicInteger();                         // Number of queued tasks
+        private final AtomicInteger             mMax = new AtomicInteger();                         // Maximum number of queued tasks
+        private final AtomicLong                mCnt = new AtomicLong();                            // Number of finished tasks
+        private final AtomicLong                mWai = new AtomicLong();                            // Sum of the waiting times [ns]
+        private final AtomicLong                mRun = new AtomicLong();                            // Sum of the run times [ns]
+
+        /**
+         * Creates a lane
+         *
+         * @param   name    The name of the lane
+         * @param   exe     The executor of the lane
+         */
+        private Lan(@NonNull String name, @NonNull ExecutorService exe) {
+            mName = name;                                                                           // Register the name
+            mExe = exe;                                                                             // Register the executor
+        }
+
+        /**
+         * Executes a task and measures its waiting and run time
+         *
+         * @param   run The task
+         * @return  The Future of the task
+         */
+        private @NonNull Future<?> submit(final @NonNull Runnable run) {
+            final long beg = System.nanoTime();                                                     // Get the submission time
+            final int que = mQue.incrementAndGet();                                                 // Count the queued task
+            int max = mMax.get();                                                                   // Get the maximum queue depth
+            while ((que > max) && !mMax.compareAndSet(max, que)) {                                  // Repeat until the maximum queue depth is updated
+                max = mMax.get();                                                                   // Get the actual maximum queue depth
+            }
+            return mExe.submit(new Runnable() {
+                @Override public void run() {
+                    final long sta = System.nanoTime();                                             // Get the start time
+                    mQue.decrementAndGet();                                                         // Task is no longer queued
+                    mWai.addAndGet(sta - beg);                                                      // Add the waiting time
+                    try {
+                        run.run();                                                                  // Execute the task
+                    } catch (RuntimeException err) {                                                // Task failed
+                        Dbg.log("Task failed", err);                                                // Log the error which is otherwise only kept by the Future
+                        throw err;
+                    } finally {
+                        mRun.addAndGet(System.nanoTime() - sta);                                    // Add the run time
+                        mCnt.incrementAndGet();                                                     // Count the finished task
+                    }
+                }
+            });
+        }
+
+        /**
+         * Returns the metrics of the lane
+         *
+         * @return  The description of the metrics
+         */
+        private @NonNull String getSta() {
+            final long cnt = Math.max(1, mCnt.get());                                               // Get the number of finished tasks
+            return String.format(Locale.US, "%s %d tasks, queue %d (max %d), wait avg %d us, run avg %.1f ms",
+                    mName, mCnt.get(), mQue.get(), mMax.get(), mWai.get() / cnt / 1000, mRun.get() / cnt / 1e6);
+        }
+    }
+
+    /**
+     * Executes a task of the Qi Authentication critical path
+     *
+     * @param   run The task
+     * @return  The Future of the task
+     */
+    public static @NonNull Future<?> crt(@NonNull Runnable run) {
+        return CRT.submit(run);                                                                     // Execute the task on the critical lane
+    }
+
+    /**
+     * Executes a task of the Qi Authentication critical path after a delay
+     *
+     * @param   run The task
+     * @param   tim The delay in milliseconds
+     * @return  The Future of the delay to cancel the task before it is executed
+     */
+    public static @NonNull Future<?> dly(final @NonNull Runnable run, long tim) {
+        return TMR.schedule(new Runnable() {
+            @Override public void run() {
+                CRT.submit(run);                                                                    // Execute the task on the critical lane
+            }
+        }, tim, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes a background task
+     *
+     * @param   run The task
+     * @return  The Future of the task
+     */
+    public static @NonNull Future<?> bkg(@NonNull Runnable run) {
+        return BKG.submit(run);                                                                     // Execute the task on the background lane
+    }
+
+    /**
+     * Returns the metrics of the session executor
+     *
+     * @return  The description of the metrics of both lanes
+     */
+    public static @NonNull String getSta() {
+        return "Session executor: " + CRT.getSta() + "; " + BKG.getSta();                           // Return the metrics
+    }
+
+    /**
+     * Creates the lane for the Qi Authentication critical path
+     *
+     * @return  The lane using virtual threads if available, otherwise a bounded pool
+     */
+    private static @NonNull Lan newCrt() {
+        final ExecutorService vir = newVir();                                                       // Try to create a virtual thread executor
+        if (vir != null) {                                                                          // Virtual threads supported?
+            return new Lan("critical (virtual)", vir);                                              // Use virtual threads
+        }
+        return new Lan("critical", newPol("crt", CRT_MAX, Thread.MAX_PRIORITY));                    // Use a bounded pool of maximum priority threads
+    }
+
+    /**
+     * Creates the timer for delayed critical tasks
+     * Cancelled delays are removed immediately, as most budgets are cancelled by the expected callback.
+     *
+     * @return  The timer
+     */
+    private static @NonNull ScheduledThreadPoolExecutor newTmr() {
+        final ScheduledThreadPoolExecutor tmr = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override public Thread newThread(@NonNull Runnable run) {
+                final Thread thr = new Thread(run, "tmr");                                          // Create the timer thread
+                thr.setDaemon(true);                                                                // Do not keep the application alive
+                return thr;                                                                         // Return the timer thread
+            }
+        });
+        tmr.setRemoveOnCancelPolicy(true);                                                          // Remove cancelled delays
+        return tmr;                                                                                 // Return the timer
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task
+     * The executor is created by reflection as it is only available on newer runtimes.
+     *
+     * @return  The executor or null if virtual threads are not supported
+     */
+    private static @Nullable ExecutorService newVir() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);// Create the virtual thread executor
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException err) {  // Virtual threads not supported
+            return null;                                                                            // Inform that virtual threads are not supported
+        }
+    }
+
+    /**
+     * Creates a bounded thread pool
+     * Threads are created up to the maximum before tasks are queued and are stopped when idle.
+     *
+     * @param   name    The name prefix of the threads
+     * @param   max     The maximum number of threads
+     * @param   pri     The priority of the threads
+     * @return  The thread pool
+     */
+    private static @NonNull ExecutorService newPol(final @NonNull String name, int max, final int pri) {
+        final ThreadPoolExecutor pol = new ThreadPoolExecutor(max, max, IDL_TIM, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mNum = new AtomicInteger();                                 // Number of created threads
+
+            @Override public Thread newThread(@NonNull Runnable run) {
+                final Thread thr = new Thread(run, name + "-" + mNum.incrementAndGet());            // Create the pool thread
+                thr.setPriority(pri);                                                               // Set the priority of the lane
+                thr.setDaemon(true);                                                                // Do not keep the application alive
+                return thr;                                                                         // Return the pool thread
+            }
+        });
+        pol.allowCoreThreadTimeOut(true);                                                           // Stop idle threads
+        return pol;                                                                                 // Return the thread pool
+    }
+}
\ No newline at end of file
@@ -0,0 +1,521 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replay of a recorded Qi Authentication session
+ * The Requests and Responses are taken from the actual communication log or reconstructed from a saved log file. The
+ * recorded Responses drive a new Initiator, which uses the recorded Nonce so the recorded signature can be verified, or
+ * the recorded Requests drive a Responder whose Responses are compared with the recorded ones. The messages are
+ * exchanged with the original timing between the messages or as fast as possible, so field failures can be
+ * reproduced and performance regressions can be tested without the original devices.
+ * The Initiator may plan other GET_CERTIFICATE fragments than recorded, these CERTIFICATE Responses are assembled
+ * from the recorded WPC Certificate Chain segments.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class SesRpl implements WpcCom {
+
+    private static final int        MSK_TYP = 0x0F;                                                 // Mask for the message type
+    private static final int        MAX_IMG = 0x7FE;                                                // Maximum end of a Certificate Chain Segment (10 bit offset and length)
+    private static final Pattern    EVT_PAT = Pattern.compile("^( *)(\\d+) ms  (.*)$");             // Event line of the log file with time difference
+    private static final Pattern    VAL_PAT = Pattern.compile("^ {8}([0-9A-Fa-f]{2}(?::[0-9A-Fa-f]{2})*) - .*$");// Line with a logged value
+    private static final Pattern    ARR_PAT = Pattern.compile("^ {8}[^:]+: ((?:[0-9A-Fa-f]{2} )*[0-9A-Fa-f]{2})$");// Line with a logged byte array
+    private static final Pattern    HEX_PAT = Pattern.compile("^([0-9A-Fa-f]{2}(?::[0-9A-Fa-f]{2})*)$");// Line with an unknown message
+
+    /**
+     * Recorded Qi Authentication message
+     */
+    static class Msg {
+        private final           long        mTim;                                                   // Time stamp of the message [ms]
+        private final           boolean     mReq;                                                   // Flag for a Request, otherwise a Response
+        private final @NonNull  byte[]      mDat;                                                   // Content of the message
+
+        /**
+         * Creates a recorded message
+         *
+         * @param   tim The time stamp of the message in milliseconds
+         * @param   req True for a Request, false for a Response
+         * @param   dat The content of the message
+         */
+        Msg(long tim, boolean req, @NonNull byte[] dat) {
+            mTim = tim;                                                                             // Register the time stamp
+            mReq = req;                                                                             // Register the message direction
+            mDat = dat;                                                                             // Register the content
+        }
+
+        /**
+         * Returns the direction of the message
+         *
+         * @return  True for a Request, false for a Response
+         */
+        boolean isReq() {
+            return mReq;                                                                            // Return the direction
+        }
+
+        /**
+         * Returns the content of the message
+         *
+         * @return  The content of the message
+         */
+        @NonNull byte[] getDat() {
+            return mDat;                                                                            // Return the content
+        }
+    }
+
+    /**
+     * Recorded exchange of a Request and its Response
+     */
+    private static class Xch {
+        private final @NonNull  Msg     mReq;                                                       // Recorded Request
+        private final @Nullable Msg     mRes;                                                       // Recorded Response or null if not answered
+
+        /**
+         * Creates a recorded exchange
+         *
+         * @param   req The recorded Request
+         * @param   res The recorded Response or null
+         */
+        private Xch(@NonNull Msg req, @Nullable Msg res) {
+            mReq = req;                                                                             // Register the Request
+            mRes = res;                                                                             // Register the Response
+        }
+
+        /**
+         * Returns the type of the recorded Request
+         *
+         * @return  The message type
+         */
+        private int getTyp() {
+            return mReq.mDat[0] & MSK_TYP;                                                          // Return the message type
+        }
+    }
+
+    private final @NonNull List<Xch>            mXch = new ArrayList<>();                           // Recorded exchanges
+    private final @NonNull byte[]               mImg = new byte[MAX_IMG];                           // Recorded WPC Certificate Chain segments
+    private final @NonNull BitSet               mCov = new BitSet(MAX_IMG);                         // Recorded bytes of the WPC Certificate Chain
+    private final long                          mLen;                                               // Recorded duration of the session [ms]
+    private int                                 mMax = ApdCod.MAX_SHT;                              // Maximum length of a recorded Response
+    private boolean                             mTim;                                               // Flag for the original timing
+    private Map<Integer, Queue<Xch>>            mQue;                                               // Recorded exchanges of the Initiator replay by Request type
+    private String                              mMod = "none";                                      // Mode of the last replay
+    private @Nullable AthEnd                    mErr;                                               // Result of the replayed Initiator
+    private int                                 mCnt;                                               // Number of replayed exchanges
+    private int                                 mMat;                                               // Number of exchanges matching the recording
+    private int                                 mSyn;                                               // Number of assembled CERTIFICATE Responses
+    private long                                mDur;                                               // Duration of the last replay [ns]
+
+    /**
+     * Creates the replay of recorded messages
+     * A message logged by both sides of a loopback is registered once with the time of the Initiator.
+     *
+     * @param   rec The recorded Requests and Responses in the order of the session
+     */
+    SesRpl(@NonNull List<Msg> rec) {
+        final @NonNull List<Msg> msg = new ArrayList<>();                                           // Messages without duplicates
+        for (Msg itm : rec) {                                                                       // Repeat for all recorded messages
+            final Msg prv = msg.isEmpty() ? null : msg.get(msg.size() - 1);                         // Get the previous message
+            if ((prv == null) || (prv.mReq != itm.mReq) || !Arrays.equals(prv.mDat, itm.mDat)) {    // No duplicate?
+                msg.add(itm);                                                                       // Add the message
+            } else if (!itm.mReq) {                                                                 // Duplicate Response?
+                msg.set(msg.size() - 1, itm);                                                       // Use the Response received by the Initiator
+            }
+        }
+        for (int ind = 0; ind < msg.size(); ind++) {                                                // Repeat for all messages
+            final @NonNull Msg req = msg.get(ind);                                                  // Get the message
+            if (!req.mReq || (req.mDat.length == 0)) {                                              // No Request?
+                continue;                                                                           // Skip the message
+            }
+            final Msg res = ((ind + 1 < msg.size()) && !msg.get(ind + 1).mReq) ? msg.get(++ind) : null;// Get the Response of the Request
+            final @NonNull Xch xch = new Xch(req, res);                                             // Create the exchange
+            mXch.add(xch);                                                                          // Add the exchange
+            if ((res != null) && (xch.getTyp() == WpcAthIni.REQ_CRT) && (req.mDat.length >= 4)) {   // Recorded CERTIFICATE Response?
+                mMax = Math.max(mMax, res.mDat.length);                                             // Register the maximum Response length
+                final int ofs = getOfs(req.mDat);                                                   // Get the offset of the segment
+                final int len = Math.min(getLen(req.mDat), res.mDat.length - WpcAthRsp.OFS_CHN);    // Get the length of the segment
+                if (((res.mDat[0] & MSK_TYP) == WpcAthRsp.RES_CRT) && (len > 0)) {                  // Certificate Chain Segment received?
+                    System.arraycopy(res.mDat, WpcAthRsp.OFS_CHN, mImg, ofs, len);                  // Register the segment
+                    mCov.set(ofs, ofs + len);                                                       // Mark the recorded bytes
+                }
+            }
+        }
+        mLen = msg.isEmpty() ? 0 : msg.get(msg.size() - 1).mTim - msg.get(0).mTim;                  // Get the recorded duration
+    }
+
+    /**
+     * Creates the replay of the session of the actual communication log
+     * The replay must be created before the next session starts a new log.
+     *
+     * @return  The replay of the logged session
+     */
+    public static @NonNull SesRpl rec() {
+        return new SesRpl(WpcLog.getMsg());                                                         // Return the replay of the logged messages
+    }
+
+    /**
+     * Creates the replay of a saved log file
+     * The Requests and Responses are reconstructed from the logged values and the time stamps from the time differences.
+     *
+     * @param   fil The log file
+     * @return  The replay of the logged session
+     * @throws  IOException in case the log file cannot be read
+     */
+    public static @NonNull SesRpl load(@NonNull File fil) throws IOException {
+        final @NonNull BufferedReader rdr = new BufferedReader(new InputStreamReader(new FileInputStream(fil), AppLib.CHR_ISO));
+        //noinspection TryFinallyCanBeTryWithResources                                              // Not usable below Android 19
+        try {
+            return new SesRpl(parse(rdr));                                                          // Return the replay of the logged messages
+        } finally {
+            rdr.close();                                                                            // Close the log file
+        }
+    }
+
+    /**
+     * Reconstructs the Qi Authentication messages of a log file
+     *
+     * @param   rdr The reader of the log file
+     * @return  The logged Requests and Responses
+     * @throws  IOException in case the log file cannot be read
+     */
+    static @NonNull List<Msg> parse(@NonNull BufferedReader rdr) throws IOException {
+        final @NonNull List<Msg> lst = new ArrayList<>();                                           // Reconstructed messages
+        final long[] tim = new long[3];                                                             // Timers of the log levels [ms]
+        final @NonNull ByteArrayOutputStream dat = new ByteArrayOutputStream();                     // Content of the actual message
+        Boolean req = null;                                                                         // Direction of the actual message or null if none
+        long evt = 0;                                                                               // Time stamp of the actual message [ms]
+        String lin;                                                                                 // Actual line
+        while ((lin = rdr.readLine()) != null) {                                                    // Repeat for all lines
+            if (req != null) {                                                                      // Message content expected?
+                final Matcher val = VAL_PAT.matcher(lin);                                           // Check for a logged value
+                final Matcher arr = ARR_PAT.matcher(lin);                                           // Check for a logged byte array
+                final Matcher hex = HEX_PAT.matcher(lin);                                           // Check for an unknown message
+                if (val.matches() || arr.matches() || hex.matches()) {                              // Message content?
+                    final @NonNull String str = val.matches() ? val.group(1) : arr.matches() ? arr.group(1) : hex.group(1);
+                    for (String byt : str.split("[: ]")) {                                          // Repeat for all bytes
+                        dat.write(Integer.parseInt(byt, 16));                                       // Add the byte
+                    }
+                    continue;
+                }
+                add(lst, evt, req, dat);                                                            // Add the finished message
+                req = null;                                                                         // No message content expected
+            }
+            final Matcher mat = EVT_PAT.matcher(lin);                                               // Check for an event line
+            if (!mat.matches()) {                                                                   // No event?
+                continue;                                                                           // Skip the line
+            }
+            final int lev = Math.min(mat.group(1).length() / WpcLog.TAB.length(), tim.length - 1);  // Get the timer level
+            tim[lev] = tim[lev] + Long.parseLong(mat.group(2));                                     // Get the time stamp of the event
+            final @NonNull String txt = mat.group(3);                                               // Get the event description
+            if (txt.endsWith(" request") || txt.endsWith(" response")) {                            // Qi Authentication message?
+                req = txt.endsWith(" request");                                                     // Register the direction
+                evt = tim[lev];                                                                     // Register the time stamp
+                dat.reset();                                                                        // Start the content of the message
+            }
+        }
+        if (req != null) {                                                                          // Message at the end of the file?
+            add(lst, evt, req, dat);                                                                // Add the finished message
+        }
+        return lst;                                                                                 // Return the messages
+    }
+
+    /**
+     * Adds a reconstructed message
+     *
+     * @param   lst The reconstructed messages
+     * @param   tim The time stamp of the message in milliseconds
+     * @param   req True for a Request, false for a Response
+     * @param   dat The content of the message
+     */
+    private static void add(@NonNull List<Msg> lst, long tim, boolean req, @NonNull ByteArrayOutputStream dat) {
+        if (dat.size() > 0) {                                                                       // Content available?
+            lst.add(new Msg(tim, req, dat.toByteArray()));                                          // Add the message
+        }
+    }
+
+    /**
+     * Sets the timing of the replay
+     *
+     * @param   tim True for the original timing between the messages, false for a replay as fast as possible
+     */
+    public void setTim(boolean tim) {
+        mTim = tim;                                                                                 // Register the timing
+    }
+
+    /**
+     * Returns the number of recorded exchanges
+     *
+     * @return  The number of recorded Requests
+     */
+    public int getCnt() {
+        return mXch.size();                                                                         // Return the number of exchanges
+    }
+
+    /**
+     * Replays the recorded Responses to a new Initiator
+     * The protocol flow is taken from the first recorded Request. The replayed session is not logged, so the actual log
+     * is kept.
+     *
+     * @param   buf The cache buffer of the Initiator
+     * @return  The result of the Initiator or null if not finished
+     */
+    public @Nullable AthEnd runIni(@NonNull CachBuf buf) {
+        mQue = new HashMap<>();                                                                     // Create the exchanges by Request type
+        byte[] non = null;                                                                          // Recorded Nonce
+        for (Xch xch : mXch) {                                                                      // Repeat for all exchanges
+            Queue<Xch> que = mQue.get(xch.getTyp());                                                // Get the exchanges of the Request type
+            if (que == null) {                                                                      // First exchange of the type?
+                que = new ArrayDeque<>();                                                           // Create the exchanges of the type
+                mQue.put(xch.getTyp(), que);                                                        // Register the exchanges of the type
+            }
+            que.add(xch);                                                                           // Add the exchange
+            if ((non == null) && (xch.getTyp() == WpcAthIni.REQ_ATH) && (xch.mReq.mDat.length >= WpcAthIni.OFS_RND + WpcAthIni.RND_SIZ)) {
+                non = Arrays.copyOfRange(xch.mReq.mDat, WpcAthIni.OFS_RND, WpcAthIni.OFS_RND + WpcAthIni.RND_SIZ);// Get the recorded Nonce
+            }
+        }
+        final WpcAthIni.FlwTyp flw;                                                                 // Recorded protocol flow
+        switch (mXch.isEmpty() ? WpcAthIni.REQ_CRT : mXch.get(0).getTyp()) {                        // Analyse the first Request
+            case WpcAthIni.REQ_CRT: flw = WpcAthIni.FlwTyp.SMPL; break;                             // Simple flow starts with the WPC Certificate Chain
+            case WpcAthIni.REQ_DIG: flw = WpcAthIni.FlwTyp.CACH; break;                             // Flow with caching starts with the Digests
+            default:                flw = WpcAthIni.FlwTyp.ATH1;                                    // Challenge first flow starts with the CHALLENGE
+        }
+        mMod = "Initiator " + flw.name();                                                           // Register the replay mode
+        mErr = null;                                                                                // No result yet
+        mCnt = 0;                                                                                   // No replayed exchange yet
+        mMat = 0;                                                                                   // No matching exchange yet
+        mSyn = 0;                                                                                   // No assembled Response yet
+        final @NonNull WpcAthIni ini = new WpcAthIni(this, flw, buf);                               // Create the Initiator
+        ini.setRpl(non);                                                                            // Use the recorded Nonce
+        final long beg = System.nanoTime();                                                         // Get the start of the replay
+        WpcLog.begRpl();                                                                            // Keep the actual log
+        try {
+            ini.run();                                                                              // Execute the Qi Authentication
+        } finally {
+            WpcLog.endRpl();                                                                        // Log the next session again
+        }
+        mDur = System.nanoTime() - beg;                                                             // Get the duration of the replay
+        return mErr;                                                                                // Return the result
+    }
+
+    /**
+     * Replays the recorded Requests to a Responder
+     * The Responses are compared with the recorded ones, the signature of a CHALLENGE_AUTH Response is not compared as
+     * it is calculated with a random value. The replayed session is not logged, so the actual log is kept.
+     *
+     * @param   rsp The Qi Authentication Responder
+     * @return  The number of Responses differing from the recording
+     * @throws  InterruptedException in case the replay was interrupted
+     */
+    public int runRsp(@NonNull WpcAthRsp rsp) throws InterruptedException {
+        mMod = "Responder";                                                                         // Register the replay mode
+        mErr = null;                                                                                // No Initiator result
+        mCnt = 0;                                                                                   // No replayed exchange yet
+        mMat = 0;                                                                                   // No matching exchange yet
+        mSyn = 0;                                                                                   // No assembled Response
+        long end = mXch.isEmpty() ? 0 : mXch.get(0).mReq.mTim;                                      // Time stamp of the previous recorded Response [ms]
+        final long beg = System.nanoTime();                                                         // Get the start of the replay
+        WpcLog.begRpl();                                                                            // Keep the actual log
+        try {
+            for (Xch xch : mXch) {                                                                  // Repeat for all exchanges
+                dly(xch.mReq.mTim - end);                                                           // Wait the recorded time of the Initiator
+                final byte[] res = rsp.athReq(xch.mReq.mDat);                                       // Execute the recorded Request
+                mCnt++;                                                                             // Count the replayed exchange
+                mMat = mMat + (cmp(res, xch.mRes) ? 1 : 0);                                         // Count the matching Response
+                end = (xch.mRes != null) ? xch.mRes.mTim : xch.mReq.mTim;                           // Register the time of the recorded Response
+            }
+        } finally {
+            WpcLog.endRpl();                                                                        // Log the next session again
+        }
+        mDur = System.nanoTime() - beg;                                                             // Get the duration of the replay
+        return mCnt - mMat;                                                                         // Return the number of differing Responses
+    }
+
+    /**
+     * Compares a Response with the recorded Response
+     *
+     * @param   res The Response or null if not answered
+     * @param   rec The recorded Response or null if not answered
+     * @return  True if the Responses match
+     */
+    private static boolean cmp(@Nullable byte[] res, @Nullable Msg rec) {
+        if ((res == null) || (rec == null)) {                                                       // Request not answered?
+            return (res == null) && (rec == null);                                                  // Return if both are not answered
+        }
+        if (((rec.mDat[0] & MSK_TYP) == WpcAthRsp.RES_ATH) && (res.length == rec.mDat.length)) {    // CHALLENGE_AUTH Response?
+            return Arrays.equals(Arrays.copyOf(res, WpcAthRsp.LEN_ATH), Arrays.copyOf(rec.mDat, WpcAthRsp.LEN_ATH));
+        }
+        return Arrays.equals(res, rec.mDat);                                                        // Compare the Responses
+    }
+
+    /**
+     * Waits the recorded time between two messages
+     *
+     * @param   tim The recorded time in milliseconds
+     * @throws  InterruptedException in case the waiting was interrupted
+     */
+    private void dly(long tim) throws InterruptedException {
+        if (mTim && (tim > 0)) {                                                                    // Original timing?
+            Thread.sleep(tim);                                                                      // Wait the recorded time
+        }
+    }
+
+    /**
+     * Returns the offset of a GET_CERTIFICATE Request
+     *
+     * @param   req The GET_CERTIFICATE Request
+     * @return  The offset of the requested segment
+     */
+    private static int getOfs(@NonNull byte[] req) {
+        return (req[2] & AppLib.BYT_UNS) | ((req[1] & 0xC0) << 2);                                  // Return the offset
+    }
+
+    /**
+     * Returns the length of a GET_CERTIFICATE Request
+     *
+     * @param   req The GET_CERTIFICATE Request
+     * @return  The length of the requested segment
+     */
+    private static int getLen(@NonNull byte[] req) {
+        return (req[3] & AppLib.BYT_UNS) | ((req[1] & 0x30) << 4);                                  // Return the length
+    }
+
+    /**
+     * Provides the received WPC Certification chain of the remote device
+     *
+     * @param   chn The WPC Certification Chain (not used for a replay)
+     */
+    @Override public void setChn(@NonNull WpcCrtChn chn) {}
+
+    /**
+     * Returns the recorded Response of the next recorded exchange with the same Request type
+     * The last exchange of a type is repeated, a GET_CERTIFICATE Request for other fragments than recorded is answered
+     * with the recorded Certificate Chain segments.
+     *
+     * @param   req The Qi Authentication Request
+     * @param   tim The timeout (not used for a replay)
+     * @return  The recorded Qi Authentication Response
+     * @throws  IOException in case the Request was not recorded
+     */
+    @Override public @NonNull byte[] sndMsg(@NonNull byte[] req, long tim) throws IOException {
+        final Queue<Xch> que = (req.length > 0) ? mQue.get(req[0] & MSK_TYP) : null;                // Get the exchanges of the Request type
+        final Xch xch = (que == null) ? null : (que.size() > 1) ? que.poll() : que.peek();          // Get the next exchange
+        if ((xch == null) || (xch.mRes == null)) {                                                  // No recorded Response?
+            throw new IOException("No recorded Response for " + Dbg.hexStr(req));                   // Report the diverged replay
+        }
+        mCnt++;                                                                                     // Count the replayed exchange
+        try {
+            dly(xch.mRes.mTim - xch.mReq.mTim);                                                     // Wait the recorded time of the Responder
+        } catch (InterruptedException err) {                                                        // Replay interrupted
+            Thread.currentThread().interrupt();                                                     // Keep the interrupt
+            throw new InterruptedIOException();                                                     // Report the interrupted exchange
+        }
+        if (Arrays.equals(req, xch.mReq.mDat)) {                                                    // Recorded Request?
+            mMat++;                                                                                 // Count the matching exchange
+            return xch.mRes.mDat.clone();                                                           // Return the recorded Response
+        }
+        if ((xch.getTyp() == WpcAthIni.REQ_CRT) && (req.length >= 4)) {                             // Other GET_CERTIFICATE fragment?
+            final int ofs = getOfs(req);                                                            // Get the requested offset
+            final int len = getLen(req);                                                            // Get the requested length
+            if ((len > 0) && (mCov.nextClearBit(ofs) >= ofs + len)) {                               // Segment recorded?
+                final @NonNull ByteBuffer buf = WpcAthIni.getMsg(WpcAthRsp.RES_CRT, len + WpcAthRsp.OFS_CHN);// Create CERTIFICATE Response
+                buf.put(mImg, ofs, len);                                                            // Add Certificate Chain Segment
+                mSyn++;                                                                             // Count the assembled Response
+                return buf.array();                                                                 // Return the CERTIFICATE Response
+            }
+        }
+        throw new IOException("Request differs from the recording: " + Dbg.hexStr(req));            // Report the diverged replay
+    }
+
+    /**
+     * Returns the maximum length of a Qi Authentication Response
+     *
+     * @return  The maximum length of the recorded CERTIFICATE Responses
+     */
+    @Override public int getMax() {
+        return mMax;                                                                                // Return the maximum Response length
+    }
+
+    /**
+     * Registers the result of the replayed Initiator
+     *
+     * @param   end The result of the Qi Authentication
+     */
+    @Override public void endAuth(final @NonNull AthEnd end) {
+        mErr = end;                                                                                 // Register the result
+    }
+
+    /**
+     * Returns the description of the last replay
+     *
+     * @return  The description of the replayed and matching exchanges and the durations
+     */
+    public @NonNull String getSta() {
+        final @NonNull String res;                                                                  // Result of the replay
+        if (mErr == null) {                                                                         // No Initiator result?
+            res = "";
+        } else if (mErr == AthEnd.OK) {                                                             // Successful Qi Authentication?
+            res = ", successful";
+        } else {                                                                                    // Unsuccessful Qi Authentication
+            res = (mErr == AthEnd.ERR_FAK) ? ", rejected" : ", error";
+        }
+        return String.format(Locale.US, "Replay %s: %d of %d exchanges, %d matching, %d assembled%s, %.2f ms (recorded %d ms)",
+                mMod, mCnt, mXch.size(), mMat, mSyn, res, mDur / 1e6, mLen);
+    }
+
+    /**
+     * Replays a saved log file to a new Initiator and optionally to an emulated device
+     * Usage: SesRpl log-file [emu-directory|zip device]
+     *
+     * @param   arg The log file, the directory or zip archive of the emulated devices and the device name
+     * @throws  IOException in case the log file or the device cannot be loaded
+     * @throws  InterruptedException in case the replay was interrupted
+     */
+    public static void main(@NonNull String[] arg) throws IOException, InterruptedException {
+        WpcCrt.init();                                                                              // Use the WPC Root Certificate of the plugfest
+        final @NonNull SesRpl rpl = load(new File(arg[0]));                                         // Load the log file
+        rpl.runIni(new CachBuf(1));                                                                 // Replay the Responses to an Initiator
+        System.out.println(rpl.getSta());                                                           // Print the result
+        if (arg.length > 2) {                                                                       // Device given?
+            final KeyRng.Dev dev = KeyRng.load(new File(arg[1])).get(arg[2]);                       // Get the emulated device
+            if (dev == null) {                                                                      // Device not available?
+                throw new IOException("No emulated device " + arg[2]);                              // Report the missing device
+            }
+            rpl.runRsp(dev.getRsp());                                                               // Replay the Requests to the device
+            System.out.println(rpl.getSta());                                                       // Print the result
+        }
+    }
+}
\ No newline at end of file
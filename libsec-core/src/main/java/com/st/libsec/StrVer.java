@@ -0,0 +1,383 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming verifier for large corpora of CHALLENGE / CHALLENGE_AUTH pairs
+ * Each line of the corpus contains a chain reference, the CHALLENGE Request and the CHALLENGE_AUTH Response (see
+ * CrpRec). The chain reference is either the WPC Certificate Chain in hexadecimal values or the name of a WPC text file
+ * relative to the corpus with the WPC Certificate Chain or a CERTIFICATE Response, like the files of the virtual
+ * plugfest. A line with only the chain reference verifies the WPC Certificate Chain.
+ * The corpus is read line by line, verified by a pool of threads and the verdicts are written in the order of the
+ * corpus as soon as they are available. Only a window of lines is in progress at any time, so the memory does not
+ * depend on the size of the corpus. Parsed and verified WPC Certificate Chains with their decoded public keys and the
+ * verdicts of the latest pairs are kept in bounded caches, so a repeated chain is verified only once and an identical
+ * pair is not verified again. The pairs are checked like the virtual plugfest does (see AthChk.chkHdr).
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class StrVer {
+
+    private static final String STD_IO = "-";                                                       // File name for the standard input or output
+    private static final int    MAX_WIN = 1024;                                                     // Default number of lines in progress
+    private static final int    CHN_CNT = 256;                                                      // Number of cached WPC Certificate Chains
+    private static final int    PAR_CNT = 4096;                                                     // Number of cached verdicts of pairs
+    private static final byte   HDR_CRT = (byte)((WpcAthIni.ATH_VER << 4) | WpcAthRsp.RES_CRT);     // Header of a CERTIFICATE Response
+
+    /**
+     * Parsed and verified WPC Certificate Chain
+     */
+    private static class Ent {
+        private final @NonNull byte[]   mDig;                                                       // Digest of the WPC Certificate Chain
+        private final @NonNull VerRes   mVer;                                                       // Verification result of the WPC Certificate Chain
+        private final @Nullable PublicKey mKey;                                                     // Decoded public key of a correct WPC Certificate Chain
+
+        /**
+         * Parses and verifies a WPC Certificate Chain
+         *
+         * @param   chn The WPC Certificate Chain
+         */
+        private Ent(@NonNull WpcCrtChn chn) {
+            mDig = chn.getDig();                                                                    // Calculate the Digest
+            mVer = chn.check();                                                                     // Verify the WPC Certificate Chain
+            mKey = mVer.isOk() ? chn.getPu().getPublicKey() : null;                                 // Decode the public key
+        }
+    }
+
+    /**
+     * Map which removes the least recently used entry when it is full
+     */
+    private static class Lru<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;                                            // Version of the serialized map
+        private final int mMax;                                                                     // Maximum number of entries
+
+        /**
+         * Creates the map
+         *
+         * @param   max The maximum number of entries
+         */
+        private Lru(int max) {
+            super(max, 0.75f, true);                                                                // Order the entries by their access
+            mMax = max;                                                                             // Register the maximum number of entries
+        }
+
+        @Override protected boolean removeEldestEntry(Map.Entry<K, V> ent) {
+            return size() > mMax;                                                                   // Remove the least recently used entry when full
+        }
+    }
+
+    private final @Nullable File                        mDir;                                       // Directory of the referenced WPC text files
+    private final int                                   mThr;                                       // Number of verification threads
+    private final int                                   mWin;                                       // Maximum number of lines in progress
+    private final @NonNull Semaphore                    mSem;                                       // Free places in the window
+    private final @NonNull String[]                     mRng;                                       // Verdicts of the window
+    private final @NonNull long[]                       mLin;                                       // Line numbers of the window
+    private final Lru<String, FutureTask<Ent>>          mChn = new Lru<>(CHN_CNT);                  // Parsed WPC Certificate Chains by their reference
+    private final Lru<ByteBuffer, VerRes>               mPar = new Lru<>(PAR_CNT);                  // Verdicts of the latest pairs
+    private final AtomicLong                            mPrs = new AtomicLong();                    // Number of parsed WPC Certificate Chains
+    private final AtomicLong                            mDup = new AtomicLong();                    // Number of identical pairs
+    private final Map<String, Long>                     mCnt = new TreeMap<>();                     // Number of records per verdict
+    private long                                        mTot;                                       // Number of records of the corpus
+    private boolean                                     mEnd;                                       // Flag for the completely read corpus
+    private volatile Exception                          mErr;                                       // Error of the writer
+
+    /**
+     * Creates the streaming verifier for one corpus
+     *
+     * @param   dir The directory of the referenced WPC text files or null for the working directory
+     * @param   thr The number of verification threads
+     * @param   win The maximum number of lines in progress
+     */
+    public StrVer(@Nullable File dir, int thr, int win) {
+        mDir = dir;                                                                                 // Register the directory
+        mThr = Math.max(1, thr);                                                                    // Register the number of threads
+        mWin = Math.max(1, win);                                                                    // Register the window size
+        mSem = new Semaphore(mWin);                                                                 // All places of the window are free
+        mRng = new String[mWin];                                                                    // Create the verdicts of the window
+        mLin = new long[mWin];                                                                      // Create the line numbers of the window
+    }
+
+    /**
+     * Verifies the corpus and writes the verdicts
+     * Each line of the verdicts contains the line number of a record and its verdict.
+     *
+     * @param   in  The reader of the corpus
+     * @param   out The writer of the verdicts
+     * @return  The report of the verification
+     * @throws  IOException in case the corpus cannot be read or the verdicts cannot be written
+     */
+    public @NonNull String run(@NonNull BufferedReader in, final @NonNull Writer out) throws IOException {
+        final long beg = System.nanoTime();                                                         // Get the start time
+        final @NonNull ExecutorService exe = Executors.newFixedThreadPool(mThr);                    // Verification threads
+        final @NonNull Thread wrt = new Thread(new Runnable() {
+            @Override public void run() {
+                write(out);                                                                         // Write the verdicts in the order of the corpus
+            }
+        }, "StrVer-Writer");
+        wrt.start();                                                                                // Start the writer
+        long seq = 0;                                                                               // Number of records
+        try {
+            String txt;                                                                             // Line of the corpus
+            for (long lin = 1; ((txt = in.readLine()) != null) && (mErr == null); lin++) {          // Repeat for all lines
+                if (CrpRec.getFld(txt) == null) {                                                   // Empty or comment line?
+                    continue;
+                }
+                mSem.acquire();                                                                     // Wait for a free place in the window
+                final int ind = (int)(seq++ % mWin);                                                // Get the place in the window
+                final @NonNull String rec = txt;                                                    // Record of the place
+                mLin[ind] = lin;                                                                    // Register the line number
+                exe.execute(new Runnable() {
+                    @Override public void run() {
+                        put(ind, verify(rec));                                                      // Verify the record
+                    }
+                });
+            }
+            synchronized (mRng) {
+                mTot = seq;                                                                         // Register the number of records
+                mEnd = true;                                                                        // Corpus completely read
+                mRng.notifyAll();                                                                   // Wake up the writer
+            }
+            wrt.join();                                                                             // Wait until all verdicts are written
+        } catch (InterruptedException err) {                                                        // Verification was interrupted
+            Thread.currentThread().interrupt();                                                     // Keep the interrupt state
+            wrt.interrupt();                                                                        // Stop the writer
+            throw new IOException("Verification interrupted", err);                                 // Report the interruption
+        } finally {
+            exe.shutdownNow();                                                                      // Stop the verification threads
+        }
+        if (mErr != null) {                                                                         // Verdicts not written?
+            throw new IOException("Cannot write verdicts", mErr);                                   // Report the error
+        }
+        final long tim = System.nanoTime() - beg;                                                   // Get the verification time
+        return String.format(Locale.US, "Streaming verifier: %d records, %d threads, window %d, %d chains parsed, "
+                + "%d identical pairs\nVerdicts %s\nTotal %.2f s, %.0f records/s", seq, mThr, mWin, mPrs.get(),
+                mDup.get(), mCnt, tim / 1e9, seq * 1e9 / Math.max(1, tim));
+    }
+
+    /**
+     * Registers the verdict of a place in the window
+     *
+     * @param   ind The place in the window
+     * @param   ver The verdict
+     */
+    private void put(int ind, @NonNull String ver) {
+        synchronized (mRng) {
+            mRng[ind] = ver;                                                                        // Register the verdict
+            mRng.notifyAll();                                                                       // Wake up the writer
+        }
+    }
+
+    /**
+     * Takes the verdict of a place in the window
+     *
+     * @param   ind The place in the window
+     * @param   seq The record number of the place
+     * @param   blk true to wait until the verdict is available
+     * @return  The verdict or null if it is not yet available or all verdicts are written
+     * @throws  InterruptedException in case the waiting was interrupted
+     */
+    private @Nullable String take(int ind, long seq, boolean blk) throws InterruptedException {
+        synchronized (mRng) {
+            while (blk && (mRng[ind] == null) && !(mEnd && (seq == mTot))) {                        // Repeat until the verdict is available
+                mRng.wait();                                                                        // Wait for the verdict
+            }
+            final String ver = mRng[ind];                                                           // Get the verdict
+            mRng[ind] = null;                                                                       // Free the place
+            return ver;                                                                             // Return the verdict
+        }
+    }
+
+    /**
+     * Writes the verdicts in the order of the corpus and frees their places in the window
+     * The written verdicts are flushed whenever the next verdict is not yet available.
+     *
+     * @param   out The writer of the verdicts
+     */
+    private void write(@NonNull Writer out) {
+        try {
+            for (long seq = 0; ; seq++) {                                                           // Repeat for all records
+                final int ind = (int)(seq % mWin);                                                  // Get the place in the window
+                String ver = take(ind, seq, false);                                                 // Get the verdict if available
+                if (ver == null) {                                                                  // Verdict not yet available?
+                    out.flush();                                                                    // Write the previous verdicts
+                    ver = take(ind, seq, true);                                                     // Wait for the verdict
+                }
+                if (ver == null) {                                                                  // All verdicts written?
+                    break;
+                }
+                out.write(mLin[ind] + " " + ver + "\n");                                            // Write the verdict
+                final Long cnt = mCnt.get(ver);                                                     // Get the number of records with this verdict
+                mCnt.put(ver, (cnt == null) ? 1 : cnt + 1);                                         // Count the verdict
+                mSem.release();                                                                     // Free the place in the window
+            }
+            out.flush();                                                                            // Write the last verdicts
+        } catch (IOException | InterruptedException err) {                                          // Verdicts cannot be written
+            mErr = err;                                                                             // Register the error
+            mSem.release(mWin);                                                                     // Release the reader
+        }
+    }
+
+    /**
+     * Verifies a record of the corpus
+     *
+     * @param   txt The record
+     * @return  The verdict
+     */
+    private @NonNull String verify(@NonNull String txt) {
+        try {
+            final String[] fld = CrpRec.split(txt);                                                 // Get the fields
+            if ((fld == null) || ((fld.length != 1) && (fld.length != 3))) {                        // Wrong number of fields?
+                return BatVer.RES_INV;                                                              // Report the malformed record
+            }
+            final @NonNull Ent ent = getChn(fld[0]);                                                // Get the WPC Certificate Chain
+            if ((fld.length == 1) || !ent.mVer.isOk()) {                                            // Chain only or wrong WPC Certificate Chain?
+                return ent.mVer.name();                                                             // Return the result of the chain
+            }
+            final @NonNull byte[] req = CrpRec.hex(fld[1]);                                         // Get the CHALLENGE Request
+            final @NonNull byte[] res = CrpRec.hex(fld[2]);                                         // Get the CHALLENGE_AUTH Response
+            final @NonNull ByteBuffer key = ByteBuffer.allocate(ent.mDig.length + req.length + res.length);// Key of the pair
+            key.put(ent.mDig).put(req).put(res).flip();                                             // Identify the pair by chain and messages
+            VerRes ver;                                                                             // Verdict of the pair
+            synchronized (mPar) {
+                ver = mPar.get(key);                                                                // Search the verdict of an identical pair
+            }
+            if (ver != null) {                                                                      // Identical pair already verified?
+                mDup.incrementAndGet();                                                             // Count the identical pair
+                return ver.name();                                                                  // Return the verdict
+            }
+            //noinspection ConstantConditions                                                       // Available for a correct WPC Certificate Chain
+            ver = AthChk.chkAth(ent.mDig, ent.mKey, req, res);                                      // Verify the pair
+            synchronized (mPar) {
+                mPar.put(key, ver);                                                                 // Cache the verdict
+            }
+            return ver.name();                                                                      // Return the verdict
+        } catch (RuntimeException err) {                                                            // Malformed record or chain reference
+            return BatVer.RES_INV;                                                                  // Report the malformed record
+        }
+    }
+
+    /**
+     * Returns a parsed and verified WPC Certificate Chain
+     * A chain reference is parsed only once, concurrent records with the same reference wait for the result.
+     *
+     * @param   ref The chain reference
+     * @return  The parsed and verified WPC Certificate Chain
+     * @throws  IllegalArgumentException in case the chain reference is malformed or cannot be read
+     */
+    private @NonNull Ent getChn(final @NonNull String ref) {
+        FutureTask<Ent> tsk;                                                                        // Parsing of the WPC Certificate Chain
+        boolean own = false;                                                                        // Flag for a new parsing
+        synchronized (mChn) {
+            tsk = mChn.get(ref);                                                                    // Search the parsed chain
+            if (tsk == null) {                                                                      // Chain not yet parsed?
+                tsk = new FutureTask<>(new Callable<Ent>() {
+                    @Override public Ent call() throws IOException {
+                        mPrs.incrementAndGet();                                                     // Count the parsed chain
+                        return new Ent(new WpcCrtChn(read(ref)));                                   // Parse and verify the chain
+                    }
+                });
+                mChn.put(ref, tsk);                                                                 // Register the parsing
+                own = true;                                                                         // Parse the chain in this thread
+            }
+        }
+        if (own) {                                                                                  // New parsing?
+            tsk.run();                                                                              // Parse the chain
+        }
+        try {
+            return tsk.get();                                                                       // Return the parsed chain
+        } catch (ExecutionException err) {                                                          // Chain cannot be parsed
+            throw new IllegalArgumentException("Wrong chain reference " + ref, err.getCause());     // Report the malformed reference
+        } catch (InterruptedException err) {                                                        // Waiting was interrupted
+            Thread.currentThread().interrupt();                                                     // Keep the interrupt state
+            throw new IllegalStateException("Parsing interrupted", err);                            // Report the interruption
+        }
+    }
+
+    /**
+     * Reads the WPC Certificate Chain of a chain reference
+     *
+     * @param   ref The chain reference
+     * @return  The WPC Certificate Chain
+     * @throws  IOException in case the referenced WPC text file cannot be read
+     */
+    private @NonNull byte[] read(@NonNull String ref) throws IOException {
+        final @NonNull File fil = new File(mDir, ref);                                              // Referenced WPC text file
+        if (!fil.isFile()) {                                                                        // No WPC text file?
+            return CrpRec.hex(ref);                                                                 // Return the WPC Certificate Chain of the reference
+        }
+        final @NonNull byte[] dat = new WpcFil(fil).read();                                         // Read the WPC text file
+        if ((dat.length > 0) && (dat[0] == HDR_CRT)) {                                              // CERTIFICATE Response?
+            return Arrays.copyOfRange(dat, WpcAthRsp.OFS_CHN, dat.length);                          // Return the WPC Certificate Chain of the Response
+        }
+        return dat;                                                                                 // Return the WPC Certificate Chain
+    }
+
+    /**
+     * Verifies a corpus of CHALLENGE / CHALLENGE_AUTH pairs
+     * Usage: StrVer corpus|- verdicts|- [threads [window]]
+     *
+     * @param   arg The corpus, the verdict file, the number of threads and the number of lines in progress
+     * @throws  IOException in case the corpus cannot be read or the verdicts cannot be written
+     */
+    public static void main(@NonNull String[] arg) throws IOException {
+        WpcCrt.init();                                                                              // Use the WPC Root Certificate of the plugfest
+        WpcLog.setQui(true);                                                                        // Switch off the communication log
+        final boolean std = arg[1].equals(STD_IO);                                                  // Verdicts to the standard output?
+        final int thr = (arg.length > 2) ? Integer.parseInt(arg[2]) : Runtime.getRuntime().availableProcessors();// Get the number of threads
+        final int win = (arg.length > 3) ? Integer.parseInt(arg[3]) : MAX_WIN;                      // Get the window size
+        final File dir = arg[0].equals(STD_IO) ? null : new File(arg[0]).getAbsoluteFile().getParentFile();// Get the directory of the referenced files
+        final @NonNull InputStream is = (dir == null) ? System.in : new FileInputStream(arg[0]);    // Open the corpus
+        final @NonNull OutputStream os = std ? System.out : new FileOutputStream(arg[1]);           // Create the verdict file
+        final @NonNull BufferedReader in = new BufferedReader(new InputStreamReader(is, AppLib.CHR_ASC));// Get the reader of the corpus
+        final @NonNull Writer out = new BufferedWriter(new OutputStreamWriter(os, AppLib.CHR_ASC)); // Get the writer of the verdicts
+        //noinspection TryFinallyCanBeTryWithResources                                              // Not usable below Android 19
+        try {
+            final @NonNull String rep = new StrVer(dir, thr, win).run(in, out);                     // Verify the corpus
+            (std ? System.err : System.out).println(rep);                                           // Print the report
+        } finally {
+            in.close();                                                                             // Close the corpus
+            out.close();                                                                            // Close the verdict file
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,508 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless verification daemon for WPC Certificate Chains and CHALLENGE / CHALLENGE_AUTH pairs
+ * Test stations send length prefixed binary requests over a Unix-domain socket or a TCP port and receive one verdict
+ * per request. The requests are queued and verified in batches by a pool of workers, a WPC Certificate Chain used
+ * by several requests is verified only once and successfully verified chains are kept in a cache.
+ * The queue admits a limited number of requests, further requests are answered immediately as busy. A connection is
+ * not read while its number of pending requests reaches the limit, so a fast station is slowed down by the socket
+ * instead of filling the queue.
+ *
+ * Each frame is preceded by its length as unsigned short. A request consists of the identifier (int), the type
+ * (byte) and the data:
+ * TYP_CHN  the WPC Certificate Chain
+ * TYP_ATH  the length of the WPC Certificate Chain (unsigned short), the WPC Certificate Chain, the CHALLENGE Request
+ *          and the CHALLENGE_AUTH Response
+ * TYP_STA  no data
+ * A verdict consists of the identifier (int), the result (byte) and the latency in microseconds (int). The result is
+ * the ordinal of VerRes, RES_INV for a malformed request or RES_BSY for a request not admitted. The verdict of a
+ * TYP_STA request contains the statistics text instead of the latency.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class VerDmn implements Runnable, Closeable {
+
+    /** Request type for the statistics */
+    public static final int TYP_STA = 0x00;
+
+    /** Request type for a WPC Certificate Chain */
+    public static final int TYP_CHN = 0x01;
+
+    /** Request type for a CHALLENGE / CHALLENGE_AUTH pair with its WPC Certificate Chain */
+    public static final int TYP_ATH = 0x02;
+
+    /** Result of a malformed request */
+    public static final int RES_INV = 0xFE;
+
+    /** Result of a request which was not admitted */
+    public static final int RES_BSY = 0xFF;
+
+    /** Length of the request header with identifier (int) and type (byte) */
+    public static final int HDR_REQ = 5;
+
+    private static final int    INT_SIZ = 4;                                                        // Size of an integer
+    private static final int    MAX_QUE = 4096;                                                     // Default number of queued requests
+    private static final int    MAX_PND = 256;                                                      // Maximum number of pending requests per connection
+    private static final int    BAT_SIZ = 64;                                                       // Maximum number of requests verified in one batch
+    private static final int    CACH_SIZ = 64;                                                      // Number of cached verified WPC Certificate Chains
+    private static final int    LAT_CNT = 8192;                                                     // Number of latencies kept for the percentiles
+
+    /**
+     * Connection to a test station
+     */
+    private static class Con {
+        private final @NonNull SocketChannel    mChn;                                               // Socket to the test station
+        private final @NonNull SckCom.Rdr       mRdr = new SckCom.Rdr();                            // Reader for the received requests
+        private final Queue<ByteBuffer>         mOut = new ConcurrentLinkedQueue<>();               // Verdicts to be written
+        private final AtomicInteger             mPnd = new AtomicInteger();                         // Number of pending requests
+        private SelectionKey                    mKey;                                               // Registration of the socket
+
+        /**
+         * Creates a connection
+         *
+         * @param   chn The socket to the test station
+         */
+        private Con(@NonNull SocketChannel chn) {
+            mChn = chn;                                                                             // Register the socket
+        }
+    }
+
+    /**
+     * Admitted request
+     */
+    private static class Req {
+        private final @NonNull Con      mCon;                                                       // Connection of the request
+        private final @NonNull byte[]   mDat;                                                       // Received frame
+        private final long              mRcv;                                                       // Receive time of the request [ns]
+
+        /**
+         * Creates an admitted request
+         *
+         * @param   con The connection
+         * @param   dat The received frame
+         * @param   rcv The receive time in nanoseconds
+         */
+        private Req(@NonNull Con con, @NonNull byte[] dat, long rcv) {
+            mCon = con;                                                                             // Register the connection
+            mDat = dat;                                                                             // Register the frame
+            mRcv = rcv;                                                                             // Register the receive time
+        }
+    }
+
+    private final @Nullable File                mFil;                                               // File of the Unix-domain socket or null for a TCP port
+    private final @NonNull ServerSocketChannel  mSrv;                                               // Server socket
+    private final @NonNull Selector             mSel;                                               // Selector of the sockets
+    private final @NonNull BlockingQueue<Req>   mQue;                                               // Admitted requests
+    private final int                           mWrk;                                               // Number of workers
+    private final @NonNull AthChk               mChk = new AthChk(CACH_SIZ);                        // Checker with the verified WPC Certificate Chains
+    private final Queue<Con>                    mWrt = new ConcurrentLinkedQueue<>();               // Connections with verdicts to be written
+    private final long[]                        mLat = new long[LAT_CNT];                           // Latest latencies [ns]
+    private final AtomicLong                    mReq = new AtomicLong();                            // Number of verified requests
+    private final AtomicLong                    mOk = new AtomicLong();                             // Number of successful verifications
+    private final AtomicLong                    mInv = new AtomicLong();                            // Number of malformed requests
+    private final AtomicLong                    mBsy = new AtomicLong();                            // Number of requests not admitted
+    private final AtomicLong                    mBat = new AtomicLong();                            // Number of verified batches
+    private volatile int                        mMax;                                               // Maximum number of queued requests, read by getSta()
+    private long                                mCnt;                                               // Number of registered latencies
+    private volatile boolean                    mEnd;                                               // Flag to stop the daemon
+
+    /**
+     * Creates the daemon and binds its address
+     *
+     * @param   adr The address as "unix:path" or "tcp:port"
+     * @param   wrk The number of workers
+     * @param   que The maximum number of queued requests
+     * @throws  IOException in case the address cannot be bound
+     */
+    public VerDmn(@NonNull String adr, int wrk, int que) throws IOException {
+        mWrk = Math.max(1, wrk);                                                                    // Register the number of workers
+        mQue = new ArrayBlockingQueue<>(Math.max(1, que));                                          // Create the queue of admitted requests
+        mFil = SckCom.getFil(adr);                                                                  // Get the file of a Unix-domain socket
+        if ((mFil != null) && mFil.exists() && !mFil.delete()) {                                    // Stale socket file cannot be deleted?
+            throw new IOException("Cannot delete " + mFil);                                         // Report the stale socket file
+        }
+        mSrv = SckCom.opnSrv(SckCom.getAdr(adr));                                                   // Bind the address
+        mSrv.configureBlocking(false);                                                              // Use the non-blocking mode
+        mSel = Selector.open();                                                                     // Create the selector
+        mSrv.register(mSel, SelectionKey.OP_ACCEPT);                                                // Wait for connections
+    }
+
+    /**
+     * Executes the selector loop and the workers until the daemon is closed
+     */
+    @Override public void run() {
+        final @NonNull ExecutorService exe = Executors.newFixedThreadPool(mWrk);                    // Workers verifying the batches
+        for (int ind = 0; ind < mWrk; ind++) {                                                      // Repeat for all workers
+            exe.execute(new Runnable() {
+                @Override public void run() {
+                    wrk();                                                                          // Verify the queued requests
+                }
+            });
+        }
+        try {
+            while (!mEnd) {                                                                         // Repeat until the daemon is closed
+                mSel.select();                                                                      // Wait for socket events
+                Con con;                                                                            // Connection with verdicts to be written
+                while ((con = mWrt.poll()) != null) {                                               // Repeat for all connections with verdicts to be written
+                    ops(con);                                                                       // Wait until the socket accepts the verdicts
+                }
+                final Iterator<SelectionKey> itr = mSel.selectedKeys().iterator();                  // Get the socket events
+                while (itr.hasNext()) {                                                             // Repeat for all socket events
+                    final @NonNull SelectionKey key = itr.next();                                   // Get the socket event
+                    itr.remove();                                                                   // Consume the socket event
+                    try {
+                        if (key.isAcceptable()) {                                                   // Connection requested?
+                            acc();                                                                  // Accept the connection
+                            continue;
+                        }
+                        if (key.isReadable()) {                                                     // Bytes received?
+                            red((Con)key.attachment());                                             // Read the requests
+                        }
+                        if (key.isValid() && key.isWritable()) {                                    // Socket accepts bytes?
+                            wrt((Con)key.attachment());                                             // Write the verdicts
+                        }
+                    } catch (IOException err) {                                                     // Connection closed or broken
+                        cls((Con)key.attachment());                                                 // Close the connection
+                    }
+                }
+            }
+        } catch (IOException err) {                                                                 // Selector failed
+            Dbg.log("Verification daemon failed", err);                                             // Log the error
+        } finally {
+            exe.shutdownNow();                                                                      // Stop the workers
+            for (SelectionKey key : mSel.keys()) {                                                  // Repeat for all sockets
+                try {
+                    key.channel().close();                                                          // Close the socket
+                } catch (IOException err) {                                                         // Socket cannot be closed
+                    Dbg.log("Cannot close socket", err);                                            // Log the error
+                }
+            }
+            try {
+                mSel.close();                                                                       // Close the selector
+            } catch (IOException err) {                                                             // Selector cannot be closed
+                Dbg.log("Cannot close selector", err);                                              // Log the error
+            }
+            if ((mFil != null) && !mFil.delete()) {                                                 // Socket file cannot be deleted?
+                Dbg.log("Cannot delete " + mFil);                                                   // Log the error
+            }
+        }
+    }
+
+    /**
+     * Stops the daemon, the selector loop closes all sockets
+     */
+    @Override public void close() {
+        mEnd = true;                                                                                // Stop the selector loop
+        mSel.wakeup();                                                                              // Wake up the selector loop
+    }
+
+    /**
+     * Returns the statistics of the daemon
+     *
+     * @return  The description of the requests, batches and latency percentiles
+     */
+    public @NonNull String getSta() {
+        final long[] lat;                                                                           // Latest latencies
+        synchronized (mLat) {
+            lat = Arrays.copyOf(mLat, (int)Math.min(mCnt, LAT_CNT));                                // Copy the latest latencies
+        }
+        final long req = mReq.get();                                                                // Number of verified requests
+        return String.format(Locale.US, "Verification daemon: %d requests, %d successful, %d failed, %d invalid, "
+                + "%d busy, %d batches avg %.1f, %d chains verified, queue max %d\nLatency %s", req, mOk.get(),
+                req - mOk.get() - mInv.get(), mInv.get(), mBsy.get(), mBat.get(), req / Math.max(1.0, mBat.get()),
+                mChk.getChk(), mMax, (lat.length > 0) ? LodGen.getPct(lat) : "(0)");
+    }
+
+    /**
+     * Accepts a connection
+     *
+     * @throws  IOException in case the connection cannot be registered
+     */
+    private void acc() throws IOException {
+        final SocketChannel chn = mSrv.accept();                                                    // Accept the connection
+        if (chn == null) {                                                                          // No connection pending?
+            return;
+        }
+        chn.configureBlocking(false);                                                               // Use the non-blocking mode
+        final @NonNull Con con = new Con(chn);                                                      // Create the connection
+        con.mKey = chn.register(mSel, SelectionKey.OP_READ, con);                                   // Wait for received requests
+    }
+
+    /**
+     * Reads and admits the received requests of a connection
+     * The connection is not read further while its number of pending requests reaches the limit.
+     *
+     * @param   con The connection
+     * @throws  IOException in case the connection was closed
+     */
+    private void red(@NonNull Con con) throws IOException {
+        byte[] frm;                                                                                 // Received request
+        while ((con.mPnd.get() < MAX_PND) && ((frm = con.mRdr.read(con.mChn)) != null)) {           // Repeat for all complete requests
+            final long rcv = System.nanoTime();                                                     // Get the receive time
+            if (frm.length < HDR_REQ) {                                                             // Request too short?
+                throw new IOException("Invalid request");                                           // Close the connection
+            }
+            con.mPnd.incrementAndGet();                                                             // Count the pending request
+            if (!mQue.offer(new Req(con, frm, rcv))) {                                              // Queue full?
+                mBsy.incrementAndGet();                                                             // Count the request not admitted
+                snd(con, frm, RES_BSY, 0);                                                          // Answer the request as busy
+                continue;
+            }
+            final int siz = mQue.size();                                                            // Get the queue size
+            if (siz > mMax) {                                                                       // New maximum?
+                mMax = siz;                                                                         // Register the maximum queue size
+            }
+        }
+        ops(con);                                                                                   // Suspend the reading if the limit is reached
+    }
+
+    /**
+     * Verifies the admitted requests in batches until the daemon is closed
+     */
+    private void wrk() {
+        final @NonNull List<Req> bat = new ArrayList<>(BAT_SIZ);                                    // Actual batch
+        try {
+            while (!mEnd) {                                                                         // Repeat until the daemon is closed
+                bat.add(mQue.take());                                                               // Wait for the first request of the batch
+                mQue.drainTo(bat, BAT_SIZ - 1);                                                     // Add the further queued requests
+                final @NonNull Map<ByteBuffer, VerRes> chk = new HashMap<>();                       // Verification results of the chains in the batch
+                for (Req req : bat) {                                                               // Repeat for all requests of the batch
+                    prc(req, chk);                                                                  // Verify the request
+                }
+                mBat.incrementAndGet();                                                             // Count the batch
+                bat.clear();                                                                        // Start the next batch
+            }
+        } catch (InterruptedException err) {                                                        // Daemon closed
+            Dbg.log("Verification worker stopped");                                                 // Log the end of the worker
+        }
+    }
+
+    /**
+     * Verifies a request and sends its verdict
+     *
+     * @param   req The request
+     * @param   chk The verification results of the chains in the batch by their Digest
+     */
+    private void prc(@NonNull Req req, @NonNull Map<ByteBuffer, VerRes> chk) {
+        final @NonNull ByteBuffer buf = ByteBuffer.wrap(req.mDat);                                  // Get the request
+        buf.position(INT_SIZ);                                                                      // Skip the identifier
+        final int typ = buf.get() & AppLib.BYT_UNS;                                                 // Get the request type
+        if (typ == TYP_STA) {                                                                       // Statistics requested?
+            sndSta(req);                                                                            // Send the statistics
+            return;
+        }
+        int res;                                                                                    // Result of the verification
+        try {
+            res = ver(typ, buf, chk);                                                               // Verify the request
+        } catch (RuntimeException err) {                                                            // Malformed WPC Certificate Chain
+            res = RES_INV;                                                                          // Report the malformed request
+        }
+        mReq.incrementAndGet();                                                                     // Count the verified request
+        mOk.addAndGet((res == VerRes.OK.ordinal()) ? 1 : 0);                                        // Count the successful verification
+        mInv.addAndGet((res == RES_INV) ? 1 : 0);                                                   // Count the malformed request
+        final long lat = System.nanoTime() - req.mRcv;                                              // Get the latency
+        synchronized (mLat) {
+            mLat[(int)(mCnt++ % LAT_CNT)] = lat;                                                    // Register the latency
+        }
+        snd(req.mCon, req.mDat, res, (int)Math.min(lat / 1000, Integer.MAX_VALUE));                 // Send the verdict
+    }
+
+    /**
+     * Verifies the data of a request
+     *
+     * @param   typ The request type
+     * @param   buf The request positioned at the data
+     * @param   chk The verification results of the chains in the batch by their Digest
+     * @return  The ordinal of the verification result or RES_INV
+     */
+    private int ver(int typ, @NonNull ByteBuffer buf, @NonNull Map<ByteBuffer, VerRes> chk) {
+        switch (typ) {                                                                              // Analyse the request type
+            case TYP_CHN:                                                                           // WPC Certificate Chain
+                final @NonNull byte[] dat = Arrays.copyOfRange(buf.array(), buf.position(), buf.limit());// Get the WPC Certificate Chain
+                return verChn(new WpcCrtChn(dat), chk).ordinal();                                   // Return the result of the chain
+            case TYP_ATH:                                                                           // CHALLENGE / CHALLENGE_AUTH pair
+                final int len = (buf.remaining() >= AppLib.SHT_SIZ) ? buf.getShort() & AppLib.SHT_UNS : -1;// Get the length of the WPC Certificate Chain
+                if ((len < 0) || (buf.remaining() != len + AthChk.LEN_REQ + AthChk.LEN_RES)) {      // Wrong request length?
+                    return RES_INV;                                                                 // Report the malformed request
+                }
+                final @NonNull byte[] bch = new byte[len];                                          // WPC Certificate Chain
+                final @NonNull byte[] req = new byte[AthChk.LEN_REQ];                               // CHALLENGE Request
+                final @NonNull byte[] res = new byte[AthChk.LEN_RES];                               // CHALLENGE_AUTH Response
+                buf.get(bch).get(req).get(res);                                                     // Split the data
+                final @NonNull WpcCrtChn chn = new WpcCrtChn(bch);                                  // Get the WPC Certificate Chain
+                return mChk.chkAth(chn, verChn(chn, chk), req, res).ordinal();                      // Return the result of the pair
+            default:                                                                                // Unknown request type
+                return RES_INV;                                                                     // Report the malformed request
+        }
+    }
+
+    /**
+     * Verifies a WPC Certificate Chain once per batch unless it is already cached as verified
+     *
+     * @param   chn The WPC Certificate Chain
+     * @param   chk The verification results of the chains in the batch by their Digest
+     * @return  The verification result
+     */
+    private @NonNull VerRes verChn(@NonNull WpcCrtChn chn, @NonNull Map<ByteBuffer, VerRes> chk) {
+        final @NonNull ByteBuffer key = ByteBuffer.wrap(chn.getDig());                              // Get the key of the chain
+        VerRes res = chk.get(key);                                                                  // Search the result in the batch
+        if (res != null) {                                                                          // Chain already verified in the batch?
+            return res;                                                                             // Return the result
+        }
+        res = mChk.chkChn(chn);                                                                     // Verify the chain unless it is cached
+        chk.put(key, res);                                                                          // Register the result in the batch
+        return res;                                                                                 // Return the result
+    }
+
+    /**
+     * Queues the verdict of a request to be written by the selector loop
+     *
+     * @param   con The connection
+     * @param   req The request
+     * @param   res The result
+     * @param   lat The latency in microseconds
+     */
+    private void snd(@NonNull Con con, @NonNull byte[] req, int res, int lat) {
+        final @NonNull ByteBuffer buf = ByteBuffer.allocate(HDR_REQ + INT_SIZ);                     // Create the verdict
+        buf.put(req, 0, INT_SIZ).put((byte)res).putInt(lat);                                        // Add identifier, result and latency
+        snd(con, buf.array());                                                                      // Queue the verdict
+    }
+
+    /**
+     * Queues the statistics as verdict of a request
+     *
+     * @param   req The request
+     */
+    private void sndSta(@NonNull Req req) {
+        final @NonNull byte[] txt = getSta().getBytes(AppLib.CHR_ISO);                              // Get the statistics
+        final @NonNull ByteBuffer buf = ByteBuffer.allocate(HDR_REQ + txt.length);                  // Create the verdict
+        buf.put(req.mDat, 0, INT_SIZ).put((byte)VerRes.OK.ordinal()).put(txt);                      // Add identifier, result and statistics
+        snd(req.mCon, buf.array());                                                                 // Queue the verdict
+    }
+
+    /**
+     * Queues a verdict to be written by the selector loop
+     *
+     * @param   con The connection
+     * @param   frm The verdict
+     */
+    private void snd(@NonNull Con con, @NonNull byte[] frm) {
+        con.mOut.add(SckCom.frm(frm));                                                              // Queue the verdict with its length
+        con.mPnd.decrementAndGet();                                                                 // The request is no longer pending
+        mWrt.add(con);                                                                              // Register the connection for writing
+        mSel.wakeup();                                                                              // Wake up the selector loop
+    }
+
+    /**
+     * Writes the queued verdicts of a connection
+     *
+     * @param   con The connection
+     * @throws  IOException in case the connection was closed
+     */
+    private void wrt(@NonNull Con con) throws IOException {
+        ByteBuffer buf;                                                                             // Queued verdict
+        while ((buf = con.mOut.peek()) != null) {                                                   // Repeat for all queued verdicts
+            con.mChn.write(buf);                                                                    // Write the verdict
+            if (buf.hasRemaining()) {                                                               // Socket buffer full?
+                return;                                                                             // Wait until the socket accepts more bytes
+            }
+            con.mOut.poll();                                                                        // Remove the written verdict
+        }
+        ops(con);                                                                                   // Wait for received requests
+    }
+
+    /**
+     * Registers the socket events of a connection
+     * The connection is read while the limit of pending requests is not reached and written while verdicts are queued.
+     *
+     * @param   con The connection
+     */
+    private void ops(@NonNull Con con) {
+        if (con.mKey.isValid()) {                                                                   // Connection still open?
+            final int red = (con.mPnd.get() < MAX_PND) ? SelectionKey.OP_READ : 0;                  // Read while requests can be admitted
+            final int wrt = con.mOut.isEmpty() ? 0 : SelectionKey.OP_WRITE;                         // Write while verdicts are queued
+            con.mKey.interestOps(red | wrt);                                                        // Register the socket events
+        }
+    }
+
+    /**
+     * Closes a connection
+     *
+     * @param   con The connection
+     */
+    private void cls(@Nullable Con con) {
+        if (con == null) {                                                                          // Server socket failed?
+            return;
+        }
+        con.mKey.cancel();                                                                          // Stop the registration
+        try {
+            con.mChn.close();                                                                       // Close the socket
+        } catch (IOException err) {                                                                 // Socket cannot be closed
+            Dbg.log("Cannot close socket", err);                                                    // Log the error
+        }
+    }
+
+    /**
+     * Serves the verification requests of test stations until the process is stopped
+     * Usage: VerDmn address [workers [queue]]
+     *
+     * @param   arg The address, the number of workers and the maximum number of queued requests
+     * @throws  IOException in case the address cannot be bound
+     */
+    public static void main(@NonNull String[] arg) throws IOException {
+        WpcCrt.init();                                                                              // Use the WPC Root Certificate of the plugfest
+        WpcLog.setQui(true);                                                                        // Switch off the communication log
+        final int wrk = (arg.length > 1) ? Integer.parseInt(arg[1]) : Runtime.getRuntime().availableProcessors();// Get the number of workers
+        final int que = (arg.length > 2) ? Integer.parseInt(arg[2]) : MAX_QUE;                      // Get the maximum number of queued requests
+        final @NonNull VerDmn dmn = new VerDmn(arg[0], wrk, que);                                   // Bind the address
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override public void run() {
+                System.out.println(dmn.getSta());                                                   // Print the statistics when the process is stopped
+            }
+        });
+        System.out.println("Verifying at " + arg[0] + " with " + wrk + " workers");                 // Inform about the daemon
+        dmn.run();                                                                                  // Execute the selector loop
+    }
+}
\ No newline at end of file
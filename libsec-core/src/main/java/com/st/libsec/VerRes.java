@@ -0,0 +1,72 @@
+package com.st.libsec;
+
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+
+/**
+ * Verification result of the WPC cryptographic checks
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public enum VerRes {
+    OK,                                                                                             // Successful verification
+    ERR_KEY,                                                                                        // Invalid public key
+    ERR_SIG,                                                                                        // Wrong signature
+    ERR_LEN,                                                                                        // Inconsistent length of the Certificate Chain
+    ERR_CNT,                                                                                        // Not enough Certificates in the Certificate Chain
+    ERR_ROOT,                                                                                       // Unknown Root Certificate
+    ERR_MAN,                                                                                        // No Manufacturer code in the Manufacturer Certificate
+    ERR_IID,                                                                                        // Wrong Issuer identifier
+    ERR_TYP,                                                                                        // Wrong Certificate type
+    ERR_VER,                                                                                        // Wrong WPC Certificate version
+    ERR_MSG,                                                                                        // Wrong version or message type of CHALLENGE or CHALLENGE_AUTH
+    ERR_SLT,                                                                                        // Wrong maximum version or Slots Populated Mask
+    ERR_LSB;                                                                                        // Wrong Certificate Chain Hash LSB
+
+    /**
+     * Informs if the verification was successful
+     *
+     * @return  true if the verification was successful, otherwise false
+     */
+    public boolean isOk() {
+        return this == OK;                                                                          // Return the verification state
+    }
+
+    /**
+     * Raises the exception corresponding to this verification result
+     * Used by the exception based verification methods
+     *
+     * @throws  CertificateException when the Certificate format is incorrect
+     * @throws  InvalidKeyException when the public key is invalid
+     * @throws  SignatureException when a signature is not correct
+     */
+    void chk() throws CertificateException, InvalidKeyException, SignatureException {
+        switch (this) {                                                                             // Analyze the verification result
+            case OK: return;                                                                        // Successful verification
+            case ERR_KEY: throw new InvalidKeyException();                                          // Invalid public key
+            case ERR_SIG:                                                                           // Wrong signature
+            case ERR_MSG:                                                                           // Wrong message header
+            case ERR_SLT:                                                                           // Wrong Slots Populated Mask
+            case ERR_LSB:                                                                           // Wrong Certificate Chain Hash LSB
+            case ERR_ROOT: throw new SignatureException();                                          // Unknown Root Certificate
+            case ERR_VER: throw new CertificateEncodingException("Wrong WPC Certificate version");  // Wrong WPC Certificate version
+            default: throw new CertificateException();                                              // Wrong Certificate format
+        }
+    }
+}
\ No newline at end of file
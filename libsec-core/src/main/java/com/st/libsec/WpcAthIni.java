@@ -0,0 +1,927 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * WPC Authentication Initiator class
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class WpcAthIni implements Runnable, WpcComAsy.ResLst {
+
+    /** Qi Authentication Protocol Version */
+    static final int ATH_VER = 1;
+
+    /** Offset for Nonce in CHALLENGE Request */
+    public static final int OFS_RND = 2;
+
+    /** Message type for CHALLENGE request */
+    static final int REQ_ATH = 0x0B;
+
+    /** Message type for GET_CERTIFICATE request */
+    static final int REQ_CRT = 0x0A;
+
+    /** Message type for GET_DIGEST request */
+    static final int REQ_DIG = 0x09;
+
+    /** Size for Nonce in CHALLENGE request message */
+    public static final int RND_SIZ = 16;
+
+    /** Number for Slot 0 */
+    static final byte SLOT_0 = 0;
+
+    /** Mask for Slot 0 */
+    static final byte SLOT_MSK = 1;
+
+    /** Mask for all Slots */
+    static final byte SLOT_ALL = 0x0F;
+
+    /** Number of Slots */
+    public static final int SLOT_CNT = 4;
+
+    /** Protocol flows according section 7 of Qi Authentication Protocol */
+    public enum FlwTyp {
+        SMPL,                                                                                       // Simple flow according section 7.1 of Qi Authentication Protocol
+        CACH,                                                                                       // Flow with caching according section 7.2 of Qi Authentication Protocol
+        ATH1,                                                                                       // Challenge first flow according section 7.4 of Qi Authentication Protocol
+        AUTO                                                                                        // Flow selected per Qi Authentication by the expected latency
+    }
+
+    private static final FlwSel     FLW_SEL = new FlwSel();                                         // Selector for the adaptive flow learning the device history
+    private final CachBuf   mCach;                                                                  // WPC Certificate Chain cache
+    private final WpcComAsy mCom;                                                                   // WPC communication interface
+    private final WpcCom    mSyn;                                                                   // Blocking WPC communication interface or null for asynchronous communication
+    private final CountDownLatch mDon = new CountDownLatch(1);                                      // Signal for the finished Qi Authentication
+    private FlwTyp          mFlw;                                                                   // Chosen Qi Authentication flow
+    private volatile Stt    mStt;                                                                   // State of the Qi Authentication
+    private boolean         mAut;                                                                   // Flag for an adaptive selected flow
+    private boolean         mMis;                                                                   // Flag for a WPC Certificate Chain missing in the cache
+    private WpcCrtChn       mChn;                                                                   // WPC Certificate Chain of the authenticated device
+    private byte            mSlt = SLOT_0;                                                          // Slot used for the Qi Authentication
+    private long            mBeg;                                                                   // Start time of the Qi Authentication [ns]
+    private AthDln          mDln;                                                                   // Deadline of the Qi Authentication
+    private long            mTmo;                                                                   // Timeout of the pending exchange [ms]
+    private double          mEst;                                                                   // Expected latency of the flow [ms]
+    private int             mTyp;                                                                   // Expected Qi Authentication Response type
+    private int             mLen;                                                                   // Length of the pending Qi Authentication Request
+    private long            mTim;                                                                   // Start time of the pending exchange [ns]
+    private FlwSel          mSel = FLW_SEL;                                                         // Selector for the adaptive flow
+    private FrgPln          mPln = new FrgPln();                                                    // Planner for the GET_CERTIFICATE fragments, private unless the link provides its own
+    private LnkSim          mSim;                                                                   // Link simulator providing the virtual clock or null for the real time
+    private boolean         mRpl;                                                                   // Flag for a replayed session
+    private byte[]          mNon;                                                                   // Nonce of the CHALLENGE Request or null for a random Nonce
+    private ByteBuffer      mAth;                                                                   // Sent CHALLENGE Request
+    private byte[]          mAthRes;                                                                // Received CHALLENGE_AUTH Response of the challenge first flow
+    private ChnAsm          mAsm;                                                                   // Assembler for the received WPC Certificate Chain
+    private int[]           mFrg;                                                                   // Planned GET_CERTIFICATE fragments
+    private int             mCnt;                                                                   // Number of received fragments
+    private int             mOfs;                                                                   // Offset of the next GET_CERTIFICATE Request
+    private int             mMax;                                                                   // Maximum length of a Qi Authentication Response
+    private int             mTot;                                                                   // Total length of the received WPC Certificate Chain
+    private long            mTrn;                                                                   // Start time of the Certificate Chain transfer [ns]
+    private byte[]          mVer;                                                                   // CHALLENGE_AUTH Response waiting for the verification of the WPC Certificate Chain
+    private ByteBuffer      mReq;                                                                   // GET_CERTIFICATE Request reused for all fragments
+    private volatile Future<?> mJoin;                                                               // Budget for the verification of the WPC Certificate Chain
+
+    /** States of the Qi Authentication Initiator waiting for a Qi Authentication Response */
+    private enum Stt {
+        DIG,                                                                                        // Waiting for the DIGESTS Response
+        CRT,                                                                                        // Waiting for a CERTIFICATE Response
+        ATH,                                                                                        // Waiting for the CHALLENGE_AUTH Response to finish the authentication
+        ATH1,                                                                                       // Waiting for the CHALLENGE_AUTH Response of the challenge first flow
+        VER,                                                                                        // Waiting for the verification of the received WPC Certificate Chain
+        END                                                                                         // Qi Authentication finished
+    }
+
+    /**
+     * Adapter from the blocking to the asynchronous Qi Authentication interface
+     */
+    private static class SynAdp implements WpcComAsy {
+
+        private final @NonNull WpcCom mCom;                                                         // Blocking Qi Authentication interface
+
+        /**
+         * Creates the adapter for a blocking Qi Authentication interface
+         *
+         * @param   com The blocking Qi Authentication interface
+         */
+        private SynAdp(@NonNull WpcCom com) {
+            mCom = com;                                                                             // Register the blocking Qi Authentication interface
+        }
+
+        @Override public void setChn(@NonNull WpcCrtChn chn) {
+            mCom.setChn(chn);                                                                       // Forward the WPC Certificate Chain
+        }
+
+        @Override public void sndMsg(@NonNull byte[] req, long tim, @NonNull ResLst lst) {
+            throw new UnsupportedOperationException();                                              // The blocking interface is driven by run()
+        }
+
+        @Override public int getMax() {
+            return mCom.getMax();                                                                   // Return the maximum length of a Qi Authentication Response
+        }
+
+        @Override public void endAuth(@NonNull AthEnd end) {
+            mCom.endAuth(end);                                                                      // Terminate the Qi Authentication
+        }
+    }
+
+    /**
+     * Create Qi Authentication Initiator for a blocking Qi communication interface
+     *
+     * @param   com The Qi communication interface
+     * @param   flw The used protocol flow
+     * @param   buf The cache buffer
+     */
+    WpcAthIni(@NonNull WpcCom com, FlwTyp flw, @NonNull CachBuf buf) {
+        mSyn = com;                                                                                 // Register the blocking Qi communication interface
+        mCom = new SynAdp(com);                                                                     // Register the Qi communication interface
+        mFlw = flw;                                                                                 // Register the protocol flow
+        mCach= buf;                                                                                 // Register cache buffer
+    }
+
+    /**
+     * Create Qi Authentication Initiator for an asynchronous Qi communication interface
+     * The Qi Authentication is driven by the received Responses, no thread waits for the remote device.
+     *
+     * @param   com The asynchronous Qi communication interface
+     * @param   flw The used protocol flow
+     * @param   buf The cache buffer
+     */
+    public WpcAthIni(@NonNull WpcComAsy com, FlwTyp flw, @NonNull CachBuf buf) {
+        mSyn = null;                                                                                // No blocking Qi communication interface
+        mCom = com;                                                                                 // Register the Qi communication interface
+        mFlw = flw;                                                                                 // Register the protocol flow
+        mCach= buf;                                                                                 // Register cache buffer
+    }
+
+    /**
+     * Plans the GET_CERTIFICATE fragments with the planner of the used link
+     * Every link learns its own timing, without a planner of the link the fragments are planned with a private planner.
+     *
+     * @param   pln The planner of the link
+     */
+    void setPln(@NonNull FrgPln pln) {
+        mPln = pln;                                                                                 // Register the planner of the link
+    }
+
+    /**
+     * Selects the adaptive flow with an own selector
+     * Sessions which do not authenticate real devices use an own selector, so they do not affect the learned device
+     * history of the real link.
+     *
+     * @param   sel The selector for the adaptive flow
+     */
+    void setSel(@NonNull FlwSel sel) {
+        mSel = sel;                                                                                 // Register the selector
+    }
+
+    /**
+     * Runs the Qi Authentication on a simulated link
+     * The exchanges are timed with the virtual clock of the simulator and the fragments are planned with its own planner,
+     * so the simulation does not affect the learned timing of the real link.
+     *
+     * @param   sim The link simulator
+     */
+    void setSim(@NonNull LnkSim sim) {
+        mSim = sim;                                                                                 // Register the link simulator
+        mPln = sim.getPln();                                                                        // Use the planner of the simulated link
+    }
+
+    /**
+     * Runs the Qi Authentication as replay of a recorded session
+     * The CHALLENGE Request uses the recorded Nonce, so the recorded signature can be verified.
+     *
+     * @param   non The recorded Nonce or null for a random Nonce
+     */
+    void setRpl(@Nullable byte[] non) {
+        mRpl = true;                                                                                // Mark the replayed session
+        mNon = non;                                                                                 // Register the recorded Nonce
+    }
+
+    /**
+     * Returns the actual time of the Qi Authentication
+     *
+     * @return  The virtual time of the link simulator or the real time in nanoseconds
+     */
+    private long now() {
+        return (mSim != null) ? mSim.now() : System.nanoTime();                                     // Return the actual time
+    }
+
+    /**
+     * Executes the Qi Authentication Initiator on the critical lane of the session executor
+     * With an asynchronous Qi communication interface the method returns after the first Request was sent and the
+     * state machine is driven by the received Responses. With a blocking interface the state machine is driven until
+     * the Qi Authentication is finished.
+     */
+    @Override public void run() {
+        if (mSyn == null) {                                                                         // Asynchronous Qi communication interface?
+            runAsy();                                                                               // Start the Qi Authentication
+            return;
+        }
+        try {
+            byte[] req = first();                                                                   // Get the first Qi Authentication Request
+            while (req != null) {                                                                   // Repeat until the Qi Authentication is finished or waits for the verification
+                req = next(mSyn.sndMsg(req, mTmo));                                                 // Exchange the Request and process the Response
+            }
+            mDon.await();                                                                           // Wait until the verification finishes the Qi Authentication
+        } catch (IOException err) {                                                                 // Communication error or exceeded budget
+            abort(err);                                                                             // Abort the Qi Authentication
+        } catch (RuntimeException err) {                                                            // Unexpected error while processing a Response
+            abort(err);                                                                             // Abort the Qi Authentication
+        } catch (InterruptedException err) {                                                        // Waiting was interrupted
+            Thread.currentThread().interrupt();                                                     // Keep the interrupt state
+            abort(new InterruptedIOException());                                                    // Abort the Qi Authentication
+        }
+    }
+
+    /**
+     * Starts the Qi Authentication with the asynchronous Qi communication interface
+     * The method returns after the first Request was sent.
+     */
+    private void runAsy() {
+        final @NonNull byte[] req;                                                                  // First Qi Authentication Request
+        try {
+            req = first();                                                                          // Get the first Qi Authentication Request
+        } catch (IOException err) {                                                                 // Budget exceeded
+            abort(err);                                                                             // Abort the Qi Authentication
+            return;
+        } catch (RuntimeException err) {                                                            // Unexpected error
+            abort(err);                                                                             // Abort the Qi Authentication
+            return;
+        }
+        mCom.sndMsg(req, mTmo, this);                                                               // Send the first Qi Authentication Request
+    }
+
+    /**
+     * Called when a Qi Authentication Response was received from the asynchronous Qi communication interface
+     *
+     * @param   res The Qi Authentication Response
+     */
+    @Override public void onRes(@NonNull byte[] res) {
+        if (mStt == Stt.END) {                                                                      // Qi Authentication already cancelled?
+            return;                                                                                 // Ignore the late Response
+        }
+        final byte[] req;                                                                           // Next Qi Authentication Request
+        try {
+            req = next(res);                                                                        // Process the Response
+        } catch (IOException err) {                                                                 // Wrong Response received or budget exceeded
+            abort(err);                                                                             // Abort the Qi Authentication
+            return;
+        } catch (RuntimeException err) {                                                            // Unexpected error while processing the Response
+            abort(err);                                                                             // Abort the Qi Authentication
+            return;
+        }
+        if (req != null) {                                                                          // Qi Authentication not yet finished?
+            mCom.sndMsg(req, mTmo, this);                                                           // Send the next Qi Authentication Request
+        }
+    }
+
+    /**
+     * Called when no Qi Authentication Response can be received from the asynchronous Qi communication interface
+     *
+     * @param   err The communication error
+     */
+    @Override public void onErr(@NonNull IOException err) {
+        abort(err);                                                                                 // Abort the Qi Authentication
+    }
+
+    /**
+     * Starts the Qi Authentication and returns the first Request of the protocol flow
+     *
+     * @return  The first Qi Authentication Request
+     * @throws  IOException in case the budget is exceeded
+     */
+    private @NonNull byte[] first() throws IOException {
+        WpcLog.begLog("PRx starts Qi Authentication");                                              // Log start of Qi Authentication
+        mBeg = now();                                                                               // Get start time of the Qi Authentication
+        mDln = new AthDln(AthDln.TIM_TOT);                                                          // Start the total budget
+        if (mFlw == FlwTyp.AUTO) {                                                                  // Adaptive flow?
+            mFlw = mSel.select();                                                                   // Select the flow with the lowest expected latency
+            mAut = true;                                                                            // Mark the adaptive selected flow
+        }
+        mEst = mSel.est(mFlw);                                                                      // Get the expected latency of the flow
+        switch (mFlw) {                                                                             // Select the protocol flow
+            case SMPL: return reqCrt();                                                             // Simple flow starts with the WPC Certificate Chain
+            case CACH: return reqDig();                                                             // Flow with caching starts with the Digests
+            default:   return reqAth(Stt.ATH1);                                                     // Challenge first flow starts with the CHALLENGE
+        }
+    }
+
+    /**
+     * Processes a Qi Authentication Response and returns the next Request
+     *
+     * @param   res The Qi Authentication Response
+     * @return  The next Qi Authentication Request or null if the Qi Authentication is finished
+     * @throws  IOException in case of a wrong Response
+     */
+    private @Nullable byte[] next(@NonNull byte[] res) throws IOException {
+        final @NonNull ByteBuffer buf = chkRes(res);                                                // Check the Response
+        switch (mStt) {                                                                             // Process the Response in the actual state
+            case DIG:  return onDig(buf);                                                           // DIGESTS Response
+            case CRT:  return onCrt(buf);                                                           // CERTIFICATE Response
+            case ATH:  return onAth(buf);                                                           // CHALLENGE_AUTH Response
+            case ATH1: return onAth1(buf);                                                          // CHALLENGE_AUTH Response of the challenge first flow
+            default:   throw new IOException();                                                     // No Response expected
+        }
+    }
+
+    /**
+     * Terminates the Qi Authentication with a verification result
+     *
+     * @param   res The verification result of the remote device
+     * @return  null as no further Request is sent
+     */
+    private @Nullable byte[] finish(@NonNull VerRes res) {
+        if (!end()) {                                                                               // Qi Authentication already aborted?
+            return null;                                                                            // Nothing to terminate
+        }
+        if (!res.isOk() && (mAsm != null)) {                                                        // Remote device rejected while its WPC Certificate Chain may be in verification?
+            mAsm.abort();                                                                           // Stop the verification of the Certificate Chain
+        }
+        final long tim = logTim(mBeg);                                                              // Log the end-to-end latency of the flow
+        if (mAut) {                                                                                 // Adaptive selected flow?
+            WpcLog.logCmt(String.format(Locale.US, "Adaptive flow %s: estimated %.0f ms, actual %d ms", mFlw.name(), mEst, tim));
+        }
+        if (res.isOk() && (mChn != null) && (mSim == null) && !mRpl) {                              // Successful Qi Authentication on a real link?
+            mSel.add(mFlw, !mMis, mChn, tim);                                                       // Learn the latency of the flow for the device
+            WpcLog.logCmt(mSel.getSta());                                                           // Log the latency summary of the link
+        }
+        if (res.isOk()) {                                                                           // Successful Qi Authentication?
+            WpcLog.logCmt("Correct signature");                                                     // Log correct signature
+            WpcLog.logCmt("Successful Qi Authentication");                                          // Log termination of Qi Authentication
+            mCom.endAuth(AthEnd.OK);                                                                // Terminate the Qi Authentication
+        } else {                                                                                    // Remote device cannot be authenticated
+            WpcLog.logErr("Unsuccessful Qi Authentication");                                        // Log termination of the Qi Authentication
+            mCom.endAuth(AthEnd.ERR_FAK);                                                           // Terminate the Qi Authentication
+        }
+        mDon.countDown();                                                                           // Signal the finished Qi Authentication
+        return null;                                                                                // No further Request
+    }
+
+    /**
+     * Marks the Qi Authentication as finished
+     * The verification of the WPC Certificate Chain, its budget and a communication error may finish the Qi
+     * Authentication concurrently, only the first one terminates it.
+     *
+     * @return  true if the Qi Authentication was not yet finished
+     */
+    private synchronized boolean end() {
+        if (mStt == Stt.END) {                                                                      // Qi Authentication already finished?
+            return false;                                                                           // Inform that it is already terminated
+        }
+        mStt = Stt.END;                                                                             // Qi Authentication finished
+        return true;                                                                                // Inform that it is terminated now
+    }
+
+    /**
+     * Aborts the Qi Authentication after a communication error or an exceeded budget
+     * An expired timeout of the Qi communication interface is reported as the step which exceeded its budget.
+     *
+     * @param   err The communication error
+     */
+    private void abort(@NonNull IOException err) {
+        if (!end()) {                                                                               // Qi Authentication already finished?
+            return;                                                                                 // Nothing to cancel
+        }
+        if (mJoin != null) {                                                                        // Budget for the verification started?
+            mJoin.cancel(false);                                                                    // Stop the budget
+        }
+        if (mAsm != null) {                                                                         // WPC Certificate Chain in verification?
+            mAsm.abort();                                                                           // Stop the verification of the Certificate Chain
+        }
+        if ((err instanceof InterruptedIOException) && !(err instanceof AthDln.DlnExp) && (mDln != null)) {// Timeout of the Qi communication interface expired?
+            err = mDln.exp();                                                                       // Report the step whose budget expired
+        }
+        if (err instanceof AthDln.DlnExp) {                                                         // Budget exceeded?
+            WpcLog.logErr(err.getMessage());                                                        // Log the step which exceeded its budget
+            WpcLog.logErr("Abort Qi Authentication");                                               // Log abort of the Qi Authentication
+            mCom.endAuth(((AthDln.DlnExp)err).getStp().getEnd());                                   // Terminate the Qi Authentication with the exceeded step
+        } else {                                                                                    // Communication error
+            WpcLog.logErr("Communication error");                                                   // Log communication error
+            WpcLog.logErr("Abort Qi Authentication");                                               // Log abort of the Qi Authentication
+            mCom.endAuth(AthEnd.ERR_COM);                                                           // Terminate the Qi Authentication
+        }
+        mDon.countDown();                                                                           // Signal the finished Qi Authentication
+    }
+
+    /**
+     * Aborts the Qi Authentication after an unexpected error while processing a Response
+     *
+     * @param   err The unexpected error
+     */
+    private void abort(@NonNull RuntimeException err) {
+        Dbg.log("Qi Authentication failed", err);                                                   // Log the unexpected error
+        abort(new IOException(err));                                                                // Abort the Qi Authentication as communication error
+    }
+
+    /**
+     * Logs the end-to-end latency of the Qi Authentication flow
+     *
+     * @param   beg The start time of the Qi Authentication in nanoseconds
+     * @return  The latency in milliseconds
+     */
+    private long logTim(long beg) {
+        final long tim = (now() - beg) / 1000000;                                                   // Calculate the latency in milliseconds
+        String flw = mFlw.name();                                                                   // Get the name of the protocol flow
+        if (mFlw != FlwTyp.SMPL) {                                                                  // Flow with caching?
+            flw = flw + (mMis ? " (cache miss)" : " (cache hit)");                                  // Add the cache state
+        }
+        WpcLog.logCmt("Latency of " + flw + " flow: " + tim + " ms");                               // Log the latency
+        return tim;                                                                                 // Return the latency
+    }
+
+    /**
+     * Creates a CHALLENGE request with a Nonce
+     *
+     * @return  The CHALLENGE request
+     */
+    public static @NonNull ByteBuffer getAth() {
+        return getAth(SLOT_0);                                                                      // Return the CHALLENGE request for slot 0
+    }
+
+    /**
+     * Creates a CHALLENGE request with a Nonce for a given slot
+     *
+     * @param   slt The slot number
+     * @return  The CHALLENGE request
+     */
+    static @NonNull ByteBuffer getAth(byte slt) {
+        return getAth(slt, null);                                                                   // Return the CHALLENGE request with a random Nonce
+    }
+
+    /**
+     * Creates a CHALLENGE request with a given Nonce for a given slot
+     *
+     * @param   slt The slot number
+     * @param   non The Nonce or null for a random Nonce
+     * @return  The CHALLENGE request
+     */
+    static @NonNull ByteBuffer getAth(byte slt, @Nullable byte[] non) {
+        ByteBuffer req = getMsg(REQ_ATH, OFS_RND + RND_SIZ);                                        // Create CHALLENGE request
+        req.put(slt);                                                                               // Add Slot Number
+        req.put((non != null) ? non : SafFkt.getRnd(RND_SIZ));                                      // Add Nonce
+        return req;                                                                                 // Return the CHALLENGE request
+    }
+
+    /**
+     * Creates the CHALLENGE Request for the selected slot
+     *
+     * @param   stt The state waiting for the CHALLENGE_AUTH Response
+     * @return  The CHALLENGE Request
+     * @throws  IOException in case the total budget is exceeded
+     */
+    private @NonNull byte[] reqAth(@NonNull Stt stt) throws IOException {
+        mAth = getAth(mSlt, mNon);                                                                  // Create CHALLENGE request for the selected slot
+        return snd(mAth, WpcAthRsp.RES_ATH, stt);                                                   // Send the CHALLENGE Request message
+    }
+
+    /**
+     * Creates the next GET_CERTIFICATE Request
+     * The first Request starts the transfer and the verification of the WPC Certificate Chain. The remaining fragments are
+     * planned again when the maximum Response length is negotiated during the transfer.
+     *
+     * @return  The GET_CERTIFICATE Request
+     * @throws  IOException in case the total budget is exceeded
+     */
+    private @NonNull byte[] reqCrt() throws IOException {
+        if (mAsm == null) {                                                                         // First GET_CERTIFICATE Request?
+            mAsm = new ChnAsm();                                                                    // Create assembler for the WPC Certificate Chain
+            mTrn = now();                                                                           // Get start time of the Certificate Chain transfer
+            mMax = mCom.getMax();                                                                   // Get the maximum length of a Qi Authentication Response
+            mFrg = new int[] {mPln.first(mMax)};                                                    // Plan the first fragment within the minimum Certificate Chain
+        } else if (mCom.getMax() != mMax) {                                                         // Maximum Response length negotiated during the transfer?
+            mMax = mCom.getMax();                                                                   // Get the negotiated maximum length
+            final @NonNull int[] rem = mPln.plan(mTot - mOfs, mMax);                                // Plan the fragments of the remaining Certificate Chain
+            mFrg = Arrays.copyOf(mFrg, mCnt + rem.length);                                          // Keep the received fragments
+            System.arraycopy(rem, 0, mFrg, mCnt, rem.length);                                       // Add the remaining fragments
+            WpcLog.logCmt(mPln.toString(mFrg));                                                     // Log the new fragment plan
+        }
+        final int siz = mFrg[mCnt];                                                                 // Get the requested length for the GET_CERTIFICATE Request
+        if (mReq == null) {                                                                         // First GET_CERTIFICATE Request?
+            mReq = getMsg(REQ_CRT, 4);                                                              // Create GET_CERTIFICATE request message
+        }
+        final @NonNull ByteBuffer req = mReq;                                                       // Reuse the Request, the previous one is answered
+        req.position(1);                                                                            // Set buffer pointer to offset
+        req.put((byte) (((mOfs & 0x0300) >> 2) | ((siz & 0x0300) >> 4) | mSlt));                    // Add slot byte with the upper bits of offset and length
+        req.put((byte) mOfs);                                                                       // Add offset
+        req.put((byte) siz);                                                                        // Add Length
+        return snd(req, WpcAthRsp.RES_CRT, Stt.CRT);                                                // Send GET_CERTIFICATE Request
+    }
+
+    /**
+     * Creates the GET_DIGESTS request for all slots
+     *
+     * @return  The GET_DIGESTS Request
+     * @throws  IOException in case the total budget is exceeded
+     */
+    private @NonNull byte[] reqDig() throws IOException {
+        ByteBuffer req = getMsg(REQ_DIG, 2);                                                        // Create GET_DIGESTS Request
+        req.put(SLOT_ALL);                                                                          // Add Slot mask
+        return snd(req, WpcAthRsp.RES_DIG, Stt.DIG);                                                // Send GET_DIGESTS Request
+    }
+
+    /**
+     * Processes a CERTIFICATE Response
+     * The received fragment is added to the WPC Certificate Chain which is verified while the fragments are received.
+     *
+     * @param   res The CERTIFICATE Response
+     * @return  The next Qi Authentication Request or null if the Qi Authentication is finished
+     * @throws  IOException in case an error occurred
+     */
+    private @Nullable byte[] onCrt(@NonNull ByteBuffer res) throws IOException {
+        final int siz = mFrg[mCnt];                                                                 // Get the requested length of the fragment
+        if (mOfs == 0) {                                                                            // First GET_CERTIFICATE Request?
+            final int len = res.getShort() & AppLib.SHT_UNS;                                        // Get the total length of the Certificate Chain
+            if (len < siz) {                                                                        // Certificate Chain too small?
+                WpcLog.logErr("Wrong WPC Certificate Chain length");                                // Log error
+                throw new IOException();                                                            // Abort authentication
+            }
+            mTot = len;                                                                             // Register the total length
+            final @NonNull int[] rem = mPln.plan(len - siz, mMax);                                  // Plan the fragments of the remaining Certificate Chain
+            mFrg = Arrays.copyOf(mFrg, 1 + ((len > siz) ? rem.length : 0));                         // Keep the first fragment
+            System.arraycopy(rem, 0, mFrg, 1, mFrg.length - 1);                                     // Add the remaining fragments
+            WpcLog.logCmt(mPln.toString(mFrg));                                                     // Log the fragment plan
+        }
+        byte[] buf = res.array();                                                                   // Get CERTIFICATE Response
+        if ((siz != (buf.length - 1))) {                                                            // Incorrect Certificate Chain fragment size?
+            WpcLog.logErr("Invalid WPC Certificate Chain length");                                  // Log error
+            throw new IOException();                                                                // Abort authentication
+        }
+        mAsm.add(buf, 1, siz);                                                                      // Add Certificate fragment to the Certificate Chain
+        mOfs = mOfs + siz;                                                                          // Calculate offset for the next GET_CERTIFICATE Request
+        mCnt++;                                                                                     // Count the received fragment
+        if (mCnt < mFrg.length) {                                                                   // Whole Certificate Chain not yet received?
+            if (mOfs > FrgPln.MAX_LEN) {                                                            // Offset exceeds 10 bits?
+                WpcLog.logErr("WPC Certificate Chain too long");                                    // Log error
+                throw new IOException();                                                            // Abort authentication
+            }
+            return reqCrt();                                                                        // Request the next fragment
+        }
+        WpcLog.logCmt("Certificate Chain received with " + mCnt + " fragments in " + (now() - mTrn) / 1000000 + " ms");// Log the transfer time
+        mChn = mAsm.getChn();                                                                       // Get the received WPC Certificate Chain
+        WpcLog.log(WpcLog.EvtTyp.CHN, mChn.getChn());                                               // Log the received WPC Certificate Chain
+        if (mAthRes == null) {                                                                      // CHALLENGE not yet sent?
+            return reqAth(Stt.ATH);                                                                 // Authenticate while the WPC Certificate Chain is verified
+        }
+        return join(mAthRes);                                                                       // Join the verification with the CHALLENGE_AUTH Response of the challenge first flow
+    }
+
+    /**
+     * Processes the DIGESTS Response
+     * The first slot whose WPC Certificate Chain is cached is selected, otherwise the first returned slot.
+     *
+     * @param   res The DIGESTS Response
+     * @return  The next Qi Authentication Request
+     * @throws  IOException in case no valid DIGESTS Response was received
+     */
+    private @NonNull byte[] onDig(@NonNull ByteBuffer res) throws IOException {
+        final @NonNull byte[] buf = res.array();                                                    // Get the DIGESTS Response
+        final int msk = (buf.length > 1) ? buf[1] & SLOT_ALL : 0;                                   // Get the Slots Returned Mask
+        if ((msk == 0) || (buf.length != 2 + Integer.bitCount(msk) * WpcKey.DIG_SIZ)) {             // Wrong formated DIGESTS Response
+            WpcLog.logErr("Wrong formatted DIGESTS Response!");                                     // Log error
+            throw new IOException();                                                                // Throw exception
+        }
+        WpcCrtChn chn = null;                                                                       // Cached WPC Certificate Chain of a slot
+        mSlt = -1;                                                                                  // No slot selected
+        int ofs = 2;                                                                                // Offset of the first Digest
+        for (byte slt = 0; (slt < SLOT_CNT) && (chn == null); slt++) {                              // Repeat until a cached slot is found
+            if ((msk & (1 << slt)) != 0) {                                                          // Slot returned?
+                chn = mCach.find(Arrays.copyOfRange(buf, ofs, ofs + WpcKey.DIG_SIZ));               // Search its WPC Certificate Chain in the cache
+                ofs = ofs + WpcKey.DIG_SIZ;                                                         // Goto the next Digest
+                if ((chn != null) || (mSlt < 0)) {                                                  // Cached slot or first returned slot?
+                    mSlt = slt;                                                                     // Select the slot
+                }
+            }
+        }
+        mCach.use(chn);                                                                             // Count the cache hit or miss
+        if (mSlt != SLOT_0) {                                                                       // Other slot than slot 0 selected?
+            WpcLog.logCmt("Slot " + mSlt + " selected");                                            // Log the selected slot
+        }
+        if (chn != null) {                                                                          // WPC Certificate Chain found in the cache?
+            mCom.setChn(chn);                                                                       // Register used WPC Cartificate chain
+            mChn = chn;                                                                             // Register the WPC Certificate Chain of the device
+            return reqAth(Stt.ATH);                                                                 // Authenticate with the cached WPC Certificate Chain
+        }
+        mMis = true;                                                                                // Mark the cache miss
+        return reqCrt();                                                                            // Request the WPC Certificate Chain
+    }
+
+    /**
+     * Processes the CHALLENGE_AUTH Response while the received WPC Certificate Chain is still verified
+     *
+     * @param   res The CHALLENGE_AUTH Response
+     * @return  null as the Qi Authentication is finished or waits for the verification
+     * @throws  IOException in case the budget is exceeded
+     */
+    private @Nullable byte[] onAth(@NonNull ByteBuffer res) throws IOException {
+        final @NonNull byte[] buf = res.array();                                                    // Get the CHALLENGE_AUTH Response
+        if (!chkLen(buf)) {                                                                         // Wrong CHALLENGE_AUTH Response length?
+            return finish(VerRes.ERR_MSG);                                                          // Report the wrong message
+        }
+        return join(buf);                                                                           // Join the verification with the CHALLENGE_AUTH Response
+    }
+
+    /**
+     * Joins the verification of the received WPC Certificate Chain with the CHALLENGE_AUTH Response
+     * A running verification is not awaited: the Qi Authentication is finished by the listener of the assembler or
+     * aborted when the budget of the actual step expires.
+     *
+     * @param   ath The CHALLENGE_AUTH Response
+     * @return  null as the Qi Authentication is finished or waits for the verification
+     * @throws  IOException in case the budget is exceeded
+     */
+    private @Nullable byte[] join(@NonNull byte[] ath) throws IOException {
+        if (mAsm == null) {                                                                         // WPC Certificate Chain from the cache?
+            return check(VerRes.OK, ath);                                                           // Check the signature
+        }
+        final VerRes ver = mAsm.poll();                                                             // Get the result of the verification if finished
+        if (ver != null) {                                                                          // Verification finished?
+            return check(ver, ath);                                                                 // Check the signature
+        }
+        final long rem = mDln.rem();                                                                // Get the remaining budget of the step
+        synchronized (this) {
+            mVer = ath;                                                                             // Keep the CHALLENGE_AUTH Response
+            mStt = Stt.VER;                                                                         // Wait for the verification
+        }
+        mJoin = SesExe.dly(new Runnable() {
+            @Override public void run() {
+                onVer(true);                                                                        // Abort the Qi Authentication
+            }
+        }, rem);
+        mAsm.onEnd(new Runnable() {
+            @Override public void run() {
+                onVer(false);                                                                       // Finish the Qi Authentication
+            }
+        });
+        return null;                                                                                // No Request while the verification is running
+    }
+
+    /**
+     * Called on the critical lane when the verification of the WPC Certificate Chain finished or its budget expired
+     *
+     * @param   tmo true if the budget expired
+     */
+    private void onVer(boolean tmo) {
+        final @NonNull byte[] ath;                                                                  // CHALLENGE_AUTH Response waiting for the verification
+        synchronized (this) {
+            if (mStt != Stt.VER) {                                                                  // Already joined or aborted?
+                return;
+            }
+            mStt = Stt.ATH;                                                                         // Process the CHALLENGE_AUTH Response
+            ath = mVer;                                                                             // Get the CHALLENGE_AUTH Response
+        }
+        if (tmo) {                                                                                  // Budget expired?
+            abort(mDln.exp());                                                                      // Abort the Qi Authentication with the exceeded step
+            return;
+        }
+        mJoin.cancel(false);                                                                        // Stop the budget
+        final VerRes ver = mAsm.poll();                                                             // Get the verification result
+        try {
+            check((ver != null) ? ver : VerRes.ERR_LEN, ath);                                       // Check the signature
+        } catch (RuntimeException err) {                                                            // Unexpected error while checking the signature
+            abort(err);                                                                             // Abort the Qi Authentication
+        }
+    }
+
+    /**
+     * Checks the signature of the CHALLENGE_AUTH Response with the verified WPC Certificate Chain
+     * and terminates the Qi Authentication
+     *
+     * @param   ver The verification result of the WPC Certificate Chain
+     * @param   ath The CHALLENGE_AUTH Response
+     * @return  null as the Qi Authentication is finished
+     */
+    private @Nullable byte[] check(@NonNull VerRes ver, @NonNull byte[] ath) {
+        if (!ver.isOk()) {                                                                          // Wrong WPC Certificate Chain?
+            return finish(ver);                                                                     // Report the verification error
+        }
+        if (mAsm != null) {                                                                         // Received WPC Certificate Chain?
+            mCom.setChn(mChn);                                                                      // Announce used WPC Certificate Chain
+            if (mFlw == FlwTyp.CACH) {                                                              // Cache miss of the flow with caching?
+                mCach.add(mChn);                                                                    // Add Certificate Chain to Certificate cache
+            }
+        }
+        final byte[] dig = WpcAthRsp.getSigDig(mChn.getDig(), mAth.array(), ath);                   // Get the Digest for the challenge
+        final byte[] sig = Arrays.copyOfRange(ath, WpcAthRsp.LEN_ATH, ath.length);                  // Get the signature from the CHALLENGE_AUTH Response
+        final @NonNull VerRes res = verify(dig, sig, mChn.getPu());                                 // Verify the signature
+        if (res.isOk() && ((mFlw == FlwTyp.ATH1) || ((mFlw == FlwTyp.SMPL) && mAut))) {             // Device authenticated by the challenge first or the adaptive simple flow?
+            mCach.add(mChn);                                                                        // Cache the device for the next authentication
+        }
+        return finish(res);                                                                         // Terminate the Qi Authentication
+    }
+
+    /**
+     * Processes the CHALLENGE_AUTH Response of the challenge first flow
+     * The WPC Certificate Chain is only requested when no cached WPC Certificate Chain verifies the signature.
+     *
+     * @param   res The CHALLENGE_AUTH Response
+     * @return  The next Qi Authentication Request or null if the Qi Authentication is finished
+     * @throws  IOException in case the total budget is exceeded
+     */
+    private @Nullable byte[] onAth1(@NonNull ByteBuffer res) throws IOException {
+        final @NonNull byte[] buf = res.array();                                                    // Get the CHALLENGE_AUTH Response
+        if (!chkLen(buf)) {                                                                         // Wrong CHALLENGE_AUTH Response length?
+            return finish(VerRes.ERR_MSG);                                                          // Report the wrong message
+        }
+        final byte[] sig = Arrays.copyOfRange(buf, WpcAthRsp.LEN_ATH, buf.length);                  // Get the signature from the CHALLENGE_AUTH Response
+        if (verify1(mAth.array(), buf, sig)) {                                                      // Successful verification with a cached WPC Certificate Chain?
+            return finish(VerRes.OK);                                                               // Report successful verification
+        }
+        mMis = true;                                                                                // Mark the cache miss
+        mAthRes = buf;                                                                              // Keep the CHALLENGE_AUTH Response for the verification
+        return reqCrt();                                                                            // Request the WPC Certificate Chain
+    }
+
+    /**
+     * Checks the length of a CHALLENGE_AUTH Response before its header and signature are parsed
+     *
+     * @param   ath The CHALLENGE_AUTH Response
+     * @return  true if the CHALLENGE_AUTH Response has the header and a complete signature
+     */
+    private static boolean chkLen(@NonNull byte[] ath) {
+        if (ath.length == AthChk.LEN_RES) {                                                         // Header and signature complete?
+            return true;
+        }
+        WpcLog.logErr("Wrong CHALLENGE_AUTH Response length");                                      // Log error
+        return false;
+    }
+
+    /**
+     * Returns a Qi Authentication Request template
+     *
+     * @param   typ The Qi Authentication Request Type
+     * @param   len The Length of the Qi Authentication Request
+     * @return  The Qi Authentication Request template
+     */
+    static @NonNull ByteBuffer getMsg(int typ, int len) {
+        ByteBuffer res = ByteBuffer.wrap(new byte[len]);                                            // Create Authentication Request template
+        res.put((byte)((ATH_VER << 4) | typ));                                                      // Set the Qi-Authentication version and the Request type
+        return res;                                                                                 // Return the Authentication Request template
+    }
+
+    /**
+     * Registers a Qi Authentication Request to be sent
+     *
+     * @param   req The Qi Authentication Request
+     * @param   typ The expected Qi Authentication Response type
+     * @param   stt The state waiting for the Response
+     * @return  The Qi Authentication Request
+     * @throws  IOException in case the total budget is exceeded
+     */
+    private @NonNull byte[] snd(final @NonNull ByteBuffer req, int typ, @NonNull Stt stt) throws IOException {
+        final @NonNull byte[] ba = req.array();                                                     // Get request
+        mTmo = mDln.beg(AthDln.getStp(ba));                                                         // Start the budget of the step
+        WpcLog.log(WpcLog.EvtTyp.REQ, ba);                                                          // Log request
+        mStt = stt;                                                                                 // Wait for the Response
+        mTyp = typ;                                                                                 // Register the expected Response type
+        mLen = ba.length;                                                                           // Register the Request length
+        mTim = now();                                                                               // Get start time of the exchange
+        return ba;                                                                                  // Return the Request
+    }
+
+    /**
+     * Checks a received Qi Authentication Response
+     *
+     * @param   ba  The Qi Authentication Response
+     * @return  The Qi Authentication Response positioned behind the header
+     * @throws  IOException in case of an unexpected Response type
+     */
+    private @NonNull ByteBuffer chkRes(@NonNull byte[] ba) throws IOException {
+        if (mTyp != WpcAthRsp.RES_ATH) {                                                            // Exchange without signature calculation?
+            mPln.add(mLen, ba.length, now() - mTim);                                                // Learn the link timing
+        }
+        WpcLog.log(WpcLog.EvtTyp.RES, ba);                                                          // Log response
+        final @NonNull ByteBuffer res = ByteBuffer.wrap(ba);                                        // Wrap the Qi Authentication Response
+        if ((res.get() & AppLib.BYT_UNS) != ((ATH_VER << 4) | mTyp)) {                              // Unexpected type
+            throw new IOException();                                                                // Raise error
+        }
+        return res;                                                                                 // Return the Qi Authentication Response
+    }
+
+    /**
+     * Tries to verifies the signature for a given message digest with WPC Certificate Chains in the cache
+     * Only the cached WPC Certificate Chains matching the last hash byte are tested
+     *
+     * @param   req The Challenge Request
+     * @param   res The Challenge Auth Response
+     * @param   sig The Signature
+     * @return  true if the verification was successful, otherwise false
+     */
+    private boolean verify1(@NonNull byte[] req, @NonNull byte[] res, @NonNull byte[] sig) {
+        final long beg = System.nanoTime();                                                         // Get the start time of the cache lookup
+        final @NonNull WpcCrtChn[] lst = mCach.getLsb(res[2]);                                      // Get the cached WPC Certificate Chains matching the last hash byte
+        final WpcCrtChn chn;                                                                        // WPC Certificate Chain which verifies the signature
+        if (lst.length == 0) {                                                                      // No candidate found?
+            chn = null;                                                                             // No WPC Certificate Chain verifies the signature
+        } else if (lst.length == 1) {                                                               // Only one candidate found?
+            chn = verify1(lst[0], req, res, sig) ? lst[0] : null;                                   // Verify the signature with the candidate
+        } else {                                                                                    // Several candidates found
+            chn = verify1(lst, req, res, sig);                                                      // Verify the signature with all candidates in parallel
+        }
+        final long tim = (System.nanoTime() - beg) / 1000;                                          // Calculate the time of the cache lookup in microseconds
+        WpcLog.logCmt("Cache candidates: " + lst.length + ", " + (chn == null ? "no match" : "match") + " after " + tim + " us");
+        mCach.use(chn);                                                                             // Count the cache hit or miss
+        if (chn == null) {                                                                          // No successful verification?
+            return false;                                                                           // Inform that the verification was not successful
+        }
+        mCom.setChn(chn);                                                                           // Report used WPC Certificate Chain
+        mChn = chn;                                                                                 // Register the WPC Certificate Chain of the device
+        return true;                                                                                // Inform that the verification was successful
+    }
+
+    /**
+     * Verifies the signature with several cached WPC Certificate Chains in parallel on the critical lane
+     * The caller verifies candidates itself and only waits for the candidates already taken by the helper tasks, so it
+     * never waits for a task queued behind it. The remaining candidates are skipped once one verification succeeded.
+     *
+     * @param   lst The cached WPC Certificate Chains ordered by recency
+     * @param   req The Challenge Request
+     * @param   res The Challenge Auth Response
+     * @param   sig The Signature
+     * @return  The WPC Certificate Chain which verifies the signature or null
+     */
+    private @Nullable WpcCrtChn verify1(final @NonNull WpcCrtChn[] lst, final @NonNull byte[] req, final @NonNull byte[] res, final @NonNull byte[] sig) {
+        final AtomicInteger nxt = new AtomicInteger();                                              // Index of the next candidate to be verified
+        final AtomicReference<WpcCrtChn> fnd = new AtomicReference<>();                             // WPC Certificate Chain which verifies the signature
+        final CountDownLatch end = new CountDownLatch(lst.length);                                  // Signal for the finished candidates
+        final Runnable ver = new Runnable() {
+            @Override public void run() {
+                for (int ind = nxt.getAndIncrement(); ind < lst.length; ind = nxt.getAndIncrement()) {// Repeat for all not yet taken candidates
+                    try {
+                        if ((fnd.get() == null) && verify1(lst[ind], req, res, sig)) {              // Not yet found and correct signature?
+                            fnd.compareAndSet(null, lst[ind]);                                      // Register the WPC Certificate Chain
+                        }
+                    } finally {
+                        end.countDown();                                                            // Candidate finished
+                    }
+                }
+            }
+        };
+        for (int ind = 1; ind < lst.length; ind++) {                                                // Repeat for all candidates but one
+            SesExe.crt(ver);                                                                        // Start a helper task
+        }
+        ver.run();                                                                                  // Verify candidates until all are taken
+        try {
+            end.await();                                                                            // Wait for the candidates taken by the helper tasks
+        } catch (InterruptedException err) {                                                        // Waiting was interrupted
+            Thread.currentThread().interrupt();                                                     // Keep the interrupt state
+        }
+        return fnd.get();                                                                           // Return the WPC Certificate Chain
+    }
+
+    /**
+     * Verifies the signature with one cached WPC Certificate Chain
+     *
+     * @param   chn The cached WPC Certificate Chain
+     * @param   req The Challenge Request
+     * @param   res The Challenge Auth Response
+     * @param   sig The Signature
+     * @return  true if the verification was successful, otherwise false
+     */
+    private static boolean verify1(@NonNull WpcCrtChn chn, @NonNull byte[] req, @NonNull byte[] res, @NonNull byte[] sig) {
+        byte[] dig = WpcAthRsp.getSigDig(chn.getDig(), req, res);                                   // Get the Digest for the challenge
+        return SafFkt.chkSig(dig, sig, chn.getPu().getPublicKey()).isOk();                          // Verify the signature
+    }
+
+    /**
+     * Verifies the signature for a given message digest
+     *
+     * @param   dig The Message digest
+     * @param   sig The Signature
+     * @param   crt The WPC Product Unit Certificate containing the public key
+     * @return  The verification result
+     */
+    private @NonNull VerRes verify(@NonNull byte[] dig, @NonNull byte[] sig, @NonNull WpcCrt crt) {
+        final @NonNull VerRes res = SafFkt.chkSig(dig, sig, crt.getPublicKey());                    // Verify the signature
+        if (!res.isOk()) {                                                                          // An error occurred during the signature verification
+            WpcLog.logErr("Wrong signature");                                                       // Log wrong signature
+        }
+        return res;                                                                                 // Report the signature verification result
+    }
+}
\ No newline at end of file
@@ -5,7 +5,11 @@ import android.support.annotation.Nullable;
 
 import java.nio.ByteBuffer;
 import java.security.PrivateKey;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * WPC Authentication Responder class
@@ -53,24 +57,55 @@ public class WpcAthRsp {
     private static final int    OFS_TYP = 0;                                                        // Offset for Qi Authentication version and message type
     private static final int    OFS_SLT = 1;                                                        // Offset for slot number in Request
     private static final byte   PFX_ATH = 'A';                                                      // Prefix for TBSAuth
+    private static final int    MAX_FRG = 32;                                                       // Maximum number of cached CERTIFICATE Responses per slot
 
     /** Size for CHALLENGE_AUTH response header */
     public static final int LEN_ATH = 3;
 
-    private final WpcCrtChn     mChn;                                                               // WPC Certificate Chain
-    private final PrivateKey    mPrv;                                                               // Private key for Product Unit Certificate in mChn
+    private final WpcCrtChn[]   mChn = new WpcCrtChn[WpcAthIni.SLOT_CNT];                           // WPC Certificate Chains of the slots
+    private final PrivateKey[]  mPrv = new PrivateKey[WpcAthIni.SLOT_CNT];                          // Private keys for the Product Unit Certificates in mChn
+    private final byte[][]      mHdr = new byte[WpcAthIni.SLOT_CNT][];                              // Precomputed CHALLENGE_AUTH Response headers of the slots
+    private final byte[][]      mDig = new byte[WpcAthIni.SLOT_ALL + 1][];                          // Precomputed DIGESTS Responses per requested Slot mask
+    private final List<Map<Integer, byte[]>> mFrg = new ArrayList<>();                              // Cached CERTIFICATE Responses of the slots per offset and length
     private final boolean       mPtx;                                                               // WPC device type
+    private int                 mMsk;                                                               // Slots Populated Mask
 
     /**
-     * Initialize the WPC Authentication Responder
+     * Initialize the WPC Authentication Responder with one WPC Certificate Chain in slot 0
      *
      * @param   chn The WPC Certificate Chain of the WPC Authentication Responder
      * @param   prv The private key for the Product Unit certificate inside of chn
      */
     WpcAthRsp(@NonNull WpcCrtChn chn, @NonNull PrivateKey prv, boolean ptx) {
-        mChn = chn;                                                                                 // Set the WPC Certificate Chain
-        mPrv = prv;                                                                                 // Set the private key
+        this(new WpcCrtChn[] {chn}, new PrivateKey[] {prv}, ptx);                                   // Initialize the Responder with slot 0
+    }
+
+    /**
+     * Initialize the WPC Authentication Responder with several slots
+     * A slot is populated when its WPC Certificate Chain and its private key are available.
+     * The DIGESTS Responses and the CHALLENGE_AUTH headers are precomputed as they do not change for the given slots.
+     *
+     * @param   chn The WPC Certificate Chains of the slots (null for unpopulated slots)
+     * @param   prv The private keys for the Product Unit certificates inside of chn
+     */
+    WpcAthRsp(@NonNull WpcCrtChn[] chn, @NonNull PrivateKey[] prv, boolean ptx) {
+        for (int slt = 0; slt < Math.min(chn.length, WpcAthIni.SLOT_CNT); slt++) {                  // Repeat for all slots
+            if ((chn[slt] != null) && (slt < prv.length) && (prv[slt] != null)) {                   // Slot populated?
+                mChn[slt] = chn[slt];                                                               // Set the WPC Certificate Chain
+                mPrv[slt] = prv[slt];                                                               // Set the private key
+                mMsk = mMsk | (1 << slt);                                                           // Mark the slot as populated
+            }
+        }
         mPtx = ptx;                                                                                 // Get WPC device type
+        for (int slt = 0; slt < WpcAthIni.SLOT_CNT; slt++) {                                        // Repeat for all slots
+            if (mChn[slt] != null) {                                                                // Slot populated?
+                mHdr[slt] = getChAth(mChn[slt], mMsk).array();                                      // Precompute the CHALLENGE_AUTH header
+            }
+            mFrg.add((mChn[slt] != null) ? newFrg() : null);                                        // Create the cache for the CERTIFICATE Responses
+        }
+        for (int msk = 0; msk <= WpcAthIni.SLOT_ALL; msk++) {                                       // Repeat for all requested Slot masks
+            mDig[msk] = getDig(msk & mMsk);                                                         // Precompute the DIGESTS Response
+        }
     }
 
     /**
@@ -99,7 +134,7 @@ public class WpcAthRsp {
         tbs.put(PFX_ATH);                                                                           // Add Prefix
         tbs.put(dig);                                                                               // Add Certificate Chain Hash
         tbs.put(req);                                                                               // Add CHALLENGE Request
-        tbs.put(Arrays.copyOf(res, LEN_ATH));                                                       // Add header of CHALLENGE_AUTH Response
+        tbs.put(res, 0, LEN_ATH);                                                                   // Add header of CHALLENGE_AUTH Response
         return tbs.array();                                                                         // Return TBSAuth of CHALLENGE_AUTH Response
     }
 
@@ -145,12 +180,14 @@ public class WpcAthRsp {
             WpcLog.logErr("Not enough data in CHALLENGE Request");                                  // Log error
             return error(ERR_INV, 0);                                                               // Return ERROR message
         }
-        if (chkSlt(req)) {                                                                          // Wrong slot number or WPC Device?
+        final int slt = getSlt(req);                                                                // Get the requested slot
+        if (slt < 0) {                                                                              // Wrong slot number or WPC Device?
             return error(ERR_INV, 0);                                                               // Return ERROR message
         }
-        ByteBuffer res = getChAth(mChn);                                                            // Create CHALLENGE_AUTH Response message
+        ByteBuffer res = ByteBuffer.wrap(new byte[LEN_ATH + WpcCrt.LEN_SIG]);                       // Create CHALLENGE_AUTH Response message
+        res.put(mHdr[slt], 0, LEN_ATH);                                                             // Add the precomputed header
         try {
-            res.put(SafFkt.genSig(getSigDig(mChn.getDig(), req, res.array()), mPrv));               // Calculate the signature
+            res.put(SafFkt.genSig(getSigDig(mChn[slt].getDig(), req, res.array()), mPrv[slt]));     // Calculate the signature
             return res.array();                                                                     // Return the CHALLENGE_AUTH Response
         } catch (Exception err) {                                                                   // Error occurred during signature calculation
             return error(ERR_UNS, 0);                                                               // Return UNSPECIFIED ERROR message
@@ -161,34 +198,60 @@ public class WpcAthRsp {
      * Checks the slot number and WPC device type
      *
      * @param   req The Qi Authentication request where slot number and WPC device type shall be checked
-     * @return  true if error identified, otherwise false
+     * @return  The requested slot number or -1 if an error was identified
      */
-    private boolean chkSlt(byte[] req) {
-        if ((req[OFS_SLT] & MSK_SLT) != WpcAthIni.SLOT_0) {                                         // Wrong slot number?
+    private int getSlt(byte[] req) {
+        final int slt = req[OFS_SLT] & MSK_SLT;                                                     // Get the requested slot number
+        if (mChn[slt] == null) {                                                                    // Slot not populated?
             WpcLog.logErr("Slot is not available");                                                 // Log error
-            return true;                                                                            // Return error
+            return -1;                                                                              // Return error
         }
         if ((req[OFS_SLT] & 0x04) == ((mPtx?1:0) << 2)) {                                           // Wrong requesting WPC device?
             WpcLog.logErr("Request from wrong WPC device type");                                    // Log error
-            return true;                                                                            // Return error
+            return -1;                                                                              // Return error
         }
-        return false;                                                                               // Return no error
+        return slt;                                                                                 // Return the slot number
     }
 
     /**
-     * Creates the header of a CHALLENGE_AUTH Response
+     * Creates the header of a CHALLENGE_AUTH Response for a device with only slot 0
      * @param   chn The WPC Certificate Chain for this challenge
      * @return  The header of the CHALLENGE AUTH Response
      */
     public static ByteBuffer getChAth(WpcCrtChn chn) {
+        return getChAth(chn, WpcAthIni.SLOT_MSK);                                                   // Return the header with slot 0 populated
+    }
+
+    /**
+     * Creates the header of a CHALLENGE_AUTH Response
+     * @param   chn The WPC Certificate Chain for this challenge
+     * @param   msk The Slots Populated Mask
+     * @return  The header of the CHALLENGE AUTH Response
+     */
+    static ByteBuffer getChAth(WpcCrtChn chn, int msk) {
         ByteBuffer res = WpcAthIni.getMsg(RES_ATH, LEN_ATH + WpcCrt.LEN_SIG);                       // Create CHALLENGE_AUTH Response message
-        res.put((byte)((WpcAthIni.ATH_VER << 4) | WpcAthIni.SLOT_MSK));                             // Maximum Qi Authentication Protocol version and Slots Populated Mask
+        res.put((byte)((WpcAthIni.ATH_VER << 4) | msk));                                            // Maximum Qi Authentication Protocol version and Slots Populated Mask
         res.put(chn.getDig()[WpcKey.DIG_SIZ - 1]);                                                  // Add LSB of Certificate Chain Digest
         return res;                                                                                 // Return the header of the CHALLENGE_AUTH Response
     }
 
+    /**
+     * Creates the cache for the CERTIFICATE Responses of a slot
+     * The least recently requested fragment is evicted, so a changed fragment plan replaces the old fragments.
+     *
+     * @return  The cache for the CERTIFICATE Responses
+     */
+    private static @NonNull Map<Integer, byte[]> newFrg() {
+        return Collections.synchronizedMap(new LinkedHashMap<Integer, byte[]>(MAX_FRG, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > MAX_FRG;                                                            // Evict the least recently requested fragment
+            }
+        });
+    }
+
     /**
      * Executes the GET_CERTIFICATE Request message
+     * The CERTIFICATE Responses are cached as an Initiator requests the same fragments in each Qi Authentication.
      * @param   req The GET_CERTIFICATE Request message
      * @return  The Authentication Response message
      */
@@ -197,21 +260,30 @@ public class WpcAthRsp {
             WpcLog.logErr("Not enough data in GET_CERTIFICATE Request");                            // Log error
             return error(ERR_INV, 0);                                                               // Return ERROR message
         }
-        if (chkSlt(req)) {                                                                          // Wrong slot number or WPC Device?
+        final int slt = getSlt(req);                                                                // Get the requested slot
+        if (slt < 0) {                                                                              // Wrong slot number or WPC Device?
             return error(ERR_INV, 0);                                                               // Return ERROR message
         }
         ByteBuffer buf = ByteBuffer.wrap(req);                                                      // Get byte buffer of request
         buf.position(2);                                                                            // Set the offest for the offset parameter
         int ofs = buf.get() & AppLib.BYT_UNS | ((req[OFS_SLT] & 0xC0) << 2);                        // Read offset
         int len = buf.get() & AppLib.BYT_UNS | ((req[OFS_SLT] & 0x30) << 4);                        // Read length
-        byte[] chn = mChn.getChn();                                                                 // Get WPC Certificate Chain
+        final Integer key = (ofs << 10) | len;                                                      // Get the key of the fragment
+        final @NonNull Map<Integer, byte[]> frg = mFrg.get(slt);                                    // Get the cache of the slot
+        byte[] res = frg.get(key);                                                                  // Search the cached CERTIFICATE Response
+        if (res != null) {                                                                          // CERTIFICATE Response already created?
+            return res;                                                                             // Return the cached CERTIFICATE Response
+        }
+        byte[] chn = mChn[slt].getChn();                                                            // Get WPC Certificate Chain of the slot
         if (ofs + len > chn.length) {                                                               // Too many bytes requested?
             WpcLog.logErr("Too many data requested");                                               // Log error
             return error(ERR_INV, 0);                                                               // Return ERROR message
         }
         buf = WpcAthIni.getMsg(RES_CRT, len + OFS_CHN);                                             // Create CERTIFICATE Response
         buf.put(chn, ofs, len);                                                                     // Add Certificate Chain Segment
-        return buf.array();                                                                         // Return the CERTIFICATE Response
+        res = buf.array();                                                                          // Get the CERTIFICATE Response
+        frg.put(key, res);                                                                          // Cache the CERTIFICATE Response
+        return res;                                                                                 // Return the CERTIFICATE Response
     }
 
     /**
@@ -225,16 +297,28 @@ public class WpcAthRsp {
             WpcLog.logErr("Not enough data in GET_DIGESTS Request");                                // Log error
             return error(ERR_INV, 0);                                                               // Return ERROR message
         }
-        ByteBuffer res;                                                                             // Authentication Response
-        if ((req[OFS_SLT] & WpcAthIni.SLOT_MSK) == WpcAthIni.SLOT_MSK) {                            // Slot 0 requested?
-            res = WpcAthIni.getMsg(RES_DIG, OFS_DIG + WpcKey.DIG_SIZ);                              // Create DIGESTS Response with one Digest
-            res.put((byte)((WpcAthIni.SLOT_MSK << 4) | WpcAthIni.SLOT_MSK));                        // Set Slots Returned Mask
-            res.put(mChn.getDig());                                                                 // Adds Digest
-        } else {                                                                                    // No Slot 0 requested
-            res = WpcAthIni.getMsg(RES_DIG, OFS_DIG);                                               // Create DIGESTS Response with no Digest
-            res.put((byte)(WpcAthIni.SLOT_MSK << 4));                                               // Set Slots Returned Mask
+        final int msk = req[OFS_SLT] & WpcAthIni.SLOT_ALL;                                          // Get the requested slots
+        if ((msk & mMsk) == 0) {                                                                    // No requested slot populated?
             WpcLog.logErr("Requested slot is not available");                                       // Log warning
         }
+        return mDig[msk];                                                                           // Return the precomputed DIGESTS Response
+    }
+
+    /**
+     * Creates the DIGESTS Response for given slots
+     *
+     * @param   msk The Slots Returned Mask
+     * @return  The DIGESTS Response
+     */
+    private @NonNull byte[] getDig(int msk) {
+        final int cnt = Integer.bitCount(msk);                                                      // Get the number of returned Digests
+        final ByteBuffer res = WpcAthIni.getMsg(RES_DIG, OFS_DIG + cnt * WpcKey.DIG_SIZ);           // Create DIGESTS Response with the returned Digests
+        res.put((byte)((mMsk << 4) | msk));                                                         // Set Slots Populated Mask and Slots Returned Mask
+        for (int slt = 0; slt < WpcAthIni.SLOT_CNT; slt++) {                                        // Repeat for all slots
+            if ((msk & (1 << slt)) != 0) {                                                          // Slot returned?
+                res.put(mChn[slt].getDig());                                                        // Adds Digest
+            }
+        }
         return res.array();                                                                         // Return the DIGESTS Response
     }
 
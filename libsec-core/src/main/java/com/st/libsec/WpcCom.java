@@ -1,7 +1,6 @@
 package com.st.libsec;
 
 import android.support.annotation.NonNull;
-import android.support.annotation.StringRes;
 
 import java.io.IOException;
 
@@ -36,16 +35,23 @@ public interface WpcCom {
      * Sends a Qi Authentication Request
      *
      * @param   req The Qi Authentication Request
+     * @param   tim The timeout for the Qi Authentication Response in milliseconds
      * @return  The Qi Authentication Response
-     * @throws  IOException in case of NFC communication errors
+     * @throws  IOException in case of NFC communication errors, an InterruptedIOException when the timeout expired
      */
-    @NonNull byte[] sndMsg(@NonNull byte[] req) throws IOException;
+    @NonNull byte[] sndMsg(@NonNull byte[] req, long tim) throws IOException;
+
+    /**
+     * Returns the maximum length of a Qi Authentication Response which is transferred by one exchange
+     *
+     * @return  The maximum length of a Qi Authentication Response
+     */
+    int getMax();
 
     /**
      * Terminates the Qi Authentication
      *
-     * @param   err The error text
-     * @param   des The error description
+     * @param   end The result of the Qi Authentication
      */
-    void endAuth(final @StringRes int err, final @StringRes int des);
+    void endAuth(final @NonNull AthEnd end);
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Asynchronous Qi Authentication interface
+ * The Qi Authentication Response is delivered to a listener, so no thread is blocked while the remote device answers.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public interface WpcComAsy {
+
+    /** Listener for Qi Authentication Responses */
+    interface ResLst {
+        /**
+         * Called when the Qi Authentication Response was received
+         *
+         * @param   res The Qi Authentication Response
+         */
+        void onRes(@NonNull byte[] res);
+
+        /**
+         * Called when no Qi Authentication Response can be received
+         *
+         * @param   err The communication error
+         */
+        void onErr(@NonNull IOException err);
+    }
+
+    /**
+     * Provides the received WPC Certification chain of the remote device
+     *
+     * @param   chn The WPC Certification Chain
+     */
+    void setChn(@NonNull WpcCrtChn chn);
+
+    /**
+     * Sends a Qi Authentication Request without waiting for the Response
+     * The listener is called exactly once, possibly before the method returns.
+     *
+     * @param   req The Qi Authentication Request
+     * @param   tim The timeout for the Qi Authentication Response in milliseconds, an expired timeout is reported
+     *              to the listener with an InterruptedIOException
+     * @param   lst The listener for the Qi Authentication Response
+     */
+    void sndMsg(@NonNull byte[] req, long tim, @NonNull ResLst lst);
+
+    /**
+     * Returns the maximum length of a Qi Authentication Response which is transferred by one exchange
+     *
+     * @return  The maximum length of a Qi Authentication Response
+     */
+    int getMax();
+
+    /**
+     * Terminates the Qi Authentication
+     *
+     * @param   end The result of the Qi Authentication
+     */
+    void endAuth(final @NonNull AthEnd end);
+}
\ No newline at end of file
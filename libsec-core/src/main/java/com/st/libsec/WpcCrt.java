@@ -1,7 +1,5 @@
 package com.st.libsec;
 
-import android.content.Context;
-import android.content.res.Resources;
 import android.support.annotation.NonNull;
 
 import java.io.File;
@@ -77,8 +75,14 @@ public class WpcCrt extends Certificate {
     /** PTx Product Unit Certificate type */
     public static final byte TYP_TPU = 7;
 
-    /** The app resources */
-    static Resources sRes;
+    /** Directory to emulate Ptx */
+    public static final String DIR_EMU = "emu";
+
+    /** Path name for the Directory to emulate Ptx */
+    static final String PATH_EMU = DIR_EMU + File.separator;
+
+    /** The texts shown to the user */
+    static LibTxt sTxt = LibTxt.DEF;
 
     /** The app data directory */
     public static File sDir;
@@ -111,12 +115,14 @@ public class WpcCrt extends Certificate {
     /**
      * Initialize the WPC certificate class
      *
-     * @param ctx   The app context
+     * @param app   The app data directory
+     * @param dir   The directory of the WPC Root Certificate inside of the app data directory
+     * @param txt   The texts shown to the user
      */
-    public static void init(final @NonNull Context ctx, final @NonNull String dir) {
-        sRes = ctx.getResources();                                                                  // Sets the app resources
+    public static void init(final File app, final @NonNull String dir, final @NonNull LibTxt txt) {
+        sTxt = txt;                                                                                 // Set the texts shown to the user
+        sDir = app;                                                                                 // Set the base app data directory
         try {
-            sDir = ctx.getExternalFilesDir(null);                                                   // Get File the base app data directory
             final byte[] ba = new WpcFil(new File(sDir, dir + FILE_ROOT)).read();                   // Get content of Certificate file
             final @NonNull WpcCrt crt = new WpcCrt(ba, WpcMan.ROOT_MAN);                            // Create Root WPC Certificate
             if (crt.getTyp() != TYP_ROOT) {                                                         // No Root Certificate?
@@ -134,14 +140,22 @@ public class WpcCrt extends Certificate {
             DIG_CA = crt.getDatDig();                                                               // Set the WPC Root Certificate Digest
         } catch (Exception err) {                                                                   // Error occurred during loading WPC root certificate
             Dbg.log("Cannot load Root certificate!", err);                                          // Log error
-            @NonNull BigInteger bi;                                                                 // Large integer for constant initialization
-            bi = new BigInteger("A61F3A7981F1D0B664F8935CD998F4F64D573DA4CC5846F6AF012FEBDA1C8AE1", AppLib.BAS_HEX);
-            DIG_CA = WpcKey.getInt(bi, WpcKey.DIG_SIZ);                                             // Set the WPC Root Certificate Digest for the plugfest
-            bi = new BigInteger("03299CBB09C006946B050957B78C57BE4EF82356D7B18CBFC72FFAEC1C43E58E54", AppLib.BAS_HEX);
-            PUB_CA =  WpcKey.getPubKey(bi.toByteArray());                                           // Set the public key of the WPC Root Certificate for the plugfest
+            init();                                                                                 // Use the WPC Root Certificate of the plugfest
         }
     }
 
+    /**
+     * Initialize the WPC certificate class without app data directory with the WPC Root Certificate of the plugfest
+     * Used by emulators running as separate processes outside of the app.
+     */
+    public static void init() {
+        @NonNull BigInteger bi;                                                                     // Large integer for constant initialization
+        bi = new BigInteger("A61F3A7981F1D0B664F8935CD998F4F64D573DA4CC5846F6AF012FEBDA1C8AE1", AppLib.BAS_HEX);
+        DIG_CA = WpcKey.getInt(bi, WpcKey.DIG_SIZ);                                                 // Set the WPC Root Certificate Digest for the plugfest
+        bi = new BigInteger("03299CBB09C006946B050957B78C57BE4EF82356D7B18CBFC72FFAEC1C43E58E54", AppLib.BAS_HEX);
+        PUB_CA =  WpcKey.getPubKey(bi.toByteArray());                                               // Set the public key of the WPC Root Certificate for the plugfest
+    }
+
     /**
      * Creates a new WPC Certificate using a fixed K value for signature
      * only used by the chkSpec method to verify the example calculation in the Qi Authentication spacification
@@ -503,21 +517,31 @@ public class WpcCrt extends Certificate {
     }
 
     /**
-     * Verifies the signature of the WPC certificate
+     * Checks the signature of the WPC certificate without raising exceptions
      *
      * @param   key Public key to verify the signature in the WPC Certificate
-     * @throws CertificateException In case the Certificate is wrong formatted
-     * @throws InvalidKeyException  In case the algorithm is not available (should never occur)
-     * @throws SignatureException   In case the Signature is incorrect
+     * @return  The verification result
      */
-    @Override public void verify(PublicKey key) throws CertificateException, InvalidKeyException, SignatureException {
+    @NonNull VerRes chkSig(@NonNull PublicKey key) {
         if (mCrt[OFS_VER] != VER_CRT) {                                                             // Wrong WPC Certificate version?
-            throw new CertificateEncodingException("Wrong WPC Certificate version");                // Throw certification error
+            return VerRes.ERR_VER;                                                                  // Report certification error
         }
         int ofs = mCrt[OFS_OFS];                                                                    // Get offset
         byte[] sig = new byte[LEN_SIG];                                                             // Create Signature byte array
         System.arraycopy(mCrt, ofs, sig, 0, LEN_SIG);                                               // Get signature stored in the certificate
-        SafFkt.verSig(getDig(), sig, key);                                                          // Verify signature
+        return SafFkt.chkSig(getDig(), sig, key);                                                   // Check signature
+    }
+
+    /**
+     * Verifies the signature of the WPC certificate
+     *
+     * @param   key Public key to verify the signature in the WPC Certificate
+     * @throws CertificateException In case the Certificate is wrong formatted
+     * @throws InvalidKeyException  In case the algorithm is not available (should never occur)
+     * @throws SignatureException   In case the Signature is incorrect
+     */
+    @Override public void verify(PublicKey key) throws CertificateException, InvalidKeyException, SignatureException {
+        chkSig(key).chk();                                                                          // Verify signature
     }
 
     /**
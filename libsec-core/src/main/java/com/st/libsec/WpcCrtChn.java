@@ -3,7 +3,6 @@ package com.st.libsec;
 import android.support.annotation.NonNull;
 
 import java.nio.ByteBuffer;
-import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.security.SignatureException;
@@ -37,7 +36,12 @@ public class WpcCrtChn {
 
     private static final int    MIN_CRT = 2;                                                        // Minimum number of WPC Certificates inside a Certificate Chain
     private static final int    OFS_LEN = 0;                                                        // Offset of the length field in the Certificate Chain
+
+    /** Offset of the first WPC Certificate in the Certificate Chain */
+    static final int            OFS_CRT = AppLib.SHT_SIZ + WpcKey.DIG_SIZ;
+
     private ByteBuffer          mChn;                                                               // Certificate Chain
+    private byte[]              mDig;                                                               // Cached Digest of the Certificate Chain
 
     /**
      * Create a new WPC Certificate Chain with a given Manufacturer Certificate
@@ -84,6 +88,18 @@ public class WpcCrtChn {
         mChn.put(chn);                                                                              // Copy certification chain
     }
 
+    /**
+     * Create a WPC Certificate Chain which takes over a received byte array and its already calculated Digest
+     * The byte array is not copied and must not be changed afterwards
+     *
+     * @param   chn The byte array of the WPC Certificate Chain
+     * @param   dig The Digest of the WPC Certificate Chain
+     */
+    WpcCrtChn (@NonNull byte[] chn, @NonNull byte[] dig) {
+        mChn = ByteBuffer.wrap(chn);                                                                // Take over the Certification chain
+        mDig = dig;                                                                                 // Register the Digest of the Certificate Chain
+    }
+
     /**
      * Logs the WPC Certificate Chain
      *
@@ -110,6 +126,7 @@ public class WpcCrtChn {
      */
     public void addCrt (@NonNull WpcCrt crt) {
         mChn.put(crt.getEncoded());                                                                 // Add the WPC Certificate to the Certificate Chain
+        mDig = null;                                                                                // Invalidate the cached Digest
         if ((crt.getTyp() & WpcCrt.TYP_RPU) == WpcCrt.TYP_RPU) {                                    // Product Unit Certificate added?
             mChn.putShort(OFS_LEN, (short)mChn.array().length);                                     // Set the length of the Certificate Chain
         }
@@ -130,7 +147,10 @@ public class WpcCrtChn {
      * @return  The digest of the Certificate Chain
      */
     public @NonNull byte[] getDig() {
-        return WpcKey.getDig(mChn.array());                                                         // Return the Digest of the Certificate Chain
+        if (mDig == null) {                                                                         // Digest not yet calculated?
+            mDig = WpcKey.getDig(mChn.array());                                                     // Calculate the Digest of the Certificate Chain
+        }
+        return mDig;                                                                                // Return the Digest of the Certificate Chain
     }
 
     /**
@@ -155,6 +175,23 @@ public class WpcCrtChn {
         return WpcQiId.getName(getPu().getQiId(), mid);                                             // Return the certified Qi charger name
     }
 
+    /**
+     * Checks the Certificate Chain without raising exceptions
+     *
+     * @return  The verification result
+     */
+    public @NonNull VerRes check() {
+        final @NonNull byte[] chn = mChn.array();                                                   // Get the WPC Certificate Chain byte array
+        final @NonNull ChnChk chk = new ChnChk();                                                   // Create the Certificate Chain checker
+        @NonNull VerRes res = chk.hdr(chn, chn.length);                                             // Check the header of the Certificate Chain
+        int ofs = OFS_CRT;                                                                          // Offset of the first WPC Certificate
+        while (res.isOk() && (chk.getCnt() > 0)) {                                                  // Repeat for all WPC Certificates
+            res = chk.crt(chn, ofs);                                                                // Check the WPC Certificate
+            ofs = ofs + WpcCrt.LEN_CRT;                                                             // Goto next WPC Certificate
+        }
+        return res;                                                                                 // Return the verification result
+    }
+
     /**
      * Verifies the Certificate Chain
      *
@@ -163,60 +200,94 @@ public class WpcCrtChn {
      * @throws SignatureException when the signature of a WPC Certificate is not correct
      */
     public void verify() throws CertificateException, InvalidKeyException, SignatureException {
-        mChn.position(0);
-        int len = mChn.getShort() & AppLib.SHT_UNS;                                                 // Get the length of the Certificate chain
-        if ((len != mChn.array().length) || (len < AppLib.SHT_SIZ + WpcKey.DIG_SIZ)) {              // Certificate Chain length inconsistent or too small?
-            WpcLog.logErr("Certificate Chain length is inconsistent or too small!");                // Log error
-            throw new CertificateException();                                                       // Return Certificate error
-        }
-        len = len - AppLib.SHT_SIZ - WpcKey.DIG_SIZ;                                                // Calculate size of stored Certificates
-        if (len % WpcCrt.LEN_CRT != 0) {                                                            // Inconsistent Certificate length
-            WpcLog.logErr("Certificate Chain length is inconsistent!");                             // Log error
-            throw new CertificateException();                                                       // Return Certificate error
-        }
-        len = len / WpcCrt.LEN_CRT;                                                                 // Calculate numbers of remaining Certificates
-        if (len < MIN_CRT) {                                                                        // Not ebnough Certificates stored?
-            WpcLog.logErr("Not enough Certificates in the Certificate Chain!");                     // Log error
-            throw new CertificateException();                                                       // Return Certificate error
+        check().chk();                                                                              // Verify the Certificate Chain
+    }
+
+    /**
+     * Checker for a WPC Certificate Chain which verifies one WPC Certificate after the other
+     * The checker can be used while the WPC Certificate Chain is still received
+     */
+    static class ChnChk {
+
+        private int         mCnt;                                                                   // Number of WPC Certificates still to be checked
+        private byte[]      mId = WpcCrt.getId(WpcCrt.TYP_CRT);                                     // Expected issuer of the next WPC Certificate
+        private int         mMan = WpcMan.ERR_MAN;                                                  // Manufacturer code
+        private PublicKey   mPub = WpcCrt.PUB_CA;                                                   // Public key to verify the next WPC Certificate
+
+        /**
+         * Returns the number of WPC Certificates still to be checked
+         *
+         * @return  The number of WPC Certificates still to be checked
+         */
+        int getCnt() {
+            return mCnt;                                                                            // Return the number of remaining WPC Certificates
         }
-        byte[] dig = new byte[WpcKey.DIG_SIZ];                                                      // Digest of root Certificate
-        mChn.get(dig);                                                                              // Get Digest of root Certificate
-        if (!Arrays.equals(dig, WpcCrt.DIG_CA)) {                                                   // Unknown root certificate
-            WpcLog.logErr("Unkown Root Certificate!");                                              // Log error
-            throw new SignatureException();                                                         // Return Signature error
+
+        /**
+         * Checks the length and the root Certificate Digest of a WPC Certificate Chain
+         *
+         * @param   chn The WPC Certificate Chain containing at least the length and the root Certificate Digest
+         * @param   siz The size of the received WPC Certificate Chain
+         * @return  The verification result
+         */
+        @NonNull VerRes hdr(@NonNull byte[] chn, int siz) {
+            int len = ((chn[OFS_LEN] & AppLib.BYT_UNS) << 8) | (chn[OFS_LEN + 1] & AppLib.BYT_UNS); // Get the length of the Certificate chain
+            if ((len != siz) || (len < OFS_CRT)) {                                                  // Certificate Chain length inconsistent or too small?
+                WpcLog.logErr("Certificate Chain length is inconsistent or too small!");            // Log error
+                return VerRes.ERR_LEN;                                                              // Return Certificate error
+            }
+            len = len - OFS_CRT;                                                                    // Calculate size of stored Certificates
+            if (len % WpcCrt.LEN_CRT != 0) {                                                        // Inconsistent Certificate length
+                WpcLog.logErr("Certificate Chain length is inconsistent!");                         // Log error
+                return VerRes.ERR_LEN;                                                              // Return Certificate error
+            }
+            mCnt = len / WpcCrt.LEN_CRT;                                                            // Calculate numbers of remaining Certificates
+            if (mCnt < MIN_CRT) {                                                                   // Not ebnough Certificates stored?
+                WpcLog.logErr("Not enough Certificates in the Certificate Chain!");                 // Log error
+                return VerRes.ERR_CNT;                                                              // Return Certificate error
+            }
+            final @NonNull byte[] dig = Arrays.copyOfRange(chn, AppLib.SHT_SIZ, OFS_CRT);           // Get Digest of root Certificate
+            if (!Arrays.equals(dig, WpcCrt.DIG_CA)) {                                               // Unknown root certificate
+                WpcLog.logErr("Unkown Root Certificate!");                                          // Log error
+                return VerRes.ERR_ROOT;                                                             // Return Signature error
+            }
+            return VerRes.OK;                                                                       // Return correct header
         }
-        PublicKey pub = WpcCrt.PUB_CA;                                                              // Get the Public Key of the Root Certificate
-        byte[] ba = new byte[WpcCrt.LEN_CRT];                                                       // WPC Certificate
-        byte[] id = WpcCrt.getId(WpcCrt.TYP_CRT);                                                   // Get issuer of root certificate
-        int man = WpcMan.ERR_MAN;                                                                   // Manufacturer code
-        do {
-            mChn.get(ba);                                                                           // Get WPC Certificate
-            WpcCrt crt = new WpcCrt(ba, man);                                                       // Create WPC Certificate object
-            if (man == WpcMan.ERR_MAN) {                                                            // Manufacturer Certificate?
-                man = crt.getMan();                                                                 // Get Manufacturer code
-                if (man == WpcMan.ERR_MAN) {                                                        // No valid manufacturer code found?
+
+        /**
+         * Checks the next WPC Certificate of the WPC Certificate Chain
+         *
+         * @param   chn The WPC Certificate Chain
+         * @param   ofs The offset of the next WPC Certificate in the WPC Certificate Chain
+         * @return  The verification result
+         */
+        @NonNull VerRes crt(@NonNull byte[] chn, int ofs) {
+            final @NonNull WpcCrt crt = new WpcCrt(Arrays.copyOfRange(chn, ofs, ofs + WpcCrt.LEN_CRT), mMan);
+            if (mMan == WpcMan.ERR_MAN) {                                                           // Manufacturer Certificate?
+                mMan = crt.getMan();                                                                // Get Manufacturer code
+                if (mMan == WpcMan.ERR_MAN) {                                                       // No valid manufacturer code found?
                     WpcLog.logErr("No Manufacturer code found in the Manufacturer certificate!");   // Log error
-                    throw new CertificateException();                                               // Return Certificate error
+                    return VerRes.ERR_MAN;                                                          // Return Certificate error
                 }
             }
-            if (!Arrays.equals(id, crt.getIid())) {                                                 // Incorrect Issuer identifier implemented?
+            if (!Arrays.equals(mId, crt.getIid())) {                                                // Incorrect Issuer identifier implemented?
                 WpcLog.logErr("Wrong Issuer identifier!");                                          // Log error
-                throw new CertificateException();                                                   // Return Certificate error
+                return VerRes.ERR_IID;                                                              // Return Certificate error
             }
-            id = crt.getSid();                                                                      // Get Subject identifier for the next certificate
-            try {
-                crt.verify(pub);                                                                    // Verify the WPC Certificate
-            } catch (GeneralSecurityException err) {                                                // Signature error occurred
+            mId = crt.getSid();                                                                     // Get Subject identifier for the next certificate
+            final @NonNull VerRes res = crt.chkSig(mPub);                                           // Check the WPC Certificate
+            if (!res.isOk()) {                                                                      // Signature error occurred?
                 WpcLog.logErr("Wrong Certificate signature!");                                      // Log error
-                throw err;                                                                          // Forward error
+                return res;                                                                         // Forward error
             }
-            int typ = crt.getTyp();                                                                 // Get WPC Certificate type))
-            if (((len > 1) && (typ != WpcCrt.TYP_INT)) || ((len == 1) && (typ != WpcCrt.TYP_TPU))) {// Wrong Certificate type?
+            int typ = crt.getTyp();                                                                 // Get WPC Certificate type
+            if (((mCnt > 1) && (typ != WpcCrt.TYP_INT)) || ((mCnt == 1) && (typ != WpcCrt.TYP_TPU))) {// Wrong Certificate type?
                 WpcLog.logErr("Wrong Certificate type!");                                           // Log error
-                throw new CertificateException();                                                   // Return Certificate error
+                return VerRes.ERR_TYP;                                                              // Return Certificate error
             }
-            pub = crt.getPublicKey();                                                               // Get the public Key of the WPC Certificate
-            len--;                                                                                  // Goto next WPC Certificate
-        } while (len > 0);                                                                          // Repeat for all WPC Certifcates
+            mPub = crt.getPublicKey();                                                              // Get the public Key of the WPC Certificate
+            mCnt--;                                                                                 // Goto next WPC Certificate
+            return VerRes.OK;                                                                       // Return correct WPC Certificate
+        }
     }
 }
\ No newline at end of file
@@ -3,7 +3,10 @@ package com.st.libsec;
 import android.support.annotation.NonNull;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
@@ -26,19 +29,20 @@ import java.io.IOException;
  *
  * @author Jürgen Böhler
  */
-public class WpcFil extends BinFil {
+public class WpcFil {
 
     /** Extension of text files */
     static final String EXT_TXT = ".txt";
 
+    private final @NonNull File mFil;                                                               // File header of the WPC file
     private byte[]  mDat;                                                                           // Data of NFC file
 
     /**
      * Creates a WPC File object
      * @param fil   The WPC File header data
      */
-    public WpcFil(File fil) {
-        super(fil);                                                                                 // Creates a WPC file object
+    public WpcFil(@NonNull File fil) {
+        mFil = fil;                                                                                 // Remember the file header
     }
 
     /**
@@ -47,7 +51,7 @@ public class WpcFil extends BinFil {
      * @param nam   The name of the WPC file
      */
     public WpcFil(File dir, String nam) {
-        super(new File(dir, nam.endsWith(EXT_TXT)? nam : nam + EXT_TXT));                           // Creates a WPC file object
+        this(new File(dir, nam.endsWith(EXT_TXT)? nam : nam + EXT_TXT));                            // Creates a WPC file object
     }
 
     /**
@@ -55,8 +59,8 @@ public class WpcFil extends BinFil {
      * @param fil   The WPC File header data
      * @param dat   The WPC file data
      */
-    public WpcFil(File fil, byte[] dat) {
-        super(fil);                                                                                 // Creates a NFC file object
+    public WpcFil(@NonNull File fil, byte[] dat) {
+        this(fil);                                                                                  // Creates a NFC file object
         mDat = dat;                                                                                 // Remember NFC file data
     }
 
@@ -67,8 +71,35 @@ public class WpcFil extends BinFil {
      * @return The WPC file data
      * @throws IOException in case the WPC file cannot be read
      */
-    @Override public byte[] read() throws IOException {
-        mDat = StrToByt(new String(super.read(), AppLib.CHR_ASC));                                  // Read the WPC file
+    public byte[] read() throws IOException {
+        FileInputStream fis = null;                                                                 // Initialize file input stream
+        final @NonNull byte[] buf = new byte[(int)mFil.length()];                                   // Create data area for the WPC file
+        int ofs = 0;                                                                                // Initialize file offset
+        //noinspection TryFinallyCanBeTryWithResources                                              // Not usable below Android 19
+        try {
+            fis = new FileInputStream(mFil);                                                        // Open WPC file
+            while (ofs < buf.length) {                                                              // Repeat until complete file is read
+                final int len = fis.read(buf, ofs, buf.length - ofs);                               // Read file
+                if (len < 0) {                                                                      // File is shorter than expected?
+                    throw new EOFException();                                                       // Throw end of file exception
+                }
+                ofs = ofs + len;                                                                    // Calculate the offset of the remaining data
+            }
+        } catch (FileNotFoundException err) {                                                       // Error during opening the file
+            Dbg.log("File cannot be opened", err);                                                  // Log error during file opening
+            throw err;                                                                              // Return no file data
+        } catch (IOException err) {                                                                 // IO Error during reading file
+            Dbg.log("Error during reading file", err);                                              // Log error during reading file
+            if (!mFil.delete()) {                                                                   // Deletion of the erroneous file was not successful?
+                Dbg.log("Cannot delete file");                                                      // Log that file deletion was not successful
+            }
+            throw err;                                                                              // Return no data
+        } finally {
+            if (fis != null) {                                                                      // WPC file opened?
+                fis.close();                                                                        // Close WPC file
+            }
+        }
+        mDat = StrToByt(new String(buf, AppLib.CHR_ASC));                                           // Convert the WPC file
         return mDat;                                                                                // Returns the WPC file data
     }
 
@@ -98,7 +129,7 @@ public class WpcFil extends BinFil {
      * @param   str The string to be converted
      * @return  The byte array of the string
      */
-    private byte[] StrToByt(String str) {
+    static byte[] StrToByt(String str) {
         ByteArrayOutputStream bas = new ByteArrayOutputStream();                                    // Byte array stream
         int old = 0;                                                                                // Origin offest
         int ofs = str.indexOf(':');                                                                 // Actual offset
@@ -71,12 +71,17 @@ public class WpcKey {
     static final String EC_DSA = "ECDSA";
 
     private static final KeyFactory       KEY_GEN;                                                  // Key genaerator for ECDSA keys
-    private static final MessageDigest    MSG_DIG;                                                  // Message Digest for SHA-256
+
+    /** Message Digest for SHA-256, one instance per thread as MessageDigest objects are not thread safe */
+    private static final ThreadLocal<MessageDigest> MSG_DIG = new ThreadLocal<MessageDigest>() {
+        @Override protected MessageDigest initialValue() {
+            return newDig();                                                                        // Create message digest algorithm for this thread
+        }
+    };
 
     static {
         try {
             KEY_GEN = KeyFactory.getInstance(EC_DSA, ALG_PRV);                                      // Get key generator
-            MSG_DIG = MessageDigest.getInstance("SHA-256", ALG_PRV);                                // Return message digest algorithm
         } catch (GeneralSecurityException err) {                                                    // Algorithm are not available (should never happen)
             throw new ProviderException("Algorithm is not available!", err);                        // Raise error
         }
@@ -200,7 +205,20 @@ public class WpcKey {
      * @return      The Digest of the given message
      */
     static @NonNull byte[] getDig(final byte[] msg) {
-        return MSG_DIG.digest(msg);                                                                 // Return the digest of message
+        return MSG_DIG.get().digest(msg);                                                           // Return the digest of message
+    }
+
+    /**
+     * Creates a new SHA-256 Message Digest to calculate a Digest incrementally
+     *
+     * @return  The new SHA-256 Message Digest
+     */
+    static @NonNull MessageDigest newDig() {
+        try {
+            return MessageDigest.getInstance("SHA-256", ALG_PRV);                                   // Return message digest algorithm
+        } catch (GeneralSecurityException err) {                                                    // Algorithm are not available (should never happen)
+            throw new ProviderException("Algorithm is not available!", err);                        // Raise error
+        }
     }
 
     /**
@@ -1,23 +1,13 @@
 package com.st.libsec;
 
-import android.content.Context;
-import android.os.Build;
-import android.os.Handler;
-import android.os.Message;
 import android.support.annotation.NonNull;
-import android.support.v4.app.FragmentManager;
-import android.support.v4.app.ListFragment;
-import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListAdapter;
-import android.widget.ListView;
-
-import java.io.File;
+
 import java.nio.BufferUnderflowException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -44,10 +34,11 @@ public class WpcLog {
     /** Tabulator string */
     static final String TAB = "    ";
 
-    private static final String         EXT_LOG = "-Log" + WpcFil.EXT_TXT;                          // Extensions for log files
     private static ArrayList<TimEvt>    sLst;                                                       // List of time events
     private static String               sApp;                                                       // App description
     private static String               sBld;                                                       // Build information
+    private static boolean              sQui;                                                       // Logging switched off
+    private static int                  sRpl;                                                       // Number of running replays, their sessions are not logged
 
     /** Event types */
     public enum EvtTyp {
@@ -65,115 +56,6 @@ public class WpcLog {
         MSG,                                                                                        // Message event time
     }
 
-    /**
-     * Listener for long click events
-     */
-    private static class LngLst implements NameDlg.NameDlgLst, ListView.OnItemLongClickListener {
-
-        private final @NonNull ListFragment mFrg;                                                   // Hosting list fragment
-        private final @NonNull File         mDir;                                                   // Proposed file
-        private final @NonNull String       mName;                                                  // Log file name
-
-        /**
-         * Create the listener for long clicked log list
-         *
-         * @param frg   The hosting list fragment
-         * @param log   The proposed log file
-         */
-        private LngLst(final @NonNull ListFragment frg, final @NonNull File log) {
-            mFrg = frg;                                                                             // Remember the hosting fragment
-            mDir = log.getParentFile();                                                             // Remember the proposed log file
-            mName = log.getName();                                                                  // Remember the log file name
-        }
-
-        /**
-         * Called when the name dialog is closed
-         *
-         * @param name  The entered name
-         */
-        @Override public void onCls(final @NonNull String name) {
-            new LogFile(new File(mDir, name), mFrg).start();                                        // Save the log file
-        }
-
-        /**
-         * Called when a new log file name was entered
-         *
-         * @param name  The entered log file name
-         * @return      true if the log file name name exists already otherwise false
-         */
-        @Override public boolean hasName(final @NonNull String name) {
-            return new File(mDir, name).exists();                                                   // Inform if log file name exists
-        }
-
-        /** Called when the log list was clicked for a long time
-         * Store the log file
-         *
-         * @param parent    Log list view of the log list
-         * @param view      Selected item view (not used here)
-         * @param position  Position of selected item (not used here)
-         * @param id        Identifier of selected item (not used here)
-         * @return          True to indicate that this event was processed
-         */
-        @Override public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-            //noinspection ConstantConditions                                                       // Fragmentmanager will be here always available
-            final @NonNull FragmentManager fm = mFrg.getFragmentManager();                          // Get the Fragment manager
-            final @NonNull String nam = mName + EXT_LOG;                                            // Set full log file name
-            final int pos = mName.length();                                                         // Get the cursor position
-            NameDlg.showDlg(R.string.lib_sav_log, R.string.lib_log_nam, nam, pos, R.string.lib_ovr_log, fm, this);
-            return true;
-        }
-    }
-
-    /**
-     * Thread to generate the WPC log list
-     */
-    private static class LogGen extends Thread implements Handler.Callback {
-
-        private final @NonNull  ListFragment    mFrg;                                               // The list fragment hosting the log list
-        private final @NonNull  Handler         mHnd;                                               // Handler for finished log list
-        private final @NonNull  File            mLog;                                               // Proposed file name
-
-        /**
-         * Initialise thread to generate WPC log list
-         *
-         * @param frg   The list fragment hosting the WPC log list
-         * @param log   The proposed log file
-         */
-        private LogGen(final @NonNull ListFragment frg, final @NonNull File log) {
-            mFrg = frg;                                                                             // Set the list fragment
-            mHnd = new Handler(this);                                                               // Generate the handler for finished log list
-            mLog = log;                                                                             // Set the proposed log file
-        }
-
-        /**
-         * Called when the communication log is received
-         *
-         * @param   msg Handler message with the communication log
-         * @return  true to indicate that this event was processed
-         */
-        @Override public boolean handleMessage(Message msg) {
-            mFrg.setListAdapter((ListAdapter)msg.obj);                                              // Show the communication log
-            mFrg.getListView().setOnItemLongClickListener(new LngLst(mFrg, mLog));
-            return true;                                                                            // Inform that this event was processed
-        }
-
-        /**
-         * Generates the WPC log list
-         */
-        public @Override void run() {
-            final @NonNull ArrayList<String> log = new ArrayList<>();                               // Create logLen event list
-            log.add(sApp);                                                                          // Get app description
-            log.add(sBld);                                                                          // Add build information
-            log.add("Device: " + Build.MANUFACTURER + " " + Build.MODEL);                           // Log device name
-            log.add("Android " + Build.VERSION.RELEASE);                                            // Log Android version
-            log.add(WpcCrt.SPEC_VER);                                                               // Log Qi Authentication specification version
-            @SuppressWarnings("ConstantConditions") final @NonNull Context ctx = mFrg.getContext(); // Get fragment context
-            final ArrayAdapter apt = new ArrayAdapter<>(ctx, R.layout.lib_lst_itm, getlog(log));    // Set list
-            mHnd.sendMessage(mHnd.obtainMessage(0, apt));                                           // Send adapter to the handler
-            sLst = null;                                                                            // Delete actual list
-        }
-    }
-
     /**
      * Time event
      */
@@ -206,12 +88,52 @@ public class WpcLog {
      *
       * @param msg   The message to start the WPC vommunication log
      */
-    public static void begLog(final @NonNull String msg) {
+    public static synchronized void begLog(final @NonNull String msg) {
+        if (sQui || (sRpl > 0)) {                                                                   // Logging switched off or session replayed?
+            return;                                                                                 // Do not start a new log
+        }
         final long tim = System.currentTimeMillis();                                                // Get the actual time stamp
         sLst = new ArrayList<>();                                                                   // Create a new logging list
         sLst.add(new TimEvt(tim, EvtTyp.CMT, msg.getBytes(AppLib.CHR_ISO)));                        // Add the first time event
     }
 
+    /**
+     * Switches the logging of WPC communication off or on
+     * The log records only one Qi Authentication, so it is switched off when many Qi Authentications run concurrently.
+     *
+     * @param   qui True to switch the logging off
+     */
+    public static synchronized void setQui(boolean qui) {
+        sQui = qui;                                                                                 // Register the logging state
+        if (qui) {                                                                                  // Logging switched off?
+            sLst = null;                                                                            // Delete actual list
+        }
+    }
+
+    /**
+     * Starts the replay of a recorded session
+     * The replayed session is not logged, so the actual log is kept unchanged until endRpl() is called.
+     */
+    static synchronized void begRpl() {
+        sRpl++;                                                                                     // Count the running replay
+    }
+
+    /**
+     * Ends the replay of a recorded session
+     */
+    static synchronized void endRpl() {
+        sRpl--;                                                                                     // Count the finished replay
+    }
+
+    /**
+     * Returns the logging state of WPC communication
+     *
+     * @return  True if the logging is switched off
+     */
+    public static synchronized boolean isQui() {
+        return sQui;                                                                                // Return the logging state
+    }
+
     /**
      * Initialize the communication logLen
      *
@@ -225,14 +147,32 @@ public class WpcLog {
 
     /**
      * Log an event
+     * The data are copied as the message buffers are reused by the sessions.
      *
      * @param typ   The time event type
      * @param dat   The data of the time event
      */
-    public static void log(final EvtTyp typ, final @NonNull byte[] dat) {
+    public static synchronized void log(final EvtTyp typ, final @NonNull byte[] dat) {
+        if ((sLst != null) && (sRpl == 0)) {                                                        // Log started and no session replayed?
+            sLst.add(new TimEvt(System.currentTimeMillis(), typ, dat.clone()));                     // Add a new time event
+        }
+    }
+
+    /**
+     * Returns a copy of the Qi Authentication messages of the actual log for a replay
+     *
+     * @return  The logged Requests and Responses with their time stamps, empty if no log was started
+     */
+    static synchronized @NonNull List<SesRpl.Msg> getMsg() {
+        final @NonNull List<SesRpl.Msg> lst = new ArrayList<>();                                    // Logged Qi Authentication messages
         if (sLst != null) {                                                                         // Log started?
-            sLst.add(new TimEvt(System.currentTimeMillis(), typ, dat));                             // Add a new time event
+            for (TimEvt evt : sLst) {                                                               // Repeat for all time events
+                if ((evt.mTyp == EvtTyp.REQ) || (evt.mTyp == EvtTyp.RES)) {                         // Qi Authentication message?
+                    lst.add(new SesRpl.Msg(evt.mTim, evt.mTyp == EvtTyp.REQ, evt.mDat.clone()));    // Add a copy of the message
+                }
+            }
         }
+        return lst;                                                                                 // Return the messages
     }
 
     /**
@@ -254,13 +194,22 @@ public class WpcLog {
     }
 
     /**
-     * Stops the communication log and shows the log at a list fragment
+     * Stops the communication log and returns the log list
      *
-     * @param   frg The List Fragment
-     * @param   log The proposed log file name
+     * @param   env The lines describing the platform which runs the Qi Authentication
+     * @return  The WPC communication log list
      */
-    public static void endLog(final @NonNull ListFragment frg, final @NonNull File log) {
-        new LogGen(frg, log).start();                                                               // Shows the WPC communication log
+    public static synchronized @NonNull ArrayList<String> endLog(final @NonNull String... env) {
+        final @NonNull ArrayList<String> log = new ArrayList<>();                                   // Create log list
+        log.add(sApp);                                                                              // Get app description
+        log.add(sBld);                                                                              // Add build information
+        log.addAll(Arrays.asList(env));                                                             // Log platform description
+        log.add(WpcCrt.SPEC_VER);                                                                   // Log Qi Authentication specification version
+        if (sLst != null) {                                                                         // Log started?
+            getlog(log);                                                                            // Add the logged events
+        }
+        sLst = null;                                                                                // Delete actual list
+        return log;                                                                                 // Return the log list
     }
 
     /**
@@ -433,7 +382,7 @@ public class WpcLog {
         int msk = 0x01;                                                                             // Slot mask
         for (byte cnt = 0; cnt < 4; cnt++) {                                                        // Repeat for all slots
             if ((msk & slt) != 0) {                                                                 // Slot returned?
-                log.add(tab + Dbg.hexStr("Nonce for Slot " + cnt, buf.getArray(16)));               // Log nonce
+                log.add(tab + Dbg.hexStr("Digest for Slot " + cnt, buf.getArray(WpcKey.DIG_SIZ)));  // Log the Digest
             }
             msk = msk << 1;                                                                         // Set next slot mask
         }
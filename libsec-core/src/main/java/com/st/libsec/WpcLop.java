@@ -0,0 +1,174 @@
+package com.st.libsec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory loopback Qi Authentication interface
+ * The Qi Authentication Initiator is connected directly to a Qi Authentication Responder in the same process,
+ * so complete Qi Authentications can be executed without NFC.
+ * The Requests are executed asynchronously on the critical lane of the session executor, so no thread is bound to a
+ * session while it waits for its Response.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class WpcLop implements WpcComAsy {
+
+    private final @NonNull WpcAthRsp        mRsp;                                                   // Qi Authentication Responder
+    private final int                       mMax;                                                   // Maximum length of a Qi Authentication Response
+    private final CountDownLatch            mEnd = new CountDownLatch(1);                           // Signal for the finished Qi Authentication
+    private volatile @Nullable AthEnd       mErr;                                                   // Result of the Qi Authentication
+    private volatile @Nullable WpcCrtChn    mChn;                                                   // WPC Certificate Chain announced by the Initiator
+    private final @Nullable Runnable        mLst;                                                   // Listener for the finished Qi Authentication
+    private volatile int                    mCnt;                                                   // Number of exchanged Qi Authentication messages
+
+    /**
+     * Creates the loopback Qi Authentication interface
+     *
+     * @param   rsp The Qi Authentication Responder of the emulated device
+     * @param   max The maximum length of a Qi Authentication Response
+     */
+    WpcLop(@NonNull WpcAthRsp rsp, int max) {
+        this(rsp, max, null);                                                                       // Create the interface without listener
+    }
+
+    /**
+     * Creates the loopback Qi Authentication interface with a listener for the finished Qi Authentication
+     *
+     * @param   rsp The Qi Authentication Responder of the emulated device
+     * @param   max The maximum length of a Qi Authentication Response
+     * @param   lst The listener called once the Qi Authentication is finished
+     */
+    WpcLop(@NonNull WpcAthRsp rsp, int max, @Nullable Runnable lst) {
+        mRsp = rsp;                                                                                 // Register the Qi Authentication Responder
+        mMax = max;                                                                                 // Register the maximum Response length
+        mLst = lst;                                                                                 // Register the listener
+    }
+
+    /**
+     * Provides the received WPC Certification chain of the remote device
+     *
+     * @param   chn The WPC Certification Chain
+     */
+    @Override public void setChn(@NonNull WpcCrtChn chn) {
+        mChn = chn;                                                                                 // Remember the WPC Certificate Chain
+    }
+
+    /**
+     * Passes the Qi Authentication Request to the Responder on the critical lane
+     *
+     * @param   req The Qi Authentication Request
+     * @param   tim The timeout (not used as the Responder answers immediately)
+     * @param   lst The listener receiving the Qi Authentication Response
+     */
+    @Override public void sndMsg(final @NonNull byte[] req, long tim, final @NonNull ResLst lst) {
+        mCnt++;                                                                                     // Count the exchanged message, the session sends one Request at a time
+        SesExe.crt(new Runnable() {
+            @Override public void run() {
+                final byte[] res;                                                                   // Qi Authentication Response
+                try {
+                    res = xfr(req);                                                                 // Exchange the Qi Authentication Request
+                } catch (IOException err) {                                                         // Wrong framing of the exchange
+                    lst.onErr(err);                                                                 // Report the communication error
+                    return;
+                }
+                if (res == null) {                                                                  // No Response?
+                    lst.onErr(new IOException());                                                   // Report the missing Response
+                } else {
+                    lst.onRes(res);                                                                 // Pass the Qi Authentication Response
+                }
+            }
+        });
+    }
+
+    /**
+     * Exchanges a Qi Authentication Request with the Responder
+     * Subclasses add the framing of a link around the exchange.
+     *
+     * @param   req The Qi Authentication Request
+     * @return  The Qi Authentication Response or null if the Responder does not answer
+     * @throws  IOException in case the framing of the link is wrong
+     */
+    @Nullable byte[] xfr(@NonNull byte[] req) throws IOException {
+        return mRsp.athReq(req);                                                                    // Execute the Qi Authentication Request
+    }
+
+    /**
+     * Returns the maximum length of a Qi Authentication Response
+     *
+     * @return  The maximum length of a Qi Authentication Response
+     */
+    @Override public int getMax() {
+        return mMax;                                                                                // Return the maximum Response length
+    }
+
+    /**
+     * Registers the result of the Qi Authentication
+     *
+     * @param   end The result of the Qi Authentication
+     */
+    @Override public void endAuth(final @NonNull AthEnd end) {
+        mErr = end;                                                                                 // Register the result
+        mEnd.countDown();                                                                           // Signal the finished Qi Authentication
+        if (mLst != null) {                                                                         // Listener registered?
+            mLst.run();                                                                             // Inform the listener
+        }
+    }
+
+    /**
+     * Waits for the end of the Qi Authentication
+     *
+     * @param   tim The maximum waiting time in milliseconds
+     * @return  The result of the Qi Authentication or null if not finished
+     * @throws  InterruptedException in case the waiting was interrupted
+     */
+    @Nullable AthEnd await(long tim) throws InterruptedException {
+        mEnd.await(tim, TimeUnit.MILLISECONDS);                                                     // Wait for the end of the Qi Authentication
+        return mErr;                                                                                // Return the result
+    }
+
+    /**
+     * Returns the result of the Qi Authentication
+     *
+     * @return  The result of the Qi Authentication or null if not finished
+     */
+    @Nullable AthEnd getErr() {
+        return mErr;                                                                                // Return the result
+    }
+
+    /**
+     * Returns the number of exchanged Qi Authentication messages
+     *
+     * @return  The number of exchanged messages
+     */
+    int getCnt() {
+        return mCnt;                                                                                // Return the number of messages
+    }
+
+    /**
+     * Returns the WPC Certificate Chain announced by the Qi Authentication Initiator
+     *
+     * @return  The WPC Certificate Chain or null if the remote device was not authenticated
+     */
+    @Nullable WpcCrtChn getChn() {
+        return mChn;                                                                                // Return the WPC Certificate Chain
+    }
+}
\ No newline at end of file
@@ -64,7 +64,7 @@ class WpcMan {
     static @NonNull String getMan(final int cod) {
         if (sMan == null) {                                                                         // No PTMC table loaded yet?
             sMan = new ArrayList<>();                                                               // Create the PTMC table
-            final @NonNull File fil = new File (WpcCrt.sDir, WpcPtx.PATH_EMU + "ptmc.csv");         // Get the PTMC file
+            final @NonNull File fil = new File (WpcCrt.sDir, WpcCrt.PATH_EMU + "ptmc.csv");         // Get the PTMC file
             String line;                                                                            // One file text line
             try {
                 final @NonNull FileInputStream fis = new FileInputStream(fil);                      // Get the PTMC file
@@ -90,6 +90,6 @@ class WpcMan {
                 break;                                                                              // Terminate the manufacturer search
             }
         }                                                                                           // No Manufacturer code found
-        return WpcCrt.sRes.getString(R.string.qi_ukn_man);                                          // Return no manufacturer code
+        return WpcCrt.sTxt.getTxt(LibTxt.Txt.UKN_MAN);                                              // Return no manufacturer code
     }
 }
\ No newline at end of file
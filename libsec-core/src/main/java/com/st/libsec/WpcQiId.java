@@ -85,8 +85,8 @@ public class WpcQiId {
                 break;                                                                              // Terminate the search
             }
         }
-        final @NonNull String str = WpcCrt.sRes.getString(R.string.qi_chg_qiid) + qiid;             // Get Qi-Id number name
-        return str + WpcCrt.sRes.getString(R.string.lib_from) + WpcMan.getMan(ptmc);                // Return the name of the unknwon certified Qi charger
+        final @NonNull String str = WpcCrt.sTxt.getTxt(LibTxt.Txt.CHG_QIID) + qiid;                 // Get Qi-Id number name
+        return str + WpcCrt.sTxt.getTxt(LibTxt.Txt.FROM) + WpcMan.getMan(ptmc);                     // Return the name of the unknwon certified Qi charger
     }
 
     /**
@@ -95,7 +95,7 @@ public class WpcQiId {
     private static void loadQiId() {
         if (sQiIdTable == null) {                                                                   // Qi ID table not already loaded?
             sQiIdTable = new ArrayList<>();                                                         // Create the Qi ID table
-            final @NonNull File fil = new File (WpcCrt.sDir, WpcPtx.PATH_EMU + "ptx_epp.csv");      // Get the PTMC file
+            final @NonNull File fil = new File (WpcCrt.sDir, WpcCrt.PATH_EMU + "ptx_epp.csv");      // Get the PTMC file
             String line;                                                                            // One file text line
             try {
                 final @NonNull FileInputStream fis = new FileInputStream(fil);                      // Get the Qi ID file
@@ -125,6 +125,6 @@ public class WpcQiId {
      * @return  The name of the certified Qi charger
      */
     @Override public @NonNull String toString() {
-        return mName + WpcCrt.sRes.getString(R.string.lib_from) + mMan;                             // Return the name of the certified Qi charger
+        return mName + WpcCrt.sTxt.getTxt(LibTxt.Txt.FROM) + mMan;                                  // Return the name of the certified Qi charger
     }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+package com.st.libsec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of the APDU codec of the NFC link
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class ApdCodTest {
+
+    private static final int    HDR_LEN = 4;                                                        // Length of the Command APDU header
+    private static final long   TIM_SES = 10000;                                                    // Maximum duration of a session [ms]
+
+    private final ApdCod        mCod = new ApdCod();                                                // Codec under test
+
+    /**
+     * Returns command data with a recognizable content
+     *
+     * @param   len The length of the data
+     * @return  The data
+     */
+    private static byte[] getDat(int len) {
+        final byte[] dat = new byte[len];                                                           // Command data
+        for (int ind = 0; ind < len; ind++) {                                                       // Repeat for all bytes
+            dat[ind] = (byte)(ind * 7 + 1);                                                         // Set the byte
+        }
+        return dat;                                                                                 // Return the data
+    }
+
+    /**
+     * Encodes a Command APDU, decodes its body and checks the command data
+     *
+     * @param   len The length of the command data
+     * @param   le  The expected length of the response data
+     * @param   ext true to force an extended length APDU
+     * @param   siz The expected length of the Command APDU
+     * @param   bdy The expected offset and length of the command data and Le
+     * @throws  IOException in case the Command APDU cannot be decoded
+     */
+    private void chkCmd(int len, int le, boolean ext, int siz, int... bdy) throws IOException {
+        final byte[] dat = getDat(len);                                                             // Command data
+        final byte[] apdu = mCod.cmd(ApdCod.PUT_HD, dat, 0, len, le, ext);                          // Encode the Command APDU
+        assertEquals(siz, apdu.length);
+        assertArrayEquals(ApdCod.PUT_HD, Arrays.copyOf(apdu, HDR_LEN));
+        final int[] res = ApdCod.getBdy(apdu);                                                      // Decode the body
+        assertArrayEquals(bdy, res);
+        assertArrayEquals(dat, Arrays.copyOfRange(apdu, res[ApdCod.BDY_OFS], res[ApdCod.BDY_OFS] + res[ApdCod.BDY_LEN]));
+    }
+
+    /**
+     * Checks that a Command APDU is rejected
+     *
+     * @param   apdu    The Command APDU
+     */
+    private static void chkInv(byte[] apdu) {
+        try {
+            ApdCod.getBdy(apdu);                                                                    // Decode the body
+            fail("Invalid Command APDU accepted");
+        } catch (IOException ignored) {}                                                            // Expected rejection
+    }
+
+    /**
+     * Runs a Qi Authentication through the APDU codec
+     *
+     * @param   one true for one APDU per Qi Authentication message
+     * @param   max The maximum length of a Qi Authentication Response
+     * @return  The result of the Qi Authentication
+     * @throws  InterruptedException in case the waiting was interrupted
+     */
+    private static AthEnd run(boolean one, int max) throws InterruptedException {
+        final ApdLop lop = new ApdLop(new TstDev(1).getRsp(), max, null, new ApdCod(), new ApdCod(), one);
+        SesExe.crt(new WpcAthIni(lop, WpcAthIni.FlwTyp.SMPL, new CachBuf(1)));                      // Start the Qi Authentication
+        return lop.await(TIM_SES);                                                                  // Return the result
+    }
+
+    @Test public void shortApduUpToMaxSht() throws IOException {
+        chkCmd(ApdCod.MAX_SHT, ApdCod.NO_LE, false, HDR_LEN + 1 + ApdCod.MAX_SHT, HDR_LEN + 1, ApdCod.MAX_SHT, ApdCod.NO_LE);
+        chkCmd(1, ApdCod.NO_LE, false, HDR_LEN + 2, HDR_LEN + 1, 1, ApdCod.NO_LE);
+        chkCmd(0, ApdCod.NO_LE, false, HDR_LEN, HDR_LEN, 0, ApdCod.NO_LE);                          // Header only
+    }
+
+    @Test public void extendedApduAboveMaxSht() throws IOException {
+        final int len = ApdCod.MAX_SHT + 1;                                                         // Shortest extended command data
+        chkCmd(len, ApdCod.NO_LE, false, HDR_LEN + 3 + len, HDR_LEN + 3, len, ApdCod.NO_LE);
+        final byte[] apdu = mCod.cmd(ApdCod.PUT_HD, getDat(len), 0, len, ApdCod.NO_LE, false);      // Encode the Command APDU
+        assertArrayEquals(new byte[] {0x00, 0x01, 0x00}, Arrays.copyOfRange(apdu, HDR_LEN, HDR_LEN + 3));// Extended Lc of 256
+    }
+
+    @Test public void extendedApduUpToMaxExt() throws IOException {
+        chkCmd(ApdCod.MAX_EXT, ApdCod.NO_LE, false, HDR_LEN + 3 + ApdCod.MAX_EXT, HDR_LEN + 3, ApdCod.MAX_EXT, ApdCod.NO_LE);
+        chkCmd(ApdCod.MAX_EXT, 0, false, HDR_LEN + 5 + ApdCod.MAX_EXT, HDR_LEN + 3, ApdCod.MAX_EXT, 0);
+        chkCmd(0, ApdCod.MAX_EXT, false, HDR_LEN + 3, HDR_LEN + 3, 0, ApdCod.MAX_EXT);              // Extended Le only
+    }
+
+    @Test public void leAroundMaxSht() throws IOException {
+        chkCmd(0, ApdCod.MAX_SHT, false, HDR_LEN + 1, HDR_LEN, 0, ApdCod.MAX_SHT);
+        chkCmd(0, ApdCod.MAX_SHT + 1, false, HDR_LEN + 1, HDR_LEN, 0, 0);                           // 256 is coded as short Le 0
+        chkCmd(0, ApdCod.MAX_SHT + 2, false, HDR_LEN + 3, HDR_LEN + 3, 0, ApdCod.MAX_SHT + 2);      // 257 requires an extended Le
+        chkCmd(ApdCod.MAX_SHT, 0, false, HDR_LEN + 2 + ApdCod.MAX_SHT, HDR_LEN + 1, ApdCod.MAX_SHT, 0);
+    }
+
+    @Test public void extendedApduCanBeForced() throws IOException {
+        chkCmd(10, ApdCod.NO_LE, true, HDR_LEN + 3 + 10, HDR_LEN + 3, 10, ApdCod.NO_LE);
+        chkCmd(10, 0, true, HDR_LEN + 5 + 10, HDR_LEN + 3, 10, 0);
+        chkCmd(0, ApdCod.NO_LE, true, HDR_LEN, HDR_LEN, 0, ApdCod.NO_LE);                           // Nothing to extend
+    }
+
+    @Test public void invalidCommandApdusAreRejected() {
+        chkInv(new byte[] {0x00, (byte)0xDA, 0x00});                                                // Header too short
+        chkInv(new byte[] {0x00, (byte)0xDA, 0x00, 0x00, 0x03, 0x01, 0x02});                        // Lc larger than the data
+        chkInv(new byte[] {0x00, (byte)0xDA, 0x00, 0x00, 0x01, 0x01, 0x02, 0x03});                  // Data larger than Lc and Le
+        chkInv(new byte[] {0x00, (byte)0xDA, 0x00, 0x00, 0x00, 0x00, 0x02, 0x01});                  // Extended Lc larger than the data
+    }
+
+    @Test public void chainedGetDataAnnouncesTheLength() throws IOException {
+        for (int len = 1; len <= ApdCod.MAX_SHT; len++) {                                           // Repeat for all lengths of a status word
+            final int sw = ApdCod.getSw(mCod.rsp(ApdCod.SW_DAT | len));                             // Announce the message of the PRx
+            assertEquals(ApdCod.SW_DAT, sw & 0xFF00);
+            assertEquals(len, sw & AppLib.BYT_UNS);
+            final byte[] get = mCod.cmd(ApdCod.GET_HD, AppLib.NO_BA, 0, 0, sw & AppLib.BYT_UNS, false);// Request the message
+            assertArrayEquals(new int[] {HDR_LEN, 0, len}, ApdCod.getBdy(get));
+            final byte[] dat = getDat(len);                                                         // Message of the PRx
+            final byte[] rsp = mCod.rsp(dat, 0, len, ApdCod.SW_OK);                                 // Return the message
+            assertEquals(ApdCod.SW_OK, ApdCod.getSw(rsp));
+            assertArrayEquals(dat, Arrays.copyOf(rsp, len));
+            mCod.rst();                                                                             // Reuse the buffers
+        }
+        assertEquals(0, ApdCod.getSw(new byte[] {(byte)0x90}));                                     // Response APDU too small
+    }
+
+    @Test public void chainedGetDataSession() throws InterruptedException {
+        assertSame(AthEnd.OK, run(false, ApdCod.MAX_SHT));                                          // Short APDUs
+        assertSame(AthEnd.OK, run(false, ApdCod.MAX_SHT + 1));                                      // Extended length APDUs
+    }
+
+    @Test public void oneApduPerMessage() throws IOException, InterruptedException {
+        chkCmd(ApdCod.MAX_SHT, 0, false, HDR_LEN + 2 + ApdCod.MAX_SHT, HDR_LEN + 1, ApdCod.MAX_SHT, 0);// PUT DATA with short Le
+        chkCmd(ApdCod.MAX_SHT + 1, 0, false, HDR_LEN + 5 + ApdCod.MAX_SHT + 1, HDR_LEN + 3, ApdCod.MAX_SHT + 1, 0);
+        assertSame(AthEnd.OK, run(true, ApdCod.MAX_SHT));                                           // Short APDUs
+        assertSame(AthEnd.OK, run(true, ApdCod.MAX_EXT));                                           // Extended length APDUs
+    }
+
+    @Test public void buffersAreReusedAfterReset() {
+        final byte[] one = mCod.rsp(ApdCod.SW_OK);                                                  // Allocate a buffer
+        final byte[] two = mCod.rsp(ApdCod.SW_OK);                                                  // The first buffer is still used
+        mCod.rst();                                                                                 // Start a new session
+        assertSame(one, mCod.rsp(ApdCod.SW_OK));
+        assertSame(two, mCod.rsp(ApdCod.SW_OK));
+        assertEquals("APDU codec: 2 buffers used, 0 added to the pool (0 bytes)", mCod.getSta());
+    }
+}
\ No newline at end of file
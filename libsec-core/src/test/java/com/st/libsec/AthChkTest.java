@@ -0,0 +1,102 @@
+package com.st.libsec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests of the checker for CHALLENGE / CHALLENGE_AUTH pairs
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class AthChkTest {
+
+    private WpcCrtChn   mChn;                                                                       // WPC Certificate Chain of the test device
+    private byte[]      mDig;                                                                       // Digest of the WPC Certificate Chain
+    private byte[]      mReq;                                                                       // CHALLENGE Request
+    private byte[]      mRes;                                                                       // CHALLENGE_AUTH Response of the test device
+
+    @Before public void setUp() {
+        final TstDev dev = new TstDev(1);                                                           // Create the test device
+        mChn = dev.getChn();                                                                        // Get the WPC Certificate Chain
+        mDig = mChn.getDig();                                                                       // Get the Digest
+        mReq = WpcAthIni.getAth().array();                                                          // Create the CHALLENGE Request for slot 0
+        mRes = dev.getRsp().athReq(mReq);                                                           // Get the CHALLENGE_AUTH Response
+    }
+
+    @Test public void correctPairIsAccepted() {
+        assertEquals(AthChk.LEN_REQ, mReq.length);
+        assertEquals(AthChk.LEN_RES, mRes.length);
+        assertSame(VerRes.OK, AthChk.chkHdr(mReq, mRes, mDig));
+        assertSame(VerRes.OK, AthChk.chkAth(mDig, mChn.getPu().getPublicKey(), mReq, mRes));
+    }
+
+    @Test public void shortMessagesAreRejected() {
+        assertSame(VerRes.ERR_MSG, AthChk.chkHdr(Arrays.copyOf(mReq, AthChk.LEN_REQ - 1), mRes, mDig));
+        assertSame(VerRes.ERR_MSG, AthChk.chkHdr(mReq, Arrays.copyOf(mRes, 2), mDig));
+    }
+
+    @Test public void wrongMessageTypesAreRejected() {
+        final byte[] req = mReq.clone();                                                            // Copy the CHALLENGE Request
+        req[0] = (byte)(req[0] ^ 0x01);                                                             // Change the message type
+        assertSame(VerRes.ERR_MSG, AthChk.chkHdr(req, mRes, mDig));
+        assertSame(VerRes.ERR_MSG, AthChk.chkHdr(mRes, mReq, mDig));                                // Messages swapped
+        final byte[] res = mRes.clone();                                                            // Copy the CHALLENGE_AUTH Response
+        res[0] = (byte)(res[0] ^ 0x10);                                                             // Change the version
+        assertSame(VerRes.ERR_MSG, AthChk.chkHdr(mReq, res, mDig));
+    }
+
+    @Test public void unpopulatedSlotIsRejected() {
+        final byte[] req = mReq.clone();                                                            // Copy the CHALLENGE Request
+        req[1] = (byte)((req[1] & ~(WpcAthIni.SLOT_CNT - 1)) | 1);                                  // Request slot 1
+        assertSame(VerRes.ERR_SLT, AthChk.chkHdr(req, mRes, mDig));
+        final byte[] res = mRes.clone();                                                            // Copy the CHALLENGE_AUTH Response
+        res[1] = (byte)(res[1] ^ 0x10);                                                             // Change the maximum version
+        assertSame(VerRes.ERR_SLT, AthChk.chkHdr(mReq, res, mDig));
+    }
+
+    @Test public void wrongDigestLsbIsRejected() {
+        final byte[] dig = mDig.clone();                                                            // Copy the Digest
+        dig[dig.length - 1] = (byte)(dig[dig.length - 1] + 1);                                      // Change its LSB
+        assertSame(VerRes.ERR_LSB, AthChk.chkHdr(mReq, mRes, dig));
+    }
+
+    @Test public void wrongSignatureIsRejected() {
+        final byte[] res = mRes.clone();                                                            // Copy the CHALLENGE_AUTH Response
+        res[res.length - 1] = (byte)(res[res.length - 1] ^ 0x01);                                   // Change the signature
+        assertSame(VerRes.OK, AthChk.chkHdr(mReq, res, mDig));                                      // Headers are still correct
+        assertFalse(AthChk.chkAth(mDig, mChn.getPu().getPublicKey(), mReq, res).isOk());
+    }
+
+    @Test public void wrongLengthIsReported() {
+        assertSame(VerRes.ERR_MSG, AthChk.chkAth(mDig, mChn.getPu().getPublicKey(), mReq, Arrays.copyOf(mRes, AthChk.LEN_RES + 1)));
+        assertSame(VerRes.ERR_MSG, AthChk.chkAth(mDig, mChn.getPu().getPublicKey(), mReq, Arrays.copyOf(mRes, 2)));
+        assertSame(VerRes.ERR_MSG, new AthChk(4).chkAth(mChn, Arrays.copyOf(mReq, 2), mRes));
+    }
+
+    @Test public void verifiedChainIsCached() {
+        final AthChk chk = new AthChk(4);                                                           // Create the checker
+        assertSame(VerRes.OK, chk.chkAth(mChn, mReq, mRes));
+        assertSame(VerRes.OK, chk.chkChn(new WpcCrtChn(mChn.getChn())));                            // Same chain received again
+        assertEquals(1, chk.getChk());                                                              // Chain verified once
+    }
+}
\ No newline at end of file
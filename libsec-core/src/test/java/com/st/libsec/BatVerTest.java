@@ -0,0 +1,284 @@
+package com.st.libsec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the batch verifier with worker processes
+ * By default the worker processes use the WPC Root Certificate of the plugfest, so the chains of the test devices are
+ * unknown. A test root is given to the worker processes as WPC Root Certificate file to cover successful verifications.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class BatVerTest {
+
+    private File    mDir;                                                                           // Temporary directory
+    private File    mRot;                                                                           // Directory of the test root
+    private byte[]  mDig;                                                                           // Digest of the test root
+    private WpcCrt  mMan;                                                                           // Manufacturer certificate of the test root
+    private KeyPair mKey;                                                                           // Key pair of the Manufacturer certificate
+
+    @Before public void setUp() throws IOException {
+        mDir = File.createTempFile("batver", "");                                                   // Get a unique name
+        assertTrue(mDir.delete() && mDir.mkdir());                                                  // Create the temporary directory
+        mRot = new File(mDir, "root");                                                              // Directory of the test root
+        assertTrue(mRot.mkdir());                                                                   // Create the directory
+        WpcLog.setQui(true);                                                                        // Suppress the log output
+        final KeyPair root = SafFkt.getPair();                                                      // Create the key pair of the test root
+        final byte[] id = WpcCrt.getId(WpcCrt.TYP_CRT);                                             // Issuer and subject identifier of the test root
+        final WpcCrt crt = new WpcCrt(WpcCrt.TYP_ROOT, 1, id, WpcMan.ROOT_MAN, id, root.getPublic(), root.getPrivate());
+        write(new File(mRot, "WPC_Root" + WpcCrt.EXT_CRT), Dbg.hexStr(crt.getEncoded()));           // Write the WPC Root Certificate file
+        mDig = WpcKey.getDig(crt.getEncoded());                                                     // Get the Digest of the test root
+        mKey = SafFkt.getPair();                                                                    // Create the key pair of the Manufacturer
+        final byte[] sid = WpcCrt.getId(String.format("M:%04X", WpcMan.ACME_MAN));                  // Subject identifier of the Manufacturer certificate
+        mMan = new WpcCrt(WpcCrt.TYP_INT, 1, id, WpcMan.ACME_MAN, sid, mKey.getPublic(), root.getPrivate());
+    }
+
+    @After public void tearDown() {
+        delete(mDir);                                                                               // Remove the temporary directory
+    }
+
+    /**
+     * Deletes a file or a directory with its content
+     *
+     * @param   fil The file or directory
+     */
+    private static void delete(File fil) {
+        final File[] lst = fil.listFiles();                                                         // Get the content of a directory
+        if (lst != null) {                                                                          // Directory?
+            for (File sub : lst) {                                                                  // Repeat for the content
+                delete(sub);                                                                        // Delete the content
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        fil.delete();                                                                               // Delete the file or directory
+    }
+
+    /**
+     * Adds the records of devices of the test root to a corpus
+     *
+     * @param   cnt The number of devices
+     * @param   crp The lines of the corpus
+     * @param   exp The expected lines of the result file
+     */
+    private void addDev(int cnt, List<String> crp, List<String> exp) {
+        for (int qid = 1; qid <= cnt; qid++) {                                                      // Repeat for the devices
+            final KeyPair pair = SafFkt.getPair();                                                  // Create the key pair of the Product Unit
+            final byte[] sid = {0x00, (byte)(qid >> 8), (byte)qid, 0x00, 0x00, 0x00};               // Subject identifier of the Product Unit certificate
+            final WpcCrtChn chn = new WpcCrtChn(mDig, mMan);                                        // Create the WPC Certificate Chain
+            chn.addCrt(new WpcCrt(WpcCrt.TYP_TPU, 1, mMan.getSid(), WpcMan.ACME_MAN, sid, pair.getPublic(), mKey.getPrivate()));
+            final byte[] req = WpcAthIni.getAth().array();                                          // Create a CHALLENGE Request
+            final byte[] res = new WpcAthRsp(chn, pair.getPrivate(), true).athReq(req);             // Get the CHALLENGE_AUTH Response
+            final byte[] sig = res.clone();                                                         // Response with a wrong signature
+            sig[sig.length - 1] = (byte)(sig[sig.length - 1] ^ 0x01);                               // Change the signature
+            final byte[] dig = chn.getChn().clone();                                                // Chain of an unknown root
+            dig[AppLib.SHT_SIZ] = (byte)(dig[AppLib.SHT_SIZ] ^ 0x01);                               // Change the Digest of the root
+            crp.add(CrpRec.format(chn.getChn(), null, null));                                       // Chain only
+            exp.add(crp.size() + " " + VerRes.OK);
+            crp.add(CrpRec.format(chn.getChn(), req, res));                                         // Correct pair
+            exp.add(crp.size() + " " + VerRes.OK);
+            crp.add(CrpRec.format(chn.getChn(), req, sig));                                         // Wrong signature
+            exp.add(crp.size() + " " + VerRes.ERR_SIG);
+            crp.add(CrpRec.format(dig, null, null));                                                // Unknown root
+            exp.add(crp.size() + " " + VerRes.ERR_ROOT);
+            crp.add(CrpRec.format(chn.getChn(), req, Arrays.copyOf(res, 2)));                       // Truncated CHALLENGE_AUTH Response
+            exp.add(crp.size() + " " + VerRes.ERR_MSG);
+        }
+    }
+
+    /**
+     * Returns the launcher of a faulty worker process
+     *
+     * @param   mod The fault of the first started worker process
+     * @return  The launcher command
+     */
+    private List<String> getFlt(String mod) {
+        final String jav = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();// Java runtime
+        return Arrays.asList(jav, "-cp", System.getProperty("java.class.path"), Flt.class.getName(), mDir.getPath(), mod);
+    }
+
+    /**
+     * Faulty worker process which crashes or stalls once after taking its first shard
+     * It is started as launcher of the worker process, so the remaining arguments are the Java command of the worker.
+     */
+    public static class Flt {
+
+        /** Fault of a crashing worker process */
+        static final String MOD_CRS = "crash";
+
+        /** Fault of a stalling worker process */
+        static final String MOD_HNG = "stall";
+
+        /**
+         * Executes the worker process
+         *
+         * @param   arg The directory of the fault marker, the fault and the Java command of the worker
+         * @throws  Exception in case the worker fails
+         */
+        public static void main(String[] arg) throws Exception {
+            final List<String> cmd = Arrays.asList(arg);                                            // Arguments of the launcher
+            if (new File(arg[0], "fault").mkdir()) {                                                // First started worker process?
+                new BufferedReader(new InputStreamReader(System.in, AppLib.CHR_ASC)).readLine();    // Take the first shard
+                if (arg[1].equals(MOD_CRS)) {                                                       // Crash?
+                    System.exit(3);                                                                 // Stop without acknowledge
+                }
+                Thread.sleep(Long.MAX_VALUE);                                                       // Stall until killed
+            }
+            final int ind = cmd.indexOf(BatVer.class.getName());                                    // Get the start of the worker arguments
+            BatVer.main(cmd.subList(ind + 1, cmd.size()).toArray(new String[0]));                   // Run the worker
+        }
+    }
+
+    /**
+     * Writes a file
+     *
+     * @param   fil The file
+     * @param   lin The lines of the file
+     * @throws  IOException in case the file cannot be written
+     */
+    private static void write(File fil, String... lin) throws IOException {
+        final Writer out = new OutputStreamWriter(new FileOutputStream(fil), AppLib.CHR_ASC);       // Create the file
+        try {
+            for (String txt : lin) {                                                                // Repeat for all lines
+                out.write(txt + "\n");                                                              // Add the line
+            }
+        } finally {
+            out.close();                                                                            // Close the file
+        }
+    }
+
+    /**
+     * Reads a file
+     *
+     * @param   fil The file
+     * @return  The lines of the file
+     * @throws  IOException in case the file cannot be read
+     */
+    private static List<String> read(File fil) throws IOException {
+        final List<String> lin = new ArrayList<>();                                                 // Lines of the file
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fil), AppLib.CHR_ASC));
+        try {
+            String txt;                                                                             // Line of the file
+            while ((txt = in.readLine()) != null) {                                                 // Repeat for all lines
+                lin.add(txt);                                                                       // Add the line
+            }
+        } finally {
+            in.close();                                                                             // Close the file
+        }
+        return lin;                                                                                 // Return the lines
+    }
+
+    @Test public void verdictsAreMergedInCorpusOrder() throws IOException {
+        final List<String> crp = new ArrayList<>();                                                 // Lines of the corpus
+        final List<String> exp = new ArrayList<>();                                                 // Expected lines of the result file
+        crp.add("# Corpus of the batch verifier test");                                             // Comment line is skipped
+        for (int qid = 1; qid <= 12; qid++) {                                                       // Repeat for the test devices
+            final byte[] chn = new TstDev(qid).getChn().getChn();                                   // Get the WPC Certificate Chain
+            crp.add(CrpRec.format(chn, null, null));                                                // Add the chain
+            exp.add(crp.size() + " " + VerRes.ERR_ROOT);                                            // Unknown root for the worker processes
+            crp.add(CrpRec.format(Arrays.copyOf(chn, chn.length - 1), null, null));                 // Add the truncated chain
+            exp.add(crp.size() + " " + VerRes.ERR_LEN);
+            crp.add("");                                                                            // Empty line is skipped
+        }
+        crp.add("01:02 03:04");                                                                     // Wrong number of fields
+        exp.add(crp.size() + " " + BatVer.RES_INV);
+        crp.add("0g");                                                                              // Malformed chain
+        exp.add(crp.size() + " " + BatVer.RES_INV);
+        final File fil = new File(mDir, "corpus.txt");                                              // Corpus
+        final File res = new File(mDir, "result.txt");                                              // Result file
+        write(fil, crp.toArray(new String[0]));                                                     // Write the corpus
+        final String rep = new BatVer(fil, res, 2, 5).run();                                        // Verify the corpus with two worker processes
+        assertEquals(exp, read(res));                                                               // Verdicts in the order of the corpus
+        assertTrue(rep, rep.startsWith("Batch verifier: 26 records, 2 processes, 5 shards, 0 crashes, 0 hangs, failed shards []"));
+        assertFalse(new File(res.getPath() + ".shards").exists());                                  // Work directory removed
+    }
+
+    @Test public void emptyCorpusGivesEmptyResult() throws IOException {
+        final File fil = new File(mDir, "corpus.txt");                                              // Corpus
+        final File res = new File(mDir, "result.txt");                                              // Result file
+        write(fil, "# Only comments", "", "   ");                                                   // Write the corpus
+        new BatVer(fil, res, 1, 1).run();                                                           // Verify the corpus
+        assertTrue(read(res).isEmpty());
+        assertFalse(new File(res.getPath() + ".shards").exists());                                  // Work directory removed
+    }
+    @Test public void injectedRootGivesSuccessfulVerdicts() throws IOException {
+        final List<String> crp = new ArrayList<>();                                                 // Lines of the corpus
+        final List<String> exp = new ArrayList<>();                                                 // Expected lines of the result file
+        addDev(6, crp, exp);                                                                        // Add the records of the devices
+        final File fil = new File(mDir, "corpus.txt");                                              // Corpus
+        final File res = new File(mDir, "result.txt");                                              // Result file
+        write(fil, crp.toArray(new String[0]));                                                     // Write the corpus
+        final BatVer ver = new BatVer(fil, res, 2, 4);                                              // Verify the corpus with two worker processes
+        ver.setRot(mRot);                                                                           // Use the test root
+        final String rep = ver.run();
+        assertEquals(exp, read(res));                                                               // Verdicts in the order of the corpus
+        assertTrue(rep, rep.contains("OK=12"));
+    }
+
+    /**
+     * Verifies a corpus with a faulty worker process
+     *
+     * @param   mod The fault of the first started worker process
+     * @return  The report of the verification
+     * @throws  IOException in case the corpus cannot be verified
+     */
+    private String runFlt(String mod) throws IOException {
+        final List<String> crp = new ArrayList<>();                                                 // Lines of the corpus
+        final List<String> exp = new ArrayList<>();                                                 // Expected lines of the result file
+        addDev(8, crp, exp);                                                                        // Add the records of the devices
+        final File fil = new File(mDir, "corpus.txt");                                              // Corpus
+        final File res = new File(mDir, "result.txt");                                              // Result file
+        write(fil, crp.toArray(new String[0]));                                                     // Write the corpus
+        final BatVer ver = new BatVer(fil, res, 2, 6);                                              // Verify the corpus with two worker processes
+        ver.setRot(mRot);                                                                           // Use the test root
+        ver.setLch(getFlt(mod));                                                                    // Start the faulty worker processes
+        ver.setTmo(5000);                                                                           // Kill a stalled worker process soon
+        final String rep = ver.run();
+        assertTrue(new File(mDir, "fault").isDirectory());                                          // Fault happened
+        assertEquals(exp, read(res));                                                               // Exactly one verdict per record
+        assertFalse(new File(res.getPath() + ".shards").exists());                                  // No failed shard
+        return rep;                                                                                 // Return the report
+    }
+
+    @Test public void crashedWorkerGivesOneVerdictPerRecord() throws IOException {
+        final String rep = runFlt(Flt.MOD_CRS);                                                     // Verify with a crashing worker process
+        assertTrue(rep, rep.startsWith("Batch verifier: 40 records, 2 processes, 6 shards, 1 crashes, 0 hangs, failed shards []"));
+    }
+
+    @Test public void stalledWorkerGivesOneVerdictPerRecord() throws IOException {
+        final String rep = runFlt(Flt.MOD_HNG);                                                     // Verify with a stalling worker process
+        assertTrue(rep, rep.startsWith("Batch verifier: 40 records, 2 processes, 6 shards, 1 crashes, 1 hangs, failed shards []"));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.st.libsec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the persistent store of WPC Certificate Chains
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class ChnStoTest {
+
+    private static final int    MAX = 2;                                                            // Number of chains kept by a compaction
+
+    private File    mDir;                                                                           // Temporary directory
+
+    @Before public void setUp() throws IOException {
+        mDir = File.createTempFile("chnsto", "");                                                   // Get a unique name
+        assertTrue(mDir.delete() && mDir.mkdir());                                                  // Create the temporary directory
+    }
+
+    @After public void tearDown() {
+        final File[] lst = mDir.listFiles();                                                        // Get the store files
+        if (lst != null) {                                                                          // Directory available?
+            for (File fil : lst) {                                                                  // Repeat for all store files
+                //noinspection ResultOfMethodCallIgnored
+                fil.delete();                                                                       // Delete the store file
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDir.delete();                                                                              // Delete the temporary directory
+    }
+
+    /**
+     * Stores chains of new test devices and waits until they are appended
+     *
+     * @param   sto The store
+     * @param   cnt The number of chains
+     * @return  The stored chains in storage order
+     * @throws  InterruptedException in case the waiting was interrupted
+     */
+    private static ArrayList<WpcCrtChn> put(ChnSto sto, int cnt) throws InterruptedException {
+        final ArrayList<WpcCrtChn> lst = new ArrayList<>(cnt);                                      // Stored chains
+        for (int ind = 0; ind < cnt; ind++) {                                                       // Repeat for all chains
+            final WpcCrtChn chn = new TstDev(0x3100 + ind).getChn();                                // Create the chain of a test device
+            sto.put(chn);                                                                           // Store the chain
+            lst.add(chn);                                                                           // Register the chain
+        }
+        drain(sto);                                                                                 // Wait for the appends
+        return lst;                                                                                 // Return the stored chains
+    }
+
+    /**
+     * Waits until the background tasks of the store are executed
+     *
+     * @param   sto The store
+     * @throws  InterruptedException in case the waiting was interrupted
+     */
+    private static void drain(ChnSto sto) throws InterruptedException {
+        final CountDownLatch end = new CountDownLatch(1);                                           // Signal for the executed tasks
+        sto.post(new Runnable() {
+            @Override public void run() {
+                end.countDown();                                                                    // All previous tasks executed
+            }
+        });
+        assertTrue(end.await(30, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Overwrites an integer of a store file
+     *
+     * @param   fil The store file
+     * @param   pos The position of the integer, negative positions count from the end of the file
+     * @param   val The new value
+     * @throws  IOException in case the file cannot be written
+     */
+    private static void patch(File fil, long pos, int val) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(fil, "rw");                               // Open the store file
+        try {
+            raf.seek((pos < 0) ? raf.length() + pos : pos);                                         // Goto the integer
+            raf.writeInt(val);                                                                      // Overwrite the integer
+        } finally {
+            raf.close();                                                                            // Close the store file
+        }
+    }
+
+    @Test public void storedChainIsReturned() throws InterruptedException {
+        final ChnSto sto = new ChnSto(mDir, MAX);
+        final WpcCrtChn chn = put(sto, 1).get(0);
+        final WpcCrtChn res = sto.get(chn.getDig());
+        assertNotNull(res);
+        assertArrayEquals(chn.getChn(), res.getChn());
+        assertArrayEquals(chn.getDig(), res.getDig());
+        assertNull(sto.get(new byte[WpcKey.DIG_SIZ]));                                              // Unknown Digest is a miss
+    }
+
+    @Test public void chainsAreReloadedAfterRestart() throws InterruptedException {
+        final ArrayList<WpcCrtChn> lst = put(new ChnSto(mDir, 8), 3);
+        final ChnSto sto = new ChnSto(mDir, 8);                                                     // Store of the restarted app
+        for (WpcCrtChn chn : lst) {
+            final WpcCrtChn res = sto.get(chn.getDig());
+            assertNotNull(res);
+            assertArrayEquals(chn.getChn(), res.getChn());
+        }
+        final ArrayList<WpcCrtChn> rct = sto.getRct(2);
+        assertEquals(2, rct.size());
+        assertArrayEquals(lst.get(1).getDig(), rct.get(0).getDig());                                // Most recent chain is returned last
+        assertArrayEquals(lst.get(2).getDig(), rct.get(1).getDig());
+    }
+
+    @Test public void compactionKeepsRecentChains() throws InterruptedException {
+        final ChnSto sto = new ChnSto(mDir, MAX);
+        final ArrayList<WpcCrtChn> lst = put(sto, 2 * MAX + 1);                                     // One chain more than a compaction allows
+        final long len = new File(mDir, ChnSto.FIL_DAT).length();
+        final ArrayList<WpcCrtChn> rct = new ChnSto(mDir, MAX).getRct(lst.size());
+        assertEquals(MAX, rct.size());
+        for (int ind = 0; ind < MAX; ind++) {
+            assertArrayEquals(lst.get(lst.size() - MAX + ind).getDig(), rct.get(ind).getDig());
+        }
+        assertNull(sto.get(lst.get(0).getDig()));                                                   // Oldest chain is removed
+        put(new ChnSto(mDir, MAX), 1);
+        assertTrue(new File(mDir, ChnSto.FIL_DAT).length() > len);                                  // Compacted files are extended
+    }
+
+    @Test public void truncatedDataFileIsMiss() throws IOException, InterruptedException {
+        final ArrayList<WpcCrtChn> lst = put(new ChnSto(mDir, 8), 2);
+        final RandomAccessFile raf = new RandomAccessFile(new File(mDir, ChnSto.FIL_DAT), "rw");
+        try {
+            raf.setLength(raf.length() - 8);                                                        // Cut the last chain record
+        } finally {
+            raf.close();
+        }
+        final ChnSto sto = new ChnSto(mDir, 8);
+        assertNull(sto.get(lst.get(1).getDig()));
+        assertEquals(0, sto.getRct(2).size());
+    }
+
+    @Test public void corruptedIndexOffsetIsMiss() throws IOException, InterruptedException {
+        final ArrayList<WpcCrtChn> lst = put(new ChnSto(mDir, 8), 2);
+        patch(new File(mDir, ChnSto.FIL_IDX), -4, Integer.MAX_VALUE);                               // Offset of the last index entry beyond the data
+        final ChnSto sto = new ChnSto(mDir, 8);
+        assertNull(sto.get(lst.get(1).getDig()));
+        assertNotNull(sto.get(lst.get(0).getDig()));                                                // Other chains are still found
+    }
+
+    @Test public void corruptedCertificateOffsetIsMiss() throws IOException, InterruptedException {
+        final ArrayList<WpcCrtChn> lst = put(new ChnSto(mDir, 8), 2);
+        patch(new File(mDir, ChnSto.FIL_DAT), -4, -1);                                              // Last Certificate offset of the last chain record
+        final ChnSto sto = new ChnSto(mDir, 8);
+        assertNull(sto.get(lst.get(1).getDig()));
+        assertNotNull(sto.get(lst.get(0).getDig()));
+    }
+
+    @Test public void corruptedHeaderIsMiss() throws IOException, InterruptedException {
+        final ArrayList<WpcCrtChn> lst = put(new ChnSto(mDir, 8), 1);
+        patch(new File(mDir, ChnSto.FIL_DAT), 12, Integer.MAX_VALUE);                               // Committed data length beyond the data file
+        assertNull(new ChnSto(mDir, 8).get(lst.get(0).getDig()));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+package com.st.libsec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the records of a verification corpus
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class CrpRecTest {
+
+    @Test public void emptyAndCommentLinesAreSkipped() {
+        assertNull(CrpRec.parse(1, ""));
+        assertNull(CrpRec.parse(2, "  \t "));
+        assertNull(CrpRec.parse(3, "  # 01:02 03 04"));
+        assertNull(CrpRec.split("# comment"));
+        assertNull(CrpRec.getFld(" # comment"));
+    }
+
+    @Test public void chainRecordHasNoPair() {
+        final CrpRec rec = CrpRec.parse(7, " 01:02:FF ");                                           // Parse a WPC Certificate Chain
+        assertEquals(7, rec.getLin());
+        assertArrayEquals(new byte[] {0x01, 0x02, (byte)0xFF}, rec.getChn());
+        assertNull(rec.getReq());
+        assertNull(rec.getRes());
+    }
+
+    @Test public void formattedRecordsAreParsedAgain() {
+        final byte[] chn = {0x00, 0x10, (byte)0xAB};                                                // WPC Certificate Chain
+        final byte[] req = {0x1B, 0x00};                                                            // CHALLENGE Request
+        final byte[] res = {0x13, 0x11, (byte)0xAB};                                                // CHALLENGE_AUTH Response
+        assertEquals("00:10:AB", CrpRec.format(chn, null, null));
+        assertEquals("00:10:AB 1B:00 13:11:AB", CrpRec.format(chn, req, res));
+        final CrpRec rec = CrpRec.parse(1, CrpRec.format(chn, req, res));                           // Parse the formatted pair
+        assertArrayEquals(chn, rec.getChn());
+        assertArrayEquals(req, rec.getReq());
+        assertArrayEquals(res, rec.getRes());
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void twoFieldsAreRejected() {
+        CrpRec.parse(1, "01:02 03:04");
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void fourFieldsAreRejected() {
+        CrpRec.parse(1, "01 02 03 04");
+    }
+
+    @Test public void fieldsAreSplitAtWhiteSpace() {
+        assertArrayEquals(new Object[] {"01", "02:03", "04"}, CrpRec.split(" 01\t02:03   04 "));
+        assertEquals("ab:cd", CrpRec.getFld("  ab:cd 12 34"));
+        assertEquals("ab", CrpRec.getFld("ab"));
+    }
+
+    @Test public void hexAcceptsBothCasesWithAndWithoutColons() {
+        assertArrayEquals(new byte[] {0x0A, (byte)0xFF, 0x10}, CrpRec.hex("0aFF:10"));
+        assertArrayEquals(new byte[] {0x0A, (byte)0xFF, 0x10}, CrpRec.hex("0a:ff:10"));
+        assertArrayEquals(new byte[0], CrpRec.hex(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void hexRejectsOddNumberOfDigits() {
+        CrpRec.hex("012");
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void hexRejectsSingleDigitBeforeColon() {
+        CrpRec.hex("1:23");
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void hexRejectsOtherCharacters() {
+        CrpRec.hex("0g");
+    }
+
+    @Test public void shardIsStableAndInRange() {
+        for (int ind = 0; ind < 100; ind++) {                                                       // Repeat for different chains
+            final byte[] chn = {(byte)ind, (byte)(ind * 7), 0x55};                                  // WPC Certificate Chain
+            final int shd = CrpRec.getShd(chn, 5);                                                  // Get the shard
+            assertTrue((shd >= 0) && (shd < 5));
+            assertEquals(shd, CrpRec.getShd(chn.clone(), 5));                                       // Same shard for the same chain
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package com.st.libsec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the selector for the adaptive flow
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class FlwSelTest {
+
+    private static final double DLT_LAT = 0.001;                                                    // Tolerance of the estimated latencies [ms]
+
+    @Test public void withoutHistoryPriorsSelectSimpleFlow() {
+        final FlwSel sel = new FlwSel();                                                            // Create the selector without observations
+        assertEquals(60, sel.est(WpcAthIni.FlwTyp.SMPL), DLT_LAT);                                  // Three messages
+        assertEquals(80, sel.est(WpcAthIni.FlwTyp.CACH), DLT_LAT);                                  // Four messages as no device is known
+        assertEquals(120, sel.est(WpcAthIni.FlwTyp.ATH1), DLT_LAT);                                 // Six messages as no device is known
+        assertEquals(0, sel.est(WpcAthIni.FlwTyp.AUTO), DLT_LAT);                                   // No estimation for the adaptive flow
+        assertSame(WpcAthIni.FlwTyp.SMPL, sel.select());
+    }
+
+    @Test public void slowSimpleFlowSelectsCachingFlowForNewDevices() {
+        final FlwSel sel = new FlwSel();                                                            // Create the selector
+        for (int qid = 1; qid <= 4; qid++) {                                                        // Repeat for new devices
+            sel.add(WpcAthIni.FlwTyp.SMPL, false, new TstDev(qid).getChn(), 300);                   // Slow simple flow
+            sel.add(WpcAthIni.FlwTyp.CACH, false, new TstDev(qid + 100).getChn(), 100);             // Fast caching flow
+        }
+        assertEquals(300, sel.est(WpcAthIni.FlwTyp.SMPL), DLT_LAT);
+        assertEquals(100, sel.est(WpcAthIni.FlwTyp.CACH), DLT_LAT);
+        assertSame(WpcAthIni.FlwTyp.CACH, sel.select());
+    }
+
+    @Test public void knownDeviceSelectsChallengeFirstFlow() {
+        final FlwSel sel = new FlwSel();                                                            // Create the selector
+        final WpcCrtChn chn = new TstDev(1).getChn();                                               // The device authenticated again
+        for (int cnt = 0; cnt < 10; cnt++) {                                                        // Repeat the authentication of the device
+            sel.add(WpcAthIni.FlwTyp.ATH1, true, chn, 20);                                          // One message for a cache hit
+        }
+        assertTrue(sel.est(WpcAthIni.FlwTyp.ATH1) < sel.est(WpcAthIni.FlwTyp.CACH));                // Challenge first is the fastest for a cache hit
+        assertTrue(sel.est(WpcAthIni.FlwTyp.ATH1) < sel.est(WpcAthIni.FlwTyp.SMPL));
+        assertSame(WpcAthIni.FlwTyp.ATH1, sel.select());
+    }
+
+    @Test public void summaryReportsCountMeanAndPercentile() {
+        final FlwSel sel = new FlwSel();                                                            // Create the selector
+        assertEquals("Latency summary", sel.getSta());                                              // No latency observed
+        final WpcCrtChn chn = new TstDev(1).getChn();                                               // The authenticated device
+        for (int tim = 1; tim <= 100; tim++) {                                                      // Repeat for the latencies 1 to 100 ms
+            sel.add(WpcAthIni.FlwTyp.SMPL, false, chn, tim);                                        // Add the latency
+        }
+        assertEquals("Latency summary: SMPL 100x, mean 51 ms, p95 95 ms", sel.getSta());
+        sel.add(WpcAthIni.FlwTyp.CACH, true, chn, 40);                                              // Add a cache hit
+        assertEquals("Latency summary: SMPL 100x, mean 51 ms, p95 95 ms; CACH hit 1x, mean 40 ms, p95 40 ms", sel.getSta());
+    }
+
+    @Test public void percentileUsesOnlyRecentLatencies() {
+        final FlwSel sel = new FlwSel();                                                            // Create the selector
+        final WpcCrtChn chn = new TstDev(1).getChn();                                               // The authenticated device
+        for (int cnt = 0; cnt < 200; cnt++) {                                                       // Repeat for old fast authentications
+            sel.add(WpcAthIni.FlwTyp.SMPL, false, chn, 10);                                         // Add a fast latency
+        }
+        for (int cnt = 0; cnt < 10; cnt++) {                                                        // Repeat for recent slow authentications
+            sel.add(WpcAthIni.FlwTyp.SMPL, false, chn, 1000);                                       // Add a slow latency
+        }
+        assertEquals("Latency summary: SMPL 210x, mean 57 ms, p95 1000 ms", sel.getSta());          // Mean over all, percentile over the last 100
+    }
+}
\ No newline at end of file
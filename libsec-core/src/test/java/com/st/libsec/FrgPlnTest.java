@@ -0,0 +1,113 @@
+package com.st.libsec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the planner for the GET_CERTIFICATE fragments
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class FrgPlnTest {
+
+    private static final int    ONE_FRM = 242;                                                      // Fragment length fitting into one RF frame
+    private static final int    CHN_LEN = 1000;                                                     // Length of the planned WPC Certificate Chain
+
+    /**
+     * Teaches a planner a link model
+     *
+     * @param   ovh The overhead of an exchange in microseconds
+     * @param   byt The cost per byte in microseconds
+     * @param   frm The penalty per RF frame of the response in microseconds
+     * @return  The planner
+     */
+    private static FrgPln learn(double ovh, double byt, double frm) {
+        final FrgPln pln = new FrgPln();                                                            // Create the planner
+        for (int res : new int[] {50, 120, 243, 300, 486, 600, 800, 1000}) {                        // Repeat for responses of different lengths
+            final int frg = (res + ONE_FRM) / (ONE_FRM + 1);                                        // Get the RF frames of the response
+            pln.add(4, res, (long)((ovh + byt * (4 + res) + frm * frg) * 1000));                    // Add the exchange
+        }
+        return pln;                                                                                 // Return the planner
+    }
+
+    /**
+     * Returns the sum of the fragment lengths
+     *
+     * @param   frg The lengths of the fragments
+     * @return  The sum of the lengths
+     */
+    private static int sum(int[] frg) {
+        int sum = 0;                                                                                // Sum of the lengths
+        for (int len : frg) {                                                                       // Repeat for all fragments
+            sum = sum + len;                                                                        // Add the length
+        }
+        return sum;                                                                                 // Return the sum
+    }
+
+    @Test public void withoutModelEachFragmentFitsIntoOneFrame() {
+        final FrgPln pln = new FrgPln();                                                            // Create the planner without observations
+        assertEquals(ONE_FRM, pln.first(ApdCod.MAX_EXT));                                           // First fragment is one RF frame
+        final int[] frg = pln.plan(CHN_LEN, ApdCod.MAX_EXT);                                        // Plan the fragments
+        assertEquals(CHN_LEN, sum(frg));                                                            // All bytes are requested
+        assertEquals(5, frg.length);                                                                // Minimum number of RF frames
+        for (int len : frg) {                                                                       // Repeat for all fragments
+            assertTrue(len <= ONE_FRM);                                                             // Fragment fits into one RF frame
+        }
+    }
+
+    @Test public void highOverheadRequestsFewFragments() {
+        final FrgPln pln = learn(20000, 10, 0);                                                     // Link dominated by the overhead of an exchange
+        final int[] frg = pln.plan(CHN_LEN, ApdCod.MAX_EXT);                                        // Plan the fragments
+        assertEquals(1, frg.length);                                                                // One fragment for all bytes
+        assertEquals(CHN_LEN, frg[0]);
+        assertEquals(FrgPln.MIN_CHN, pln.first(ApdCod.MAX_EXT));                                    // First fragment as long as the shortest chain
+    }
+
+    @Test public void plannedFragmentsAreNotSlowerThanOneFramePerFragment() {
+        final double[][] mdl = {{20000, 10, 0}, {1000, 1, 50000}, {500, 40, 2000}};                 // Link models: overhead, cost per byte, frame penalty
+        for (double[] val : mdl) {                                                                  // Repeat for all link models
+            final FrgPln pln = learn(val[0], val[1], val[2]);                                       // Teach the link model
+            final int[] frg = pln.plan(CHN_LEN, ApdCod.MAX_EXT);                                    // Plan the fragments
+            assertEquals(CHN_LEN, sum(frg));                                                        // All bytes are requested
+            final double one = pln.est(new FrgPln().plan(CHN_LEN, ApdCod.MAX_EXT));                 // Estimate the plan without link model
+            assertTrue(pln.est(frg) <= one);                                                        // Planned fragments are not slower
+        }
+    }
+
+    @Test public void fragmentsRespectMaximumResponseLength() {
+        final FrgPln pln = learn(20000, 10, 0);                                                     // Link dominated by the overhead of an exchange
+        final int[] frg = pln.plan(CHN_LEN, 101);                                                   // Plan the fragments for short Responses
+        assertEquals(CHN_LEN, sum(frg));                                                            // All bytes are requested
+        for (int len : frg) {                                                                       // Repeat for all fragments
+            assertTrue(len <= 100);                                                                 // Fragment and Response header fit into the Response
+        }
+        assertEquals(10, frg.length);                                                               // Minimum number of fragments
+    }
+
+    @Test public void fragmentLengthsDifferByAtMostOne() {
+        final int[] frg = learn(1000, 1, 50000).plan(CHN_LEN + 3, ApdCod.MAX_EXT);                  // Plan the fragments
+        int min = Integer.MAX_VALUE;                                                                // Shortest fragment
+        int max = 0;                                                                                // Longest fragment
+        for (int len : frg) {                                                                       // Repeat for all fragments
+            min = Math.min(min, len);                                                               // Register the shortest fragment
+            max = Math.max(max, len);                                                               // Register the longest fragment
+        }
+        assertTrue(max - min <= 1);                                                                 // Bytes are distributed evenly
+    }
+}
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.st.libsec;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the replay of recorded Qi Authentication sessions
+ * The sessions are recorded with the communication log and replayed from the text of the saved log.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class SesRplTest {
+
+    private static final long   TIM_SES = 10000;                                                    // Maximum duration of a session [ms]
+
+    private final TstDev        mDev = new TstDev(1);                                               // Recorded test device
+    private List<SesRpl.Msg>    mMsg;                                                               // Messages of the communication log
+
+    @After public void tearDown() {
+        WpcLog.setQui(true);                                                                        // Suppress the log output of the other tests
+    }
+
+    /**
+     * Records a Qi Authentication with the communication log
+     *
+     * @param   flw The protocol flow
+     * @return  The lines of the saved log
+     * @throws  InterruptedException in case the waiting was interrupted
+     */
+    private List<String> record(WpcAthIni.FlwTyp flw) throws InterruptedException {
+        WpcLog.setQui(false);                                                                       // Switch on the communication log
+        WpcLog.begLog("Recorded Qi Authentication");                                                // Start the log
+        final WpcLop lop = new WpcLop(mDev.getRsp(), ApdCod.MAX_SHT);                               // Connect the Initiator directly with the device
+        SesExe.crt(new WpcAthIni(lop, flw, new CachBuf(1)));                                        // Start the Qi Authentication
+        assertSame(AthEnd.OK, lop.await(TIM_SES));
+        mMsg = WpcLog.getMsg();                                                                     // Get the logged messages
+        return WpcLog.endLog("Test platform");                                                      // Return the saved log
+    }
+
+    /**
+     * Reconstructs the messages of a saved log
+     *
+     * @param   log The lines of the saved log
+     * @return  The reconstructed messages
+     * @throws  IOException in case the log cannot be read
+     */
+    private static List<SesRpl.Msg> parse(List<String> log) throws IOException {
+        final StringBuilder txt = new StringBuilder();                                              // Text of the log file
+        for (String lin : log) {                                                                    // Repeat for all lines
+            txt.append(lin).append('\n');                                                           // Add the line
+        }
+        return SesRpl.parse(new BufferedReader(new StringReader(txt.toString())));                  // Return the messages
+    }
+
+    /**
+     * Removes the signature s of the CHALLENGE_AUTH Response from a saved log
+     *
+     * @param   log The lines of the saved log
+     * @return  The lines with the truncated CHALLENGE_AUTH Response
+     */
+    private static List<String> truncate(List<String> log) {
+        final List<String> res = new ArrayList<>();                                                 // Changed log
+        boolean ath = false;                                                                        // Flag for the lines of the CHALLENGE_AUTH Response
+        for (String lin : log) {                                                                    // Repeat for all lines
+            if ((lin != null) && lin.trim().matches("\\d+ ms  .*")) {                               // Event line?
+                ath = lin.endsWith("CHALLENGE_AUTH response");                                      // Check for the CHALLENGE_AUTH Response
+            }
+            if (!ath || !lin.trim().startsWith("Signature s")) {                                    // Not the removed signature?
+                res.add(lin);                                                                       // Keep the line
+            }
+        }
+        assertTrue(res.size() < log.size());                                                        // Signature removed from the Initiator and Responder logs
+        return res;                                                                                 // Return the changed log
+    }
+
+    @Test public void savedLogGivesTheLoggedMessages() throws IOException, InterruptedException {
+        for (WpcAthIni.FlwTyp flw : new WpcAthIni.FlwTyp[] {WpcAthIni.FlwTyp.SMPL, WpcAthIni.FlwTyp.CACH, WpcAthIni.FlwTyp.ATH1}) {
+            final List<SesRpl.Msg> msg = parse(record(flw));                                        // Reconstruct the messages of the saved log
+            assertEquals(flw.name(), mMsg.size(), msg.size());
+            for (int ind = 0; ind < msg.size(); ind++) {                                            // Repeat for all messages
+                assertEquals(mMsg.get(ind).isReq(), msg.get(ind).isReq());
+                assertArrayEquals(mMsg.get(ind).getDat(), msg.get(ind).getDat());
+            }
+        }
+    }
+
+    @Test public void initiatorReplayOfSavedLog() throws IOException, InterruptedException {
+        for (WpcAthIni.FlwTyp flw : new WpcAthIni.FlwTyp[] {WpcAthIni.FlwTyp.SMPL, WpcAthIni.FlwTyp.ATH1}) {
+            final SesRpl rpl = new SesRpl(parse(record(flw)));                                      // Load the saved log
+            assertSame(AthEnd.OK, rpl.runIni(new CachBuf(1)));                                      // Replay the Responses to a new Initiator
+            final String sta = rpl.getSta();                                                        // Get the description of the replay
+            assertTrue(sta, sta.startsWith("Replay Initiator " + flw.name() + ": " + rpl.getCnt() + " of " + rpl.getCnt()
+                    + " exchanges, " + rpl.getCnt() + " matching, 0 assembled, successful"));
+        }
+    }
+
+    @Test public void responderReplayOfSavedLog() throws IOException, InterruptedException {
+        final SesRpl rpl = new SesRpl(parse(record(WpcAthIni.FlwTyp.SMPL)));                        // Load the saved log
+        assertEquals(0, rpl.runRsp(mDev.getRsp()));                                                 // All Responses match the recording
+        assertTrue(rpl.getSta(), rpl.getSta().startsWith("Replay Responder: " + rpl.getCnt() + " of " + rpl.getCnt()));
+        assertNotEquals(0, rpl.runRsp(new TstDev(2).getRsp()));                                     // Another device differs
+    }
+
+    @Test public void truncatedChallengeAuthIsRejected() throws IOException, InterruptedException {
+        for (WpcAthIni.FlwTyp flw : new WpcAthIni.FlwTyp[] {WpcAthIni.FlwTyp.SMPL, WpcAthIni.FlwTyp.ATH1}) {
+            final SesRpl rpl = new SesRpl(parse(truncate(record(flw))));                            // Load the saved log without a signature part
+            assertSame(AthEnd.ERR_FAK, rpl.runIni(new CachBuf(1)));                                 // Replay the Responses to a new Initiator
+            assertEquals(1, rpl.runRsp(mDev.getRsp()));                                             // Only the CHALLENGE_AUTH Response differs
+        }
+    }
+}
\ No newline at end of file
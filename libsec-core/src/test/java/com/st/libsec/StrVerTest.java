@@ -0,0 +1,143 @@
+package com.st.libsec;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the streaming verifier
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class StrVerTest {
+
+    private static final int    OFS_LSB = 2;                                                        // Offset of the Certificate Chain Hash LSB in the CHALLENGE_AUTH Response
+
+    private final List<String>  mCrp = new ArrayList<>();                                           // Lines of the corpus
+    private final StringBuilder mExp = new StringBuilder();                                         // Expected verdicts
+
+    /**
+     * Adds a line to the corpus
+     *
+     * @param   txt The line
+     * @param   ver The expected verdict or null for an empty or comment line
+     */
+    private void add(String txt, String ver) {
+        mCrp.add(txt);                                                                              // Add the line
+        if (ver != null) {                                                                          // Record?
+            mExp.append(mCrp.size()).append(' ').append(ver).append('\n');                          // Add the expected verdict
+        }
+    }
+
+    /**
+     * Adds the records of test devices to the corpus
+     *
+     * @param   cnt The number of test devices
+     * @param   rep The number of repetitions of the records
+     */
+    private void addDev(int cnt, int rep) {
+        final List<TstDev> dev = new ArrayList<>();                                                 // Test devices
+        for (int qid = 1; qid <= cnt + 1; qid++) {                                                  // Repeat for the test devices and another device
+            dev.add(new TstDev(qid));                                                               // Create the test device
+        }
+        for (int ind = 0; ind < rep; ind++) {                                                       // Repeat the records
+            for (int qid = 0; qid < cnt; qid++) {                                                   // Repeat for the test devices
+                final WpcCrtChn chn = dev.get(qid).getChn();                                        // Get the WPC Certificate Chain
+                final byte[] req = WpcAthIni.getAth().array();                                      // Create a CHALLENGE Request
+                final byte[] res = dev.get(qid).getRsp().athReq(req);                               // Get the CHALLENGE_AUTH Response
+                final byte[] sig = res.clone();                                                     // Response with a wrong signature
+                sig[sig.length - 1] = (byte)(sig[sig.length - 1] ^ 0x01);                           // Change the signature
+                final byte[] lsb = res.clone();                                                     // Response with a wrong Certificate Chain Hash LSB
+                lsb[OFS_LSB] = (byte)(lsb[OFS_LSB] ^ 0x01);                                         // Change the LSB
+                final byte[] oth = dev.get(qid + 1).getRsp().athReq(req);                           // Response of another device
+                oth[OFS_LSB] = res[OFS_LSB];                                                        // Same LSB, so only the signature is wrong
+                add(CrpRec.format(chn.getChn(), null, null), VerRes.OK.name());                     // Chain only
+                add(CrpRec.format(chn.getChn(), req, res), VerRes.OK.name());                       // Correct pair
+                add(CrpRec.format(chn.getChn(), req, sig), VerRes.ERR_SIG.name());                  // Wrong signature
+                add(CrpRec.format(chn.getChn(), req, lsb), VerRes.ERR_LSB.name());                  // Wrong LSB
+                add(CrpRec.format(chn.getChn(), req, oth), VerRes.ERR_SIG.name());                  // Response of another device
+                add("# Comment", null);                                                             // Comment line is skipped
+            }
+        }
+    }
+
+    /**
+     * Verifies the corpus
+     *
+     * @param   thr The number of verification threads
+     * @param   win The maximum number of lines in progress
+     * @param   out The writer of the verdicts
+     * @return  The report of the verification
+     * @throws  IOException in case the corpus cannot be read
+     */
+    private String run(int thr, int win, StringWriter out) throws IOException {
+        final StringBuilder crp = new StringBuilder();                                              // Text of the corpus
+        for (String txt : mCrp) {                                                                   // Repeat for all lines
+            crp.append(txt).append('\n');                                                           // Add the line
+        }
+        return new StrVer(null, thr, win).run(new BufferedReader(new StringReader(crp.toString())), out);
+    }
+
+    @Test(timeout = 60000) public void smallWindowKeepsCorpusOrder() throws IOException {
+        addDev(3, 20);                                                                              // Add many records of few devices
+        final StringWriter out = new StringWriter();                                                // Verdicts
+        final String rep = run(8, 3, out);                                                          // More threads than places in the window
+        assertEquals(mExp.toString(), out.toString());                                              // Verdicts in the order of the corpus
+        assertTrue(rep, rep.startsWith("Streaming verifier: 300 records, 8 threads, window 3, 3 chains parsed"));
+    }
+
+    @Test(timeout = 60000) public void windowOfOneLineKeepsCorpusOrder() throws IOException {
+        addDev(2, 5);                                                                               // Add the records
+        final StringWriter out = new StringWriter();                                                // Verdicts
+        run(4, 1, out);                                                                             // Only one line in progress
+        assertEquals(mExp.toString(), out.toString());                                              // Verdicts in the order of the corpus
+    }
+
+    @Test(timeout = 60000) public void malformedRecordsAreInvalid() throws IOException {
+        addDev(1, 1);                                                                               // Add correct records
+        add("01:02 03:04", BatVer.RES_INV);                                                         // Wrong number of fields
+        add("01 02 03 04", BatVer.RES_INV);
+        add("0g", BatVer.RES_INV);                                                                  // Malformed chain
+        add("", null);                                                                              // Empty line is skipped
+        add(mCrp.get(1).replaceFirst(" [^ ]+$", " 0g"), BatVer.RES_INV);                            // Malformed CHALLENGE_AUTH Response
+        addDev(1, 1);                                                                               // Add further records
+        final StringWriter out = new StringWriter();                                                // Verdicts
+        run(4, 2, out);                                                                             // Verify the corpus
+        assertEquals(mExp.toString(), out.toString());                                              // Verdicts in the order of the corpus
+    }
+
+    @Test(timeout = 60000) public void identicalPairsAreVerifiedOnce() throws IOException {
+        final TstDev dev = new TstDev(1);                                                           // Create the test device
+        final byte[] req = WpcAthIni.getAth().array();                                              // Create a CHALLENGE Request
+        final String txt = CrpRec.format(dev.getChn().getChn(), req, dev.getRsp().athReq(req));     // Correct pair
+        for (int ind = 0; ind < 3; ind++) {                                                         // Repeat the pair
+            add(txt, VerRes.OK.name());                                                             // Add the pair
+        }
+        final StringWriter out = new StringWriter();                                                // Verdicts
+        final String rep = run(1, 4, out);                                                          // Verify the pairs one after the other
+        assertEquals(mExp.toString(), out.toString());
+        assertTrue(rep, rep.startsWith("Streaming verifier: 3 records, 1 threads, window 4, 1 chains parsed, 2 identical pairs"));
+    }
+}
\ No newline at end of file
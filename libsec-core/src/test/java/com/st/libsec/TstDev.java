@@ -0,0 +1,82 @@
+package com.st.libsec;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+
+/**
+ * Test devices with WPC Certificate Chains below a test root
+ * The test root is created once and replaces the root of the Wireless Power Consortium.
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+class TstDev {
+
+    private static PrivateKey   sPrv;                                                               // Private key of the Manufacturer certificate
+    private static WpcCrt       sMan;                                                               // Manufacturer certificate
+
+    private final WpcCrtChn     mChn;                                                               // WPC Certificate Chain of the device
+    private final PrivateKey    mPrv;                                                               // Private key of the Product Unit certificate
+
+    /**
+     * Creates a test device
+     *
+     * @param   qid The Qi-ID of the device
+     */
+    TstDev(int qid) {
+        init();                                                                                     // Create the test root
+        final KeyPair pair = SafFkt.getPair();                                                      // Create the key pair of the Product Unit
+        final byte[] sid = {0x00, (byte)(qid >> 8), (byte)qid, 0x00, 0x00, 0x00};                   // Subject identifier of the Product Unit certificate
+        final WpcCrt pu = new WpcCrt(WpcCrt.TYP_TPU, 1, sMan.getSid(), WpcMan.ACME_MAN, sid, pair.getPublic(), sPrv);
+        mChn = new WpcCrtChn(WpcCrt.DIG_CA, sMan);                                                  // Create the WPC Certificate Chain
+        mChn.addCrt(pu);                                                                            // Add the Product Unit certificate
+        mPrv = pair.getPrivate();                                                                   // Register the private key
+    }
+
+    /**
+     * Creates the test root and the Manufacturer certificate once
+     */
+    static synchronized void init() {
+        if (sMan == null) {                                                                         // Test root not yet created?
+            WpcLog.setQui(true);                                                                    // Suppress the log output
+            final KeyPair root = SafFkt.getPair();                                                  // Create the key pair of the test root
+            WpcCrt.PUB_CA = root.getPublic();                                                       // Use the test root
+            WpcCrt.DIG_CA = WpcKey.getDig(WpcKey.getKeyDat(root.getPublic()));                      // Use any Digest for the test root
+            final KeyPair man = SafFkt.getPair();                                                   // Create the key pair of the Manufacturer
+            final byte[] sid = WpcCrt.getId(String.format("M:%04X", WpcMan.ACME_MAN));              // Subject identifier of the Manufacturer certificate
+            sMan = new WpcCrt(WpcCrt.TYP_INT, 1, WpcCrt.getId(WpcCrt.TYP_CRT), WpcMan.ACME_MAN, sid, man.getPublic(), root.getPrivate());
+            sPrv = man.getPrivate();                                                                // Register the private key of the Manufacturer
+        }
+    }
+
+    /**
+     * Returns the WPC Certificate Chain of the device
+     *
+     * @return  The WPC Certificate Chain
+     */
+    WpcCrtChn getChn() {
+        return mChn;                                                                                // Return the WPC Certificate Chain
+    }
+
+    /**
+     * Creates a WPC Authentication Responder for the device
+     *
+     * @return  The WPC Authentication Responder using slot 0
+     */
+    WpcAthRsp getRsp() {
+        return new WpcAthRsp(mChn, mPrv, true);                                                     // Create the Responder
+    }
+}
\ No newline at end of file
@@ -0,0 +1,272 @@
+package com.st.libsec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the verification daemon with test stations connected by TCP
+ *
+ * Copyright 2019 STMicroelectronics Application GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * @author Jürgen Böhler
+ */
+public class VerDmnTest {
+
+    private static final int    MAX_PND = 256;                                                      // Maximum number of pending requests per connection of the daemon
+    private static final int    LEN_VER = VerDmn.HDR_REQ + 4;                                       // Length of a verdict with latency
+    private static final Pattern MAX_PAT = Pattern.compile("queue max (\\d+)");                     // Maximum queue size in the statistics
+
+    private final TstDev        mDev = new TstDev(1);                                               // Test device
+    private final byte[]        mChl = WpcAthIni.getAth().array();                                  // CHALLENGE Request
+    private final byte[]        mAth = mDev.getRsp().athReq(mChl);                                  // CHALLENGE_AUTH Response
+    private int                 mPrt;                                                               // TCP port of the daemon
+    private VerDmn              mDmn;                                                               // Daemon under test
+    private Thread              mThr;                                                               // Thread of the selector loop
+    private Socket              mSck;                                                               // Connection of the test station
+
+    @Before public void setUp() throws IOException {
+        final ServerSocket srv = new ServerSocket(0);                                               // Find a free port
+        mPrt = srv.getLocalPort();
+        srv.close();
+    }
+
+    @After public void tearDown() throws IOException, InterruptedException {
+        if (mSck != null) {                                                                         // Station connected?
+            mSck.close();                                                                           // Close the connection
+        }
+        if (mDmn != null) {                                                                         // Daemon started?
+            mDmn.close();                                                                           // Stop the daemon
+            mThr.join();                                                                            // Wait for the end of the selector loop
+        }
+    }
+
+    /**
+     * Starts the daemon and connects the test station
+     *
+     * @param   wrk The number of workers
+     * @param   que The maximum number of queued requests
+     * @throws  IOException in case the daemon cannot be started
+     */
+    private void start(int wrk, int que) throws IOException {
+        mDmn = new VerDmn(SckCom.PFX_TCP + mPrt, wrk, que);                                         // Bind the port
+        mThr = new Thread(mDmn, "VerDmn");                                                          // Execute the selector loop
+        mThr.start();
+        mSck = connect();                                                                           // Connect the test station
+    }
+
+    /**
+     * Connects a test station to the daemon
+     *
+     * @return  The connection
+     * @throws  IOException in case the connection failed
+     */
+    private Socket connect() throws IOException {
+        final Socket sck = new Socket(InetAddress.getByName(null), mPrt);                           // Connect to the daemon
+        sck.setTcpNoDelay(true);                                                                    // Send small writes immediately
+        return sck;                                                                                 // Return the connection
+    }
+
+    /**
+     * Returns a length prefixed request
+     *
+     * @param   id  The identifier
+     * @param   typ The request type
+     * @param   dat The data of the request
+     * @return  The frame of the request
+     */
+    private static byte[] req(int id, int typ, byte[] dat) {
+        final ByteBuffer buf = ByteBuffer.allocate(AppLib.SHT_SIZ + VerDmn.HDR_REQ + dat.length);   // Create the frame
+        buf.putShort((short)(VerDmn.HDR_REQ + dat.length)).putInt(id).put((byte)typ).put(dat);      // Add length, header and data
+        return buf.array();                                                                         // Return the frame
+    }
+
+    /**
+     * Returns the data of a CHALLENGE / CHALLENGE_AUTH pair request
+     *
+     * @param   chn The WPC Certificate Chain
+     * @param   req The CHALLENGE Request
+     * @param   res The CHALLENGE_AUTH Response
+     * @return  The data of the request
+     */
+    private static byte[] ath(byte[] chn, byte[] req, byte[] res) {
+        final ByteBuffer buf = ByteBuffer.allocate(AppLib.SHT_SIZ + chn.length + req.length + res.length);
+        buf.putShort((short)chn.length).put(chn).put(req).put(res);                                 // Add the chain and the pair
+        return buf.array();                                                                         // Return the data
+    }
+
+    /**
+     * Reads the verdicts of the daemon
+     *
+     * @param   cnt The number of verdicts
+     * @return  The verdicts by their identifier
+     * @throws  IOException in case a verdict cannot be read
+     */
+    private Map<Integer, byte[]> read(int cnt) throws IOException {
+        final DataInputStream in = new DataInputStream(mSck.getInputStream());                      // Get the received verdicts
+        final Map<Integer, byte[]> ver = new HashMap<>();                                           // Verdicts by identifier
+        for (int ind = 0; ind < cnt; ind++) {                                                       // Repeat for all verdicts
+            final byte[] frm = new byte[in.readUnsignedShort()];                                    // Get the length of the verdict
+            in.readFully(frm);                                                                      // Get the verdict
+            assertNull("Second verdict", ver.put(ByteBuffer.wrap(frm).getInt(), frm));              // Exactly one verdict per request
+        }
+        return ver;                                                                                 // Return the verdicts
+    }
+
+    /**
+     * Returns the result of a verdict
+     *
+     * @param   frm The verdict
+     * @return  The result
+     */
+    private static int getRes(byte[] frm) {
+        return frm[VerDmn.HDR_REQ - 1] & AppLib.BYT_UNS;                                            // Return the result
+    }
+
+    /**
+     * Returns the statistics of the daemon
+     *
+     * @param   id  The identifier of the statistics request
+     * @return  The statistics text
+     * @throws  IOException in case the statistics cannot be read
+     */
+    private String getSta(int id) throws IOException {
+        mSck.getOutputStream().write(req(id, VerDmn.TYP_STA, new byte[0]));                         // Request the statistics
+        final byte[] frm = read(1).get(id);                                                         // Get the verdict
+        assertEquals(VerRes.OK.ordinal(), getRes(frm));
+        return new String(frm, VerDmn.HDR_REQ, frm.length - VerDmn.HDR_REQ, AppLib.CHR_ISO);        // Return the statistics text
+    }
+
+    /**
+     * Sends requests of CHALLENGE / CHALLENGE_AUTH pairs as one burst
+     *
+     * @param   out The output stream of the station
+     * @param   cnt The number of requests
+     * @throws  IOException in case the requests cannot be sent
+     */
+    private void burst(OutputStream out, int cnt) throws IOException {
+        final byte[] frm = req(0, VerDmn.TYP_ATH, ath(mDev.getChn().getChn(), mChl, mAth));         // Request with identifier 0
+        final ByteBuffer buf = ByteBuffer.allocate(cnt * frm.length);                               // All requests
+        for (int id = 0; id < cnt; id++) {                                                          // Repeat for all requests
+            buf.put(frm).putInt(buf.position() - frm.length + AppLib.SHT_SIZ, id);                  // Add the request with its identifier
+        }
+        out.write(buf.array());                                                                     // Send the burst
+        out.flush();
+    }
+
+    @Test(timeout = 60000) public void lengthPrefixedFramesInPieces() throws IOException {
+        start(1, 16);                                                                               // Start the daemon
+        final byte[] chn = mDev.getChn().getChn();                                                  // WPC Certificate Chain
+        final byte[] sig = mAth.clone();                                                            // Response with a wrong signature
+        sig[sig.length - 1] = (byte)(sig[sig.length - 1] ^ 0x01);                                   // Change the signature
+        final byte[][] req = {
+                req(1, VerDmn.TYP_CHN, chn),                                                        // Correct chain
+                req(2, VerDmn.TYP_ATH, ath(chn, mChl, mAth)),                                       // Correct pair
+                req(3, VerDmn.TYP_ATH, ath(chn, mChl, sig)),                                        // Wrong signature
+                req(4, VerDmn.TYP_ATH, ath(chn, mChl, Arrays.copyOf(mAth, 2))),                     // Truncated CHALLENGE_AUTH Response
+                req(5, VerDmn.TYP_CHN, Arrays.copyOf(chn, chn.length - 1)),                         // Truncated chain
+                req(6, 0x7F, chn)};                                                                 // Unknown request type
+        final int[] res = {VerRes.OK.ordinal(), VerRes.OK.ordinal(), VerRes.ERR_SIG.ordinal(), VerDmn.RES_INV,
+                VerRes.ERR_LEN.ordinal(), VerDmn.RES_INV};                                          // Expected results
+        final DataOutputStream out = new DataOutputStream(mSck.getOutputStream());                  // Send the requests
+        for (byte[] frm : req) {                                                                    // Repeat for all requests
+            out.write(frm, 0, 1);                                                                   // Send the length field in two pieces
+            out.flush();
+            out.write(frm, 1, 4);                                                                   // Send the rest of the length field and a part of the identifier
+            out.flush();
+            out.write(frm, 5, frm.length - 5);                                                      // Send the rest of the request
+            out.flush();
+        }
+        final Map<Integer, byte[]> ver = read(req.length);                                          // Get the verdicts
+        for (int id = 1; id <= req.length; id++) {                                                  // Repeat for all requests
+            assertEquals(LEN_VER, ver.get(id).length);
+            assertEquals("Request " + id, res[id - 1], getRes(ver.get(id)));
+        }
+        final String sta = getSta(7);                                                               // Get the statistics
+        assertTrue(sta, sta.startsWith("Verification daemon: 6 requests, 2 successful, 2 failed, 2 invalid, 0 busy"));
+    }
+
+    @Test(timeout = 60000) public void shortFrameClosesTheConnection() throws IOException {
+        start(1, 16);                                                                               // Start the daemon
+        mSck.getOutputStream().write(new byte[] {0x00, 0x03, 0x00, 0x00, 0x01});                    // Frame shorter than the request header
+        assertEquals(-1, mSck.getInputStream().read());                                             // Connection closed
+        mSck.close();
+        mSck = connect();                                                                           // Further stations are served
+        assertTrue(getSta(1).startsWith("Verification daemon: 0 requests"));
+    }
+
+    @Test(timeout = 60000) public void fullQueueAnswersBusy() throws IOException {
+        start(1, 1);                                                                                // Start the daemon with a queue of one request
+        final int cnt = 200;                                                                        // Number of requests
+        burst(mSck.getOutputStream(), cnt);                                                         // Send the requests faster than they are verified
+        int bsy = 0;                                                                                // Number of requests not admitted
+        for (byte[] frm : read(cnt).values()) {                                                     // Repeat for all verdicts
+            final int res = getRes(frm);                                                            // Get the result
+            assertTrue("Result " + res, (res == VerRes.OK.ordinal()) || (res == VerDmn.RES_BSY));
+            bsy = bsy + ((res == VerDmn.RES_BSY) ? 1 : 0);                                          // Count the request not admitted
+        }
+        assertTrue(bsy > 0);
+        final String sta = getSta(cnt);                                                             // Get the statistics
+        assertTrue(sta, sta.startsWith("Verification daemon: " + (cnt - bsy) + " requests, " + (cnt - bsy)
+                + " successful, 0 failed, 0 invalid, " + bsy + " busy"));
+    }
+
+    @Test(timeout = 60000) public void pendingLimitSlowsTheStation() throws IOException, InterruptedException {
+        start(1, MAX_PND + 44);                                                                     // Start the daemon with a queue above the limit
+        final int cnt = 1000;                                                                       // Number of requests
+        final IOException[] err = new IOException[1];                                               // Error of the sender
+        final OutputStream out = mSck.getOutputStream();                                            // Output stream of the station
+        final Thread snd = new Thread(new Runnable() {
+            @Override public void run() {
+                try {
+                    burst(out, cnt);                                                                // Send the requests, the socket blocks at the limit
+                } catch (IOException exc) {                                                         // Requests cannot be sent
+                    err[0] = exc;                                                                   // Register the error
+                }
+            }
+        });
+        snd.start();                                                                                // Send the requests
+        final Map<Integer, byte[]> ver = read(cnt);                                                 // Get the verdicts while sending
+        snd.join();
+        assertNull(err[0]);
+        for (byte[] frm : ver.values()) {                                                           // Repeat for all verdicts
+            assertEquals(VerRes.OK.ordinal(), getRes(frm));                                         // No request answered as busy
+        }
+        final String sta = getSta(cnt);                                                             // Get the statistics
+        final Matcher max = MAX_PAT.matcher(sta);                                                   // Get the maximum queue size
+        assertTrue(sta, max.find());
+        assertTrue(sta, Integer.parseInt(max.group(1)) <= MAX_PND);                                 // Queue filled only up to the limit
+        assertFalse(sta, sta.contains(" 0 requests"));
+    }
+}
\ No newline at end of file